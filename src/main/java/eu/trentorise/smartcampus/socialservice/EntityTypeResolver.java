@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+import eu.trentorise.smartcampus.social.model.EntityType;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+
+/**
+ * Resolves the entity type of a concept, creating it when missing, for
+ * {@link SocialService#getOrCreateEntityType(String, String)}.
+ *
+ * A single resolution per concept runs at a time and the callers arriving
+ * meanwhile wait for it, so concurrent callers do not create the same type
+ * twice. The waiting callers give up when their {@link CallContext} is done
+ * or they are interrupted. Resolved types are cached per token, as are for a
+ * short time the concepts whose type could not be created.
+ */
+final class EntityTypeResolver {
+
+	static final int MAX_ENTRIES = 1024;
+	/** types are never deleted, they are kept until evicted or expired */
+	static final long TTL = 60 * 60 * 1000;
+	static final long NEGATIVE_TTL = 30 * 1000;
+
+	private final SocialService socialService;
+	private final Object lock = new Object();
+	private final Map<String, Flight> flights = new HashMap<String, Flight>();
+	private final LinkedHashMap<String, Resolved> resolved = new LinkedHashMap<String, Resolved>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Resolved> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	EntityTypeResolver(SocialService socialService) {
+		this.socialService = socialService;
+	}
+
+	EntityType resolve(String token, String conceptId) throws SecurityException,
+			SocialServiceException {
+		String fingerprint = TokenFingerprint.of(token);
+		String key = fingerprint + '\n' + conceptId;
+		while (true) {
+			Flight flight;
+			boolean leader = false;
+			synchronized (lock) {
+				Resolved cached = resolved.get(key);
+				if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+					return cached.type;
+				}
+				flight = flights.get(conceptId);
+				if (flight == null) {
+					flight = new Flight(fingerprint);
+					flights.put(conceptId, flight);
+					leader = true;
+				}
+			}
+			if (leader) {
+				return lead(flight, key, token, conceptId);
+			}
+			if (flight.await(fingerprint)) {
+				return flight.result();
+			}
+			// resolved with another token, the type is read again with ours
+		}
+	}
+
+	private EntityType lead(Flight flight, String key, String token, String conceptId)
+			throws SocialServiceException {
+		EntityType type = null;
+		Exception failure = null;
+		try {
+			type = socialService.getEntityTypeByConceptId(token, conceptId);
+			if (type == null) {
+				type = socialService.createEntityType(token, conceptId);
+			}
+			return type;
+		} catch (SocialServiceException e) {
+			failure = e;
+			throw e;
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} finally {
+			synchronized (lock) {
+				if (failure == null) {
+					resolved.put(key, new Resolved(type, System.currentTimeMillis()
+							+ (type == null ? NEGATIVE_TTL : TTL)));
+				}
+				flights.remove(conceptId);
+			}
+			flight.complete(type, failure);
+		}
+	}
+
+	/**
+	 * resolution in progress
+	 */
+	private static final class Flight {
+		/** fingerprint of the token of the resolution */
+		private final String fingerprint;
+		private boolean done;
+		private EntityType type;
+		private Exception failure;
+
+		Flight(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		synchronized void complete(EntityType type, Exception failure) {
+			this.type = type;
+			this.failure = failure;
+			this.done = true;
+			notifyAll();
+		}
+
+		/**
+		 * waits for the resolution, within the deadline of the current
+		 * context
+		 *
+		 * @return true if it was done with the token of the given fingerprint
+		 * @throws SocialServiceException
+		 *             if the context is done or the thread interrupted first
+		 */
+		boolean await(String fingerprint) throws SocialServiceException {
+			CallContext context = CallContext.current();
+			Runnable wakeUp = null;
+			if (context != null) {
+				wakeUp = new Runnable() {
+					@Override
+					public void run() {
+						synchronized (Flight.this) {
+							Flight.this.notifyAll();
+						}
+					}
+				};
+				context.addListener(wakeUp);
+			}
+			try {
+				synchronized (this) {
+					while (!done) {
+						if (context != null && context.isDone()) {
+							throw new SocialServiceException(context.aborted(null));
+						}
+						long timeout = context == null ? 0 : context.remainingMillis();
+						try {
+							wait(timeout == Long.MAX_VALUE ? 0 : timeout);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new SocialServiceException(new RemoteException(
+									"Interrupted waiting for the entity type"));
+						}
+					}
+					return this.fingerprint.equals(fingerprint);
+				}
+			} finally {
+				if (wakeUp != null) {
+					context.removeListener(wakeUp);
+				}
+			}
+		}
+
+		synchronized EntityType result() throws SocialServiceException {
+			if (failure instanceof SocialServiceException) {
+				throw new SocialServiceException(failure.getMessage(), failure);
+			}
+			if (failure != null) {
+				throw (RuntimeException) failure;
+			}
+			return type;
+		}
+	}
+
+	private static final class Resolved {
+		final EntityType type;
+		final long expiresAt;
+
+		Resolved(EntityType type, long expiresAt) {
+			this.type = type;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.UUID;
+
+/**
+ * Key identifying a create call across its retries, attached to the thread
+ * while the call is made, e.g.
+ * 
+ * <pre>
+ * IdempotencyKey previous = IdempotencyKey.of(item.getId()).attach();
+ * try {
+ * 	socialService.createUserEntity(token, entity);
+ * } finally {
+ * 	IdempotencyKey.restore(previous);
+ * }
+ * </pre>
+ * 
+ * Calling the create again with the same key returns the outcome of the
+ * first successful call, if the client still remembers it, and otherwise
+ * sends the request again with the same key, so that a service honouring
+ * the key does not create the object twice. Use a key for a single create:
+ * the creates made with the same key, operation and path share the outcome.
+ * 
+ * Creates made without a key get a new one, kept across the retries of
+ * {@link SocialService#setCreateRetries(int)}.
+ */
+public final class IdempotencyKey {
+
+	private static final ThreadLocal<IdempotencyKey> current = new ThreadLocal<IdempotencyKey>();
+
+	private final String value;
+
+	private IdempotencyKey(String value) {
+		this.value = value;
+	}
+
+	/**
+	 * @param value
+	 *            a value unique to the object to create, e.g. the id of its
+	 *            source record
+	 * @return the key
+	 */
+	public static IdempotencyKey of(String value) {
+		if (value == null || value.length() == 0) {
+			throw new IllegalArgumentException("Empty idempotency key");
+		}
+		return new IdempotencyKey(value);
+	}
+
+	/**
+	 * @return a new random key
+	 */
+	public static IdempotencyKey random() {
+		return new IdempotencyKey(UUID.randomUUID().toString());
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the key attached to the current thread, or null
+	 */
+	public static IdempotencyKey current() {
+		return current.get();
+	}
+
+	/**
+	 * attaches the key to the current thread
+	 * 
+	 * @return the previous key, to be restored with
+	 *         {@link #restore(IdempotencyKey)}
+	 */
+	public IdempotencyKey attach() {
+		IdempotencyKey previous = current.get();
+		current.set(this);
+		return previous;
+	}
+
+	/**
+	 * restores the key replaced by {@link #attach()}
+	 */
+	public static void restore(IdempotencyKey previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+/**
+ * Listing exceeding a {@link ListingLimits} limit in
+ * {@link ListingLimits.Mode#FAIL} mode
+ */
+public class ListingLimitException extends SocialServiceException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean bytes;
+	private final long limit;
+
+	public ListingLimitException(String message, boolean bytes, long limit,
+			Throwable cause) {
+		super(message, cause);
+		this.bytes = bytes;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return true if the byte limit was exceeded, false if the entity limit
+	 */
+	public boolean isBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the exceeded limit
+	 */
+	public long getLimit() {
+		return limit;
+	}
+}
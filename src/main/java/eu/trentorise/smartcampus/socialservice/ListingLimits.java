@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+/**
+ * Limits of the entity listings, protecting the client from responses too
+ * large to be buffered, e.g. the whole entities of a large community asked
+ * with a null size.
+ * 
+ * The byte limit bounds the body of each listing response, the entity limit
+ * the entities of a listing. When a limit is exceeded a {@link Mode#FAIL}
+ * limit throws a {@link ListingLimitException}, while a {@link Mode#PAGE}
+ * limit reads the listing in pages within the limit and decodes each page
+ * as soon as it arrives.
+ * 
+ * The pages of a paged listing are still collected into a single result,
+ * so the total limit bounds the entities a paged listing may collect,
+ * failing with a {@link ListingLimitException} when exceeded. Listings
+ * larger than that are read page by page through an
+ * {@link eu.trentorise.smartcampus.socialservice.paging.AdaptivePager} scan.
+ */
+public final class ListingLimits {
+
+	public enum Mode {
+		/** the listing fails with a {@link ListingLimitException} */
+		FAIL,
+		/** the listing is read in smaller pages */
+		PAGE
+	}
+
+	/** page size of a paged listing with no entity limit */
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	/** max number of entities collected by a paged listing by default */
+	public static final int DEFAULT_MAX_TOTAL = 10000;
+
+	/** no limit, the listings are read in a single response */
+	public static final ListingLimits NONE = new ListingLimits(-1, Mode.FAIL,
+			-1, Mode.FAIL, DEFAULT_MAX_TOTAL);
+
+	private final long maxBytes;
+	private final Mode bytesMode;
+	private final int maxEntities;
+	private final Mode entitiesMode;
+	private final int maxTotal;
+
+	private ListingLimits(long maxBytes, Mode bytesMode, int maxEntities,
+			Mode entitiesMode, int maxTotal) {
+		this.maxBytes = maxBytes;
+		this.bytesMode = bytesMode;
+		this.maxEntities = maxEntities;
+		this.entitiesMode = entitiesMode;
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * @param maxBytes
+	 *            max size in bytes of a listing response, -1 for no limit
+	 * @param mode
+	 *            behavior of the listings exceeding the limit
+	 * @return limits with the given byte limit and the entity limit of this
+	 *         one
+	 */
+	public ListingLimits withMaxBytes(long maxBytes, Mode mode) {
+		if (maxBytes == 0 || maxBytes < -1 || mode == null) {
+			throw new IllegalArgumentException("Invalid byte limit " + maxBytes);
+		}
+		return new ListingLimits(maxBytes, mode, maxEntities, entitiesMode,
+				maxTotal);
+	}
+
+	/**
+	 * @param maxEntities
+	 *            max number of entities of a listing, -1 for no limit
+	 * @param mode
+	 *            behavior of the listings exceeding the limit
+	 * @return limits with the given entity limit and the byte limit of this
+	 *         one
+	 */
+	public ListingLimits withMaxEntities(int maxEntities, Mode mode) {
+		if (maxEntities == 0 || maxEntities < -1 || mode == null) {
+			throw new IllegalArgumentException("Invalid entity limit "
+					+ maxEntities);
+		}
+		return new ListingLimits(maxBytes, bytesMode, maxEntities, mode,
+				maxTotal);
+	}
+
+	/**
+	 * @param maxTotal
+	 *            max number of entities collected by a paged listing, -1 for
+	 *            no limit
+	 * @return limits with the given total limit and the other limits of this
+	 *         one
+	 */
+	public ListingLimits withMaxTotal(int maxTotal) {
+		if (maxTotal == 0 || maxTotal < -1) {
+			throw new IllegalArgumentException("Invalid total limit "
+					+ maxTotal);
+		}
+		return new ListingLimits(maxBytes, bytesMode, maxEntities,
+				entitiesMode, maxTotal);
+	}
+
+	/**
+	 * @return max size in bytes of a listing response, -1 if unlimited
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public Mode getBytesMode() {
+		return bytesMode;
+	}
+
+	/**
+	 * @return max number of entities of a listing, -1 if unlimited
+	 */
+	public int getMaxEntities() {
+		return maxEntities;
+	}
+
+	public Mode getEntitiesMode() {
+		return entitiesMode;
+	}
+
+	/**
+	 * @return max number of entities collected by a paged listing, -1 if
+	 *         unlimited
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	/**
+	 * @return true if no limit is set
+	 */
+	public boolean isUnlimited() {
+		return maxBytes < 0 && maxEntities < 0;
+	}
+
+	@Override
+	public String toString() {
+		return "ListingLimits [maxBytes=" + maxBytes + " " + bytesMode
+				+ ", maxEntities=" + maxEntities + " " + entitiesMode
+				+ ", maxTotal=" + maxTotal + "]";
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * JSON merge patch (RFC 7386) between two serialized versions of an object.
+ *
+ * Top level members are compared on their raw JSON text, without building
+ * the values: the patch holds the members added or changed, copied as they
+ * are, and null for the members removed. Nested objects and arrays are sent
+ * whole when they differ, as merge patch replaces arrays anyway.
+ */
+final class MergePatch {
+
+	private static final JsonFactory factory = new JsonFactory();
+
+	private MergePatch() {
+	}
+
+	/**
+	 * @param previous
+	 *            JSON object of the previous version
+	 * @param updated
+	 *            JSON object of the new version
+	 * @param excluded
+	 *            members left out of the patch
+	 * @return the patch document, or null if the versions do not differ
+	 */
+	static String diff(String previous, String updated, String... excluded) {
+		Map<String, String> before = members(previous);
+		Map<String, String> after = members(updated);
+		for (String name : excluded) {
+			before.remove(name);
+			after.remove(name);
+		}
+		StringBuilder patch = new StringBuilder();
+		for (Map.Entry<String, String> e : after.entrySet()) {
+			String old = before.remove(e.getKey());
+			if (old == null || !old.equals(e.getValue())) {
+				append(patch, e.getKey(), e.getValue());
+			}
+		}
+		for (Map.Entry<String, String> e : before.entrySet()) {
+			if (!"null".equals(e.getValue())) {
+				append(patch, e.getKey(), "null");
+			}
+		}
+		return patch.length() == 0 ? null : patch.append('}').toString();
+	}
+
+	/**
+	 * @return the raw text of the top level members of a JSON object, by name
+	 */
+	private static Map<String, String> members(String json) {
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		try {
+			JsonParser parser = factory.createJsonParser(json);
+			try {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new IllegalArgumentException("Not a JSON object: " + json);
+				}
+				JsonToken token = parser.nextToken();
+				while (token == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					int start = valueStart(json, (int) parser.getTokenLocation().getCharOffset());
+					parser.nextToken();
+					parser.skipChildren();
+					// the value ends before the separator of the next token
+					token = parser.nextToken();
+					int end = (int) parser.getTokenLocation().getCharOffset();
+					members.put(name, trim(json, start, end));
+				}
+			} finally {
+				parser.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+		return members;
+	}
+
+	/**
+	 * @return the position of the value of the member whose name starts at
+	 *         the given position
+	 */
+	private static int valueStart(String json, int nameStart) {
+		int pos = nameStart + 1;
+		while (json.charAt(pos) != '"') {
+			pos += json.charAt(pos) == '\\' ? 2 : 1;
+		}
+		pos = json.indexOf(':', pos + 1) + 1;
+		while (Character.isWhitespace(json.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return the text of a value without the whitespace and the separator
+	 *         following it
+	 */
+	private static String trim(String json, int start, int end) {
+		while (end > start) {
+			char c = json.charAt(end - 1);
+			if (c != ',' && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				break;
+			}
+			end--;
+		}
+		return json.substring(start, end);
+	}
+
+	private static void append(StringBuilder patch, String name, String value) {
+		patch.append(patch.length() == 0 ? '{' : ',');
+		quote(patch, name);
+		patch.append(':').append(value);
+	}
+
+	private static void quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}
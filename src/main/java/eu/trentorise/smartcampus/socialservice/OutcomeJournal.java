@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.socialservice.transport.Response;
+
+/**
+ * Responses of the successful create calls made with an
+ * {@link IdempotencyKey}, so a create repeated with the same key is answered
+ * without sending it again.
+ * 
+ * The entries are keyed on the {@link TokenFingerprint} of the token, so
+ * the journal does not hold the tokens themselves.
+ */
+final class OutcomeJournal {
+
+	static final int MAX_ENTRIES = 1024;
+	static final long TTL = 24 * 60 * 60 * 1000;
+
+	private final LinkedHashMap<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * @return the key of the outcome of a create call
+	 */
+	static String entry(String operation, String token, String path, String idempotencyKey) {
+		return operation + '\n' + TokenFingerprint.of(token) + '\n' + path + '\n' + idempotencyKey;
+	}
+
+	/**
+	 * @return the response of the create, null if unknown
+	 */
+	synchronized Response get(String key) {
+		Outcome outcome = outcomes.get(key);
+		if (outcome == null) {
+			return null;
+		}
+		if (outcome.expiresAt <= System.currentTimeMillis()) {
+			outcomes.remove(key);
+			return null;
+		}
+		return outcome.response;
+	}
+
+	synchronized void put(String key, Response response) {
+		outcomes.put(key, new Outcome(response, System.currentTimeMillis() + TTL));
+	}
+
+	synchronized int size() {
+		return outcomes.size();
+	}
+
+	private static final class Outcome {
+		final Response response;
+		final long expiresAt;
+
+		Outcome(Response response, long expiresAt) {
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
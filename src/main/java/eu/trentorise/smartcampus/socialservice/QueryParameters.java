@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Small immutable parameter map used for the query strings of the service
+ * calls. Keys are shared constants and values live in a flat array, so a
+ * call does not pay for a {@link java.util.HashMap} and its entry nodes.
+ */
+final class QueryParameters extends AbstractMap<String, Object> {
+
+	static final String POSITION = "position";
+	static final String SIZE = "size";
+	static final String TYPE = "type";
+	static final String PREFIX = "prefix";
+	static final String MAX_RESULTS = "maxResults";
+
+	private static final String[] PAGING_KEYS = { POSITION, SIZE, TYPE };
+	private static final String[] PREFIX_KEYS = { PREFIX, MAX_RESULTS };
+
+	/** value sent by the client when position or size are not specified */
+	private static final Integer UNSET = Integer.valueOf(-1);
+
+	private final String[] keys;
+	private final Object[] values;
+	private final int size;
+
+	private QueryParameters(String[] keys, Object[] values, int size) {
+		this.keys = keys;
+		this.values = values;
+		this.size = size;
+	}
+
+	/**
+	 * parameters of the paginated listing calls, null position and size are
+	 * sent as -1
+	 *
+	 * @param position
+	 *            counter to buffering result, may be null
+	 * @param size
+	 *            number of results to get, may be null
+	 * @param typeId
+	 *            type of resources to get, may be null
+	 * @return the parameter map
+	 */
+	static QueryParameters paging(Integer position, Integer size, String typeId) {
+		return new QueryParameters(PAGING_KEYS, new Object[] {
+				position == null ? UNSET : position,
+				size == null ? UNSET : size, typeId }, PAGING_KEYS.length);
+	}
+
+	/**
+	 * parameters of the prefix search calls, maxResults is sent only if it is
+	 * a positive number
+	 *
+	 * @param prefix
+	 *            prefix to search
+	 * @param maxResults
+	 *            max number of results, may be null
+	 * @return the parameter map
+	 */
+	static QueryParameters prefix(String prefix, Integer maxResults) {
+		boolean limited = maxResults != null && maxResults > 0;
+		return new QueryParameters(PREFIX_KEYS, new Object[] { prefix,
+				maxResults }, limited ? 2 : 1);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Object get(Object key) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i].equals(key)) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i].equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<String, Object> next() {
+						if (next >= size) {
+							throw new NoSuchElementException();
+						}
+						int i = next++;
+						return new SimpleImmutableEntry<String, Object>(keys[i],
+								values[i]);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
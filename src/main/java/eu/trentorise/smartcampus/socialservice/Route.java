@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled path template of a service operation, e.g.
+ * <code>community/{communityId}/entities/{entityId}</code>.
+ *
+ * The template is split once in its literal parts, so expanding it only
+ * appends literals and percent-encoded path segments to a presized buffer.
+ * Each route also remembers its last expansions, so the hot ids of a client
+ * are encoded once and their paths are not rebuilt on every call.
+ */
+final class Route {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** RFC 3986 unreserved characters, indexed by ASCII code */
+	private static final boolean[] UNRESERVED = new boolean[128];
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			UNRESERVED[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			UNRESERVED[c] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			UNRESERVED[c] = true;
+		}
+		UNRESERVED['-'] = true;
+		UNRESERVED['.'] = true;
+		UNRESERVED['_'] = true;
+		UNRESERVED['~'] = true;
+	}
+
+	/** direct-mapped cache of the encoded form of ids that need escaping */
+	private static final int CACHE_SIZE = 256;
+	private static final EncodedId[] cache = new EncodedId[CACHE_SIZE];
+
+	/** size of the direct-mapped cache of the last paths of each route */
+	private static final int EXPANSIONS_SIZE = 64;
+
+	private final String template;
+	private final String[] literals;
+	private final String[] names;
+	private final int literalsLength;
+	private final Expansion[] expansions = new Expansion[EXPANSIONS_SIZE];
+
+	private Route(String template, String[] literals, String[] names) {
+		this.template = template;
+		this.literals = literals;
+		this.names = names;
+		int length = 0;
+		for (String literal : literals) {
+			length += literal.length();
+		}
+		this.literalsLength = length;
+	}
+
+	/**
+	 * compiles a template, variables are written as <code>{name}</code>
+	 *
+	 * @param template
+	 *            path template relative to the service url
+	 * @return the compiled route
+	 */
+	static Route compile(String template) {
+		List<String> parts = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		int from = 0;
+		int open;
+		while ((open = template.indexOf('{', from)) >= 0) {
+			int close = template.indexOf('}', open);
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed variable in route "
+						+ template);
+			}
+			parts.add(template.substring(from, open));
+			names.add(template.substring(open + 1, close));
+			from = close + 1;
+		}
+		parts.add(template.substring(from));
+		return new Route(template, parts.toArray(new String[parts.size()]),
+				names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * @return number of variables of the template
+	 */
+	int variables() {
+		return literals.length - 1;
+	}
+
+	/**
+	 * @return the path of a route without variables
+	 */
+	String path() {
+		return expand();
+	}
+
+	/**
+	 * expands the template with the given values, each value is encoded as a
+	 * single path segment
+	 *
+	 * @param values
+	 *            values of the variables, in template order
+	 * @return the expanded path
+	 */
+	String expand(String... values) {
+		checkArity(values.length);
+		switch (values.length) {
+		case 0:
+			return literals[0];
+		case 1:
+			return expand(values[0]);
+		case 2:
+			return expand(values[0], values[1]);
+		default:
+			return build(values);
+		}
+	}
+
+	/**
+	 * expands a template with a single variable
+	 */
+	String expand(String value) {
+		checkArity(1);
+		if (value == null) {
+			return build(value);
+		}
+		int slot = value.hashCode() & (EXPANSIONS_SIZE - 1);
+		Expansion cached = expansions[slot];
+		if (cached != null && cached.matches(value, null)) {
+			return cached.path;
+		}
+		String path = build(value);
+		expansions[slot] = new Expansion(value, null, path);
+		return path;
+	}
+
+	/**
+	 * expands a template with two variables
+	 */
+	String expand(String first, String second) {
+		checkArity(2);
+		if (first == null || second == null) {
+			return build(first, second);
+		}
+		int slot = (31 * first.hashCode() + second.hashCode())
+				& (EXPANSIONS_SIZE - 1);
+		Expansion cached = expansions[slot];
+		if (cached != null && cached.matches(first, second)) {
+			return cached.path;
+		}
+		String path = build(first, second);
+		expansions[slot] = new Expansion(first, second, path);
+		return path;
+	}
+
+	/**
+	 * extracts the value of a variable from a path expanded by this route
+	 *
+	 * @param path
+	 *            the expanded path
+	 * @param variable
+	 *            name of the variable
+	 * @return the decoded value, null if the template has no such variable
+	 */
+	String value(String path, String variable) {
+		int position = literals[0].length();
+		for (int i = 0; i < names.length; i++) {
+			int end = path.indexOf('/', position);
+			if (end < 0) {
+				end = path.length();
+			}
+			if (names[i].equals(variable)) {
+				return decodeSegment(path.substring(position, end));
+			}
+			position = end + literals[i + 1].length();
+		}
+		return null;
+	}
+
+	private String build(String... values) {
+		String[] encoded = new String[values.length];
+		int length = literalsLength;
+		for (int i = 0; i < values.length; i++) {
+			encoded[i] = encodeSegment(values[i]);
+			length += encoded[i].length();
+		}
+		StringBuilder sb = new StringBuilder(length);
+		sb.append(literals[0]);
+		for (int i = 0; i < encoded.length; i++) {
+			sb.append(encoded[i]).append(literals[i + 1]);
+		}
+		return sb.toString();
+	}
+
+	private void checkArity(int count) {
+		if (count != literals.length - 1) {
+			throw new IllegalArgumentException("Route " + template
+					+ " expects " + (literals.length - 1) + " values, got "
+					+ count);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+
+	/**
+	 * percent-encodes a value as a single path segment (RFC 3986). Values
+	 * made only of unreserved characters, the common case for ids, are
+	 * returned as they are. A null value is kept as the "null" segment the
+	 * string concatenation used to produce.
+	 *
+	 * @param value
+	 *            the raw segment value
+	 * @return the encoded segment
+	 */
+	static String encodeSegment(String value) {
+		if (value == null) {
+			return "null";
+		}
+		int length = value.length();
+		int i = 0;
+		while (i < length && isUnreserved(value.charAt(i))) {
+			i++;
+		}
+		if (i == length && !isDotSegment(value)) {
+			return value;
+		}
+		int slot = value.hashCode() & (CACHE_SIZE - 1);
+		EncodedId cached = cache[slot];
+		if (cached != null && cached.raw.equals(value)) {
+			return cached.encoded;
+		}
+		String encoded = isDotSegment(value) ? value.replace(".", "%2E")
+				: percentEncode(value, i);
+		cache[slot] = new EncodedId(value, encoded);
+		return encoded;
+	}
+
+	private static String decodeSegment(String segment) {
+		if (segment.indexOf('%') < 0) {
+			return segment;
+		}
+		try {
+			// segments have no '+', which URLDecoder would read as a space
+			return URLDecoder.decode(segment, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String percentEncode(String value, int from) {
+		byte[] bytes;
+		try {
+			bytes = value.substring(from).getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder sb = new StringBuilder(from + bytes.length * 3);
+		sb.append(value, 0, from);
+		for (byte b : bytes) {
+			char c = (char) (b & 0xFF);
+			if (c < 0x80 && isUnreserved(c)) {
+				sb.append(c);
+			} else {
+				sb.append('%').append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * "." and ".." would be removed by path normalization, so they are always
+	 * escaped
+	 */
+	private static boolean isDotSegment(String value) {
+		return value.equals(".") || value.equals("..");
+	}
+
+	private static boolean isUnreserved(char c) {
+		return c < UNRESERVED.length && UNRESERVED[c];
+	}
+
+	/**
+	 * immutable cache entry, safely published through its final fields
+	 */
+	private static final class EncodedId {
+		final String raw;
+		final String encoded;
+
+		EncodedId(String raw, String encoded) {
+			this.raw = raw;
+			this.encoded = encoded;
+		}
+	}
+
+	/**
+	 * immutable cache entry of an expanded path
+	 */
+	private static final class Expansion {
+		final String first;
+		final String second;
+		final String path;
+
+		Expansion(String first, String second, String path) {
+			this.first = first;
+			this.second = second;
+			this.path = path;
+		}
+
+		boolean matches(String first, String second) {
+			return this.first.equals(first)
+					&& (this.second == null ? second == null : this.second
+							.equals(second));
+		}
+	}
+}
@@ -15,13 +15,24 @@
  ******************************************************************************/
 package eu.trentorise.smartcampus.socialservice;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import eu.trentorise.smartcampus.network.JsonUtils;
-import eu.trentorise.smartcampus.network.RemoteConnector;
 import eu.trentorise.smartcampus.network.RemoteException;
 import eu.trentorise.smartcampus.social.model.Communities;
 import eu.trentorise.smartcampus.social.model.Community;
@@ -34,6 +45,25 @@ import eu.trentorise.smartcampus.social.model.EntityTypes;
 import eu.trentorise.smartcampus.social.model.Group;
 import eu.trentorise.smartcampus.social.model.Groups;
 import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.codec.Codecs;
+import eu.trentorise.smartcampus.socialservice.codec.Interner;
+import eu.trentorise.smartcampus.socialservice.codec.JsonCodec;
+import eu.trentorise.smartcampus.socialservice.codec.PayloadCodec;
+import eu.trentorise.smartcampus.socialservice.lazy.LazyEntities;
+import eu.trentorise.smartcampus.socialservice.trace.Span;
+import eu.trentorise.smartcampus.socialservice.trace.Tracer;
+import eu.trentorise.smartcampus.socialservice.transport.CallAbortedException;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+import eu.trentorise.smartcampus.socialservice.transport.Priority;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+import eu.trentorise.smartcampus.socialservice.transport.Prewarmable;
+import eu.trentorise.smartcampus.socialservice.transport.RemoteConnectorTransport;
+import eu.trentorise.smartcampus.socialservice.transport.Request;
+import eu.trentorise.smartcampus.socialservice.transport.Response;
+import eu.trentorise.smartcampus.socialservice.transport.ResponseTooLargeException;
+import eu.trentorise.smartcampus.socialservice.transport.StatusException;
+import eu.trentorise.smartcampus.socialservice.transport.Transport;
+import eu.trentorise.smartcampus.socialservice.transport.WarmupReport;
 
 /**
  * Service APIs
@@ -43,33 +73,220 @@ import eu.trentorise.smartcampus.social.model.ShareVisibility;
  */
 public class SocialService {
 
-	private static final String GROUP = "user/group/";
-	private static final String GROUP_MEMBERS = "/members/";
+	private static final Route GROUPS = Route.compile("user/group/");
+	private static final Route GROUP = Route.compile("user/group/{groupId}");
+	private static final Route GROUP_MEMBERS = Route.compile("user/group/{groupId}/members/");
 
-	private static final String USER_COMMUNITY = "user/community/";
+	private static final Route USER_COMMUNITIES = Route.compile("user/community/");
+	private static final Route USER_COMMUNITY = Route.compile("user/community/{communityId}");
 
-	private static final String COMMUNITY = "community/";
-	private static final String COMMUNITY_BY_SOCIAL = "community/social/";
-	
-	private static final String USER_CONTENTS = "user/entities/";
+	private static final Route COMMUNITIES = Route.compile("community/");
+	private static final Route COMMUNITY = Route.compile("community/{communityId}");
+	private static final Route COMMUNITY_BY_SOCIAL = Route.compile("community/social/{socialId}");
+
+	private static final Route USER_CONTENTS = Route.compile("user/entities/");
+	private static final Route USER_CONTENT = Route.compile("user/entities/{entityId}");
+
+	private static final Route COMMUNITY_CONTENTS = Route.compile("community/{communityId}/entities/");
+	private static final Route COMMUNITY_CONTENT = Route.compile("community/{communityId}/entities/{entityId}");
 
-	private static final String COMMUNITY_CONTENTS = "/entities/";
+	private static final Route USER_SHARED_CONTENTS = Route.compile("user/shared/");
+	private static final Route USER_SHARED_CONTENT = Route.compile("user/shared/{entityId}");
 
-	private static final String USER_SHARED = "user/shared/";
+	private static final Route COMMUNITY_SHARED_CONTENTS = Route.compile("community/{communityId}/shared/");
+	private static final Route COMMUNITY_SHARED_CONTENT = Route.compile("community/{communityId}/shared/{entityId}");
 
-	private static final String COMMUNITY_SHARED = "/shared/";
+	private static final Route TYPES = Route.compile("type/");
+	private static final Route TYPE = Route.compile("type/{typeId}");
+	private static final Route TYPE_BY_CONCEPT = Route.compile("type/concept/{conceptId}");
+	private static final Route CONCEPTS = Route.compile("concept/");
 
-	private static final String TYPES = "type/";
-	private static final String TYPES_BY_CONCEPT = "type/concept/";
-	private static final String CONCEPTS = "concept/";
+	/** max wait for a pooled connection while pre-warming */
+	private static final long PREWARM_TIMEOUT = 5000;
+
+	/** header carrying the idempotency key of the create calls */
+	public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+	/** wait before the first retry of a create, doubled at each retry */
+	private static final long CREATE_RETRY_DELAY = 100;
 
 	private String serviceUrl;
+	private final Transport transport;
+	private volatile Codecs codecs = Codecs.json();
+	private volatile Interner interner;
+	private volatile Tracer tracer = Tracer.NOOP;
+	private volatile ListingLimits limits = ListingLimits.NONE;
+	/** routes on which the service answered PATCH is not supported */
+	private final Set<Route> unpatchable = Collections.newSetFromMap(new ConcurrentHashMap<Route, Boolean>());
+	private final EntityTypeResolver typeResolver = new EntityTypeResolver(this);
+	private final OutcomeJournal journal = new OutcomeJournal();
+	private volatile int createRetries;
 
 	public SocialService(String serviceUrl) {
+		this(serviceUrl, new RemoteConnectorTransport());
+	}
+
+	/**
+	 * @param serviceUrl
+	 *            url of the social service
+	 * @param transport
+	 *            transport executing the requests
+	 */
+	public SocialService(String serviceUrl, Transport transport) {
 		this.serviceUrl = serviceUrl;
 		if (!serviceUrl.endsWith("/")) {
 			this.serviceUrl += '/';
 		}
+		this.transport = transport;
+	}
+
+	/**
+	 * sets the formats accepted for the responses, the service answers in
+	 * JSON if it supports none of them. Formats other than JSON need a
+	 * transport sending the Accept header, like {@link HttpClientTransport}.
+	 * 
+	 * @param codecs
+	 *            accepted formats
+	 */
+	public void setCodecs(Codecs codecs) {
+		this.codecs = codecs;
+	}
+
+	public Codecs getCodecs() {
+		return codecs;
+	}
+
+	/**
+	 * sets the table sharing the concepts and ids repeated across the decoded
+	 * responses, worth setting when many entities are kept in memory
+	 * 
+	 * @param interner
+	 *            the table, null to disable interning
+	 */
+	public void setInterner(Interner interner) {
+		this.interner = interner;
+	}
+
+	public Interner getInterner() {
+		return interner;
+	}
+
+	/**
+	 * sets the tracer opening a span around each remote call. Trace headers
+	 * are sent by transports supporting additional headers, like
+	 * {@link HttpClientTransport}.
+	 * 
+	 * @param tracer
+	 *            the tracer, {@link Tracer#NOOP} to disable tracing
+	 */
+	public void setTracer(Tracer tracer) {
+		this.tracer = tracer == null ? Tracer.NOOP : tracer;
+	}
+
+	public Tracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * sets how many times the create calls are sent again when their outcome
+	 * is unknown: the exchange failed with an I/O error, or the service
+	 * answered with a 5xx status. The retries carry the
+	 * {@link #IDEMPOTENCY_KEY} of the first attempt, so they are safe only with
+	 * a service honouring it, and are allowed only with a transport sending
+	 * additional headers, like {@link HttpClientTransport}. Calls whose
+	 * {@link CallContext} is done are not retried.
+	 * 
+	 * @param createRetries
+	 *            max number of retries, 0 to disable them
+	 * @throws IllegalStateException
+	 *             if retries are asked and the transport does not send the
+	 *             idempotency key
+	 */
+	public void setCreateRetries(int createRetries) {
+		if (createRetries < 0) {
+			throw new IllegalArgumentException("Invalid retries " + createRetries);
+		}
+		if (createRetries > 0 && !transport.sendsHeaders()) {
+			throw new IllegalStateException("Create retries need a transport sending the "
+					+ IDEMPOTENCY_KEY + " header");
+		}
+		this.createRetries = createRetries;
+	}
+
+	public int getCreateRetries() {
+		return createRetries;
+	}
+
+	/**
+	 * sets the limits of the entity listings, see {@link ListingLimits}. The
+	 * byte limit of a response is enforced while reading by transports
+	 * streaming the body, like {@link HttpClientTransport}, and only after
+	 * the whole body has been read by the default transport.
+	 * 
+	 * @param limits
+	 *            the limits, {@link ListingLimits#NONE} to disable them
+	 */
+	public void setListingLimits(ListingLimits limits) {
+		this.limits = limits == null ? ListingLimits.NONE : limits;
+	}
+
+	public ListingLimits getListingLimits() {
+		return limits;
+	}
+
+	/**
+	 * prepares the client for its first calls, e.g. at application startup:
+	 * resolves the service host, caching its addresses in the JVM, and opens
+	 * the pooled connections of transports supporting it, like
+	 * {@link HttpClientTransport}. No call is made to the service.
+	 * 
+	 * @param connections
+	 *            number of connections to open
+	 * @return the outcome, failures are reported and not thrown
+	 */
+	public WarmupReport prewarm(int connections) {
+		long start = System.nanoTime();
+		String host = URI.create(serviceUrl).getHost();
+		InetAddress[] addresses = null;
+		int opened = 0;
+		Exception failure = null;
+		try {
+			addresses = InetAddress.getAllByName(host);
+			if (transport instanceof Prewarmable) {
+				opened = ((Prewarmable) transport).prewarm(serviceUrl, connections, PREWARM_TIMEOUT);
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+		return new WarmupReport(host, addresses, opened, failure, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- start));
+	}
+
+	/**
+	 * runs {@link #prewarm(int)} on a background thread
+	 * 
+	 * @param connections
+	 *            number of connections to open
+	 * @return the outcome, available when the client is ready
+	 */
+	public Future<WarmupReport> prewarmInBackground(final int connections) {
+		FutureTask<WarmupReport> task = new FutureTask<WarmupReport>(new Callable<WarmupReport>() {
+			@Override
+			public WarmupReport call() {
+				return prewarm(connections);
+			}
+		});
+		Thread t = new Thread(task, "socialservice-prewarm");
+		t.setDaemon(true);
+		t.start();
+		return task;
+	}
+
+	public String getServiceUrl() {
+		return serviceUrl;
+	}
+
+	public Transport getTransport() {
+		return transport;
 	}
 
 	/**
@@ -84,8 +301,8 @@ public class SocialService {
 	public Groups getUserGroups(String token) throws SecurityException,
 			SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, GROUP, token, null);
-			return JsonUtils.toObject(json, Groups.class);
+			Response response = exchange("getUserGroups", Request.GET, GROUPS, GROUPS.path(), null, token, null);
+			return decode(response, Groups.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -106,8 +323,8 @@ public class SocialService {
 		try {
 			Group group = new Group();
 			group.setName(name);
-			String json = RemoteConnector.postJSON(serviceUrl, GROUP, JsonUtils.toJSON(group), token);
-			return JsonUtils.toObject(json, Group.class);
+			Response response = create("createUserGroup", Request.POST, GROUPS, GROUPS.path(), JsonUtils.toJSON(group), token);
+			return decode(response, Group.class);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -126,14 +343,57 @@ public class SocialService {
 	public boolean updateUserGroup(String token, Group group)
 			throws SocialServiceException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, GROUP
-					+ group.getSocialId(), JsonUtils.toJSON(group), token);
-			return new Boolean(json);
+			Response response = exchange("updateUserGroup", Request.PUT, GROUP, GROUP.expand(group.getSocialId()), JsonUtils.toJSON(group), token, null);
+			return success(response);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	/**
+	 * Updates a group sending only its changes from a previous version: the
+	 * members added and removed through the membership calls, the other
+	 * fields as a merge patch. If the service does not support PATCH the whole
+	 * group is sent as by {@link #updateUserGroup(String, Group)}.
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param previous
+	 *            group data read from the service
+	 * @param group
+	 *            new group data
+	 * @return true if operation gone fine, false otherwise
+	 * @throws SocialServiceException
+	 */
+	public boolean updateUserGroup(String token, Group previous, Group group)
+			throws SocialServiceException {
+		try {
+			String patch = MergePatch.diff(JsonUtils.toJSON(previous), JsonUtils.toJSON(group), "users");
+			if (patch != null) {
+				Boolean patched = patch("updateUserGroup", GROUP, GROUP.expand(group.getSocialId()), patch, token);
+				if (patched == null) {
+					return updateUserGroup(token, group);
+				}
+				if (!patched) {
+					return false;
+				}
+			}
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+		if (group.getUsers() != null) {
+			List<String> added = missing(group.getUsers(), previous.getUsers());
+			List<String> removed = missing(previous.getUsers(), group.getUsers());
+			if (!added.isEmpty() && !addUsersToGroup(group.getSocialId(), added, token)) {
+				return false;
+			}
+			if (!removed.isEmpty() && !removeUsersFromGroup(group.getSocialId(), removed, token)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Removes a group of authenticated user
 	 * 
@@ -147,8 +407,8 @@ public class SocialService {
 	public boolean deleteUserGroup(String token, String groupId)
 			throws SocialServiceException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, GROUP + groupId, token);
-			return new Boolean(json);
+			Response response = exchange("deleteUserGroup", Request.DELETE, GROUP, GROUP.expand(groupId), null, token, null);
+			return success(response);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -168,8 +428,8 @@ public class SocialService {
 	public Group getUserGroup(String groupId, String token)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, GROUP + groupId, token, null);
-			return JsonUtils.toObject(json, Group.class);
+			Response response = exchange("getUserGroup", Request.GET, GROUP, GROUP.expand(groupId), null, token, null);
+			return decode(response, Group.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -186,8 +446,8 @@ public class SocialService {
 	 */
 	public boolean addUsersToGroup(String groupId, List<String> userIds, String token) throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, GROUP + groupId+GROUP_MEMBERS, null, token, Collections.<String,Object>singletonMap("userIds", userIds));
-			return new Boolean(json);
+			Response response = exchange("addUsersToGroup", Request.PUT, GROUP_MEMBERS, GROUP_MEMBERS.expand(groupId), null, token, Collections.<String,Object>singletonMap("userIds", userIds));
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -205,8 +465,8 @@ public class SocialService {
 	 */
 	public boolean removeUsersFromGroup(String groupId, List<String> userIds, String token) throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, GROUP + groupId+GROUP_MEMBERS, token, Collections.<String,Object>singletonMap("userIds", userIds));
-			return new Boolean(json);
+			Response response = exchange("removeUsersFromGroup", Request.DELETE, GROUP_MEMBERS, GROUP_MEMBERS.expand(groupId), null, token, Collections.<String,Object>singletonMap("userIds", userIds));
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -226,8 +486,8 @@ public class SocialService {
 	 */
 	public Community getCommunity(String communityId, String token) throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, COMMUNITY + communityId, token, null);
-			return JsonUtils.toObject(json, Community.class);
+			Response response = exchange("getCommunity", Request.GET, COMMUNITY, COMMUNITY.expand(communityId), null, token, null);
+			return decode(response, Community.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -246,8 +506,8 @@ public class SocialService {
 	 */
 	public Community getCommunityBySocialId(String socialId, String token) throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, COMMUNITY_BY_SOCIAL + socialId, token, null);
-			return JsonUtils.toObject(json, Community.class);
+			Response response = exchange("getCommunityBySocialId", Request.GET, COMMUNITY_BY_SOCIAL, COMMUNITY_BY_SOCIAL.expand(socialId), null, token, null);
+			return decode(response, Community.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -265,8 +525,8 @@ public class SocialService {
 	public Communities getUserCommunities(String token)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, USER_COMMUNITY, token, null);
-			return JsonUtils.toObject(json, Communities.class);
+			Response response = exchange("getUserCommunities", Request.GET, USER_COMMUNITIES, USER_COMMUNITIES.path(), null, token, null);
+			return decode(response, Communities.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -284,8 +544,8 @@ public class SocialService {
 	public Communities getCommunities(String token)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, COMMUNITY, token, null);
-			return JsonUtils.toObject(json, Communities.class);
+			Response response = exchange("getCommunities", Request.GET, COMMUNITIES, COMMUNITIES.path(), null, token, null);
+			return decode(response, Communities.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -304,8 +564,8 @@ public class SocialService {
 	public boolean addUserToCommunity(String token, String communityId)
 			throws SocialServiceException, SecurityException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, USER_COMMUNITY + communityId, null, token);
-			return new Boolean(json);
+			Response response = exchange("addUserToCommunity", Request.PUT, USER_COMMUNITY, USER_COMMUNITY.expand(communityId), null, token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -324,8 +584,8 @@ public class SocialService {
 	public boolean removeUserFromCommunity(String token, String communityId)
 			throws SocialServiceException, SecurityException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, USER_COMMUNITY + communityId, token);
-			return new Boolean(json);
+			Response response = exchange("removeUserFromCommunity", Request.DELETE, USER_COMMUNITY, USER_COMMUNITY.expand(communityId), null, token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -342,8 +602,8 @@ public class SocialService {
 	 */
 	public Community createCommunity(String id, Community community, String token) throws SocialServiceException, SecurityException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, COMMUNITY + id, JsonUtils.toJSON(community), token);
-			return JsonUtils.toObject(json, Community.class );
+			Response response = create("createCommunity", Request.PUT, COMMUNITY, COMMUNITY.expand(id), JsonUtils.toJSON(community), token);
+			return decode(response, Community.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -359,8 +619,8 @@ public class SocialService {
 	 */
 	public boolean deleteCommunity(String id, String token) throws SocialServiceException, SecurityException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, COMMUNITY + id, token);
-			return new Boolean(json);
+			Response response = exchange("deleteCommunity", Request.DELETE, COMMUNITY, COMMUNITY.expand(id), null, token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -384,24 +644,40 @@ public class SocialService {
 	public Entities getUserEntities(String token, Integer position, Integer size, String typeId) throws SecurityException,
 			SocialServiceException {
 		try {
-			Map<String, Object> parameters = new HashMap<String, Object>();
-			if (position == null) {
-				position = -1;
-			}
-			if (size == null) {
-				size = -1;
-			}
+			return entities(userEntities("getUserEntities", token, typeId), position, size);
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+	}
 
-			parameters.put("position", position);
-			parameters.put("size", size);
-			parameters.put("type", typeId);
-			String json = RemoteConnector.getJSON(serviceUrl, USER_CONTENTS, token, parameters);
-			return JsonUtils.toObject(json, Entities.class);
+	/**
+	 * retrieves the entities created by the user, decoding them lazily
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param position
+	 *            counter to buffering result, leave null to not use
+	 * @param size
+	 *            number of results to get, leave null to get all
+	 * @param type
+	 *            type of resources to get, leave null to get all the types
+	 * @return the {@link LazyEntities} listing of resources created by the user
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public LazyEntities getUserEntitiesLazy(String token, Integer position, Integer size, String typeId) throws SecurityException,
+			SocialServiceException {
+		try {
+			return lazyEntities(userEntities("getUserEntitiesLazy", token, typeId), position, size);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	private Listing userEntities(String operation, String token, String typeId) {
+		return new Listing(operation, Request.GET, USER_CONTENTS, USER_CONTENTS.path(), null, token, typeId);
+	}
+
 	/**
 	 * retrieves the entity created by the user
 	 * 
@@ -416,8 +692,8 @@ public class SocialService {
 	public Entity getUserEntity(String token, String entityId) throws SecurityException,
 			SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, USER_CONTENTS+entityId, token);
-			return JsonUtils.toObject(json, Entity.class);
+			Response response = exchange("getUserEntity", Request.GET, USER_CONTENT, USER_CONTENT.expand(entityId), null, token, null);
+			return decode(response, Entity.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -437,8 +713,8 @@ public class SocialService {
 	public Entity createUserEntity(String token, EntityRequest entity)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, USER_CONTENTS, JsonUtils.toJSON(entity), token);
-			return JsonUtils.toObject(json, Entity.class);
+			Response response = create("createUserEntity", Request.POST, USER_CONTENTS, USER_CONTENTS.path(), JsonUtils.toJSON(entity), token);
+			return decode(response, Entity.class);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -458,8 +734,8 @@ public class SocialService {
 	public boolean deleteUserEntity(String token, String entityId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, USER_CONTENTS + entityId, token);
-			return new Boolean(json);
+			Response response = exchange("deleteUserEntity", Request.DELETE, USER_CONTENT, USER_CONTENT.expand(entityId), null, token, null);
+			return success(response);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -479,13 +755,42 @@ public class SocialService {
 	public boolean updateUserEntity(String token, EntityRequest entity)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, USER_CONTENTS+entity.getId(), JsonUtils.toJSON(entity), token);
-			return new Boolean(json);
+			Response response = exchange("updateUserEntity", Request.PUT, USER_CONTENT, USER_CONTENT.expand(entity.getId()), JsonUtils.toJSON(entity), token, null);
+			return success(response);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	/**
+	 * Updates an entity of the user sending only the fields changed from a
+	 * previous version, as a merge patch. If the service does not support
+	 * PATCH the whole entity is sent as by
+	 * {@link #updateUserEntity(String, EntityRequest)}.
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param previous
+	 *            previous entity data
+	 * @param entity
+	 *            new entity data
+	 * @return true if operation gone fine, false otherwise
+	 * @throws SocialServiceException
+	 */
+	public boolean updateUserEntity(String token, EntityRequest previous, EntityRequest entity)
+			throws SocialServiceException {
+		try {
+			String patch = MergePatch.diff(JsonUtils.toJSON(previous), JsonUtils.toJSON(entity));
+			if (patch == null) {
+				return true;
+			}
+			Boolean patched = patch("updateUserEntity", USER_CONTENT, USER_CONTENT.expand(entity.getId()), patch, token);
+			return patched != null ? patched : updateUserEntity(token, entity);
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+	}
+
 	/**
 	 * retrieves the entities created by the community
 	 * 
@@ -506,24 +811,42 @@ public class SocialService {
 	public Entities getCommunityEntities(String communityId, String token, Integer position, Integer size, String typeId) throws SecurityException,
 			SocialServiceException {
 		try {
-			Map<String, Object> parameters = new HashMap<String, Object>();
-			if (position == null) {
-				position = -1;
-			}
-			if (size == null) {
-				size = -1;
-			}
+			return entities(communityEntities("getCommunityEntities", communityId, token, typeId), position, size);
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+	}
 
-			parameters.put("position", position);
-			parameters.put("size", size);
-			parameters.put("type", typeId);
-			String json = RemoteConnector.getJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_CONTENTS, token, parameters);
-			return JsonUtils.toObject(json, Entities.class);
+	/**
+	 * retrieves the entities created by the community, decoding them lazily
+	 * 
+	 * @param communityId
+	 * 			  community ID	
+	 * @param token
+	 *            client access token
+	 * @param position
+	 *            counter to buffering result, leave null to not use
+	 * @param size
+	 *            number of results to get, leave null to get all
+	 * @param type
+	 *            type of resources to get, leave null to get all the types
+	 * @return the {@link LazyEntities} listing of resources created by the community
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public LazyEntities getCommunityEntitiesLazy(String communityId, String token, Integer position, Integer size, String typeId) throws SecurityException,
+			SocialServiceException {
+		try {
+			return lazyEntities(communityEntities("getCommunityEntitiesLazy", communityId, token, typeId), position, size);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	private Listing communityEntities(String operation, String communityId, String token, String typeId) {
+		return new Listing(operation, Request.GET, COMMUNITY_CONTENTS, COMMUNITY_CONTENTS.expand(communityId), null, token, typeId);
+	}
+
 	/**
 	 * retrieves the entity created by the community
 	 * 
@@ -540,8 +863,8 @@ public class SocialService {
 	public Entity getCommunityEntity(String communityId, String token, String entityId) throws SecurityException,
 			SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_CONTENTS+entityId, token);
-			return JsonUtils.toObject(json, Entity.class);
+			Response response = exchange("getCommunityEntity", Request.GET, COMMUNITY_CONTENT, COMMUNITY_CONTENT.expand(communityId, entityId), null, token, null);
+			return decode(response, Entity.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -563,8 +886,8 @@ public class SocialService {
 	public Entity createCommunityEntity(String communityId, String token, EntityRequest entity)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_CONTENTS, JsonUtils.toJSON(entity), token);
-			return JsonUtils.toObject(json, Entity.class);
+			Response response = create("createCommunityEntity", Request.POST, COMMUNITY_CONTENTS, COMMUNITY_CONTENTS.expand(communityId), JsonUtils.toJSON(entity), token);
+			return decode(response, Entity.class);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -586,8 +909,8 @@ public class SocialService {
 	public boolean deleteCommunityEntity(String communityId ,String token, String entityId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_CONTENTS + entityId, token);
-			return new Boolean(json);
+			Response response = exchange("deleteCommunityEntity", Request.DELETE, COMMUNITY_CONTENT, COMMUNITY_CONTENT.expand(communityId, entityId), null, token, null);
+			return success(response);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -609,13 +932,45 @@ public class SocialService {
 	public boolean updateCommunityEntity(String communityId, String token, EntityRequest entity)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_CONTENTS+entity.getId(), JsonUtils.toJSON(entity), token);
-			return new Boolean(json);
+			Response response = exchange("updateCommunityEntity", Request.PUT, COMMUNITY_CONTENT, COMMUNITY_CONTENT.expand(communityId, entity.getId()), JsonUtils.toJSON(entity), token, null);
+			return success(response);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	/**
+	 * Updates an entity of a community sending only the fields changed from a
+	 * previous version, as a merge patch. If the service does not support
+	 * PATCH the whole entity is sent as by
+	 * {@link #updateCommunityEntity(String, String, EntityRequest)}.
+	 * 
+	 * @param communityId
+	 *            community ID
+	 * @param token
+	 *            client access token
+	 * @param previous
+	 *            previous entity data
+	 * @param entity
+	 *            new entity data
+	 * @return true if operation gone fine, false otherwise
+	 * @throws SocialServiceException
+	 */
+	public boolean updateCommunityEntity(String communityId, String token, EntityRequest previous, EntityRequest entity)
+			throws SocialServiceException {
+		try {
+			String patch = MergePatch.diff(JsonUtils.toJSON(previous), JsonUtils.toJSON(entity));
+			if (patch == null) {
+				return true;
+			}
+			Boolean patched = patch("updateCommunityEntity", COMMUNITY_CONTENT,
+					COMMUNITY_CONTENT.expand(communityId, entity.getId()), patch, token);
+			return patched != null ? patched : updateCommunityEntity(communityId, token, entity);
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+	}
+
 	
 	
 	/**
@@ -638,24 +993,42 @@ public class SocialService {
 	public Entities getEntitiesSharedWithUser(String token, ShareVisibility shareVisibility, Integer position, Integer size, String typeId) throws SecurityException,
 			SocialServiceException {
 		try {
-			Map<String, Object> parameters = new HashMap<String, Object>();
-			if (position == null) {
-				position = -1;
-			}
-			if (size == null) {
-				size = -1;
-			}
+			return entities(sharedWithUser("getEntitiesSharedWithUser", token, shareVisibility, typeId), position, size);
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+	}
 
-			parameters.put("position", position);
-			parameters.put("size", size);
-			parameters.put("type", typeId);
-			String json = RemoteConnector.postJSON(serviceUrl, USER_SHARED, JsonUtils.toJSON(shareVisibility), token, parameters);
-			return JsonUtils.toObject(json, Entities.class);
+	/**
+	 * retrieves the entities shared with the user, decoding them lazily
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param shareVisibility
+	 * 			{@link ShareVisibility} object defining the visibility filter
+	 * @param position
+	 *            counter to buffering result, leave null to not use
+	 * @param size
+	 *            number of results to get, leave null to get all
+	 * @param type
+	 *            type of resources to get, leave null to get all the types
+	 * @return the {@link LazyEntities} listing of resources shared with the user
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public LazyEntities getEntitiesSharedWithUserLazy(String token, ShareVisibility shareVisibility, Integer position, Integer size, String typeId) throws SecurityException,
+			SocialServiceException {
+		try {
+			return lazyEntities(sharedWithUser("getEntitiesSharedWithUserLazy", token, shareVisibility, typeId), position, size);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	private Listing sharedWithUser(String operation, String token, ShareVisibility shareVisibility, String typeId) {
+		return new Listing(operation, Request.POST, USER_SHARED_CONTENTS, USER_SHARED_CONTENTS.path(), JsonUtils.toJSON(shareVisibility), token, typeId);
+	}
+
 	/**
 	 * retrieves the entity shared with the user
 	 * 
@@ -670,8 +1043,8 @@ public class SocialService {
 	public Entity getEntitySharedWithUser(String token, String entityId) throws SecurityException,
 			SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, USER_SHARED+entityId, token);
-			return JsonUtils.toObject(json, Entity.class);
+			Response response = exchange("getEntitySharedWithUser", Request.GET, USER_SHARED_CONTENT, USER_SHARED_CONTENT.expand(entityId), null, token, null);
+			return decode(response, Entity.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -700,24 +1073,44 @@ public class SocialService {
 	public Entities getEntitiesSharedWithCommunity(String communityId, String token, ShareVisibility shareVisibility, Integer position, Integer size, String typeId) throws SecurityException,
 			SocialServiceException {
 		try {
-			Map<String, Object> parameters = new HashMap<String, Object>();
-			if (position == null) {
-				position = -1;
-			}
-			if (size == null) {
-				size = -1;
-			}
+			return entities(sharedWithCommunity("getEntitiesSharedWithCommunity", communityId, token, shareVisibility, typeId), position, size);
+		} catch (RemoteException e) {
+			throw new SocialServiceException(e);
+		}
+	}
 
-			parameters.put("position", position);
-			parameters.put("size", size);
-			parameters.put("type", typeId);
-			String json = RemoteConnector.postJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_SHARED, JsonUtils.toJSON(shareVisibility), token, parameters);
-			return JsonUtils.toObject(json, Entities.class);
+	/**
+	 * retrieves the entities shared with the community, decoding them lazily
+	 * 
+	 * @param communityId
+	 * 			  community ID	
+	 * @param token
+	 *            client access token
+	 * @param shareVisibility
+	 * 			{@link ShareVisibility} object defining the visibility filter
+	 * @param position
+	 *            counter to buffering result, leave null to not use
+	 * @param size
+	 *            number of results to get, leave null to get all
+	 * @param type
+	 *            type of resources to get, leave null to get all the types
+	 * @return the {@link LazyEntities} listing of resources shared with the community
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public LazyEntities getEntitiesSharedWithCommunityLazy(String communityId, String token, ShareVisibility shareVisibility, Integer position, Integer size, String typeId) throws SecurityException,
+			SocialServiceException {
+		try {
+			return lazyEntities(sharedWithCommunity("getEntitiesSharedWithCommunityLazy", communityId, token, shareVisibility, typeId), position, size);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	private Listing sharedWithCommunity(String operation, String communityId, String token, ShareVisibility shareVisibility, String typeId) {
+		return new Listing(operation, Request.POST, COMMUNITY_SHARED_CONTENTS, COMMUNITY_SHARED_CONTENTS.expand(communityId), JsonUtils.toJSON(shareVisibility), token, typeId);
+	}
+
 	/**
 	 * retrieves the entity shared with the community
 	 * 
@@ -734,8 +1127,8 @@ public class SocialService {
 	public Entity getEntitySharedWithCommunity(String communityId, String token, String entityId) throws SecurityException,
 			SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_CONTENTS+entityId, token);
-			return JsonUtils.toObject(json, Entity.class);
+			Response response = exchange("getEntitySharedWithCommunity", Request.GET, COMMUNITY_CONTENT, COMMUNITY_CONTENT.expand(communityId, entityId), null, token, null);
+			return decode(response, Entity.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -757,8 +1150,8 @@ public class SocialService {
 	public boolean shareUserEntity(String token, String entityId, ShareVisibility shareVisibility)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, USER_SHARED+entityId, JsonUtils.toJSON(shareVisibility), token, null);
-			return new Boolean(json);
+			Response response = exchange("shareUserEntity", Request.PUT, USER_SHARED_CONTENT, USER_SHARED_CONTENT.expand(entityId), JsonUtils.toJSON(shareVisibility), token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -778,8 +1171,8 @@ public class SocialService {
 	public boolean unshareUserEntity(String token, String entityId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, USER_SHARED + entityId, token);
-			return new Boolean(json);
+			Response response = exchange("unshareUserEntity", Request.DELETE, USER_SHARED_CONTENT, USER_SHARED_CONTENT.expand(entityId), null, token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -803,8 +1196,8 @@ public class SocialService {
 	public boolean shareCommunityEntity(String communityId, String token, String entityId, ShareVisibility shareVisibility)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_SHARED+entityId, JsonUtils.toJSON(shareVisibility), token, null);
-			return new Boolean(json);
+			Response response = exchange("shareCommunityEntity", Request.PUT, COMMUNITY_SHARED_CONTENT, COMMUNITY_SHARED_CONTENT.expand(communityId, entityId), JsonUtils.toJSON(shareVisibility), token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -826,8 +1219,8 @@ public class SocialService {
 	public boolean unshareCommnunityEntity(String communityId, String token, String entityId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, COMMUNITY+communityId+COMMUNITY_SHARED+entityId, token);
-			return new Boolean(json);
+			Response response = exchange("unshareCommnunityEntity", Request.DELETE, COMMUNITY_SHARED_CONTENT, COMMUNITY_SHARED_CONTENT.expand(communityId, entityId), null, token, null);
+			return success(response);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -847,8 +1240,8 @@ public class SocialService {
 	public EntityType createEntityType(String token, String conceptId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, TYPES, "", token, Collections.<String,Object>singletonMap("conceptId", conceptId));
-			return JsonUtils.toObject(json,EntityType.class);
+			Response response = exchange("createEntityType", Request.POST, TYPES, TYPES.path(), "", token, Collections.<String,Object>singletonMap("conceptId", conceptId));
+			return decode(response, EntityType.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -868,8 +1261,8 @@ public class SocialService {
 	public EntityType getEntityTypeById(String token, String entityTypeId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, TYPES + entityTypeId, token, null);
-			return JsonUtils.toObject(json, EntityType.class);
+			Response response = exchange("getEntityTypeById", Request.GET, TYPE, TYPE.expand(entityTypeId), null, token, null);
+			return decode(response, EntityType.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
@@ -889,13 +1282,33 @@ public class SocialService {
 	public EntityType getEntityTypeByConceptId(String token, String conceptId)
 			throws SecurityException, SocialServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, TYPES_BY_CONCEPT + conceptId, token, null);
-			return JsonUtils.toObject(json, EntityType.class);
+			Response response = exchange("getEntityTypeByConceptId", Request.GET, TYPE_BY_CONCEPT, TYPE_BY_CONCEPT.expand(conceptId), null, token, null);
+			return decode(response, EntityType.class);
 		} catch (RemoteException e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	/**
+	 * retrieves the entity type of a concept, creating it if missing. Only
+	 * one lookup per concept is made at a time, concurrent callers share its
+	 * result, and the resolved types are kept so that later calls make no
+	 * request. A concept whose type cannot be created is remembered for 30
+	 * seconds.
+	 * 
+	 * @param token
+	 *            client or user access token
+	 * @param conceptId
+	 *            id of the concept
+	 * @return the entity type of the concept, null if it cannot be created
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public EntityType getOrCreateEntityType(String token, String conceptId)
+			throws SecurityException, SocialServiceException {
+		return typeResolver.resolve(token, conceptId);
+	}
+
 	/**
 	 * Retrieves a list of entity types that satisfy given prefix, sized by
 	 * maxResults parameter (if set)
@@ -913,11 +1326,9 @@ public class SocialService {
 	public EntityTypes getEntityTypeByPrefix(String token, String prefix,
 			Integer maxResults) throws SocialServiceException {
 		try {
-			Map<String, Object> parameters = new HashMap<String, Object>();
-			if (maxResults != null && maxResults > 0 ) parameters.put("maxResults", maxResults);
-			parameters.put("prefix", prefix);
-			String json = RemoteConnector.getJSON(serviceUrl, TYPES, token, parameters);
-			return JsonUtils.toObject(json, EntityTypes.class);
+			Map<String, Object> parameters = QueryParameters.prefix(prefix, maxResults);
+			Response response = exchange("getEntityTypeByPrefix", Request.GET, TYPES, TYPES.path(), null, token, parameters);
+			return decode(response, EntityTypes.class);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
@@ -941,14 +1352,347 @@ public class SocialService {
 	public Concepts getConceptByPrefix(String token, String prefix, Integer maxResults) throws SecurityException,
 			SocialServiceException {
 		try {
-			Map<String, Object> parameters = new HashMap<String, Object>();
-			if (maxResults != null && maxResults > 0 ) parameters.put("maxResults", maxResults);
-			parameters.put("prefix", prefix);
-			String json = RemoteConnector.getJSON(serviceUrl, CONCEPTS, token, parameters);
-			return JsonUtils.toObject(json, Concepts.class);
+			Map<String, Object> parameters = QueryParameters.prefix(prefix, maxResults);
+			Response response = exchange("getConceptByPrefix", Request.GET, CONCEPTS, CONCEPTS.path(), null, token, parameters);
+			return decode(response, Concepts.class);
 		} catch (Exception e) {
 			throw new SocialServiceException(e);
 		}
 	}
 
+	private Response exchange(String operation, String method, Route route, String path, String body, String token,
+			Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return exchange(operation, method, route, path, body, token, parameters, codecs.getAccept());
+	}
+
+	private Response exchange(String operation, String method, Route route, String path, String body, String token,
+			Map<String, Object> parameters, String accept) throws SecurityException, RemoteException {
+		return execute(request(operation, method, route, path, body, token, parameters, accept));
+	}
+
+	/**
+	 * executes a create call with an idempotency key, the attached one or a
+	 * new one. The outcome of a call with an attached key is journaled, and
+	 * returned when the call is repeated.
+	 */
+	private Response create(String operation, String method, Route route, String path, String body, String token)
+			throws SecurityException, RemoteException {
+		IdempotencyKey attached = IdempotencyKey.current();
+		String key = attached != null ? attached.getValue() : UUID.randomUUID().toString();
+		String entry = attached == null ? null : OutcomeJournal.entry(operation, token, path, key);
+		if (entry != null) {
+			Response outcome = journal.get(entry);
+			if (outcome != null) {
+				return outcome;
+			}
+		}
+		Request request = request(operation, method, route, path, body, token, null, codecs.getAccept());
+		request.setHeader(IDEMPOTENCY_KEY, key);
+		long delay = CREATE_RETRY_DELAY;
+		for (int attempt = 0;; attempt++) {
+			try {
+				Response response = execute(request);
+				if (entry != null) {
+					journal.put(entry, response);
+				}
+				return response;
+			} catch (RemoteException e) {
+				if (attempt >= createRetries || !isOutcomeUnknown(e)) {
+					throw e;
+				}
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException("Interrupted retrying " + operation);
+			}
+			delay *= 2;
+		}
+	}
+
+	/**
+	 * @return true if the request may have been executed by the service
+	 *         without the client getting the response: a 5xx status or an
+	 *         I/O failure of the exchange
+	 */
+	private static boolean isOutcomeUnknown(RemoteException e) {
+		if (e instanceof StatusException) {
+			return ((StatusException) e).getStatus() >= 500;
+		}
+		// aborted calls have spent their budget, the other failures are client
+		// errors or were raised before sending
+		return !(e instanceof CallAbortedException) && e.getCause() instanceof IOException;
+	}
+
+	private Request request(String operation, String method, Route route, String path, String body, String token,
+			Map<String, Object> parameters, String accept) {
+		Request request = new Request(method, serviceUrl, path, token);
+		request.setOperation(operation);
+		request.setTemplate(route.toString());
+		request.setCommunityId(route.value(path, "communityId"));
+		request.setParameters(parameters);
+		request.setAccept(accept);
+		if (body != null) {
+			request.setBody(utf8(body));
+		}
+		return request;
+	}
+
+	private Entities entities(Listing listing, Integer position, Integer size) throws SecurityException,
+			RemoteException, ListingLimitException {
+		if (limits.isUnlimited()) {
+			return decode(listing.fetch(position, size, codecs.getAccept(), -1), Entities.class);
+		}
+		final List<Entity> content = new ArrayList<Entity>();
+		list(listing, position, size, codecs.getAccept(), new PageConsumer() {
+			@Override
+			public int consume(Response page) {
+				Entities entities = decode(page, Entities.class);
+				if (entities == null || entities.getContent() == null) {
+					return 0;
+				}
+				content.addAll(entities.getContent());
+				return entities.getContent().size();
+			}
+		});
+		Entities result = new Entities();
+		result.setContent(content);
+		return result;
+	}
+
+	private LazyEntities lazyEntities(Listing listing, Integer position, Integer size) throws SecurityException,
+			RemoteException, ListingLimitException {
+		if (limits.isUnlimited()) {
+			return LazyEntities.parse(listing.fetch(position, size, Request.JSON, -1).getBody());
+		}
+		final List<LazyEntities> pages = new ArrayList<LazyEntities>();
+		list(listing, position, size, Request.JSON, new PageConsumer() {
+			@Override
+			public int consume(Response page) {
+				LazyEntities entities = LazyEntities.parse(page.getBody());
+				pages.add(entities);
+				return entities.size();
+			}
+		});
+		return LazyEntities.concat(pages);
+	}
+
+	/**
+	 * reads a listing within the limits, in a single response unless a
+	 * {@link ListingLimits.Mode#PAGE} limit applies. Each page is handed to
+	 * the consumer as soon as it arrives, so only one page is buffered at a
+	 * time, and the pages stop once the consumer has been handed more than
+	 * the total limit.
+	 */
+	private void list(Listing listing, Integer position, Integer size, String accept, PageConsumer consumer)
+			throws SecurityException, RemoteException, ListingLimitException {
+		ListingLimits l = limits;
+		long maxBytes = l.getMaxBytes();
+		int maxEntities = l.getMaxEntities();
+		int remaining = size == null || size < 0 ? Integer.MAX_VALUE : size;
+		boolean pageBytes = maxBytes > 0 && l.getBytesMode() == ListingLimits.Mode.PAGE;
+		boolean limitEntities = maxEntities > 0 && remaining > maxEntities;
+		boolean pageEntities = limitEntities && l.getEntitiesMode() == ListingLimits.Mode.PAGE;
+		boolean failEntities = limitEntities && !pageEntities;
+
+		if (!pageBytes && !pageEntities) {
+			// single response, at most one entity over the limit is read
+			Integer pageSize = failEntities ? Integer.valueOf(maxEntities + 1) : size;
+			int count = consumer.consume(fetch(listing, position, pageSize, accept, maxBytes));
+			if (failEntities && count > maxEntities) {
+				throw entitiesExceeded(listing, maxEntities);
+			}
+			return;
+		}
+		int from = position == null || position < 0 ? 0 : position;
+		int pageSize = Math.min(remaining, maxEntities > 0 ? maxEntities : ListingLimits.DEFAULT_PAGE_SIZE);
+		int maxTotal = l.getMaxTotal();
+		boolean limitTotal = maxTotal > 0 && remaining > maxTotal;
+		int total = 0;
+		while (remaining > 0) {
+			int request = Math.min(pageSize, remaining);
+			if (failEntities) {
+				request = Math.min(request, maxEntities + 1 - total);
+			}
+			if (limitTotal) {
+				request = Math.min(request, maxTotal + 1 - total);
+			}
+			Response page;
+			try {
+				page = listing.fetch(from, request, accept, maxBytes);
+			} catch (ResponseTooLargeException e) {
+				if (!pageBytes || request == 1) {
+					throw bytesExceeded(listing, e);
+				}
+				pageSize = Math.max(1, request / 2);
+				continue;
+			}
+			int count = consumer.consume(page);
+			total += count;
+			from += count;
+			remaining -= count;
+			if (failEntities && total > maxEntities) {
+				throw entitiesExceeded(listing, maxEntities);
+			}
+			if (limitTotal && total > maxTotal) {
+				throw entitiesExceeded(listing, maxTotal);
+			}
+			if (count < request) {
+				break;
+			}
+		}
+	}
+
+	private Response fetch(Listing listing, Integer position, Integer size, String accept, long maxBytes)
+			throws SecurityException, RemoteException, ListingLimitException {
+		try {
+			return listing.fetch(position, size, accept, maxBytes);
+		} catch (ResponseTooLargeException e) {
+			throw bytesExceeded(listing, e);
+		}
+	}
+
+	private static ListingLimitException bytesExceeded(Listing listing, ResponseTooLargeException e) {
+		return new ListingLimitException(listing.operation + ": " + e.getMessage(), true, e.getLimit(), e);
+	}
+
+	private static ListingLimitException entitiesExceeded(Listing listing, int limit) {
+		return new ListingLimitException(listing.operation + ": more than " + limit + " entities", false, limit,
+				null);
+	}
+
+	/**
+	 * sends a merge patch
+	 * 
+	 * @return the outcome of the call, null if the service does not support
+	 *         PATCH on the route
+	 */
+	private Boolean patch(String operation, Route route, String path, String patch, String token)
+			throws SecurityException, RemoteException {
+		if (unpatchable.contains(route)) {
+			return null;
+		}
+		Request request = request(operation, Request.PATCH, route, path, patch, token, null, codecs.getAccept());
+		request.setContentType(Request.MERGE_PATCH);
+		try {
+			return success(execute(request));
+		} catch (StatusException e) {
+			if (!e.isUnsupported()) {
+				throw e;
+			}
+			unpatchable.add(route);
+			return null;
+		}
+	}
+
+	private Response execute(Request request) throws SecurityException, RemoteException {
+		CallContext context = CallContext.current();
+		if (context != null) {
+			context.check();
+			request.setContext(context);
+		}
+		request.setPriority(Priority.current());
+		Tracer t = tracer;
+		if (t == Tracer.NOOP) {
+			return transport.execute(request);
+		}
+		Span span = t.start(request);
+		try {
+			Response response = transport.execute(request);
+			span.end(response, null);
+			return response;
+		} catch (RemoteException e) {
+			span.end(null, e);
+			throw e;
+		} catch (RuntimeException e) {
+			span.end(null, e);
+			throw e;
+		}
+	}
+
+	private static byte[] utf8(String text) {
+		try {
+			return text.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the values of the first list missing from the second one
+	 */
+	private static List<String> missing(List<String> values, List<String> from) {
+		if (values == null) {
+			return Collections.emptyList();
+		}
+		Set<String> present = from == null ? Collections.<String> emptySet() : new HashSet<String>(from);
+		List<String> result = new ArrayList<String>();
+		for (String value : values) {
+			if (!present.contains(value)) {
+				result.add(value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * paginated entity listing call
+	 */
+	private final class Listing {
+		final String operation;
+		final String method;
+		final Route route;
+		final String path;
+		final String body;
+		final String token;
+		final String typeId;
+
+		Listing(String operation, String method, Route route, String path, String body, String token,
+				String typeId) {
+			this.operation = operation;
+			this.method = method;
+			this.route = route;
+			this.path = path;
+			this.body = body;
+			this.token = token;
+			this.typeId = typeId;
+		}
+
+		Response fetch(Integer position, Integer size, String accept, long maxBytes) throws SecurityException,
+				RemoteException {
+			Request request = request(operation, method, route, path, body, token,
+					QueryParameters.paging(position, size, typeId), accept);
+			request.setMaxResponseBytes(maxBytes);
+			return execute(request);
+		}
+	}
+
+	/**
+	 * receives the pages of a listing
+	 */
+	private interface PageConsumer {
+		/**
+		 * @return number of entities of the page
+		 */
+		int consume(Response page);
+	}
+
+	private <T> T decode(Response response, Class<T> type) {
+		PayloadCodec codec = codecs.forContentType(response.getContentType());
+		// the text of a JSON response is not converted back to bytes
+		T value = codec instanceof JsonCodec ? ((JsonCodec) codec).decode(response.getText(), type) : codec
+				.decode(response.getBody(), type);
+		Interner interner = this.interner;
+		return interner == null ? value : interner.internDecoded(value);
+	}
+
+	private boolean success(Response response) {
+		PayloadCodec codec = codecs.forContentType(response.getContentType());
+		if (codec == codecs.getJson()) {
+			return Boolean.valueOf(response.getText());
+		}
+		return Boolean.TRUE.equals(codec.decode(response.getBody(), Boolean.class));
+	}
+
 }
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 fingerprint of an access token, used in place of the token in the
+ * keys of the client caches and journals so that they do not hold the
+ * tokens themselves.
+ *
+ * The fingerprints of the last tokens seen are kept, so repeated calls with
+ * the same token do not compute the digest again.
+ */
+public final class TokenFingerprint {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** direct-mapped cache of the last fingerprints */
+	private static final int CACHE_SIZE = 64;
+	private static final Entry[] cache = new Entry[CACHE_SIZE];
+
+	private TokenFingerprint() {
+	}
+
+	/**
+	 * @return the SHA-256 of the token, in hex, or an empty string if the
+	 *         token is null
+	 */
+	public static String of(String token) {
+		if (token == null) {
+			return "";
+		}
+		int slot = token.hashCode() & (CACHE_SIZE - 1);
+		Entry cached = cache[slot];
+		if (cached != null && cached.token.equals(token)) {
+			return cached.fingerprint;
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes("UTF-8"));
+			char[] c = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				c[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+				c[i * 2 + 1] = HEX[digest[i] & 0x0F];
+			}
+			String fingerprint = new String(c);
+			cache[slot] = new Entry(token, fingerprint);
+			return fingerprint;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * a token with its fingerprint, replaced as a whole in its slot
+	 */
+	private static final class Entry {
+		final String token;
+		final String fingerprint;
+
+		Entry(String token, String fingerprint) {
+			this.token = token;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+/**
+ * Receives the results of a {@link TokenFanOut} as they complete. Methods are
+ * called concurrently by the worker threads.
+ * 
+ * @param <T>
+ *            result of the operation
+ */
+public interface BatchHandler<T> {
+
+	/**
+	 * @param token
+	 *            the access token
+	 * @param result
+	 *            result of the operation for the token
+	 */
+	void onResult(String token, T result);
+
+	/**
+	 * @param token
+	 *            the access token
+	 * @param failure
+	 *            failure of the operation for the token
+	 */
+	void onFailure(String token, Exception failure);
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link TokenFanOut} run
+ */
+public class BatchReport {
+
+	private final long succeeded;
+	private final Map<String, Exception> failures;
+	private final boolean aborted;
+	private final long elapsedMillis;
+
+	BatchReport(long succeeded, Map<String, Exception> failures,
+			boolean aborted, long elapsedMillis) {
+		this.succeeded = succeeded;
+		this.failures = Collections.unmodifiableMap(failures);
+		this.aborted = aborted;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return number of tokens processed successfully
+	 */
+	public long getSucceeded() {
+		return succeeded;
+	}
+
+	/**
+	 * @return failure of each failed token
+	 */
+	public Map<String, Exception> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return true if the run stopped before starting every token, because
+	 *         its call context was done or its thread was interrupted
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "succeeded=" + succeeded + " failed=" + failures.size()
+				+ (aborted ? " aborted" : "") + " in " + elapsedMillis + "ms";
+	}
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.trace.TraceContext;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+import eu.trentorise.smartcampus.socialservice.transport.Priority;
+
+/**
+ * Aligns the members of a group to a desired list, e.g. read from a
+ * directory, with the fewest membership calls:
+ * 
+ * <pre>
+ * GroupSyncReport report = new GroupSync(socialService, 4).syncGroupMembers(
+ * 		groupId, directoryUserIds, token);
+ * </pre>
+ * 
+ * Only the missing users are added and only the extra users removed, in
+ * chunks of at most <code>chunkSize</code> users sent in parallel. All the
+ * additions complete before the first removal, so the members kept are never
+ * out of the group and the group is never empty while it is synchronized.
+ * The {@link CallContext}, {@link TraceContext} and {@link Priority} of the
+ * caller apply to all the calls.
+ */
+public class GroupSync {
+
+	public static final int DEFAULT_CHUNK_SIZE = 200;
+
+	private final SocialService socialService;
+	private final int parallelism;
+	private final int chunkSize;
+
+	/**
+	 * @param socialService
+	 *            the client
+	 * @param parallelism
+	 *            max number of membership calls in flight
+	 */
+	public GroupSync(SocialService socialService, int parallelism) {
+		this(socialService, parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param socialService
+	 *            the client
+	 * @param parallelism
+	 *            max number of membership calls in flight
+	 * @param chunkSize
+	 *            max number of users of a membership call
+	 */
+	public GroupSync(SocialService socialService, int parallelism,
+			int chunkSize) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism "
+					+ parallelism);
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid chunk size "
+					+ chunkSize);
+		}
+		this.socialService = socialService;
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * sets the members of a group. Failed chunks do not stop the others and
+	 * are listed in the report.
+	 * 
+	 * @param groupId
+	 *            id of the group
+	 * @param desiredUserIds
+	 *            the members the group must have, duplicates are ignored
+	 * @param token
+	 *            user access token
+	 * @return the changes made
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 *             if the group cannot be read
+	 */
+	public GroupSyncReport syncGroupMembers(String groupId,
+			Collection<String> desiredUserIds, String token)
+			throws SecurityException, SocialServiceException {
+		long start = System.nanoTime();
+		Group group = socialService.getUserGroup(groupId, token);
+		if (group == null) {
+			throw new SocialServiceException("Group not found: " + groupId);
+		}
+		List<String> current = group.getUsers() == null ? Collections
+				.<String> emptyList() : group.getUsers();
+		Set<String> members = new HashSet<String>(current);
+		Set<String> desired = new LinkedHashSet<String>(desiredUserIds);
+
+		List<String> toAdd = new ArrayList<String>();
+		for (String userId : desired) {
+			if (!members.contains(userId)) {
+				toAdd.add(userId);
+			}
+		}
+		List<String> toRemove = new ArrayList<String>();
+		for (String userId : members) {
+			if (!desired.contains(userId)) {
+				toRemove.add(userId);
+			}
+		}
+		int unchanged = desired.size() - toAdd.size();
+
+		List<String> added = new ArrayList<String>();
+		List<String> removed = new ArrayList<String>();
+		List<String> notAdded = new ArrayList<String>();
+		List<String> notRemoved = new ArrayList<String>();
+		List<Exception> failures = new ArrayList<Exception>();
+		if (!toAdd.isEmpty() || !toRemove.isEmpty()) {
+			ExecutorService executor = Executors.newFixedThreadPool(
+					Math.min(parallelism, chunks(toAdd.size()) + chunks(toRemove.size())),
+					new WorkerFactory());
+			try {
+				if (apply(executor, groupId, token, true, toAdd, added, notAdded, failures)) {
+					apply(executor, groupId, token, false, toRemove, removed, notRemoved, failures);
+				} else {
+					notRemoved.addAll(toRemove);
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+		return new GroupSyncReport(added, removed, notAdded, notRemoved,
+				unchanged, failures,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	private int chunks(int users) {
+		return (users + chunkSize - 1) / chunkSize;
+	}
+
+	/**
+	 * sends the chunks in parallel, returning when all are completed
+	 * 
+	 * @return false if the thread was interrupted
+	 */
+	private boolean apply(ExecutorService executor, final String groupId,
+			final String token, final boolean add, List<String> userIds,
+			List<String> done, List<String> notDone, List<Exception> failures) {
+		final CallContext callContext = CallContext.current();
+		final TraceContext traceContext = TraceContext.current();
+		final Priority priority = Priority.current();
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int from = 0; from < userIds.size(); from += chunkSize) {
+			final List<String> chunk = userIds.subList(from,
+					Math.min(userIds.size(), from + chunkSize));
+			chunks.add(chunk);
+			results.add(executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					if (callContext != null) {
+						callContext.check();
+					}
+					CallContext previousCall = callContext == null ? null
+							: callContext.attach();
+					TraceContext previousTrace = traceContext == null ? null
+							: traceContext.attach();
+					Priority previousPriority = priority.attach();
+					try {
+						return add ? socialService.addUsersToGroup(groupId,
+								chunk, token) : socialService
+								.removeUsersFromGroup(groupId, chunk, token);
+					} finally {
+						Priority.restore(previousPriority);
+						if (traceContext != null) {
+							TraceContext.restore(previousTrace);
+						}
+						if (callContext != null) {
+							CallContext.restore(previousCall);
+						}
+					}
+				}
+			}));
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < chunks.size(); i++) {
+			List<String> chunk = chunks.get(i);
+			try {
+				if (interrupted) {
+					results.get(i).cancel(true);
+					notDone.addAll(chunk);
+				} else if (results.get(i).get()) {
+					done.addAll(chunk);
+				} else {
+					notDone.addAll(chunk);
+				}
+			} catch (ExecutionException e) {
+				notDone.addAll(chunk);
+				Throwable cause = e.getCause();
+				failures.add(cause instanceof Exception ? (Exception) cause
+						: new SocialServiceException(cause));
+			} catch (InterruptedException e) {
+				interrupted = true;
+				results.get(i).cancel(true);
+				notDone.addAll(chunk);
+				failures.add(e);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return !interrupted;
+	}
+
+	private static final class WorkerFactory implements ThreadFactory {
+		private static final AtomicInteger runs = new AtomicInteger();
+		private final int run = runs.incrementAndGet();
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "socialservice-groupsync-" + run + "-"
+					+ count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link GroupSync#syncGroupMembers(String, java.util.Collection, String)}
+ */
+public class GroupSyncReport {
+
+	private final List<String> added;
+	private final List<String> removed;
+	private final List<String> notAdded;
+	private final List<String> notRemoved;
+	private final int unchanged;
+	private final List<Exception> failures;
+	private final long elapsedMillis;
+
+	GroupSyncReport(List<String> added, List<String> removed,
+			List<String> notAdded, List<String> notRemoved, int unchanged,
+			List<Exception> failures, long elapsedMillis) {
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.notAdded = Collections.unmodifiableList(notAdded);
+		this.notRemoved = Collections.unmodifiableList(notRemoved);
+		this.unchanged = unchanged;
+		this.failures = Collections.unmodifiableList(failures);
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return users added to the group
+	 */
+	public List<String> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return users removed from the group
+	 */
+	public List<String> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return users to add whose call failed or was not started
+	 */
+	public List<String> getNotAdded() {
+		return notAdded;
+	}
+
+	/**
+	 * @return users to remove whose call failed or was not started
+	 */
+	public List<String> getNotRemoved() {
+		return notRemoved;
+	}
+
+	/**
+	 * @return number of desired users already members of the group
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * @return failures of the membership calls
+	 */
+	public List<Exception> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return true if the group has now exactly the desired members
+	 */
+	public boolean isComplete() {
+		return notAdded.isEmpty() && notRemoved.isEmpty();
+	}
+
+	/**
+	 * @return true if no membership call was needed
+	 */
+	public boolean isUnchanged() {
+		return added.isEmpty() && removed.isEmpty() && isComplete();
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "added=" + added.size() + " removed=" + removed.size()
+				+ " unchanged=" + unchanged
+				+ (isComplete() ? "" : " notAdded=" + notAdded.size()
+						+ " notRemoved=" + notRemoved.size()) + " in "
+				+ elapsedMillis + "ms";
+	}
+}
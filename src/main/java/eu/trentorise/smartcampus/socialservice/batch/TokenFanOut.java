@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.trace.TraceContext;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+import eu.trentorise.smartcampus.socialservice.transport.Priority;
+
+/**
+ * Runs an operation for many access tokens with bounded parallelism, e.g.
+ * 
+ * <pre>
+ * BatchReport report = new TokenFanOut(socialService, 20).run(tokens,
+ * 		TokenOperation.USER_COMMUNITIES, handler);
+ * </pre>
+ * 
+ * Tokens are read from the iterable as workers free up, so no more than
+ * <code>parallelism</code> calls are in flight and the tokens are never
+ * copied. Results are streamed to the {@link BatchHandler} as they complete;
+ * a failing token is reported and collected without stopping the run.
+ * 
+ * The parallelism should match the connections of the transport, e.g. the
+ * pool size of {@link eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport}.
+ * The {@link CallContext}, {@link TraceContext} and {@link Priority} of the
+ * caller apply to all the calls of the run.
+ */
+public class TokenFanOut {
+
+	private final SocialService socialService;
+	private final int parallelism;
+
+	/**
+	 * @param socialService
+	 *            the client
+	 * @param parallelism
+	 *            max number of calls in flight
+	 */
+	public TokenFanOut(SocialService socialService, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism "
+					+ parallelism);
+		}
+		this.socialService = socialService;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * runs the operation for each token, returning when all the started calls
+	 * are completed
+	 * 
+	 * @param tokens
+	 *            access tokens, duplicates are called once per occurrence
+	 * @param operation
+	 *            operation to run
+	 * @param handler
+	 *            receives the results, may be null
+	 * @return the report of the run
+	 */
+	public <T> BatchReport run(Iterable<String> tokens,
+			final TokenOperation<T> operation, final BatchHandler<T> handler) {
+		long start = System.nanoTime();
+		final CallContext callContext = CallContext.current();
+		final TraceContext traceContext = TraceContext.current();
+		final Priority priority = Priority.current();
+		final Semaphore permits = new Semaphore(parallelism);
+		final AtomicLong succeeded = new AtomicLong();
+		final Map<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+				new WorkerFactory());
+		boolean aborted = false;
+		try {
+			for (final String token : tokens) {
+				if (callContext != null && callContext.isDone()) {
+					aborted = true;
+					break;
+				}
+				permits.acquire();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						CallContext previousCall = callContext == null ? null
+								: callContext.attach();
+						TraceContext previousTrace = traceContext == null ? null
+								: traceContext.attach();
+						Priority previousPriority = priority.attach();
+						try {
+							T result = operation.call(socialService, token);
+							succeeded.incrementAndGet();
+							if (handler != null) {
+								handler.onResult(token, result);
+							}
+						} catch (Exception e) {
+							failures.put(token, e);
+							if (handler != null) {
+								handler.onFailure(token, e);
+							}
+						} finally {
+							Priority.restore(previousPriority);
+							if (traceContext != null) {
+								TraceContext.restore(previousTrace);
+							}
+							if (callContext != null) {
+								CallContext.restore(previousCall);
+							}
+							permits.release();
+						}
+					}
+				});
+			}
+			permits.acquire(parallelism);
+			permits.release(parallelism);
+		} catch (InterruptedException e) {
+			aborted = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+		return new BatchReport(succeeded.get(), failures, aborted,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	private static final class WorkerFactory implements ThreadFactory {
+		private static final AtomicInteger runs = new AtomicInteger();
+		private final int run = runs.incrementAndGet();
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "socialservice-fanout-" + run + "-"
+					+ count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import eu.trentorise.smartcampus.social.model.Communities;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Groups;
+import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+
+/**
+ * Operation run by a {@link TokenFanOut} for each access token
+ * 
+ * @param <T>
+ *            result of the operation
+ */
+public abstract class TokenOperation<T> {
+
+	public static final TokenOperation<Communities> USER_COMMUNITIES = new TokenOperation<Communities>() {
+		@Override
+		public Communities call(SocialService socialService, String token)
+				throws SecurityException, SocialServiceException {
+			return socialService.getUserCommunities(token);
+		}
+	};
+
+	public static final TokenOperation<Groups> USER_GROUPS = new TokenOperation<Groups>() {
+		@Override
+		public Groups call(SocialService socialService, String token)
+				throws SecurityException, SocialServiceException {
+			return socialService.getUserGroups(token);
+		}
+	};
+
+	/**
+	 * @return the operation reading a page of the entities shared with each
+	 *         user
+	 */
+	public static TokenOperation<Entities> entitiesSharedWithUser(
+			final ShareVisibility shareVisibility, final Integer position,
+			final Integer size, final String typeId) {
+		return new TokenOperation<Entities>() {
+			@Override
+			public Entities call(SocialService socialService, String token)
+					throws SecurityException, SocialServiceException {
+				return socialService.getEntitiesSharedWithUser(token,
+						shareVisibility, position, size, typeId);
+			}
+		};
+	}
+
+	/**
+	 * runs the operation for a token
+	 * 
+	 * @param socialService
+	 *            the client
+	 * @param token
+	 *            the access token
+	 * @return the result
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public abstract T call(SocialService socialService, String token)
+			throws SecurityException, SocialServiceException;
+}
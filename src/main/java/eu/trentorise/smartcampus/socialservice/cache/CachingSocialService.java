@@ -0,0 +1,661 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.cache;
+
+import java.util.List;
+
+import eu.trentorise.smartcampus.social.model.Communities;
+import eu.trentorise.smartcampus.social.model.Community;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.EntityType;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.social.model.Groups;
+import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.ListingLimits;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.TokenFingerprint;
+import eu.trentorise.smartcampus.socialservice.codec.Codecs;
+import eu.trentorise.smartcampus.socialservice.codec.Interner;
+import eu.trentorise.smartcampus.socialservice.trace.Tracer;
+import eu.trentorise.smartcampus.socialservice.transport.Transport;
+
+/**
+ * {@link SocialService} serving groups, communities, entities and entity
+ * types from a {@link ClientCache}.
+ *
+ * Entries are cached per access token, keyed on its {@link TokenFingerprint}
+ * so that the cache does not hold the tokens themselves. The write methods of this instance
+ * invalidate the entries they modify, for every token, together with the
+ * listings that contain them, so a read following a write always goes to
+ * the service. Writes done by other clients are seen when the entries
+ * expire.
+ *
+ * The public community listings, {@link #getCommunities(String)} and
+ * {@link #getCommunityBySocialId(String, String)}, are served
+ * stale-while-revalidate: once expired they are still returned at once, for
+ * up to {@link #getMaxStaleness()} milliseconds, while they are refreshed in
+ * background.
+ *
+ * The cached calls are made through an origin client, which may be another
+ * client adding its own behaviour, e.g.
+ *
+ * <pre>
+ * IndexedSocialService indexed = new IndexedSocialService(serviceUrl, transport, index);
+ * CachingSocialService socialService = new CachingSocialService(indexed, cache);
+ * </pre>
+ *
+ * keeps the membership index up to date with the entries loaded into the
+ * cache and with the writes. The other calls are made by this client with
+ * the transport of the origin, and the settings of this client are applied
+ * to the origin too.
+ *
+ * Cached objects are shared between callers and must not be modified, use
+ * the update methods instead.
+ */
+public class CachingSocialService extends SocialService {
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_TTL = 60 * 1000;
+	public static final long DEFAULT_MAX_STALENESS = 5 * 60 * 1000;
+
+	private static final String ALL_COMMUNITIES = "communities";
+
+	protected final ClientCache cache;
+	/** client making the cached calls */
+	protected final SocialService origin;
+	private volatile long maxStaleness = DEFAULT_MAX_STALENESS;
+
+	public CachingSocialService(String serviceUrl) {
+		this(serviceUrl, new ClientCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL));
+	}
+
+	public CachingSocialService(String serviceUrl, ClientCache cache) {
+		this(new SocialService(serviceUrl), cache);
+	}
+
+	public CachingSocialService(String serviceUrl, Transport transport, ClientCache cache) {
+		this(new SocialService(serviceUrl, transport), cache);
+	}
+
+	/**
+	 * @param origin
+	 *            client making the calls whose results are cached
+	 * @param cache
+	 *            the cache
+	 */
+	public CachingSocialService(SocialService origin, ClientCache cache) {
+		super(origin.getServiceUrl(), origin.getTransport());
+		this.origin = origin;
+		this.cache = cache;
+		super.setCodecs(origin.getCodecs());
+		super.setInterner(origin.getInterner());
+		super.setTracer(origin.getTracer());
+		super.setListingLimits(origin.getListingLimits());
+		super.setCreateRetries(origin.getCreateRetries());
+	}
+
+	/**
+	 * @return the client making the cached calls
+	 */
+	public SocialService getOrigin() {
+		return origin;
+	}
+
+	@Override
+	public void setCodecs(Codecs codecs) {
+		super.setCodecs(codecs);
+		origin.setCodecs(codecs);
+	}
+
+	@Override
+	public void setInterner(Interner interner) {
+		super.setInterner(interner);
+		origin.setInterner(interner);
+	}
+
+	@Override
+	public void setTracer(Tracer tracer) {
+		super.setTracer(tracer);
+		origin.setTracer(tracer);
+	}
+
+	@Override
+	public void setCreateRetries(int createRetries) {
+		super.setCreateRetries(createRetries);
+		origin.setCreateRetries(createRetries);
+	}
+
+	@Override
+	public void setListingLimits(ListingLimits limits) {
+		super.setListingLimits(limits);
+		origin.setListingLimits(limits);
+	}
+
+	/**
+	 * @return the cache used by the client
+	 */
+	public ClientCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * sets how long the public community listings are served after their
+	 * expiry while being refreshed
+	 *
+	 * @param maxStaleness
+	 *            time in milliseconds, 0 to load the expired listings before
+	 *            returning them
+	 */
+	public void setMaxStaleness(long maxStaleness) {
+		this.maxStaleness = maxStaleness;
+	}
+
+	public long getMaxStaleness() {
+		return maxStaleness;
+	}
+
+	@Override
+	public Groups getUserGroups(final String token) throws SecurityException,
+			SocialServiceException {
+		return cache.get(key("groups", token, null), new ClientCache.Loader<Groups>() {
+			@Override
+			public Groups load() throws SocialServiceException {
+				return origin.getUserGroups(token);
+			}
+
+			@Override
+			public String[] scopes(Groups value) {
+				return groupScopes(value.getContent());
+			}
+		}, userGroupsScope(token));
+	}
+
+	@Override
+	public Group createUserGroup(String token, String name)
+			throws SocialServiceException {
+		Group group = origin.createUserGroup(token, name);
+		cache.invalidate(userGroupsScope(token));
+		if (group != null) {
+			cache.put(key("group", token, group.getSocialId()), group,
+					groupScope(group.getSocialId()));
+		}
+		return group;
+	}
+
+	@Override
+	public boolean updateUserGroup(String token, Group group)
+			throws SocialServiceException {
+		try {
+			return origin.updateUserGroup(token, group);
+		} finally {
+			cache.invalidate(groupScope(group.getSocialId()), userGroupsScope(token));
+		}
+	}
+
+	@Override
+	public boolean updateUserGroup(String token, Group previous, Group group)
+			throws SocialServiceException {
+		try {
+			return origin.updateUserGroup(token, previous, group);
+		} finally {
+			cache.invalidate(groupScope(group.getSocialId()), userGroupsScope(token));
+		}
+	}
+
+	@Override
+	public boolean deleteUserGroup(String token, String groupId)
+			throws SocialServiceException {
+		try {
+			return origin.deleteUserGroup(token, groupId);
+		} finally {
+			cache.invalidate(groupScope(groupId), userGroupsScope(token));
+		}
+	}
+
+	@Override
+	public Group getUserGroup(final String groupId, final String token)
+			throws SecurityException, SocialServiceException {
+		return cache.get(key("group", token, groupId), new ClientCache.Loader<Group>() {
+			@Override
+			public Group load() throws SocialServiceException {
+				return origin.getUserGroup(groupId, token);
+			}
+		}, groupScope(groupId));
+	}
+
+	@Override
+	public boolean addUsersToGroup(String groupId, List<String> userIds,
+			String token) throws SecurityException, SocialServiceException {
+		try {
+			return origin.addUsersToGroup(groupId, userIds, token);
+		} finally {
+			cache.invalidate(groupScope(groupId));
+		}
+	}
+
+	@Override
+	public boolean removeUsersFromGroup(String groupId, List<String> userIds,
+			String token) throws SecurityException, SocialServiceException {
+		try {
+			return origin.removeUsersFromGroup(groupId, userIds, token);
+		} finally {
+			cache.invalidate(groupScope(groupId));
+		}
+	}
+
+	@Override
+	public Community getCommunity(final String communityId, final String token)
+			throws SecurityException, SocialServiceException {
+		return cache.get(key("community", token, communityId),
+				new ClientCache.Loader<Community>() {
+					@Override
+					public Community load() throws SocialServiceException {
+						return origin.getCommunity(communityId, token);
+					}
+				}, communityScope(communityId));
+	}
+
+	@Override
+	public Community getCommunityBySocialId(final String socialId, final String token)
+			throws SecurityException, SocialServiceException {
+		return cache.getRevalidating(key("community-social", token, socialId), maxStaleness,
+				new ClientCache.Loader<Community>() {
+					@Override
+					public Community load() throws SocialServiceException {
+						return origin.getCommunityBySocialId(socialId, token);
+					}
+
+					@Override
+					public String[] scopes(Community value) {
+						return new String[] { communityScope(value.getId()) };
+					}
+				}, ALL_COMMUNITIES);
+	}
+
+	@Override
+	public Communities getUserCommunities(final String token)
+			throws SecurityException, SocialServiceException {
+		return cache.get(key("user-communities", token, null),
+				new ClientCache.Loader<Communities>() {
+					@Override
+					public Communities load() throws SocialServiceException {
+						return origin.getUserCommunities(token);
+					}
+
+					@Override
+					public String[] scopes(Communities value) {
+						return communityScopes(value.getContent());
+					}
+				}, userCommunitiesScope(token), ALL_COMMUNITIES);
+	}
+
+	@Override
+	public Communities getCommunities(final String token)
+			throws SecurityException, SocialServiceException {
+		return cache.getRevalidating(key("communities", token, null), maxStaleness,
+				new ClientCache.Loader<Communities>() {
+					@Override
+					public Communities load() throws SocialServiceException {
+						return origin.getCommunities(token);
+					}
+				}, ALL_COMMUNITIES);
+	}
+
+	@Override
+	public boolean addUserToCommunity(String token, String communityId)
+			throws SocialServiceException, SecurityException {
+		try {
+			return origin.addUserToCommunity(token, communityId);
+		} finally {
+			cache.invalidate(userCommunitiesScope(token), communityScope(communityId));
+		}
+	}
+
+	@Override
+	public boolean removeUserFromCommunity(String token, String communityId)
+			throws SocialServiceException, SecurityException {
+		try {
+			return origin.removeUserFromCommunity(token, communityId);
+		} finally {
+			cache.invalidate(userCommunitiesScope(token), communityScope(communityId));
+		}
+	}
+
+	@Override
+	public Community createCommunity(String id, Community community,
+			String token) throws SocialServiceException, SecurityException {
+		try {
+			return origin.createCommunity(id, community, token);
+		} finally {
+			cache.invalidate(communityScope(id), ALL_COMMUNITIES);
+		}
+	}
+
+	@Override
+	public boolean deleteCommunity(String id, String token)
+			throws SocialServiceException, SecurityException {
+		try {
+			return origin.deleteCommunity(id, token);
+		} finally {
+			cache.invalidate(communityScope(id), communityEntitiesScope(id),
+					ALL_COMMUNITIES);
+		}
+	}
+
+	@Override
+	public Entities getUserEntities(final String token, final Integer position,
+			final Integer size, final String typeId) throws SecurityException,
+			SocialServiceException {
+		return cache.get(key("user-entities", token, position + "/" + size + "/" + typeId),
+				new ClientCache.Loader<Entities>() {
+					@Override
+					public Entities load() throws SocialServiceException {
+						return origin.getUserEntities(token, position, size, typeId);
+					}
+
+					@Override
+					public String[] scopes(Entities value) {
+						return entityScopes(value.getContent());
+					}
+				}, userEntitiesScope(token));
+	}
+
+	@Override
+	public Entity getUserEntity(final String token, final String entityId)
+			throws SecurityException, SocialServiceException {
+		return cache.get(key("user-entity", token, entityId),
+				new ClientCache.Loader<Entity>() {
+					@Override
+					public Entity load() throws SocialServiceException {
+						return origin.getUserEntity(token, entityId);
+					}
+				}, entityScope(entityId));
+	}
+
+	@Override
+	public Entity createUserEntity(String token, EntityRequest entity)
+			throws SecurityException, SocialServiceException {
+		Entity created = origin.createUserEntity(token, entity);
+		cache.invalidate(userEntitiesScope(token));
+		if (created != null) {
+			cache.put(key("user-entity", token, created.getEntityId()), created,
+					entityScope(created.getEntityId()));
+		}
+		return created;
+	}
+
+	@Override
+	public boolean deleteUserEntity(String token, String entityId)
+			throws SecurityException, SocialServiceException {
+		try {
+			return origin.deleteUserEntity(token, entityId);
+		} finally {
+			cache.invalidate(entityScope(entityId), userEntitiesScope(token));
+		}
+	}
+
+	@Override
+	public boolean updateUserEntity(String token, EntityRequest entity)
+			throws SecurityException, SocialServiceException {
+		try {
+			return origin.updateUserEntity(token, entity);
+		} finally {
+			cache.invalidate(entityScope(entity.getId()), userEntitiesScope(token));
+		}
+	}
+
+	@Override
+	public boolean updateUserEntity(String token, EntityRequest previous,
+			EntityRequest entity) throws SocialServiceException {
+		try {
+			return origin.updateUserEntity(token, previous, entity);
+		} finally {
+			cache.invalidate(entityScope(entity.getId()), userEntitiesScope(token));
+		}
+	}
+
+	@Override
+	public Entities getCommunityEntities(final String communityId,
+			final String token, final Integer position, final Integer size,
+			final String typeId) throws SecurityException, SocialServiceException {
+		return cache.get(key("community-entities", token, communityId + "/"
+				+ position + "/" + size + "/" + typeId),
+				new ClientCache.Loader<Entities>() {
+					@Override
+					public Entities load() throws SocialServiceException {
+						return origin.getCommunityEntities(
+								communityId, token, position, size, typeId);
+					}
+
+					@Override
+					public String[] scopes(Entities value) {
+						return entityScopes(value.getContent());
+					}
+				}, communityEntitiesScope(communityId));
+	}
+
+	@Override
+	public Entity getCommunityEntity(final String communityId,
+			final String token, final String entityId) throws SecurityException,
+			SocialServiceException {
+		return cache.get(key("community-entity", token, communityId + "/" + entityId),
+				new ClientCache.Loader<Entity>() {
+					@Override
+					public Entity load() throws SocialServiceException {
+						return origin.getCommunityEntity(
+								communityId, token, entityId);
+					}
+				}, entityScope(entityId), communityEntitiesScope(communityId));
+	}
+
+	@Override
+	public Entity createCommunityEntity(String communityId, String token,
+			EntityRequest entity) throws SecurityException, SocialServiceException {
+		Entity created = origin.createCommunityEntity(communityId, token, entity);
+		cache.invalidate(communityEntitiesScope(communityId));
+		if (created != null) {
+			cache.put(key("community-entity", token, communityId + "/"
+					+ created.getEntityId()), created,
+					entityScope(created.getEntityId()),
+					communityEntitiesScope(communityId));
+		}
+		return created;
+	}
+
+	@Override
+	public boolean deleteCommunityEntity(String communityId, String token,
+			String entityId) throws SecurityException, SocialServiceException {
+		try {
+			return origin.deleteCommunityEntity(communityId, token, entityId);
+		} finally {
+			cache.invalidate(entityScope(entityId), communityEntitiesScope(communityId));
+		}
+	}
+
+	@Override
+	public boolean updateCommunityEntity(String communityId, String token,
+			EntityRequest entity) throws SecurityException, SocialServiceException {
+		try {
+			return origin.updateCommunityEntity(communityId, token, entity);
+		} finally {
+			cache.invalidate(entityScope(entity.getId()), communityEntitiesScope(communityId));
+		}
+	}
+
+	@Override
+	public boolean updateCommunityEntity(String communityId, String token,
+			EntityRequest previous, EntityRequest entity)
+			throws SocialServiceException {
+		try {
+			return origin.updateCommunityEntity(communityId, token, previous, entity);
+		} finally {
+			cache.invalidate(entityScope(entity.getId()), communityEntitiesScope(communityId));
+		}
+	}
+
+	@Override
+	public boolean shareUserEntity(String token, String entityId,
+			ShareVisibility shareVisibility) throws SecurityException,
+			SocialServiceException {
+		try {
+			return origin.shareUserEntity(token, entityId, shareVisibility);
+		} finally {
+			cache.invalidate(entityScope(entityId));
+		}
+	}
+
+	@Override
+	public boolean unshareUserEntity(String token, String entityId)
+			throws SecurityException, SocialServiceException {
+		try {
+			return origin.unshareUserEntity(token, entityId);
+		} finally {
+			cache.invalidate(entityScope(entityId));
+		}
+	}
+
+	@Override
+	public boolean shareCommunityEntity(String communityId, String token,
+			String entityId, ShareVisibility shareVisibility)
+			throws SecurityException, SocialServiceException {
+		try {
+			return origin.shareCommunityEntity(communityId, token, entityId, shareVisibility);
+		} finally {
+			cache.invalidate(entityScope(entityId));
+		}
+	}
+
+	@Override
+	public boolean unshareCommnunityEntity(String communityId, String token,
+			String entityId) throws SecurityException, SocialServiceException {
+		try {
+			return origin.unshareCommnunityEntity(communityId, token, entityId);
+		} finally {
+			cache.invalidate(entityScope(entityId));
+		}
+	}
+
+	@Override
+	public EntityType createEntityType(String token, String conceptId)
+			throws SecurityException, SocialServiceException {
+		EntityType type = origin.createEntityType(token, conceptId);
+		cache.invalidate(typeScope(conceptId));
+		return type;
+	}
+
+	@Override
+	public EntityType getEntityTypeById(final String token,
+			final String entityTypeId) throws SecurityException,
+			SocialServiceException {
+		return cache.get(key("type", token, entityTypeId),
+				new ClientCache.Loader<EntityType>() {
+					@Override
+					public EntityType load() throws SocialServiceException {
+						return origin.getEntityTypeById(token, entityTypeId);
+					}
+				});
+	}
+
+	@Override
+	public EntityType getEntityTypeByConceptId(final String token,
+			final String conceptId) throws SecurityException,
+			SocialServiceException {
+		return cache.get(key("type-concept", token, conceptId),
+				new ClientCache.Loader<EntityType>() {
+					@Override
+					public EntityType load() throws SocialServiceException {
+						return origin.getEntityTypeByConceptId(token, conceptId);
+					}
+				}, typeScope(conceptId));
+	}
+
+	protected static String key(String kind, String token, String id) {
+		StringBuilder sb = new StringBuilder(kind).append('\n').append(
+				TokenFingerprint.of(token));
+		if (id != null) {
+			sb.append('\n').append(id);
+		}
+		return sb.toString();
+	}
+
+	protected static String groupScope(String groupId) {
+		return "group:" + groupId;
+	}
+
+	protected static String userGroupsScope(String token) {
+		return "groups:" + TokenFingerprint.of(token);
+	}
+
+	protected static String communityScope(String communityId) {
+		return "community:" + communityId;
+	}
+
+	protected static String userCommunitiesScope(String token) {
+		return "user-communities:" + TokenFingerprint.of(token);
+	}
+
+	protected static String communityEntitiesScope(String communityId) {
+		return "community-entities:" + communityId;
+	}
+
+	protected static String entityScope(String entityId) {
+		return "entity:" + entityId;
+	}
+
+	protected static String userEntitiesScope(String token) {
+		return "user-entities:" + TokenFingerprint.of(token);
+	}
+
+	protected static String typeScope(String conceptId) {
+		return "type-concept:" + conceptId;
+	}
+
+	private static String[] groupScopes(List<Group> groups) {
+		if (groups == null) {
+			return new String[0];
+		}
+		String[] scopes = new String[groups.size()];
+		for (int i = 0; i < scopes.length; i++) {
+			scopes[i] = groupScope(groups.get(i).getSocialId());
+		}
+		return scopes;
+	}
+
+	private static String[] communityScopes(List<Community> communities) {
+		if (communities == null) {
+			return new String[0];
+		}
+		String[] scopes = new String[communities.size()];
+		for (int i = 0; i < scopes.length; i++) {
+			scopes[i] = communityScope(communities.get(i).getId());
+		}
+		return scopes;
+	}
+
+	private static String[] entityScopes(List<Entity> entities) {
+		if (entities == null) {
+			return new String[0];
+		}
+		String[] scopes = new String[entities.size()];
+		for (int i = 0; i < scopes.length; i++) {
+			scopes[i] = entityScope(entities.get(i).getEntityId());
+		}
+		return scopes;
+	}
+}
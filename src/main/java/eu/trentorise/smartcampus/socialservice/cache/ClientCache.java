@@ -0,0 +1,521 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+
+/**
+ * Bounded read-through cache with scope based invalidation.
+ *
+ * Every entry is tagged with the scopes it depends on (a group, a community,
+ * the entity listing of a community, ...). Invalidating a scope drops all its
+ * entries, and also prevents loads running at the same time from storing a
+ * value read before the write: a reader never gets back from the cache data
+ * older than a write it has seen completing.
+ *
+ * A single load per key runs at a time, the callers missing the key
+ * meanwhile wait for it and share its value, within the deadline of their
+ * {@link CallContext}.
+ *
+ * Values read with {@link #getRevalidating(String, long, Loader, String...)}
+ * are still served for a while after they expire, while a single background
+ * load refreshes them.
+ */
+public class ClientCache {
+
+	private static final String[] NO_SCOPES = new String[0];
+
+	/** runs the background refreshes of the expired values */
+	private static final ExecutorService refresher = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "socialservice-cache-refresh-"
+							+ count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * loads a missing value from the service
+	 */
+	public abstract static class Loader<T> {
+
+		public abstract T load() throws SocialServiceException;
+
+		/**
+		 * @param value
+		 *            loaded value, not null
+		 * @return scopes of the loaded value besides the ones known before
+		 *         loading it, e.g. the ids of the items of a listing
+		 */
+		public String[] scopes(T value) {
+			return NO_SCOPES;
+		}
+	}
+
+	private static final class CacheEntry {
+		final Object value;
+		final long expiresAt;
+		final String[] scopes;
+
+		CacheEntry(Object value, long expiresAt, String[] scopes) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.scopes = scopes;
+		}
+	}
+
+	/**
+	 * a load in progress, collecting the scopes invalidated meanwhile, and
+	 * its outcome for the callers waiting for it
+	 */
+	private static final class Load {
+		final Set<String> invalidated = new HashSet<String>();
+		boolean cleared;
+		boolean done;
+		/** true if the value is current and can be returned to the waiting callers */
+		boolean shared;
+		Object value;
+		Exception failure;
+	}
+
+	private final Object lock = new Object();
+	private final Map<String, Set<String>> scopeIndex = new HashMap<String, Set<String>>();
+	private final List<Load> loads = new ArrayList<Load>();
+	/** loads in progress by key, in foreground or in background */
+	private final Map<String, Load> flights = new HashMap<String, Load>();
+	private final LinkedHashMap<String, CacheEntry> entries;
+	private final long ttl;
+
+	private long hits;
+	private long misses;
+	private long staleHits;
+	private long refreshFailures;
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of entries, the least recently used are
+	 *            evicted first
+	 * @param ttl
+	 *            time to live of an entry in milliseconds
+	 */
+	public ClientCache(final int maxEntries, long ttl) {
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() > maxEntries) {
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * returns the cached value or loads it, or waits for the load of the
+	 * value already in progress. Null values are not cached.
+	 *
+	 * @param key
+	 *            cache key
+	 * @param loader
+	 *            loader of the missing value
+	 * @param scopes
+	 *            scopes the value depends on
+	 * @return the value
+	 * @throws SocialServiceException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key, Loader<T> loader, String... scopes)
+			throws SocialServiceException {
+		Load load = new Load();
+		CallContext context = CallContext.current();
+		Runnable wakeUp = null;
+		try {
+			synchronized (lock) {
+				while (true) {
+					CacheEntry entry = entries.get(key);
+					if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+						hits++;
+						return (T) entry.value;
+					}
+					Load flight = flights.get(key);
+					if (flight == null) {
+						if (entry != null) {
+							remove(key);
+						}
+						break;
+					}
+					if (wakeUp == null && context != null) {
+						wakeUp = wakeUp(context);
+					}
+					await(flight, context);
+					if (flight.failure instanceof SocialServiceException) {
+						throw new SocialServiceException(flight.failure.getMessage(), flight.failure);
+					}
+					if (flight.failure != null) {
+						throw (RuntimeException) flight.failure;
+					}
+					if (flight.shared) {
+						misses++;
+						return (T) flight.value;
+					}
+					// invalidated while loading, the value is read again
+				}
+				misses++;
+				loads.add(load);
+				flights.put(key, load);
+			}
+		} finally {
+			if (wakeUp != null) {
+				context.removeListener(wakeUp);
+			}
+		}
+		T value = null;
+		boolean loaded = false;
+		try {
+			value = loader.load();
+			loaded = true;
+			return value;
+		} catch (SocialServiceException e) {
+			load.failure = e;
+			throw e;
+		} catch (RuntimeException e) {
+			load.failure = e;
+			throw e;
+		} finally {
+			synchronized (lock) {
+				loads.remove(load);
+				flights.remove(key);
+				if (loaded) {
+					String[] all = value == null ? scopes : concat(scopes, loader.scopes(value));
+					load.shared = !load.cleared && !intersects(load.invalidated, all);
+					if (value != null && load.shared) {
+						store(key, value, all);
+					}
+				}
+				complete(load, value);
+			}
+		}
+	}
+
+	/**
+	 * @return the listener waking up the callers waiting for a load when the
+	 *         context is done
+	 */
+	private Runnable wakeUp(CallContext context) {
+		Runnable wakeUp = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+		};
+		context.addListener(wakeUp);
+		return wakeUp;
+	}
+
+	/**
+	 * waits for a load in progress, holding the lock
+	 */
+	private void await(Load flight, CallContext context) throws SocialServiceException {
+		while (!flight.done) {
+			if (context != null && context.isDone()) {
+				throw new SocialServiceException(context.aborted(null));
+			}
+			long timeout = context == null ? 0 : context.remainingMillis();
+			try {
+				lock.wait(timeout == Long.MAX_VALUE ? 0 : timeout);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SocialServiceException(new RemoteException(
+						"Interrupted waiting for a cache load"));
+			}
+		}
+	}
+
+	/**
+	 * publishes the outcome of a load to the callers waiting for it, holding
+	 * the lock
+	 */
+	private void complete(Load load, Object value) {
+		load.value = value;
+		load.done = true;
+		lock.notifyAll();
+	}
+
+	/**
+	 * returns the cached value or loads it like
+	 * {@link #get(String, Loader, String...)}, but an expired value is still
+	 * returned for up to <code>maxStaleness</code> milliseconds after its
+	 * expiry. The first caller getting it starts a background load, the only
+	 * one for the key, which replaces the value when it completes. If that
+	 * load fails the expired value keeps being served within the bound,
+	 * unless the token is denied access or the value no longer exists.
+	 *
+	 * @param key
+	 *            cache key
+	 * @param maxStaleness
+	 *            max time in milliseconds an expired value is served
+	 * @param loader
+	 *            loader of the missing value, also run in background
+	 * @param scopes
+	 *            scopes the value depends on
+	 * @return the value
+	 * @throws SocialServiceException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getRevalidating(String key, long maxStaleness, Loader<T> loader,
+			String... scopes) throws SocialServiceException {
+		Load load;
+		T stale;
+		synchronized (lock) {
+			CacheEntry entry = entries.get(key);
+			long now = System.currentTimeMillis();
+			if (entry == null || entry.expiresAt + maxStaleness <= now) {
+				load = null;
+				stale = null;
+			} else if (entry.expiresAt > now) {
+				hits++;
+				return (T) entry.value;
+			} else {
+				staleHits++;
+				stale = (T) entry.value;
+				load = flights.containsKey(key) ? null : new Load();
+				if (load != null) {
+					loads.add(load);
+					flights.put(key, load);
+				}
+			}
+		}
+		if (stale == null) {
+			return get(key, loader, scopes);
+		}
+		if (load != null) {
+			refresh(key, loader, scopes, load);
+		}
+		return stale;
+	}
+
+	private <T> void refresh(final String key, final Loader<T> loader,
+			final String[] scopes, final Load load) {
+		refresher.execute(new Runnable() {
+			@Override
+			public void run() {
+				T value = null;
+				boolean failed = false;
+				try {
+					value = loader.load();
+				} catch (SecurityException e) {
+					// the token lost access, the value is dropped
+					load.failure = e;
+				} catch (SocialServiceException e) {
+					failed = true;
+					load.failure = e;
+				} catch (RuntimeException e) {
+					failed = true;
+					load.failure = e;
+				} finally {
+					synchronized (lock) {
+						loads.remove(load);
+						flights.remove(key);
+						if (failed) {
+							refreshFailures++;
+						} else if (value == null || load.cleared) {
+							remove(key);
+						} else {
+							String[] all = concat(scopes, loader.scopes(value));
+							if (intersects(load.invalidated, all)) {
+								remove(key);
+							} else {
+								store(key, value, all);
+								load.shared = true;
+							}
+						}
+						complete(load, value);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * stores a value known to be current, e.g. the result of a write
+	 *
+	 * @param key
+	 *            cache key
+	 * @param value
+	 *            the value, ignored if null
+	 * @param scopes
+	 *            scopes the value depends on
+	 */
+	public void put(String key, Object value, String... scopes) {
+		if (value == null) {
+			return;
+		}
+		synchronized (lock) {
+			store(key, value, scopes);
+		}
+	}
+
+	/**
+	 * drops all the entries of the given scopes
+	 *
+	 * @param scopes
+	 *            scopes modified by a write
+	 */
+	public void invalidate(String... scopes) {
+		synchronized (lock) {
+			for (String scope : scopes) {
+				for (Load load : loads) {
+					load.invalidated.add(scope);
+				}
+				Set<String> keys = scopeIndex.remove(scope);
+				if (keys != null) {
+					for (String key : keys) {
+						remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * drops all the entries
+	 */
+	public void clear() {
+		synchronized (lock) {
+			for (Load load : loads) {
+				load.cleared = true;
+			}
+			entries.clear();
+			scopeIndex.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		synchronized (lock) {
+			return hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized (lock) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return number of expired values served while being refreshed
+	 */
+	public long getStaleHits() {
+		synchronized (lock) {
+			return staleHits;
+		}
+	}
+
+	/**
+	 * @return number of background refreshes failed
+	 */
+	public long getRefreshFailures() {
+		synchronized (lock) {
+			return refreshFailures;
+		}
+	}
+
+	private void store(String key, Object value, String[] scopes) {
+		remove(key);
+		CacheEntry entry = new CacheEntry(value, System.currentTimeMillis() + ttl, scopes);
+		entries.put(key, entry);
+		for (String scope : scopes) {
+			Set<String> keys = scopeIndex.get(scope);
+			if (keys == null) {
+				keys = new HashSet<String>();
+				scopeIndex.put(scope, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	private void remove(String key) {
+		CacheEntry entry = entries.remove(key);
+		if (entry != null) {
+			unindex(key, entry);
+		}
+	}
+
+	private void unindex(String key, CacheEntry entry) {
+		for (String scope : entry.scopes) {
+			Set<String> keys = scopeIndex.get(scope);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					scopeIndex.remove(scope);
+				}
+			}
+		}
+	}
+
+	private static boolean intersects(Set<String> invalidated, String[] scopes) {
+		if (invalidated.isEmpty()) {
+			return false;
+		}
+		for (String scope : scopes) {
+			if (invalidated.contains(scope)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String[] concat(String[] a, String[] b) {
+		if (b.length == 0) {
+			return a;
+		}
+		String[] result = new String[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered set of the codecs a client accepts. JSON is always accepted as the
+ * last choice, so a service that does not offer the other formats keeps
+ * answering in JSON.
+ */
+public class Codecs {
+
+	private static final Codecs JSON_ONLY = new Codecs();
+
+	private final List<PayloadCodec> codecs;
+	private final PayloadCodec json;
+	private final String accept;
+
+	/**
+	 * @param preferred
+	 *            codecs in order of preference, before JSON
+	 */
+	public Codecs(PayloadCodec... preferred) {
+		List<PayloadCodec> list = new ArrayList<PayloadCodec>();
+		PayloadCodec jsonCodec = null;
+		for (PayloadCodec codec : preferred) {
+			if (JsonCodec.MEDIA_TYPE.equals(codec.getMediaType())) {
+				jsonCodec = codec;
+			} else {
+				list.add(codec);
+			}
+		}
+		this.json = jsonCodec != null ? jsonCodec : new JsonCodec();
+		list.add(json);
+		this.codecs = Collections.unmodifiableList(list);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < codecs.size(); i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(codecs.get(i).getMediaType());
+			// JSON is listed last with a lower quality
+			if (i > 0 && i == codecs.size() - 1) {
+				sb.append(";q=0.9");
+			}
+		}
+		this.accept = sb.toString();
+	}
+
+	/**
+	 * @return the codecs accepting JSON only
+	 */
+	public static Codecs json() {
+		return JSON_ONLY;
+	}
+
+	/**
+	 * @return value of the Accept header
+	 */
+	public String getAccept() {
+		return accept;
+	}
+
+	public List<PayloadCodec> getCodecs() {
+		return codecs;
+	}
+
+	public PayloadCodec getJson() {
+		return json;
+	}
+
+	/**
+	 * @param contentType
+	 *            value of the Content-Type header of a response, may be null
+	 * @return the codec of the content type, JSON if it is missing or unknown
+	 */
+	public PayloadCodec forContentType(String contentType) {
+		if (contentType == null) {
+			return json;
+		}
+		int semicolon = contentType.indexOf(';');
+		String mediaType = (semicolon < 0 ? contentType : contentType.substring(0,
+				semicolon)).trim();
+		for (PayloadCodec codec : codecs) {
+			if (codec.getMediaType().equalsIgnoreCase(mediaType)) {
+				return codec;
+			}
+		}
+		return json;
+	}
+}
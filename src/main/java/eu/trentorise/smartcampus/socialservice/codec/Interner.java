@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Concepts;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityType;
+import eu.trentorise.smartcampus.social.model.EntityTypes;
+
+/**
+ * Table of canonical instances of the values repeated across decoded
+ * responses: the tag {@link Concept}s and the type, owner and community ids
+ * of the entities. Thousands of entities of a listing then share the few
+ * hundred concepts and ids they refer to, instead of carrying a copy each.
+ * 
+ * The table has a fixed number of slots and holds its values through weak
+ * references, so it never grows and never keeps alive a value no decoded
+ * object uses anymore. Interning is best effort: values colliding on a slot
+ * replace each other, and concurrent decodings may keep equal copies.
+ * 
+ * Interned concepts are shared by all the objects decoded by the client, so
+ * they must be treated as read only: copy a concept before changing it.
+ */
+public class Interner {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final AtomicReferenceArray<Slot> strings;
+	private final AtomicReferenceArray<Slot> concepts;
+	private final int mask;
+
+	public Interner() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of strings and of concepts held, rounded up to a power
+	 *            of two
+	 */
+	public Interner(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.strings = new AtomicReferenceArray<Slot>(size);
+		this.concepts = new AtomicReferenceArray<Slot>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @param value
+	 *            a string, may be null
+	 * @return the canonical instance of the string
+	 */
+	public String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		int hash = spread(value.hashCode());
+		int slot = hash & mask;
+		for (int i = 0; i < 2; i++) {
+			Object canonical = lookup(strings, (slot + i) & mask, hash);
+			if (value.equals(canonical)) {
+				return (String) canonical;
+			}
+		}
+		store(strings, slot, new Slot(value, hash));
+		return value;
+	}
+
+	/**
+	 * @param concept
+	 *            a concept, may be null
+	 * @return the canonical instance of a concept with the same fields
+	 */
+	public Concept intern(Concept concept) {
+		if (concept == null) {
+			return null;
+		}
+		int hash = spread(hash(concept));
+		int slot = hash & mask;
+		for (int i = 0; i < 2; i++) {
+			Object canonical = lookup(concepts, (slot + i) & mask, hash);
+			if (canonical != null && same(concept, (Concept) canonical)) {
+				return (Concept) canonical;
+			}
+		}
+		concept.setId(intern(concept.getId()));
+		concept.setName(intern(concept.getName()));
+		store(concepts, slot, new Slot(concept, hash));
+		return concept;
+	}
+
+	/**
+	 * replaces the repeated values of a decoded response with their
+	 * canonical instances. Entities, entity types, concepts and their
+	 * listings are interned, other objects are returned as they are.
+	 * 
+	 * @param decoded
+	 *            a decoded response, may be null
+	 * @return the decoded response
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T internDecoded(T decoded) {
+		if (decoded instanceof Entities) {
+			List<Entity> content = ((Entities) decoded).getContent();
+			if (content != null) {
+				for (Entity entity : content) {
+					intern(entity);
+				}
+			}
+		} else if (decoded instanceof Entity) {
+			intern((Entity) decoded);
+		} else if (decoded instanceof EntityTypes) {
+			List<EntityType> content = ((EntityTypes) decoded).getContent();
+			if (content != null) {
+				for (EntityType type : content) {
+					intern(type);
+				}
+			}
+		} else if (decoded instanceof EntityType) {
+			intern((EntityType) decoded);
+		} else if (decoded instanceof Concepts) {
+			internAll(((Concepts) decoded).getContent());
+		} else if (decoded instanceof Concept) {
+			return (T) intern((Concept) decoded);
+		}
+		return decoded;
+	}
+
+	private void intern(Entity entity) {
+		if (entity == null) {
+			return;
+		}
+		entity.setType(intern(entity.getType()));
+		entity.setOwner(intern(entity.getOwner()));
+		entity.setCommunityOwner(intern(entity.getCommunityOwner()));
+		internAll(entity.getTags());
+	}
+
+	private void intern(EntityType type) {
+		if (type == null) {
+			return;
+		}
+		type.setId(intern(type.getId()));
+		type.setName(intern(type.getName()));
+		type.setConcept(intern(type.getConcept()));
+	}
+
+	private void internAll(List<Concept> list) {
+		if (list == null) {
+			return;
+		}
+		for (ListIterator<Concept> it = list.listIterator(); it.hasNext();) {
+			Concept concept = it.next();
+			Concept canonical = intern(concept);
+			if (canonical != concept) {
+				it.set(canonical);
+			}
+		}
+	}
+
+	private static Object lookup(AtomicReferenceArray<Slot> table, int index, int hash) {
+		Slot slot = table.get(index);
+		return slot == null || slot.hash != hash ? null : slot.get();
+	}
+
+	/**
+	 * two-way slots: a new value takes the first one and moves its live
+	 * value to the second
+	 */
+	private void store(AtomicReferenceArray<Slot> table, int index, Slot slot) {
+		Slot previous = table.getAndSet(index, slot);
+		if (previous != null && previous.get() != null) {
+			table.set((index + 1) & mask, previous);
+		}
+	}
+
+	private static int hash(Concept concept) {
+		int h = hash(concept.getId());
+		h = 31 * h + hash(concept.getName());
+		h = 31 * h + hash(concept.getDescription());
+		return 31 * h + hash(concept.getSummary());
+	}
+
+	private static int hash(String value) {
+		return value == null ? 0 : value.hashCode();
+	}
+
+	private static boolean same(Concept a, Concept b) {
+		return equal(a.getId(), b.getId()) && equal(a.getName(), b.getName())
+				&& equal(a.getDescription(), b.getDescription())
+				&& equal(a.getSummary(), b.getSummary());
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * weak reference to a canonical value with its hash
+	 */
+	private static final class Slot extends WeakReference<Object> {
+		final int hash;
+
+		Slot(Object value, int hash) {
+			super(value);
+			this.hash = hash;
+		}
+	}
+}
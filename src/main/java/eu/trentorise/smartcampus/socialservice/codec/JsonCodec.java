@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import java.io.UnsupportedEncodingException;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+
+/**
+ * JSON codec based on {@link JsonUtils}, the format every service supports
+ */
+public class JsonCodec implements PayloadCodec {
+
+	public static final String MEDIA_TYPE = "application/json";
+
+	@Override
+	public String getMediaType() {
+		return MEDIA_TYPE;
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		try {
+			return JsonUtils.toJSON(value).getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public <T> T decode(byte[] payload, Class<T> type) {
+		try {
+			return decode(new String(payload, "UTF-8"), type);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * decodes a payload received as text
+	 * 
+	 * @return the decoded object, null for an empty payload
+	 */
+	public <T> T decode(String payload, Class<T> type) {
+		return JsonUtils.toObject(payload, type);
+	}
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+/**
+ * Encodes and decodes the payloads of a media type
+ */
+public interface PayloadCodec {
+
+	/**
+	 * @return the media type handled by the codec
+	 */
+	String getMediaType();
+
+	byte[] encode(Object value);
+
+	/**
+	 * @param payload
+	 *            encoded payload
+	 * @param type
+	 *            class of the result
+	 * @return the decoded object, null for an empty payload
+	 */
+	<T> T decode(byte[] payload, Class<T> type);
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Codec of Smile, the binary equivalent of JSON defined by Jackson. Requires
+ * the optional <code>jackson-dataformat-smile</code> dependency.
+ * 
+ * Smile is mapped by Jackson 2, while JSON goes through {@link JsonCodec} and
+ * the Jackson 1 mapper of {@link eu.trentorise.smartcampus.network.JsonUtils}:
+ * the Jackson 1 annotations and configuration do not apply here. The model
+ * classes are plain beans, mapped alike by both, and unknown properties are
+ * ignored as by <code>JsonUtils</code>.
+ */
+public class SmileCodec implements PayloadCodec {
+
+	public static final String MEDIA_TYPE = "application/x-jackson-smile";
+
+	private final ObjectMapper mapper;
+
+	public SmileCodec() {
+		mapper = new ObjectMapper(new SmileFactory());
+		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+	}
+
+	@Override
+	public String getMediaType() {
+		return MEDIA_TYPE;
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		try {
+			return mapper.writeValueAsBytes(value);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	@Override
+	public <T> T decode(byte[] payload, Class<T> type) {
+		if (payload.length == 0) {
+			return null;
+		}
+		try {
+			return mapper.readValue(payload, type);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
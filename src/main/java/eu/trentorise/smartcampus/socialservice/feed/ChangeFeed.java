@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.feed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.TokenFingerprint;
+import eu.trentorise.smartcampus.socialservice.transport.Priority;
+
+/**
+ * Notifies the entities newly shared with a user or a community, e.g.
+ * 
+ * <pre>
+ * ChangeFeed feed = new ChangeFeed(socialService);
+ * ChangeFeed.Subscription subscription = feed.subscribeUserShares(token, null, null, listener);
+ * // when the notifications are no longer needed
+ * subscription.cancel();
+ * </pre>
+ * 
+ * Each listing is polled by a single poller, shared by all the
+ * subscriptions with the same token and filters. A poll reads the whole
+ * listing and compares it with the previous one by entity id, so the
+ * listeners receive only the added, removed and changed entities. The first
+ * poll of a listing sets the baseline and delivers nothing, a later
+ * subscriber receives the changes from the next poll.
+ * 
+ * The interval adapts to the listing: it is back to the minimum after a poll
+ * finding changes, and doubles, up to the maximum, after a poll finding
+ * none or failing. Polls are {@link Priority#BULK} calls.
+ */
+public class ChangeFeed {
+
+	public static final long DEFAULT_MIN_INTERVAL_MILLIS = 5000;
+	public static final long DEFAULT_MAX_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+	private static final AtomicInteger threads = new AtomicInteger();
+
+	private final SocialService socialService;
+	private final long minIntervalMillis;
+	private final long maxIntervalMillis;
+	private final ScheduledThreadPoolExecutor executor;
+
+	/** guarded by this */
+	private final Map<String, Poller> pollers = new HashMap<String, Poller>();
+	private boolean shutdown;
+
+	public ChangeFeed(SocialService socialService) {
+		this(socialService, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param socialService
+	 *            the client
+	 * @param minIntervalMillis
+	 *            interval between the polls of a changing listing
+	 * @param maxIntervalMillis
+	 *            max interval between the polls of an idle listing
+	 */
+	public ChangeFeed(SocialService socialService, long minIntervalMillis,
+			long maxIntervalMillis) {
+		if (minIntervalMillis < 1 || maxIntervalMillis < minIntervalMillis) {
+			throw new IllegalArgumentException("Invalid intervals " + minIntervalMillis + ", "
+					+ maxIntervalMillis);
+		}
+		this.socialService = socialService;
+		this.minIntervalMillis = minIntervalMillis;
+		this.maxIntervalMillis = maxIntervalMillis;
+		this.executor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "socialservice-feed-" + threads.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * subscribes to the changes of the entities shared with a user
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param shareVisibility
+	 *            visibility filter, may be null
+	 * @param typeId
+	 *            type of the entities, null for all the types
+	 * @param listener
+	 *            receives the changes
+	 * @return the subscription
+	 */
+	public Subscription subscribeUserShares(final String token,
+			final ShareVisibility shareVisibility, final String typeId, ChangeListener listener) {
+		return subscribe(key("user", null, token, shareVisibility, typeId), new Source() {
+			@Override
+			public Entities fetch() throws Exception {
+				return socialService.getEntitiesSharedWithUser(token, shareVisibility, null,
+						null, typeId);
+			}
+		}, listener);
+	}
+
+	/**
+	 * subscribes to the changes of the entities shared with a community
+	 * 
+	 * @param communityId
+	 *            community id
+	 * @param token
+	 *            client access token
+	 * @param shareVisibility
+	 *            visibility filter, may be null
+	 * @param typeId
+	 *            type of the entities, null for all the types
+	 * @param listener
+	 *            receives the changes
+	 * @return the subscription
+	 */
+	public Subscription subscribeCommunityShares(final String communityId, final String token,
+			final ShareVisibility shareVisibility, final String typeId, ChangeListener listener) {
+		return subscribe(key("community", communityId, token, shareVisibility, typeId),
+				new Source() {
+					@Override
+					public Entities fetch() throws Exception {
+						return socialService.getEntitiesSharedWithCommunity(communityId, token,
+								shareVisibility, null, null, typeId);
+					}
+				}, listener);
+	}
+
+	/**
+	 * @return number of listings polled
+	 */
+	public synchronized int getPollerCount() {
+		return pollers.size();
+	}
+
+	/**
+	 * cancels all the subscriptions and stops the feed threads
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			shutdown = true;
+			pollers.clear();
+		}
+		executor.shutdownNow();
+	}
+
+	private synchronized Subscription subscribe(String key, Source source,
+			ChangeListener listener) {
+		if (shutdown) {
+			throw new IllegalStateException("Feed shut down");
+		}
+		Poller poller = pollers.get(key);
+		if (poller == null) {
+			poller = new Poller(key, source);
+			pollers.put(key, poller);
+			poller.future = executor.schedule(poller, 0, TimeUnit.MILLISECONDS);
+		}
+		Subscription subscription = new Subscription(poller, listener);
+		poller.subscriptions.add(subscription);
+		return subscription;
+	}
+
+	private synchronized void unsubscribe(Subscription subscription) {
+		Poller poller = subscription.poller;
+		poller.subscriptions.remove(subscription);
+		if (poller.subscriptions.isEmpty() && pollers.get(poller.key) == poller) {
+			pollers.remove(poller.key);
+			poller.future.cancel(false);
+		}
+	}
+
+	private synchronized void reschedule(Poller poller) {
+		if (!shutdown && pollers.get(poller.key) == poller) {
+			poller.future = executor.schedule(poller, poller.intervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static String key(String kind, String communityId, String token,
+			ShareVisibility shareVisibility, String typeId) {
+		return kind + '\n' + communityId + '\n' + TokenFingerprint.of(token) + '\n'
+				+ typeId + '\n'
+				+ (shareVisibility == null ? null : JsonUtils.toJSON(shareVisibility));
+	}
+
+	/**
+	 * subscription of a listener to a listing
+	 */
+	public final class Subscription {
+		private final Poller poller;
+		private final ChangeListener listener;
+
+		private Subscription(Poller poller, ChangeListener listener) {
+			this.poller = poller;
+			this.listener = listener;
+		}
+
+		/**
+		 * @return current interval in milliseconds between the polls of the
+		 *         listing
+		 */
+		public long getIntervalMillis() {
+			return poller.intervalMillis;
+		}
+
+		/**
+		 * stops the notifications, the listing is no longer polled once it
+		 * has no subscriptions
+		 */
+		public void cancel() {
+			unsubscribe(this);
+		}
+	}
+
+	/**
+	 * reads a listing
+	 */
+	private interface Source {
+		Entities fetch() throws Exception;
+	}
+
+	/**
+	 * polls a listing and notifies its subscriptions, one poll at a time
+	 */
+	private final class Poller implements Runnable {
+		final String key;
+		final Source source;
+		final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+		volatile long intervalMillis = minIntervalMillis;
+		/** guarded by the feed */
+		ScheduledFuture<?> future;
+		/** entities of the last poll by id, null before the first one */
+		private Map<String, Entity> snapshot;
+
+		Poller(String key, Source source) {
+			this.key = key;
+			this.source = source;
+		}
+
+		@Override
+		public void run() {
+			try {
+				poll();
+			} finally {
+				reschedule(this);
+			}
+		}
+
+		private void poll() {
+			Entities entities;
+			Priority previous = Priority.BULK.attach();
+			try {
+				entities = source.fetch();
+			} catch (Exception e) {
+				backOff();
+				for (Subscription subscription : subscriptions) {
+					try {
+						subscription.listener.onFailure(e);
+					} catch (RuntimeException ignored) {
+						// a listener does not stop the poller
+					}
+				}
+				return;
+			} finally {
+				Priority.restore(previous);
+			}
+			Map<String, Entity> current = new LinkedHashMap<String, Entity>();
+			if (entities != null && entities.getContent() != null) {
+				for (Entity entity : entities.getContent()) {
+					if (entity != null && entity.getEntityId() != null) {
+						current.put(entity.getEntityId(), entity);
+					}
+				}
+			}
+			EntityChanges changes = snapshot == null ? null : diff(snapshot, current);
+			snapshot = current;
+			if (changes == null || changes.isEmpty()) {
+				backOff();
+				return;
+			}
+			intervalMillis = minIntervalMillis;
+			for (Subscription subscription : subscriptions) {
+				try {
+					subscription.listener.onChanges(changes);
+				} catch (RuntimeException ignored) {
+					// a listener does not stop the poller
+				}
+			}
+		}
+
+		private void backOff() {
+			intervalMillis = Math.min(maxIntervalMillis, intervalMillis * 2);
+		}
+	}
+
+	private static EntityChanges diff(Map<String, Entity> previous, Map<String, Entity> current) {
+		List<Entity> added = new ArrayList<Entity>();
+		List<Entity> changed = new ArrayList<Entity>();
+		for (Entity entity : current.values()) {
+			Entity old = previous.get(entity.getEntityId());
+			if (old == null) {
+				added.add(entity);
+			} else if (!same(old, entity)) {
+				changed.add(entity);
+			}
+		}
+		List<Entity> removed = new ArrayList<Entity>();
+		for (Entity entity : previous.values()) {
+			if (!current.containsKey(entity.getEntityId())) {
+				removed.add(entity);
+			}
+		}
+		return new EntityChanges(added, removed, changed);
+	}
+
+	private static boolean same(Entity a, Entity b) {
+		return a.getLastModifiedDate() == b.getLastModifiedDate()
+				&& equal(a.getTitle(), b.getTitle())
+				&& equal(a.getDescription(), b.getDescription())
+				&& equal(a.getType(), b.getType()) && equal(a.getOwner(), b.getOwner())
+				&& equal(a.getCommunityOwner(), b.getCommunityOwner())
+				&& equal(tagIds(a), tagIds(b)) && same(a.getVisibility(), b.getVisibility());
+	}
+
+	private static boolean same(ShareVisibility a, ShareVisibility b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		return a.isAllUsers() == b.isAllUsers() && a.isAllCommunities() == b.isAllCommunities()
+				&& a.isAllKnownUsers() == b.isAllKnownUsers()
+				&& a.isAllKnownCommunities() == b.isAllKnownCommunities()
+				&& equal(a.getUserIds(), b.getUserIds())
+				&& equal(a.getGroupIds(), b.getGroupIds())
+				&& equal(a.getCommunityIds(), b.getCommunityIds());
+	}
+
+	private static List<String> tagIds(Entity entity) {
+		if (entity.getTags() == null) {
+			return null;
+		}
+		List<String> ids = new ArrayList<String>(entity.getTags().size());
+		for (Concept tag : entity.getTags()) {
+			ids.add(tag == null ? null : tag.getId());
+		}
+		return ids;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
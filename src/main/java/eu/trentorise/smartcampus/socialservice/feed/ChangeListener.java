@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.feed;
+
+/**
+ * Receives the changes of a {@link ChangeFeed} subscription, on a feed
+ * thread, one poll at a time
+ */
+public interface ChangeListener {
+
+	/**
+	 * @param changes
+	 *            changes since the previous poll, never empty
+	 */
+	void onChanges(EntityChanges changes);
+
+	/**
+	 * @param failure
+	 *            failure of a poll, the feed keeps polling
+	 */
+	void onFailure(Exception failure);
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.feed;
+
+import java.util.Collections;
+import java.util.List;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+
+/**
+ * Entities added, removed and changed between two polls of a
+ * {@link ChangeFeed}. The entities are shared by the subscribers and must
+ * not be modified.
+ */
+public class EntityChanges {
+
+	private final List<Entity> added;
+	private final List<Entity> removed;
+	private final List<Entity> changed;
+
+	EntityChanges(List<Entity> added, List<Entity> removed, List<Entity> changed) {
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.changed = Collections.unmodifiableList(changed);
+	}
+
+	/**
+	 * @return the entities appeared in the listing
+	 */
+	public List<Entity> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return the last version of the entities gone from the listing
+	 */
+	public List<Entity> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return the new version of the entities changed
+	 */
+	public List<Entity> getChanged() {
+		return changed;
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "added=" + added.size() + " removed=" + removed.size() + " changed="
+				+ changed.size();
+	}
+}
@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entity;
+
+/**
+ * In memory store of the entities read from the service, indexed by entity
+ * type, tag concept and owner community.
+ *
+ * Entity, type, concept and community ids are mapped to dense ints, each
+ * type, concept and community is a slot of a list holding the
+ * {@link MembershipBitmap} of its entities, so filters are answered with
+ * bitmap intersections instead of another call to the service.
+ *
+ * Stored entities are shared between callers and must not be modified.
+ */
+public class EntityIndex {
+
+	private final IdDictionary entityIds = new IdDictionary();
+	private final IdDictionary typeIds = new IdDictionary();
+	private final IdDictionary conceptIds = new IdDictionary();
+	private final IdDictionary communityIds = new IdDictionary();
+
+	private final List<Indexed> entities = new ArrayList<Indexed>();
+	private final List<MembershipBitmap> byType = new ArrayList<MembershipBitmap>();
+	private final List<MembershipBitmap> byConcept = new ArrayList<MembershipBitmap>();
+	private final List<MembershipBitmap> byCommunity = new ArrayList<MembershipBitmap>();
+	private MembershipBitmap all = MembershipBitmap.EMPTY;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * stores an entity, replacing the previous version
+	 *
+	 * @param communityId
+	 *            community the entity has been read from, null to use its
+	 *            community owner
+	 * @param entity
+	 *            the entity
+	 */
+	public void put(String communityId, Entity entity) {
+		putAll(communityId, Collections.singletonList(entity));
+	}
+
+	/**
+	 * stores some entities, replacing their previous versions. Postings are
+	 * merged once per key, so a page costs one bitmap update for each of
+	 * its types, concepts and communities.
+	 *
+	 * @param communityId
+	 *            community the entities have been read from, null to use
+	 *            their community owner
+	 * @param list
+	 *            the entities
+	 */
+	public void putAll(String communityId, Collection<Entity> list) {
+		if (list == null || list.isEmpty()) {
+			return;
+		}
+		Postings removed = new Postings();
+		Postings added = new Postings();
+		lock.writeLock().lock();
+		try {
+			Map<Integer, Indexed> batch = new LinkedHashMap<Integer, Indexed>();
+			for (Entity entity : list) {
+				if (entity == null || entity.getEntityId() == null) {
+					continue;
+				}
+				int number = entityIds.number(entity.getEntityId());
+				while (entities.size() <= number) {
+					entities.add(null);
+				}
+				Indexed previous = entities.get(number);
+				if (previous != null && !batch.containsKey(number)) {
+					removed.add(number, previous);
+				}
+				batch.put(number, index(communityId, entity));
+			}
+			for (Map.Entry<Integer, Indexed> e : batch.entrySet()) {
+				entities.set(e.getKey(), e.getValue());
+				added.add(e.getKey(), e.getValue());
+			}
+			// postings of replaced entities are dropped before adding the new
+			// ones, an entity keeping a key is removed and added back
+			removed.apply(false);
+			added.apply(true);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * removes an entity
+	 *
+	 * @param entityId
+	 *            id of the entity
+	 */
+	public void remove(String entityId) {
+		lock.writeLock().lock();
+		try {
+			int number = entityIds.lookup(entityId);
+			if (number < 0 || number >= entities.size()
+					|| entities.get(number) == null) {
+				return;
+			}
+			Postings removed = new Postings();
+			removed.add(number, entities.get(number));
+			entities.set(number, null);
+			removed.apply(false);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * removes every entity
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			entities.clear();
+			byType.clear();
+			byConcept.clear();
+			byCommunity.clear();
+			all = MembershipBitmap.EMPTY;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of stored entities
+	 */
+	public int size() {
+		return all().cardinality();
+	}
+
+	/**
+	 * @return the stored entity, or null
+	 */
+	public Entity get(String entityId) {
+		lock.readLock().lock();
+		try {
+			int number = entityIds.lookup(entityId);
+			if (number < 0 || number >= entities.size()) {
+				return null;
+			}
+			Indexed indexed = entities.get(number);
+			return indexed == null ? null : indexed.entity;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return all the stored entities
+	 */
+	public MembershipBitmap all() {
+		lock.readLock().lock();
+		try {
+			return all;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the entities of the given type
+	 */
+	public MembershipBitmap byType(String typeId) {
+		return postings(byType, typeIds, typeId);
+	}
+
+	/**
+	 * @return the entities tagged with the given concept
+	 */
+	public MembershipBitmap byConcept(String conceptId) {
+		return postings(byConcept, conceptIds, conceptId);
+	}
+
+	/**
+	 * @return the entities owned by the given community
+	 */
+	public MembershipBitmap byCommunity(String communityId) {
+		return postings(byCommunity, communityIds, communityId);
+	}
+
+	/**
+	 * @return a query over the stored entities
+	 */
+	public Query query() {
+		return new Query();
+	}
+
+	/**
+	 * @param bitmap
+	 *            a set of entities returned by this index
+	 * @return the entities still stored, in order of first appearance
+	 */
+	public List<Entity> toEntities(MembershipBitmap bitmap) {
+		int[] numbers = bitmap.toArray();
+		List<Entity> result = new ArrayList<Entity>(numbers.length);
+		lock.readLock().lock();
+		try {
+			for (int number : numbers) {
+				Indexed indexed = number < entities.size() ? entities.get(number) : null;
+				if (indexed != null) {
+					result.add(indexed.entity);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	private MembershipBitmap postings(List<MembershipBitmap> lists, IdDictionary ids, String id) {
+		lock.readLock().lock();
+		try {
+			int key = ids.lookup(id);
+			return key < 0 || key >= lists.size() || lists.get(key) == null ? MembershipBitmap.EMPTY
+					: lists.get(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Indexed index(String communityId, Entity entity) {
+		String community = communityId != null ? communityId : entity.getCommunityOwner();
+		int[] concepts;
+		if (entity.getTags() == null) {
+			concepts = new int[0];
+		} else {
+			concepts = new int[entity.getTags().size()];
+			int n = 0;
+			for (Concept tag : entity.getTags()) {
+				if (tag != null && tag.getId() != null) {
+					concepts[n++] = conceptIds.number(tag.getId());
+				}
+			}
+			if (n < concepts.length) {
+				concepts = Arrays.copyOf(concepts, n);
+			}
+		}
+		return new Indexed(entity,
+				entity.getType() == null ? -1 : typeIds.number(entity.getType()),
+				concepts,
+				community == null ? -1 : communityIds.number(community));
+	}
+
+	/**
+	 * entity with the keys it is posted under
+	 */
+	private static final class Indexed {
+		final Entity entity;
+		final int type;
+		final int[] concepts;
+		final int community;
+
+		Indexed(Entity entity, int type, int[] concepts, int community) {
+			this.entity = entity;
+			this.type = type;
+			this.concepts = concepts;
+			this.community = community;
+		}
+	}
+
+	/**
+	 * entity numbers to add or remove, grouped by key
+	 */
+	private final class Postings {
+		private final Map<Integer, List<Integer>> types = new HashMap<Integer, List<Integer>>();
+		private final Map<Integer, List<Integer>> concepts = new HashMap<Integer, List<Integer>>();
+		private final Map<Integer, List<Integer>> communities = new HashMap<Integer, List<Integer>>();
+		private final List<Integer> numbers = new ArrayList<Integer>();
+
+		void add(int number, Indexed indexed) {
+			numbers.add(number);
+			collect(types, indexed.type, number);
+			for (int concept : indexed.concepts) {
+				collect(concepts, concept, number);
+			}
+			collect(communities, indexed.community, number);
+		}
+
+		void apply(boolean add) {
+			update(byType, types, add);
+			update(byConcept, concepts, add);
+			update(byCommunity, communities, add);
+			all = merge(all, numbers, add);
+		}
+
+		private void collect(Map<Integer, List<Integer>> keys, int key, int number) {
+			if (key < 0) {
+				return;
+			}
+			List<Integer> list = keys.get(key);
+			if (list == null) {
+				list = new ArrayList<Integer>();
+				keys.put(key, list);
+			}
+			list.add(number);
+		}
+
+		private void update(List<MembershipBitmap> lists, Map<Integer, List<Integer>> keys, boolean add) {
+			for (Map.Entry<Integer, List<Integer>> e : keys.entrySet()) {
+				int key = e.getKey();
+				while (lists.size() <= key) {
+					lists.add(null);
+				}
+				MembershipBitmap current = lists.get(key);
+				lists.set(key, merge(current == null ? MembershipBitmap.EMPTY : current,
+						e.getValue(), add));
+			}
+		}
+
+		private MembershipBitmap merge(MembershipBitmap bitmap, List<Integer> values, boolean add) {
+			if (values.isEmpty()) {
+				return bitmap;
+			}
+			int[] array = new int[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+			return add ? bitmap.with(array) : bitmap.without(array);
+		}
+	}
+
+	/**
+	 * conjunction of filters over the stored entities, e.g.
+	 * <code>index.query().type(typeId).concept(conceptId).list()</code>
+	 */
+	public final class Query {
+		private MembershipBitmap result;
+
+		private Query() {
+			result = all();
+		}
+
+		public Query type(String typeId) {
+			result = result.and(byType(typeId));
+			return this;
+		}
+
+		public Query concept(String conceptId) {
+			result = result.and(byConcept(conceptId));
+			return this;
+		}
+
+		/**
+		 * keeps the entities tagged with at least one of the concepts
+		 */
+		public Query anyConcept(String... conceptIds) {
+			MembershipBitmap any = MembershipBitmap.EMPTY;
+			for (String conceptId : conceptIds) {
+				any = any.or(byConcept(conceptId));
+			}
+			result = result.and(any);
+			return this;
+		}
+
+		public Query community(String communityId) {
+			result = result.and(byCommunity(communityId));
+			return this;
+		}
+
+		public Query excludeType(String typeId) {
+			result = result.andNot(byType(typeId));
+			return this;
+		}
+
+		public Query excludeConcept(String conceptId) {
+			result = result.andNot(byConcept(conceptId));
+			return this;
+		}
+
+		/**
+		 * @return the entities matching the query
+		 */
+		public MembershipBitmap bitmap() {
+			return result;
+		}
+
+		public int count() {
+			return result.cardinality();
+		}
+
+		/**
+		 * @return the entities matching the query, in order of first
+		 *         appearance
+		 */
+		public List<Entity> list() {
+			return toEntities(result);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense ints to social ids, in order of appearance. Numbers are never
+ * reused, lookups do not lock.
+ */
+final class IdDictionary {
+
+	private final ConcurrentHashMap<String, Integer> numbers = new ConcurrentHashMap<String, Integer>();
+	private final List<String> ids = new ArrayList<String>();
+
+	/**
+	 * @return the number of the id, assigning a new one if the id is unknown
+	 */
+	int number(String id) {
+		Integer n = numbers.get(id);
+		if (n != null) {
+			return n;
+		}
+		synchronized (ids) {
+			n = numbers.get(id);
+			if (n == null) {
+				n = ids.size();
+				ids.add(id);
+				numbers.put(id, n);
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * @return the numbers of the ids, assigning the missing ones
+	 */
+	int[] numbers(Collection<String> ids) {
+		int[] result = new int[ids.size()];
+		int i = 0;
+		for (String id : ids) {
+			result[i++] = number(id);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of the id, or -1 if it has never been seen
+	 */
+	int lookup(String id) {
+		if (id == null) {
+			return -1;
+		}
+		Integer n = numbers.get(id);
+		return n == null ? -1 : n;
+	}
+
+	/**
+	 * @return the id of the given number
+	 */
+	String id(int number) {
+		synchronized (ids) {
+			return ids.get(number);
+		}
+	}
+
+	int size() {
+		return numbers.size();
+	}
+}
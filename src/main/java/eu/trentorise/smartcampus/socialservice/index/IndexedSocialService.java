@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.List;
+
+import eu.trentorise.smartcampus.social.model.Communities;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.social.model.Groups;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.transport.Transport;
+
+/**
+ * {@link SocialService} keeping a {@link MembershipIndex} up to date with the
+ * groups and communities it reads and with the membership changes it makes,
+ * so membership checks are answered in memory.
+ *
+ * Changes made by other clients are seen on the next read of the groups or
+ * communities involved.
+ *
+ * When an {@link EntityIndex} is set, the user and community entities read
+ * by the client are stored in it too, so they can be filtered locally.
+ */
+public class IndexedSocialService extends SocialService {
+
+	protected final MembershipIndex index;
+	protected volatile EntityIndex entityIndex;
+
+	public IndexedSocialService(String serviceUrl) {
+		this(serviceUrl, new MembershipIndex());
+	}
+
+	public IndexedSocialService(String serviceUrl, MembershipIndex index) {
+		super(serviceUrl);
+		this.index = index;
+	}
+
+	public IndexedSocialService(String serviceUrl, Transport transport, MembershipIndex index) {
+		super(serviceUrl, transport);
+		this.index = index;
+	}
+
+	/**
+	 * @return the index used by the client
+	 */
+	public MembershipIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @param entityIndex
+	 *            store of the entities read by the client, null to disable it
+	 */
+	public void setEntityIndex(EntityIndex entityIndex) {
+		this.entityIndex = entityIndex;
+	}
+
+	public EntityIndex getEntityIndex() {
+		return entityIndex;
+	}
+
+	/**
+	 * checks if a user is member of any group of the token, the groups are
+	 * read from the service only if they have not been indexed yet
+	 *
+	 * @param token
+	 *            user access token
+	 * @param userId
+	 *            social id of the user to check
+	 * @return true if the user is member of at least a group
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public boolean isInAnyGroup(String token, String userId)
+			throws SecurityException, SocialServiceException {
+		if (!index.hasGroups(token)) {
+			getUserGroups(token);
+		}
+		return index.isInAnyGroup(token, userId);
+	}
+
+	/**
+	 * checks if a user is member of a group, the group is read from the
+	 * service only if it has not been indexed yet
+	 *
+	 * @param groupId
+	 *            id of the group
+	 * @param userId
+	 *            social id of the user to check
+	 * @param token
+	 *            user access token
+	 * @return true if the user is member of the group
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public boolean isGroupMember(String groupId, String userId, String token)
+			throws SecurityException, SocialServiceException {
+		if (!index.hasGroup(groupId)) {
+			getUserGroup(groupId, token);
+		}
+		return index.isGroupMember(groupId, userId);
+	}
+
+	@Override
+	public Groups getUserGroups(String token) throws SecurityException,
+			SocialServiceException {
+		Groups groups = super.getUserGroups(token);
+		index.refreshGroups(token, groups);
+		return groups;
+	}
+
+	@Override
+	public Group getUserGroup(String groupId, String token)
+			throws SecurityException, SocialServiceException {
+		Group group = super.getUserGroup(groupId, token);
+		if (group == null) {
+			index.removeGroup(groupId);
+		} else {
+			index.refreshGroup(token, group);
+		}
+		return group;
+	}
+
+	@Override
+	public Group createUserGroup(String token, String name)
+			throws SocialServiceException {
+		Group group = super.createUserGroup(token, name);
+		index.refreshGroup(token, group);
+		return group;
+	}
+
+	@Override
+	public boolean updateUserGroup(String token, Group group)
+			throws SocialServiceException {
+		boolean result = super.updateUserGroup(token, group);
+		if (result && group.getUsers() != null) {
+			index.refreshGroup(token, group);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean updateUserGroup(String token, Group previous, Group group)
+			throws SocialServiceException {
+		boolean result = super.updateUserGroup(token, previous, group);
+		if (result && group.getUsers() != null) {
+			index.refreshGroup(token, group);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean deleteUserGroup(String token, String groupId)
+			throws SocialServiceException {
+		boolean result = super.deleteUserGroup(token, groupId);
+		if (result) {
+			index.removeGroup(groupId);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean addUsersToGroup(String groupId, List<String> userIds,
+			String token) throws SecurityException, SocialServiceException {
+		boolean result = super.addUsersToGroup(groupId, userIds, token);
+		if (result) {
+			index.addGroupMembers(groupId, userIds);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean removeUsersFromGroup(String groupId, List<String> userIds,
+			String token) throws SecurityException, SocialServiceException {
+		boolean result = super.removeUsersFromGroup(groupId, userIds, token);
+		if (result) {
+			index.removeGroupMembers(groupId, userIds);
+		}
+		return result;
+	}
+
+	@Override
+	public Communities getUserCommunities(String token)
+			throws SecurityException, SocialServiceException {
+		Communities communities = super.getUserCommunities(token);
+		String userId = index.getUser(token);
+		if (userId != null) {
+			index.refreshCommunities(userId, communities);
+		}
+		return communities;
+	}
+
+	@Override
+	public boolean addUserToCommunity(String token, String communityId)
+			throws SocialServiceException, SecurityException {
+		boolean result = super.addUserToCommunity(token, communityId);
+		String userId = index.getUser(token);
+		if (result && userId != null) {
+			index.addCommunityMember(communityId, userId);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean removeUserFromCommunity(String token, String communityId)
+			throws SocialServiceException, SecurityException {
+		boolean result = super.removeUserFromCommunity(token, communityId);
+		String userId = index.getUser(token);
+		if (result && userId != null) {
+			index.removeCommunityMember(communityId, userId);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean deleteCommunity(String id, String token)
+			throws SocialServiceException, SecurityException {
+		boolean result = super.deleteCommunity(id, token);
+		if (result) {
+			index.removeCommunity(id);
+		}
+		return result;
+	}
+
+	@Override
+	public Entities getUserEntities(String token, Integer position,
+			Integer size, String typeId) throws SecurityException,
+			SocialServiceException {
+		Entities entities = super.getUserEntities(token, position, size, typeId);
+		EntityIndex store = entityIndex;
+		if (store != null && entities != null) {
+			store.putAll(null, entities.getContent());
+		}
+		return entities;
+	}
+
+	@Override
+	public Entity getUserEntity(String token, String entityId)
+			throws SecurityException, SocialServiceException {
+		Entity entity = super.getUserEntity(token, entityId);
+		store(null, entityId, entity);
+		return entity;
+	}
+
+	@Override
+	public Entity createUserEntity(String token, EntityRequest entity)
+			throws SocialServiceException {
+		Entity created = super.createUserEntity(token, entity);
+		store(null, null, created);
+		return created;
+	}
+
+	@Override
+	public boolean updateUserEntity(String token, EntityRequest entity)
+			throws SocialServiceException {
+		boolean result = super.updateUserEntity(token, entity);
+		forget(entity.getId());
+		return result;
+	}
+
+	@Override
+	public boolean updateUserEntity(String token, EntityRequest previous,
+			EntityRequest entity) throws SocialServiceException {
+		boolean result = super.updateUserEntity(token, previous, entity);
+		forget(entity.getId());
+		return result;
+	}
+
+	@Override
+	public boolean deleteUserEntity(String token, String entityId)
+			throws SocialServiceException {
+		boolean result = super.deleteUserEntity(token, entityId);
+		forget(entityId);
+		return result;
+	}
+
+	@Override
+	public Entities getCommunityEntities(String communityId, String token,
+			Integer position, Integer size, String typeId)
+			throws SecurityException, SocialServiceException {
+		Entities entities = super.getCommunityEntities(communityId, token,
+				position, size, typeId);
+		EntityIndex store = entityIndex;
+		if (store != null && entities != null) {
+			store.putAll(communityId, entities.getContent());
+		}
+		return entities;
+	}
+
+	@Override
+	public Entity getCommunityEntity(String communityId, String token,
+			String entityId) throws SecurityException, SocialServiceException {
+		Entity entity = super.getCommunityEntity(communityId, token, entityId);
+		store(communityId, entityId, entity);
+		return entity;
+	}
+
+	@Override
+	public Entity createCommunityEntity(String communityId, String token,
+			EntityRequest entity) throws SocialServiceException {
+		Entity created = super.createCommunityEntity(communityId, token, entity);
+		store(communityId, null, created);
+		return created;
+	}
+
+	@Override
+	public boolean updateCommunityEntity(String communityId, String token,
+			EntityRequest entity) throws SocialServiceException {
+		boolean result = super.updateCommunityEntity(communityId, token, entity);
+		forget(entity.getId());
+		return result;
+	}
+
+	@Override
+	public boolean updateCommunityEntity(String communityId, String token,
+			EntityRequest previous, EntityRequest entity)
+			throws SocialServiceException {
+		boolean result = super.updateCommunityEntity(communityId, token,
+				previous, entity);
+		forget(entity.getId());
+		return result;
+	}
+
+	@Override
+	public boolean deleteCommunityEntity(String communityId, String token,
+			String entityId) throws SocialServiceException {
+		boolean result = super.deleteCommunityEntity(communityId, token, entityId);
+		forget(entityId);
+		return result;
+	}
+
+	private void store(String communityId, String entityId, Entity entity) {
+		EntityIndex store = entityIndex;
+		if (store == null) {
+			return;
+		}
+		if (entity != null) {
+			store.put(communityId, entity);
+		} else if (entityId != null) {
+			store.remove(entityId);
+		}
+	}
+
+	/**
+	 * the update methods do not return the entity, the stale version is
+	 * removed and stored again on the next read
+	 */
+	private void forget(String entityId) {
+		EntityIndex store = entityIndex;
+		if (store != null && entityId != null) {
+			store.remove(entityId);
+		}
+	}
+}
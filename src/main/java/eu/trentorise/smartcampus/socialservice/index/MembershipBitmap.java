@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of non negative ints, used to store the members
+ * of a group or of a community as dense user numbers.
+ *
+ * Values are split in chunks of 65536 by their high 16 bits. A chunk holding
+ * up to 4096 values is a sorted <code>char[]</code>, a denser chunk is a
+ * 1024 words <code>long[]</code> bitmap, so a chunk never takes more than
+ * 8 KB and lookups, intersections and unions work a chunk at a time.
+ */
+public final class MembershipBitmap {
+
+	public static final MembershipBitmap EMPTY = new MembershipBitmap(
+			new char[0], new Object[0], new int[0]);
+
+	/** max values of an array chunk, beyond it a bitmap chunk is smaller */
+	private static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	private final char[] keys;
+	private final Object[] chunks;
+	private final int[] cardinalities;
+	private final int cardinality;
+
+	private MembershipBitmap(char[] keys, Object[] chunks, int[] cardinalities) {
+		this.keys = keys;
+		this.chunks = chunks;
+		this.cardinalities = cardinalities;
+		int total = 0;
+		for (int c : cardinalities) {
+			total += c;
+		}
+		this.cardinality = total;
+	}
+
+	/**
+	 * @param values
+	 *            the values of the set, in any order, duplicates allowed
+	 * @return the bitmap containing the given values
+	 */
+	public static MembershipBitmap of(int... values) {
+		if (values.length == 0) {
+			return EMPTY;
+		}
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		if (sorted[0] < 0) {
+			throw new IllegalArgumentException("Negative value " + sorted[0]);
+		}
+		Builder builder = new Builder(sorted.length / ARRAY_MAX + 1);
+		int from = 0;
+		while (from < sorted.length) {
+			char key = high(sorted[from]);
+			int to = from;
+			while (to < sorted.length && high(sorted[to]) == key) {
+				to++;
+			}
+			char[] low = new char[to - from];
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				char v = low(sorted[i]);
+				if (n == 0 || low[n - 1] != v) {
+					low[n++] = v;
+				}
+			}
+			builder.add(key, n > ARRAY_MAX ? toBitmap(low, n) : Arrays.copyOf(low, n), n);
+			from = to;
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return number of values of the set
+	 */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * @param value
+	 *            the value to look for
+	 * @return true if the set contains the value
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+		int i = Arrays.binarySearch(keys, high(value));
+		return i >= 0 && chunkContains(chunks[i], low(value));
+	}
+
+	/**
+	 * @return true if the two sets have at least a value in common
+	 */
+	public boolean intersects(MembershipBitmap other) {
+		int i = 0, j = 0;
+		while (i < keys.length && j < other.keys.length) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				if (intersects(chunks[i], other.chunks[j])) {
+					return true;
+				}
+				i++;
+				j++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the values contained in both sets
+	 */
+	public MembershipBitmap and(MembershipBitmap other) {
+		Builder builder = new Builder(Math.min(keys.length, other.keys.length));
+		int i = 0, j = 0;
+		while (i < keys.length && j < other.keys.length) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				builder.add(keys[i], and(chunks[i], other.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the values contained in at least one of the sets
+	 */
+	public MembershipBitmap or(MembershipBitmap other) {
+		if (other.isEmpty()) {
+			return this;
+		}
+		if (isEmpty()) {
+			return other;
+		}
+		Builder builder = new Builder(keys.length + other.keys.length);
+		int i = 0, j = 0;
+		while (i < keys.length || j < other.keys.length) {
+			if (j == other.keys.length
+					|| (i < keys.length && keys[i] < other.keys[j])) {
+				builder.add(keys[i], chunks[i], cardinalities[i]);
+				i++;
+			} else if (i == keys.length || keys[i] > other.keys[j]) {
+				builder.add(other.keys[j], other.chunks[j],
+						other.cardinalities[j]);
+				j++;
+			} else {
+				builder.add(keys[i], or(chunks[i], other.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the values of this set not contained in the other one
+	 */
+	public MembershipBitmap andNot(MembershipBitmap other) {
+		if (other.isEmpty() || isEmpty()) {
+			return this;
+		}
+		Builder builder = new Builder(keys.length);
+		int j = 0;
+		for (int i = 0; i < keys.length; i++) {
+			while (j < other.keys.length && other.keys[j] < keys[i]) {
+				j++;
+			}
+			if (j < other.keys.length && other.keys[j] == keys[i]) {
+				builder.add(keys[i], andNot(chunks[i], other.chunks[j]));
+			} else {
+				builder.add(keys[i], chunks[i], cardinalities[i]);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return the set with the given values added
+	 */
+	public MembershipBitmap with(int... values) {
+		return or(of(values));
+	}
+
+	/**
+	 * @return the set with the given values removed
+	 */
+	public MembershipBitmap without(int... values) {
+		return andNot(of(values));
+	}
+
+	/**
+	 * @return the values of the set in ascending order
+	 */
+	public int[] toArray() {
+		int[] result = new int[cardinality];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int base = keys[i] << 16;
+			if (chunks[i] instanceof char[]) {
+				for (char c : (char[]) chunks[i]) {
+					result[n++] = base | c;
+				}
+			} else {
+				long[] words = (long[]) chunks[i];
+				for (int w = 0; w < words.length; w++) {
+					long word = words[w];
+					while (word != 0) {
+						result[n++] = base | (w << 6)
+								| Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return approximate memory used by the values, in bytes
+	 */
+	public long byteSize() {
+		long size = keys.length * 2L;
+		for (Object chunk : chunks) {
+			size += chunk instanceof char[] ? ((char[]) chunk).length * 2L
+					: BITMAP_WORDS * 8L;
+		}
+		return size;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof MembershipBitmap
+				&& Arrays.equals(toArray(), ((MembershipBitmap) obj).toArray());
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private static char high(int value) {
+		return (char) (value >>> 16);
+	}
+
+	private static char low(int value) {
+		return (char) value;
+	}
+
+	private static boolean chunkContains(Object chunk, char value) {
+		if (chunk instanceof char[]) {
+			return Arrays.binarySearch((char[]) chunk, value) >= 0;
+		}
+		return (((long[]) chunk)[value >>> 6] & (1L << value)) != 0;
+	}
+
+	private static int cardinality(Object chunk) {
+		if (chunk instanceof char[]) {
+			return ((char[]) chunk).length;
+		}
+		int n = 0;
+		for (long word : (long[]) chunk) {
+			n += Long.bitCount(word);
+		}
+		return n;
+	}
+
+	private static boolean intersects(Object a, Object b) {
+		if (b instanceof char[]) {
+			Object t = a;
+			a = b;
+			b = t;
+		}
+		if (a instanceof char[]) {
+			for (char v : (char[]) a) {
+				if (chunkContains(b, v)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		long[] x = (long[]) a, y = (long[]) b;
+		for (int i = 0; i < BITMAP_WORDS; i++) {
+			if ((x[i] & y[i]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long[] toBitmap(char[] values, int length) {
+		long[] words = new long[BITMAP_WORDS];
+		for (int i = 0; i < length; i++) {
+			words[values[i] >>> 6] |= 1L << values[i];
+		}
+		return words;
+	}
+
+	private static long[] toBitmap(Object chunk) {
+		if (chunk instanceof long[]) {
+			return (long[]) chunk;
+		}
+		char[] values = (char[]) chunk;
+		return toBitmap(values, values.length);
+	}
+
+	/**
+	 * keeps the values filtered from an array chunk
+	 */
+	private static char[] filter(char[] values, Object other, boolean keep) {
+		char[] result = new char[values.length];
+		int n = 0;
+		for (char v : values) {
+			if (chunkContains(other, v) == keep) {
+				result[n++] = v;
+			}
+		}
+		return n == values.length ? values : Arrays.copyOf(result, n);
+	}
+
+	private static Object and(Object a, Object b) {
+		if (a instanceof char[]) {
+			return filter((char[]) a, b, true);
+		}
+		if (b instanceof char[]) {
+			return filter((char[]) b, a, true);
+		}
+		long[] x = (long[]) a, y = (long[]) b;
+		long[] words = new long[BITMAP_WORDS];
+		for (int i = 0; i < BITMAP_WORDS; i++) {
+			words[i] = x[i] & y[i];
+		}
+		return words;
+	}
+
+	private static Object or(Object a, Object b) {
+		if (a instanceof char[] && b instanceof char[]) {
+			char[] x = (char[]) a, y = (char[]) b;
+			char[] merged = new char[x.length + y.length];
+			int i = 0, j = 0, n = 0;
+			while (i < x.length || j < y.length) {
+				char v;
+				if (j == y.length || (i < x.length && x[i] < y[j])) {
+					v = x[i++];
+				} else if (i == x.length || x[i] > y[j]) {
+					v = y[j++];
+				} else {
+					v = x[i++];
+					j++;
+				}
+				merged[n++] = v;
+			}
+			return n > ARRAY_MAX ? toBitmap(merged, n) : Arrays.copyOf(merged, n);
+		}
+		long[] x = toBitmap(a), y = toBitmap(b);
+		long[] words = new long[BITMAP_WORDS];
+		for (int i = 0; i < BITMAP_WORDS; i++) {
+			words[i] = x[i] | y[i];
+		}
+		return words;
+	}
+
+	private static Object andNot(Object a, Object b) {
+		if (a instanceof char[]) {
+			return filter((char[]) a, b, false);
+		}
+		long[] words = ((long[]) a).clone();
+		if (b instanceof char[]) {
+			for (char v : (char[]) b) {
+				words[v >>> 6] &= ~(1L << v);
+			}
+		} else {
+			long[] y = (long[]) b;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] &= ~y[i];
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * collects the chunks of a new bitmap, dropping the empty ones and
+	 * turning the sparse bitmap chunks back into arrays
+	 */
+	private static final class Builder {
+		private char[] keys;
+		private Object[] chunks;
+		private int[] cardinalities;
+		private int size;
+
+		Builder(int capacity) {
+			keys = new char[capacity];
+			chunks = new Object[capacity];
+			cardinalities = new int[capacity];
+		}
+
+		void add(char key, Object chunk) {
+			add(key, chunk, cardinality(chunk));
+		}
+
+		void add(char key, Object chunk, int cardinality) {
+			if (cardinality == 0) {
+				return;
+			}
+			if (chunk instanceof long[] && cardinality <= ARRAY_MAX) {
+				char[] values = new char[cardinality];
+				long[] words = (long[]) chunk;
+				int n = 0;
+				for (int w = 0; w < words.length; w++) {
+					long word = words[w];
+					while (word != 0) {
+						values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+				chunk = values;
+			}
+			if (size == keys.length) {
+				int capacity = Math.max(4, size * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				chunks = Arrays.copyOf(chunks, capacity);
+				cardinalities = Arrays.copyOf(cardinalities, capacity);
+			}
+			keys[size] = key;
+			chunks[size] = chunk;
+			cardinalities[size] = cardinality;
+			size++;
+		}
+
+		MembershipBitmap build() {
+			if (size == 0) {
+				return EMPTY;
+			}
+			return new MembershipBitmap(Arrays.copyOf(keys, size),
+					Arrays.copyOf(chunks, size), Arrays.copyOf(cardinalities, size));
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.trentorise.smartcampus.social.model.Communities;
+import eu.trentorise.smartcampus.social.model.Community;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.social.model.Groups;
+
+/**
+ * In memory index of the members of groups and communities.
+ *
+ * User social ids are mapped to dense ints and the members of each group and
+ * community are kept as a {@link MembershipBitmap}, together with the union
+ * of the members of all the groups of each access token. Checks only read
+ * immutable bitmaps and do not lock; updates are serialized and replace the
+ * bitmaps they change.
+ *
+ * The service only tells the communities of the user owning a token, so
+ * community members are indexed for the tokens bound to their user with
+ * {@link #bindToken(String, String)}.
+ */
+public class MembershipIndex {
+
+	private final IdDictionary users = new IdDictionary();
+
+	private final ConcurrentHashMap<String, MembershipBitmap> groupMembers = new ConcurrentHashMap<String, MembershipBitmap>();
+	private final ConcurrentHashMap<String, TokenGroups> tokenGroups = new ConcurrentHashMap<String, TokenGroups>();
+	private final ConcurrentHashMap<String, MembershipBitmap> communityMembers = new ConcurrentHashMap<String, MembershipBitmap>();
+	private final ConcurrentHashMap<String, String> tokenUsers = new ConcurrentHashMap<String, String>();
+
+	/** tokens listing each group, guarded by this */
+	private final Map<String, Set<String>> groupTokens = new HashMap<String, Set<String>>();
+	/** communities of each user, guarded by this */
+	private final Map<String, Set<String>> userCommunities = new HashMap<String, Set<String>>();
+
+	/**
+	 * replaces the groups of a token with the given listing
+	 *
+	 * @param token
+	 *            user access token
+	 * @param groups
+	 *            result of {@link eu.trentorise.smartcampus.socialservice.SocialService#getUserGroups(String)}
+	 */
+	public synchronized void refreshGroups(String token, Groups groups) {
+		Set<String> ids = new HashSet<String>();
+		if (groups != null && groups.getContent() != null) {
+			for (Group group : groups.getContent()) {
+				ids.add(group.getSocialId());
+				groupMembers.put(group.getSocialId(), bitmap(group.getUsers()));
+				tokens(group.getSocialId()).add(token);
+			}
+		}
+		TokenGroups previous = tokenGroups.get(token);
+		if (previous != null) {
+			for (String groupId : previous.groupIds) {
+				if (!ids.contains(groupId)) {
+					releaseGroup(groupId, token);
+				}
+			}
+		}
+		tokenGroups.put(token, union(ids));
+		for (String groupId : ids) {
+			updateTokens(groupId, token);
+		}
+	}
+
+	/**
+	 * updates the members of a group
+	 *
+	 * @param token
+	 *            access token which read the group
+	 * @param group
+	 *            the group, null if it does not exist anymore
+	 */
+	public synchronized void refreshGroup(String token, Group group) {
+		if (group == null) {
+			return;
+		}
+		groupMembers.put(group.getSocialId(), bitmap(group.getUsers()));
+		if (tokenGroups.containsKey(token)
+				&& tokens(group.getSocialId()).add(token)) {
+			Set<String> ids = new HashSet<String>(tokenGroups.get(token).groupIds);
+			ids.add(group.getSocialId());
+			tokenGroups.put(token, union(ids));
+		}
+		updateTokens(group.getSocialId(), null);
+	}
+
+	public synchronized void addGroupMembers(String groupId, Collection<String> userIds) {
+		MembershipBitmap members = groupMembers.get(groupId);
+		if (members != null && userIds != null) {
+			groupMembers.put(groupId, members.with(users.numbers(userIds)));
+			updateTokens(groupId, null);
+		}
+	}
+
+	public synchronized void removeGroupMembers(String groupId, Collection<String> userIds) {
+		MembershipBitmap members = groupMembers.get(groupId);
+		if (members != null && userIds != null) {
+			groupMembers.put(groupId, members.without(users.numbers(userIds)));
+			updateTokens(groupId, null);
+		}
+	}
+
+	public synchronized void removeGroup(String groupId) {
+		Set<String> tokens = groupTokens.remove(groupId);
+		groupMembers.remove(groupId);
+		if (tokens != null) {
+			for (String token : tokens) {
+				Set<String> ids = new HashSet<String>(tokenGroups.get(token).groupIds);
+				ids.remove(groupId);
+				tokenGroups.put(token, union(ids));
+			}
+		}
+	}
+
+	/**
+	 * binds an access token to the social id of its user, so the communities
+	 * read with the token are indexed
+	 */
+	public void bindToken(String token, String userId) {
+		tokenUsers.put(token, userId);
+	}
+
+	/**
+	 * @return the user bound to the token, or null
+	 */
+	public String getUser(String token) {
+		return tokenUsers.get(token);
+	}
+
+	/**
+	 * replaces the communities of a user with the given listing
+	 *
+	 * @param userId
+	 *            social id of the user
+	 * @param communities
+	 *            result of {@link eu.trentorise.smartcampus.socialservice.SocialService#getUserCommunities(String)}
+	 */
+	public synchronized void refreshCommunities(String userId, Communities communities) {
+		Set<String> ids = new HashSet<String>();
+		if (communities != null && communities.getContent() != null) {
+			for (Community community : communities.getContent()) {
+				ids.add(community.getId());
+			}
+		}
+		Set<String> previous = userCommunities.put(userId, ids);
+		if (previous != null) {
+			for (String communityId : previous) {
+				if (!ids.contains(communityId)) {
+					updateCommunity(communityId, userId, false);
+				}
+			}
+		}
+		for (String communityId : ids) {
+			updateCommunity(communityId, userId, true);
+		}
+	}
+
+	public synchronized void addCommunityMember(String communityId, String userId) {
+		Set<String> ids = userCommunities.get(userId);
+		if (ids != null) {
+			ids.add(communityId);
+		}
+		updateCommunity(communityId, userId, true);
+	}
+
+	public synchronized void removeCommunityMember(String communityId, String userId) {
+		Set<String> ids = userCommunities.get(userId);
+		if (ids != null) {
+			ids.remove(communityId);
+		}
+		updateCommunity(communityId, userId, false);
+	}
+
+	public synchronized void removeCommunity(String communityId) {
+		communityMembers.remove(communityId);
+		for (Set<String> ids : userCommunities.values()) {
+			ids.remove(communityId);
+		}
+	}
+
+	/**
+	 * removes every membership, dense user numbers are kept
+	 */
+	public synchronized void clear() {
+		groupMembers.clear();
+		tokenGroups.clear();
+		communityMembers.clear();
+		groupTokens.clear();
+		userCommunities.clear();
+	}
+
+	/**
+	 * @return true if the groups of the token have been indexed
+	 */
+	public boolean hasGroups(String token) {
+		return tokenGroups.containsKey(token);
+	}
+
+	/**
+	 * @return true if the members of the group have been indexed
+	 */
+	public boolean hasGroup(String groupId) {
+		return groupMembers.containsKey(groupId);
+	}
+
+	/**
+	 * @return true if the user is a member of the group
+	 */
+	public boolean isGroupMember(String groupId, String userId) {
+		MembershipBitmap members = groupMembers.get(groupId);
+		return members != null && members.contains(users.lookup(userId));
+	}
+
+	/**
+	 * @return true if the user is a member of any of the groups of the token
+	 */
+	public boolean isInAnyGroup(String token, String userId) {
+		TokenGroups groups = tokenGroups.get(token);
+		return groups != null && groups.members.contains(users.lookup(userId));
+	}
+
+	/**
+	 * @return true if the user is a known member of the community
+	 */
+	public boolean isCommunityMember(String communityId, String userId) {
+		MembershipBitmap members = communityMembers.get(communityId);
+		return members != null && members.contains(users.lookup(userId));
+	}
+
+	/**
+	 * @return the members of the group, empty if it is not indexed
+	 */
+	public MembershipBitmap getGroupMembers(String groupId) {
+		return orEmpty(groupMembers.get(groupId));
+	}
+
+	/**
+	 * @return the members of all the groups of the token
+	 */
+	public MembershipBitmap getTokenMembers(String token) {
+		TokenGroups groups = tokenGroups.get(token);
+		return groups == null ? MembershipBitmap.EMPTY : groups.members;
+	}
+
+	/**
+	 * @return the known members of the community
+	 */
+	public MembershipBitmap getCommunityMembers(String communityId) {
+		return orEmpty(communityMembers.get(communityId));
+	}
+
+	/**
+	 * @return the bitmap of the given users, ignoring the ones never indexed
+	 */
+	public MembershipBitmap toBitmap(Collection<String> userIds) {
+		int[] numbers = new int[userIds.size()];
+		int n = 0;
+		for (String userId : userIds) {
+			int number = users.lookup(userId);
+			if (number >= 0) {
+				numbers[n++] = number;
+			}
+		}
+		return MembershipBitmap.of(n == numbers.length ? numbers
+				: Arrays.copyOf(numbers, n));
+	}
+
+	/**
+	 * @return the social ids of the users of a bitmap
+	 */
+	public List<String> toUserIds(MembershipBitmap bitmap) {
+		int[] numbers = bitmap.toArray();
+		List<String> result = new ArrayList<String>(numbers.length);
+		for (int number : numbers) {
+			result.add(users.id(number));
+		}
+		return result;
+	}
+
+	private MembershipBitmap bitmap(Collection<String> userIds) {
+		return userIds == null ? MembershipBitmap.EMPTY : MembershipBitmap
+				.of(users.numbers(userIds));
+	}
+
+	private Set<String> tokens(String groupId) {
+		Set<String> tokens = groupTokens.get(groupId);
+		if (tokens == null) {
+			tokens = new HashSet<String>();
+			groupTokens.put(groupId, tokens);
+		}
+		return tokens;
+	}
+
+	private void releaseGroup(String groupId, String token) {
+		Set<String> tokens = groupTokens.get(groupId);
+		if (tokens != null) {
+			tokens.remove(token);
+			if (tokens.isEmpty()) {
+				groupTokens.remove(groupId);
+				groupMembers.remove(groupId);
+			}
+		}
+	}
+
+	/**
+	 * rebuilds the unions of the tokens listing a group, but the given one
+	 */
+	private void updateTokens(String groupId, String skip) {
+		Set<String> tokens = groupTokens.get(groupId);
+		if (tokens == null) {
+			return;
+		}
+		for (String token : tokens) {
+			if (!token.equals(skip)) {
+				tokenGroups.put(token, union(tokenGroups.get(token).groupIds));
+			}
+		}
+	}
+
+	private TokenGroups union(Set<String> groupIds) {
+		MembershipBitmap members = MembershipBitmap.EMPTY;
+		for (String groupId : groupIds) {
+			members = members.or(orEmpty(groupMembers.get(groupId)));
+		}
+		return new TokenGroups(Collections.unmodifiableSet(groupIds), members);
+	}
+
+	private void updateCommunity(String communityId, String userId, boolean member) {
+		MembershipBitmap members = orEmpty(communityMembers.get(communityId));
+		int number = users.number(userId);
+		if (members.contains(number) != member) {
+			communityMembers.put(communityId, member ? members.with(number)
+					: members.without(number));
+		}
+	}
+
+	private static MembershipBitmap orEmpty(MembershipBitmap bitmap) {
+		return bitmap == null ? MembershipBitmap.EMPTY : bitmap;
+	}
+
+	/**
+	 * immutable groups of a token with the union of their members
+	 */
+	private static final class TokenGroups {
+		final Set<String> groupIds;
+		final MembershipBitmap members;
+
+		TokenGroups(Set<String> groupIds, MembershipBitmap members) {
+			this.groupIds = groupIds;
+			this.members = members;
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.lazy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+
+/**
+ * Lazily decoded {@link Entities} listing. The response is kept as a single
+ * UTF-8 byte array with the offsets of each entity, entities are decoded
+ * only when and as much as needed.
+ */
+public class LazyEntities implements Iterable<LazyEntity> {
+
+	private static final String CONTENT = "content";
+
+	private final byte[] json;
+	private final int[] starts;
+	private final int[] ends;
+
+	private LazyEntities(byte[] json, int[] starts, int[] ends) {
+		this.json = json;
+		this.starts = starts;
+		this.ends = ends;
+	}
+
+	/**
+	 * @param json
+	 *            an {@link Entities} object or an array of entities
+	 * @return the lazy listing, empty if json is null or empty
+	 */
+	public static LazyEntities parse(String json) {
+		return parse(json == null ? new byte[0] : RawJson.bytes(json));
+	}
+
+	/**
+	 * @param json
+	 *            an UTF-8 encoded {@link Entities} object or array of entities
+	 * @return the lazy listing
+	 */
+	public static LazyEntities parse(final byte[] json) {
+		int pos = RawJson.skipWhitespace(json, 0, json.length);
+		if (pos < json.length && json[pos] == '{') {
+			final int[] content = { -1, -1 };
+			RawJson.members(json, pos, json.length, new RawJson.MemberVisitor() {
+				@Override
+				public boolean member(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+					if (RawJson.keyEquals(json, keyStart, keyEnd, CONTENT)) {
+						content[0] = valueStart;
+						content[1] = valueEnd;
+						return false;
+					}
+					return true;
+				}
+			});
+			return content[0] < 0 ? empty(json) : array(json, content[0], content[1]);
+		}
+		if (pos < json.length && json[pos] == '[') {
+			return array(json, pos, RawJson.skipValue(json, pos, json.length));
+		}
+		return empty(json);
+	}
+
+	/**
+	 * joins the pages of a listing, copying only their entities
+	 *
+	 * @param pages
+	 *            listing pages, in order
+	 * @return the listing of the entities of all the pages
+	 */
+	public static LazyEntities concat(List<LazyEntities> pages) {
+		if (pages.size() == 1) {
+			return pages.get(0);
+		}
+		int count = 0;
+		int length = 2;
+		for (LazyEntities page : pages) {
+			for (int i = 0; i < page.size(); i++) {
+				length += page.ends[i] - page.starts[i];
+			}
+			count += page.size();
+		}
+		// separating commas
+		length += Math.max(0, count - 1);
+		byte[] json = new byte[length];
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		int pos = 0;
+		int n = 0;
+		json[pos++] = '[';
+		for (LazyEntities page : pages) {
+			for (int i = 0; i < page.size(); i++) {
+				if (n > 0) {
+					json[pos++] = ',';
+				}
+				int size = page.ends[i] - page.starts[i];
+				System.arraycopy(page.json, page.starts[i], json, pos, size);
+				starts[n] = pos;
+				ends[n] = pos + size;
+				pos += size;
+				n++;
+			}
+		}
+		json[pos] = ']';
+		return new LazyEntities(json, starts, ends);
+	}
+
+	private static LazyEntities array(byte[] json, int start, int end) {
+		if (json[start] != '[') {
+			return empty(json);
+		}
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int count = 0;
+		int pos = RawJson.skipWhitespace(json, start + 1, end);
+		while (pos < end && json[pos] != ']') {
+			int valueEnd = RawJson.skipValue(json, pos, end);
+			if (json[pos] == '{') {
+				if (count == starts.length) {
+					starts = grow(starts);
+					ends = grow(ends);
+				}
+				starts[count] = pos;
+				ends[count] = valueEnd;
+				count++;
+			}
+			pos = RawJson.skipWhitespace(json, valueEnd, end);
+			if (pos < end && json[pos] == ',') {
+				pos = RawJson.skipWhitespace(json, pos + 1, end);
+			}
+		}
+		return new LazyEntities(json, trim(starts, count), trim(ends, count));
+	}
+
+	private static LazyEntities empty(byte[] json) {
+		return new LazyEntities(json, new int[0], new int[0]);
+	}
+
+	public int size() {
+		return starts.length;
+	}
+
+	public boolean isEmpty() {
+		return starts.length == 0;
+	}
+
+	/**
+	 * @param i
+	 *            position in the listing
+	 * @return the lazy view of the entity
+	 */
+	public LazyEntity get(int i) {
+		return new LazyEntity(json, starts[i], ends[i]);
+	}
+
+	/**
+	 * @return size of the retained response in bytes
+	 */
+	public int byteSize() {
+		return json.length;
+	}
+
+	/**
+	 * decodes all the entities
+	 *
+	 * @return the entities
+	 */
+	public List<Entity> toEntities() {
+		List<Entity> result = new ArrayList<Entity>(size());
+		for (int i = 0; i < size(); i++) {
+			result.add(get(i).toEntity());
+		}
+		return result;
+	}
+
+	/**
+	 * decodes only the given fields of all the entities
+	 *
+	 * @param fields
+	 *            names of the fields to decode, see the constants of
+	 *            {@link LazyEntity}
+	 * @return the partially decoded entities
+	 */
+	public List<Entity> project(String... fields) {
+		List<Entity> result = new ArrayList<Entity>(size());
+		for (int i = 0; i < size(); i++) {
+			result.add(get(i).project(fields));
+		}
+		return result;
+	}
+
+	@Override
+	public Iterator<LazyEntity> iterator() {
+		return new Iterator<LazyEntity>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size();
+			}
+
+			@Override
+			public LazyEntity next() {
+				if (next >= size()) {
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] trim(int[] array, int size) {
+		int[] trimmed = new int[size];
+		System.arraycopy(array, 0, trimmed, 0, size);
+		return trimmed;
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.lazy;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.social.model.Entity;
+
+/**
+ * View over the raw JSON of an {@link Entity} of a listing. Fields are
+ * decoded only when accessed, the full object is built only by
+ * {@link #toEntity()}.
+ */
+public class LazyEntity {
+
+	public static final String ENTITY_ID = "entityId";
+	public static final String TITLE = "title";
+	public static final String DESCRIPTION = "description";
+	public static final String TYPE = "type";
+	public static final String OWNER = "owner";
+	public static final String COMMUNITY_OWNER = "communityOwner";
+	public static final String TAGS = "tags";
+
+	private final byte[] json;
+	private final int start;
+	private final int end;
+
+	/** keyStart, keyEnd, valueStart, valueEnd of each member, built on first access */
+	private volatile int[] index;
+
+	LazyEntity(byte[] json, int start, int end) {
+		this.json = json;
+		this.start = start;
+		this.end = end;
+	}
+
+	public String getEntityId() {
+		return getString(ENTITY_ID);
+	}
+
+	public String getTitle() {
+		return getString(TITLE);
+	}
+
+	public String getDescription() {
+		return getString(DESCRIPTION);
+	}
+
+	public String getType() {
+		return getString(TYPE);
+	}
+
+	public String getOwner() {
+		return getString(OWNER);
+	}
+
+	public String getCommunityOwner() {
+		return getString(COMMUNITY_OWNER);
+	}
+
+	/**
+	 * @param field
+	 *            name of the field
+	 * @return the decoded string, the JSON text of other values or null if
+	 *         the field is missing or null
+	 */
+	public String getString(String field) {
+		int i = find(field);
+		return i < 0 ? null : RawJson.decode(json, index[i + 2], index[i + 3]);
+	}
+
+	/**
+	 * @param field
+	 *            name of the field
+	 * @return true if the entity has the field
+	 */
+	public boolean has(String field) {
+		return find(field) >= 0;
+	}
+
+	/**
+	 * @return the ids of the tag concepts, without building the concepts
+	 */
+	public List<String> getTagIds() {
+		int i = find(TAGS);
+		if (i < 0 || json[index[i + 2]] != '[') {
+			return Collections.emptyList();
+		}
+		final List<String> ids = new ArrayList<String>();
+		int pos = RawJson.skipWhitespace(json, index[i + 2] + 1, index[i + 3]);
+		while (pos < index[i + 3] && json[pos] == '{') {
+			int tagEnd = RawJson.skipValue(json, pos, index[i + 3]);
+			RawJson.members(json, pos, tagEnd, new RawJson.MemberVisitor() {
+				@Override
+				public boolean member(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+					if (RawJson.keyEquals(json, keyStart, keyEnd, "id")) {
+						ids.add(RawJson.decode(json, valueStart, valueEnd));
+						return false;
+					}
+					return true;
+				}
+			});
+			pos = RawJson.skipWhitespace(json, tagEnd, index[i + 3]);
+			if (pos < index[i + 3] && json[pos] == ',') {
+				pos = RawJson.skipWhitespace(json, pos + 1, index[i + 3]);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return size of the raw JSON of the entity in bytes
+	 */
+	public int byteSize() {
+		return end - start;
+	}
+
+	/**
+	 * @return the raw JSON of the entity
+	 */
+	public String toJSON() {
+		return RawJson.utf8(json, start, end);
+	}
+
+	/**
+	 * decodes the whole entity
+	 *
+	 * @return the entity
+	 */
+	public Entity toEntity() {
+		return JsonUtils.toObject(toJSON(), Entity.class);
+	}
+
+	/**
+	 * decodes only the given fields, the others are left unset
+	 *
+	 * @param fields
+	 *            names of the fields to decode
+	 * @return the entity
+	 */
+	public Entity project(String... fields) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write('{');
+		for (String field : fields) {
+			int i = find(field);
+			if (i < 0) {
+				continue;
+			}
+			if (out.size() > 1) {
+				out.write(',');
+			}
+			out.write(json, index[i], index[i + 1] - index[i]);
+			out.write(':');
+			out.write(json, index[i + 2], index[i + 3] - index[i + 2]);
+		}
+		out.write('}');
+		return JsonUtils.toObject(RawJson.utf8(out.toByteArray(), 0, out.size()),
+				Entity.class);
+	}
+
+	@Override
+	public String toString() {
+		return toJSON();
+	}
+
+	private int find(String field) {
+		int[] members = index;
+		if (members == null) {
+			members = buildIndex();
+			index = members;
+		}
+		for (int i = 0; i < members.length; i += 4) {
+			if (RawJson.keyEquals(json, members[i], members[i + 1], field)) {
+				return members[i + 2] < members[i + 3]
+						&& !(json[members[i + 2]] == 'n' && members[i + 3] - members[i + 2] == 4) ? i : -1;
+			}
+		}
+		return -1;
+	}
+
+	private int[] buildIndex() {
+		final int[][] members = { new int[32] };
+		final int[] size = { 0 };
+		RawJson.members(json, start, end, new RawJson.MemberVisitor() {
+			@Override
+			public boolean member(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+				int[] m = members[0];
+				if (size[0] + 4 > m.length) {
+					int[] grown = new int[m.length * 2];
+					System.arraycopy(m, 0, grown, 0, size[0]);
+					members[0] = m = grown;
+				}
+				m[size[0]++] = keyStart;
+				m[size[0]++] = keyEnd;
+				m[size[0]++] = valueStart;
+				m[size[0]++] = valueEnd;
+				return true;
+			}
+		});
+		int[] result = new int[size[0]];
+		System.arraycopy(members[0], 0, result, 0, size[0]);
+		return result;
+	}
+}
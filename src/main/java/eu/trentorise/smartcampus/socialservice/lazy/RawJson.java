@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.lazy;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Minimal scanner over UTF-8 encoded JSON, used to locate values without
+ * building them. Offsets are absolute positions in the byte array, value
+ * ranges are [start, end).
+ */
+final class RawJson {
+
+	private RawJson() {
+	}
+
+	static int skipWhitespace(byte[] json, int pos, int end) {
+		while (pos < end) {
+			byte b = json[pos];
+			if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return the position following the value starting at pos
+	 */
+	static int skipValue(byte[] json, int pos, int end) {
+		byte b = json[pos];
+		if (b == '"') {
+			return skipString(json, pos, end);
+		}
+		if (b == '{' || b == '[') {
+			int depth = 0;
+			while (pos < end) {
+				b = json[pos];
+				if (b == '"') {
+					pos = skipString(json, pos, end);
+					continue;
+				}
+				if (b == '{' || b == '[') {
+					depth++;
+				} else if (b == '}' || b == ']') {
+					depth--;
+					if (depth == 0) {
+						return pos + 1;
+					}
+				}
+				pos++;
+			}
+			throw malformed(pos);
+		}
+		while (pos < end) {
+			b = json[pos];
+			if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n'
+					|| b == '\r' || b == '\t') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	static int skipString(byte[] json, int pos, int end) {
+		pos++;
+		while (pos < end) {
+			byte b = json[pos];
+			if (b == '\\') {
+				pos += 2;
+			} else if (b == '"') {
+				return pos + 1;
+			} else {
+				pos++;
+			}
+		}
+		throw malformed(pos);
+	}
+
+	/**
+	 * scans the members of an object
+	 *
+	 * @param json
+	 *            the document
+	 * @param start
+	 *            position of the opening brace
+	 * @param end
+	 *            end of the document
+	 * @param visitor
+	 *            receiver of each member, returns false to stop
+	 */
+	static void members(byte[] json, int start, int end, MemberVisitor visitor) {
+		int pos = skipWhitespace(json, start, end);
+		if (pos >= end || json[pos] != '{') {
+			throw malformed(pos);
+		}
+		pos = skipWhitespace(json, pos + 1, end);
+		if (pos < end && json[pos] == '}') {
+			return;
+		}
+		while (pos < end) {
+			int keyStart = pos;
+			int keyEnd = skipString(json, pos, end);
+			pos = skipWhitespace(json, keyEnd, end);
+			if (pos >= end || json[pos] != ':') {
+				throw malformed(pos);
+			}
+			int valueStart = skipWhitespace(json, pos + 1, end);
+			int valueEnd = skipValue(json, valueStart, end);
+			if (!visitor.member(keyStart, keyEnd, valueStart, valueEnd)) {
+				return;
+			}
+			pos = skipWhitespace(json, valueEnd, end);
+			if (pos < end && json[pos] == ',') {
+				pos = skipWhitespace(json, pos + 1, end);
+			} else {
+				return;
+			}
+		}
+	}
+
+	interface MemberVisitor {
+		boolean member(int keyStart, int keyEnd, int valueStart, int valueEnd);
+	}
+
+	/**
+	 * @return true if the quoted key at [start, end) is the given name
+	 */
+	static boolean keyEquals(byte[] json, int start, int end, String name) {
+		int length = end - start - 2;
+		if (length != name.length()) {
+			// keys with escapes or non ASCII characters
+			return length > name.length() && name.equals(decodeString(json, start, end));
+		}
+		for (int i = 0; i < length; i++) {
+			if (json[start + 1 + i] != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * decodes the value at [start, end): strings are unescaped, null is
+	 * returned as null, other values as their JSON text
+	 */
+	static String decode(byte[] json, int start, int end) {
+		if (json[start] == '"') {
+			return decodeString(json, start, end);
+		}
+		if (end - start == 4 && json[start] == 'n') {
+			return null;
+		}
+		return utf8(json, start, end);
+	}
+
+	static String decodeString(byte[] json, int start, int end) {
+		int from = start + 1;
+		int to = end - 1;
+		int escape = -1;
+		for (int i = from; i < to; i++) {
+			if (json[i] == '\\') {
+				escape = i;
+				break;
+			}
+		}
+		if (escape < 0) {
+			return utf8(json, from, to);
+		}
+		StringBuilder sb = new StringBuilder(to - from);
+		int plain = from;
+		int i = escape;
+		while (i < to) {
+			if (json[i] != '\\') {
+				i++;
+				continue;
+			}
+			sb.append(utf8(json, plain, i));
+			char c = (char) json[i + 1];
+			switch (c) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				sb.append((char) Integer.parseInt(utf8(json, i + 2, i + 6), 16));
+				i += 4;
+				break;
+			default:
+				sb.append(c);
+			}
+			i += 2;
+			plain = i;
+		}
+		sb.append(utf8(json, plain, to));
+		return sb.toString();
+	}
+
+	static String utf8(byte[] json, int start, int end) {
+		try {
+			return new String(json, start, end - start, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] bytes(String json) {
+		try {
+			return json.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static IllegalArgumentException malformed(int pos) {
+		return new IllegalArgumentException("Malformed JSON at position " + pos);
+	}
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.paging;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.lazy.LazyEntities;
+
+/**
+ * Scans the entity listings with page sizes tuned towards a latency target
+ * and a byte budget.
+ *
+ * Each endpoint, and each community for the community listings, has its own
+ * {@link PageSizeTuner}, which learns from every scan of that listing. Pages
+ * are read with the lazy listing calls, so the payload size is known without
+ * encoding the entities back.
+ */
+public class AdaptivePager {
+
+	public static final long DEFAULT_TARGET_MILLIS = 200;
+	public static final long DEFAULT_BYTE_BUDGET = 1024 * 1024;
+	public static final int DEFAULT_MIN_SIZE = 10;
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	public static final int DEFAULT_INITIAL_SIZE = 50;
+
+	private final SocialService socialService;
+	private final long targetMillis;
+	private final long byteBudget;
+	private final int minSize;
+	private final int maxSize;
+	private final int initialSize;
+	private final ConcurrentHashMap<String, PageSizeTuner> tuners = new ConcurrentHashMap<String, PageSizeTuner>();
+
+	public AdaptivePager(SocialService socialService) {
+		this(socialService, DEFAULT_TARGET_MILLIS, DEFAULT_BYTE_BUDGET,
+				DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_INITIAL_SIZE);
+	}
+
+	/**
+	 * @param socialService
+	 *            client used to read the pages
+	 * @param targetMillis
+	 *            target latency of a page
+	 * @param byteBudget
+	 *            max bytes of a page
+	 * @param minSize
+	 *            smallest page size
+	 * @param maxSize
+	 *            largest page size
+	 * @param initialSize
+	 *            size of the first page of a listing never scanned
+	 */
+	public AdaptivePager(SocialService socialService, long targetMillis,
+			long byteBudget, int minSize, int maxSize, int initialSize) {
+		this.socialService = socialService;
+		this.targetMillis = targetMillis;
+		this.byteBudget = byteBudget;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.initialSize = initialSize;
+	}
+
+	/**
+	 * scans the entities of the user
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param typeId
+	 *            type of the entities, may be null
+	 * @return the scan
+	 */
+	public EntityScan scanUserEntities(final String token, final String typeId) {
+		return new EntityScan(tuner("user-entities")) {
+			@Override
+			LazyEntities fetch(int position, int size)
+					throws SecurityException, SocialServiceException {
+				return socialService.getUserEntitiesLazy(token, position, size,
+						typeId);
+			}
+		};
+	}
+
+	/**
+	 * scans the entities of a community
+	 * 
+	 * @param communityId
+	 *            community id
+	 * @param token
+	 *            client access token
+	 * @param typeId
+	 *            type of the entities, may be null
+	 * @return the scan
+	 */
+	public EntityScan scanCommunityEntities(final String communityId,
+			final String token, final String typeId) {
+		return new EntityScan(tuner("community-entities:" + communityId)) {
+			@Override
+			LazyEntities fetch(int position, int size)
+					throws SecurityException, SocialServiceException {
+				return socialService.getCommunityEntitiesLazy(communityId,
+						token, position, size, typeId);
+			}
+		};
+	}
+
+	/**
+	 * scans the entities shared with the user
+	 * 
+	 * @param token
+	 *            user access token
+	 * @param shareVisibility
+	 *            visibility filter
+	 * @param typeId
+	 *            type of the entities, may be null
+	 * @return the scan
+	 */
+	public EntityScan scanEntitiesSharedWithUser(final String token,
+			final ShareVisibility shareVisibility, final String typeId) {
+		return new EntityScan(tuner("user-shared")) {
+			@Override
+			LazyEntities fetch(int position, int size)
+					throws SecurityException, SocialServiceException {
+				return socialService.getEntitiesSharedWithUserLazy(token,
+						shareVisibility, position, size, typeId);
+			}
+		};
+	}
+
+	/**
+	 * scans the entities shared with a community
+	 * 
+	 * @param communityId
+	 *            community id
+	 * @param token
+	 *            client access token
+	 * @param shareVisibility
+	 *            visibility filter
+	 * @param typeId
+	 *            type of the entities, may be null
+	 * @return the scan
+	 */
+	public EntityScan scanEntitiesSharedWithCommunity(final String communityId,
+			final String token, final ShareVisibility shareVisibility,
+			final String typeId) {
+		return new EntityScan(tuner("community-shared:" + communityId)) {
+			@Override
+			LazyEntities fetch(int position, int size)
+					throws SecurityException, SocialServiceException {
+				return socialService.getEntitiesSharedWithCommunityLazy(
+						communityId, token, shareVisibility, position, size,
+						typeId);
+			}
+		};
+	}
+
+	/**
+	 * @param key
+	 *            endpoint, followed by the community for community listings,
+	 *            e.g. community-entities:communityId
+	 * @return the tuner of the listing, created if missing
+	 */
+	public PageSizeTuner tuner(String key) {
+		PageSizeTuner tuner = tuners.get(key);
+		if (tuner == null) {
+			PageSizeTuner created = new PageSizeTuner(targetMillis, byteBudget,
+					minSize, maxSize, initialSize);
+			tuner = tuners.putIfAbsent(key, created);
+			if (tuner == null) {
+				tuner = created;
+			}
+		}
+		return tuner;
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.paging;
+
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.lazy.LazyEntities;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+
+/**
+ * Scan of an entity listing, page by page, with the page sizes chosen by a
+ * {@link PageSizeTuner}.
+ * 
+ * The {@link CallContext} attached when the scan is created applies to all
+ * its pages, whichever thread reads them.
+ */
+public abstract class EntityScan {
+
+	private final PageSizeTuner tuner;
+	private final CallContext context;
+	private int position;
+	private boolean done;
+
+	EntityScan(PageSizeTuner tuner) {
+		this.tuner = tuner;
+		this.context = CallContext.current();
+	}
+
+	/**
+	 * @return false once a page shorter than requested has been read
+	 */
+	public boolean hasNext() {
+		return !done;
+	}
+
+	/**
+	 * reads the next page
+	 * 
+	 * @return the entities of the page, possibly empty
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public Entities next() throws SecurityException, SocialServiceException {
+		if (done) {
+			throw new IllegalStateException("Scan completed");
+		}
+		int size = tuner.nextSize();
+		long start = System.nanoTime();
+		LazyEntities page;
+		CallContext previous = context == null ? null : context.attach();
+		try {
+			page = fetch(position, size);
+		} finally {
+			if (context != null) {
+				CallContext.restore(previous);
+			}
+		}
+		tuner.record(page.size(), System.nanoTime() - start, page.byteSize());
+		position += page.size();
+		done = page.size() < size;
+		Entities entities = new Entities();
+		entities.setContent(page.toEntities());
+		return entities;
+	}
+
+	/**
+	 * @return number of entities read so far
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	abstract LazyEntities fetch(int position, int size)
+			throws SecurityException, SocialServiceException;
+}
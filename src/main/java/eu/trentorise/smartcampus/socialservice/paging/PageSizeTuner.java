@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.paging;
+
+/**
+ * Chooses the size of the next page of a listing from the latency and the
+ * payload of the previous ones.
+ *
+ * The latency of a page is modelled as <code>overhead + size * perItem</code>
+ * with an exponentially weighted least squares fit, so recent pages count
+ * more. The next size is the largest one expected to stay within both the
+ * latency target and the byte budget, growing at most by a factor of two per
+ * page and halving after a page slower than the spike threshold.
+ */
+public class PageSizeTuner {
+
+	/** weight of the newest sample */
+	private static final double ALPHA = 0.3;
+	/** a page slower than target * SPIKE halves the next one */
+	private static final double SPIKE = 1.5;
+
+	private final double targetMillis;
+	private final long byteBudget;
+	private final int minSize;
+	private final int maxSize;
+	private final int initialSize;
+
+	private double weight, sumN, sumMs, sumNN, sumNMs;
+	private double bytesPerItem;
+	private int lastSize;
+	private double lastMillis;
+	private long pages;
+
+	/**
+	 * @param targetMillis
+	 *            target latency of a page
+	 * @param byteBudget
+	 *            max bytes of a page
+	 * @param minSize
+	 *            smallest page size
+	 * @param maxSize
+	 *            largest page size
+	 * @param initialSize
+	 *            size of the first page
+	 */
+	public PageSizeTuner(long targetMillis, long byteBudget, int minSize,
+			int maxSize, int initialSize) {
+		if (minSize < 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid page size bounds "
+					+ minSize + "-" + maxSize);
+		}
+		this.targetMillis = targetMillis;
+		this.byteBudget = byteBudget;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.initialSize = clamp(initialSize);
+	}
+
+	/**
+	 * records a page
+	 * 
+	 * @param items
+	 *            number of items returned
+	 * @param nanos
+	 *            latency of the call
+	 * @param bytes
+	 *            size of the payload
+	 */
+	public synchronized void record(int items, long nanos, long bytes) {
+		if (items <= 0) {
+			return;
+		}
+		double ms = nanos / 1e6;
+		weight = weight * (1 - ALPHA) + 1;
+		sumN = sumN * (1 - ALPHA) + items;
+		sumMs = sumMs * (1 - ALPHA) + ms;
+		sumNN = sumNN * (1 - ALPHA) + (double) items * items;
+		sumNMs = sumNMs * (1 - ALPHA) + items * ms;
+		double itemBytes = bytes / (double) items;
+		bytesPerItem = pages == 0 ? itemBytes : bytesPerItem * (1 - ALPHA)
+				+ itemBytes * ALPHA;
+		lastMillis = ms;
+		pages++;
+	}
+
+	/**
+	 * @return size of the next page
+	 */
+	public synchronized int nextSize() {
+		if (pages == 0) {
+			lastSize = initialSize;
+			return lastSize;
+		}
+		double meanN = sumN / weight;
+		double meanMs = sumMs / weight;
+		double variance = sumNN / weight - meanN * meanN;
+		double perItem;
+		double overhead;
+		if (variance > 1e-6) {
+			perItem = (sumNMs / weight - meanN * meanMs) / variance;
+			overhead = meanMs - perItem * meanN;
+		} else {
+			perItem = 0;
+			overhead = 0;
+		}
+		if (perItem <= 0 || overhead < 0) {
+			// not enough spread in the sizes yet, charge all the latency to
+			// the items
+			perItem = meanMs / meanN;
+			overhead = 0;
+		}
+		double size = perItem > 0 ? (targetMillis - overhead) / perItem
+				: maxSize;
+		if (bytesPerItem > 0) {
+			size = Math.min(size, byteBudget / bytesPerItem);
+		}
+		int previous = Math.max(lastSize, minSize);
+		size = Math.min(size, previous * 2.0);
+		if (lastMillis > targetMillis * SPIKE) {
+			size = Math.min(size, previous / 2.0);
+		}
+		lastSize = clamp((int) Math.min(size, Integer.MAX_VALUE));
+		return lastSize;
+	}
+
+	/**
+	 * @return average payload bytes of an item
+	 */
+	public synchronized double getBytesPerItem() {
+		return bytesPerItem;
+	}
+
+	/**
+	 * @return number of pages recorded
+	 */
+	public synchronized long getPages() {
+		return pages;
+	}
+
+	private int clamp(int size) {
+		return Math.max(minSize, Math.min(maxSize, size));
+	}
+}
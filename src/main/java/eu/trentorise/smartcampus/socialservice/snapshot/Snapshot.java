@@ -0,0 +1,522 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.snapshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory mapped, read only view of a snapshot written by
+ * {@link SnapshotWriter}.
+ * 
+ * Filters compare the numbers of the dictionary encoded columns straight in
+ * the mapped blocks, so scanning all the exported entities neither calls
+ * the service nor builds an object per row. Rows are numbered from 0 in
+ * order of export. A snapshot can be read by many threads.
+ */
+public class Snapshot implements Closeable {
+
+	/** indexes of the dictionary encoded columns of a block */
+	private static final int COLUMN_TYPE = 0;
+	private static final int COLUMN_COMMUNITY = 1;
+	private static final int COLUMN_OWNER = 2;
+
+	private final RandomAccessFile file;
+	private final Block[] blocks;
+	private final int[] firstRows;
+	private final int size;
+	private final List<List<String>> dictionaries;
+	private final List<Map<String, Integer>> numbers;
+
+	private Snapshot(RandomAccessFile file, Block[] blocks, List<List<String>> dictionaries) {
+		this.file = file;
+		this.blocks = blocks;
+		this.firstRows = new int[blocks.length];
+		int rows = 0;
+		for (int i = 0; i < blocks.length; i++) {
+			firstRows[i] = rows;
+			rows += blocks[i].rows;
+		}
+		this.size = rows;
+		this.dictionaries = dictionaries;
+		this.numbers = new ArrayList<Map<String, Integer>>();
+		for (List<String> ids : dictionaries) {
+			Map<String, Integer> map = new HashMap<String, Integer>();
+			for (int i = 0; i < ids.size(); i++) {
+				map.put(ids.get(i), i);
+			}
+			numbers.add(map);
+		}
+	}
+
+	/**
+	 * maps a snapshot file
+	 * 
+	 * @param path
+	 *            the file
+	 * @return the snapshot
+	 * @throws IOException
+	 *             if the file cannot be read or is not a complete snapshot
+	 */
+	public static Snapshot open(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if (length < 20) {
+				throw new IOException("Not a snapshot: " + path);
+			}
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, length - 12, 12);
+			long footer = trailer.getLong();
+			if (trailer.getInt() != SnapshotWriter.MAGIC || footer < 8 || footer > length - 12) {
+				throw new IOException("Not a complete snapshot: " + path);
+			}
+			ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+			if (head.getInt() != SnapshotWriter.MAGIC
+					|| head.getInt() != SnapshotWriter.VERSION) {
+				throw new IOException("Unsupported snapshot: " + path);
+			}
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, footer, length - 12
+					- footer);
+			List<List<String>> dictionaries = new ArrayList<List<String>>();
+			for (int d = 0; d < 4; d++) {
+				String[] ids = new String[in.getInt()];
+				for (int i = 0; i < ids.length; i++) {
+					byte[] utf = new byte[in.getInt()];
+					in.get(utf);
+					ids[i] = new String(utf, "UTF-8");
+				}
+				dictionaries.add(Collections.unmodifiableList(Arrays.asList(ids)));
+			}
+			Block[] blocks = new Block[in.getInt()];
+			for (int i = 0; i < blocks.length; i++) {
+				long offset = in.getLong();
+				int blockLength = in.getInt();
+				int rows = in.getInt();
+				blocks[i] = new Block(channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						blockLength), rows);
+			}
+			return new Snapshot(file, blocks, dictionaries);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		} catch (RuntimeException e) {
+			file.close();
+			throw new IOException("Corrupted snapshot " + path + ": " + e);
+		}
+	}
+
+	/**
+	 * closes the file, the mapped blocks are released once unreachable
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * @return number of entities
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the type ids, in dictionary order
+	 */
+	public List<String> getTypeIds() {
+		return dictionaries.get(SnapshotWriter.TYPES);
+	}
+
+	/**
+	 * @return the tag concept ids, in dictionary order
+	 */
+	public List<String> getConceptIds() {
+		return dictionaries.get(SnapshotWriter.CONCEPTS);
+	}
+
+	/**
+	 * @return the community ids, in dictionary order
+	 */
+	public List<String> getCommunityIds() {
+		return dictionaries.get(SnapshotWriter.COMMUNITIES);
+	}
+
+	/**
+	 * @return the owner ids, in dictionary order
+	 */
+	public List<String> getOwnerIds() {
+		return dictionaries.get(SnapshotWriter.OWNERS);
+	}
+
+	public String getEntityId(int row) {
+		int index = indexOf(row);
+		Block block = blocks[index];
+		return block.string(block.ids, row - firstRows[index]);
+	}
+
+	/**
+	 * @return the title, empty if the entity had none
+	 */
+	public String getTitle(int row) {
+		int index = indexOf(row);
+		Block block = blocks[index];
+		return block.string(block.titles, row - firstRows[index]);
+	}
+
+	public String getType(int row) {
+		return id(SnapshotWriter.TYPES, intAt(row, COLUMN_TYPE));
+	}
+
+	/**
+	 * @return the community the entity has been exported from
+	 */
+	public String getCommunity(int row) {
+		return id(SnapshotWriter.COMMUNITIES, intAt(row, COLUMN_COMMUNITY));
+	}
+
+	public String getOwner(int row) {
+		return id(SnapshotWriter.OWNERS, intAt(row, COLUMN_OWNER));
+	}
+
+	public long getCreationDate(int row) {
+		int index = indexOf(row);
+		Block block = blocks[index];
+		return block.buffer.getLong(block.created + 8 * (row - firstRows[index]));
+	}
+
+	public long getLastModifiedDate(int row) {
+		int index = indexOf(row);
+		Block block = blocks[index];
+		return block.buffer.getLong(block.modified + 8 * (row - firstRows[index]));
+	}
+
+	/**
+	 * @return the tag concept ids
+	 */
+	public List<String> getTags(int row) {
+		int index = indexOf(row);
+		Block block = blocks[index];
+		int r = row - firstRows[index];
+		int from = block.buffer.getInt(block.tagOffsets + 4 * r);
+		int to = block.buffer.getInt(block.tagOffsets + 4 * r + 4);
+		List<String> tags = new ArrayList<String>(to - from);
+		for (int i = from; i < to; i++) {
+			tags.add(id(SnapshotWriter.CONCEPTS, block.buffer.getInt(block.tags + 4 * i)));
+		}
+		return tags;
+	}
+
+	/**
+	 * @return a query over all the entities
+	 */
+	public Query query() {
+		return new Query();
+	}
+
+	private int intAt(int row, int column) {
+		int index = indexOf(row);
+		Block block = blocks[index];
+		return block.buffer.getInt(block.ints[column] + 4 * (row - firstRows[index]));
+	}
+
+	private String id(int dictionary, int number) {
+		return number < 0 ? null : dictionaries.get(dictionary).get(number);
+	}
+
+	private int number(int dictionary, String id) {
+		Integer n = numbers.get(dictionary).get(id);
+		return n == null ? -2 : n;
+	}
+
+	private int indexOf(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+		}
+		int index = Arrays.binarySearch(firstRows, row);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * conjunction of filters over the entities of the snapshot, e.g.
+	 * <code>snapshot.query().type(typeId).concept(conceptId).countByCommunity()</code>
+	 */
+	public final class Query {
+		private final int[] equal = { -1, -1, -1 };
+		private int concept = -1;
+		private long createdFrom = Long.MIN_VALUE;
+		private long createdTo = Long.MAX_VALUE;
+		private boolean empty;
+
+		private Query() {
+		}
+
+		public Query type(String typeId) {
+			return filter(COLUMN_TYPE, number(SnapshotWriter.TYPES, typeId));
+		}
+
+		public Query community(String communityId) {
+			return filter(COLUMN_COMMUNITY, number(SnapshotWriter.COMMUNITIES, communityId));
+		}
+
+		public Query owner(String ownerId) {
+			return filter(COLUMN_OWNER, number(SnapshotWriter.OWNERS, ownerId));
+		}
+
+		/**
+		 * keeps the entities tagged with the concept
+		 */
+		public Query concept(String conceptId) {
+			int n = number(SnapshotWriter.CONCEPTS, conceptId);
+			if (n < 0 || concept >= 0 && concept != n) {
+				empty = true;
+			}
+			concept = n;
+			return this;
+		}
+
+		/**
+		 * keeps the entities created in the given interval
+		 * 
+		 * @param from
+		 *            first creation time included
+		 * @param to
+		 *            first creation time excluded
+		 */
+		public Query createdBetween(long from, long to) {
+			createdFrom = Math.max(createdFrom, from);
+			createdTo = Math.min(createdTo, to);
+			return this;
+		}
+
+		/**
+		 * @return number of matching entities
+		 */
+		public int count() {
+			final int[] count = new int[1];
+			scan(new RowVisitor() {
+				@Override
+				public void visit(Block block, int row, int globalRow) {
+					count[0]++;
+				}
+			});
+			return count[0];
+		}
+
+		/**
+		 * @return the matching rows, in order
+		 */
+		public int[] rows() {
+			final int[][] rows = { new int[64] };
+			final int[] count = new int[1];
+			scan(new RowVisitor() {
+				@Override
+				public void visit(Block block, int row, int globalRow) {
+					if (count[0] == rows[0].length) {
+						rows[0] = Arrays.copyOf(rows[0], count[0] * 2);
+					}
+					rows[0][count[0]++] = globalRow;
+				}
+			});
+			return Arrays.copyOf(rows[0], count[0]);
+		}
+
+		/**
+		 * @return the number of matching entities of each type, in dictionary
+		 *         order
+		 */
+		public Map<String, Integer> countByType() {
+			return countBy(COLUMN_TYPE, SnapshotWriter.TYPES);
+		}
+
+		/**
+		 * @return the number of matching entities of each community, in
+		 *         dictionary order
+		 */
+		public Map<String, Integer> countByCommunity() {
+			return countBy(COLUMN_COMMUNITY, SnapshotWriter.COMMUNITIES);
+		}
+
+		/**
+		 * @return the number of matching entities of each owner, in
+		 *         dictionary order
+		 */
+		public Map<String, Integer> countByOwner() {
+			return countBy(COLUMN_OWNER, SnapshotWriter.OWNERS);
+		}
+
+		/**
+		 * @return the number of matching entities tagged with each concept,
+		 *         in dictionary order
+		 */
+		public Map<String, Integer> countByConcept() {
+			final int[] counts = new int[getConceptIds().size()];
+			scan(new RowVisitor() {
+				@Override
+				public void visit(Block block, int row, int globalRow) {
+					int from = block.buffer.getInt(block.tagOffsets + 4 * row);
+					int to = block.buffer.getInt(block.tagOffsets + 4 * row + 4);
+					for (int i = from; i < to; i++) {
+						counts[block.buffer.getInt(block.tags + 4 * i)]++;
+					}
+				}
+			});
+			return counts(counts, SnapshotWriter.CONCEPTS);
+		}
+
+		private Query filter(int column, int number) {
+			if (number < 0 || equal[column] >= 0 && equal[column] != number) {
+				empty = true;
+			}
+			equal[column] = number;
+			return this;
+		}
+
+		private Map<String, Integer> countBy(final int column, int dictionary) {
+			final int[] counts = new int[dictionaries.get(dictionary).size()];
+			scan(new RowVisitor() {
+				@Override
+				public void visit(Block block, int row, int globalRow) {
+					int n = block.buffer.getInt(block.ints[column] + 4 * row);
+					if (n >= 0) {
+						counts[n]++;
+					}
+				}
+			});
+			return counts(counts, dictionary);
+		}
+
+		private Map<String, Integer> counts(int[] counts, int dictionary) {
+			Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					result.put(dictionaries.get(dictionary).get(i), counts[i]);
+				}
+			}
+			return result;
+		}
+
+		private void scan(RowVisitor visitor) {
+			if (empty) {
+				return;
+			}
+			boolean dated = createdFrom != Long.MIN_VALUE || createdTo != Long.MAX_VALUE;
+			for (int b = 0; b < blocks.length; b++) {
+				Block block = blocks[b];
+				ByteBuffer buffer = block.buffer;
+				rows: for (int row = 0; row < block.rows; row++) {
+					for (int column = 0; column < equal.length; column++) {
+						if (equal[column] >= 0
+								&& buffer.getInt(block.ints[column] + 4 * row) != equal[column]) {
+							continue rows;
+						}
+					}
+					if (dated) {
+						long time = buffer.getLong(block.created + 8 * row);
+						if (time < createdFrom || time >= createdTo) {
+							continue;
+						}
+					}
+					if (concept >= 0 && !tagged(block, row, concept)) {
+						continue;
+					}
+					visitor.visit(block, row, firstRows[b] + row);
+				}
+			}
+		}
+
+		private boolean tagged(Block block, int row, int concept) {
+			int from = block.buffer.getInt(block.tagOffsets + 4 * row);
+			int to = block.buffer.getInt(block.tagOffsets + 4 * row + 4);
+			for (int i = from; i < to; i++) {
+				if (block.buffer.getInt(block.tags + 4 * i) == concept) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private interface RowVisitor {
+		void visit(Block block, int row, int globalRow);
+	}
+
+	/**
+	 * mapped block with the offsets of its columns
+	 */
+	private static final class Block {
+		final ByteBuffer buffer;
+		final int rows;
+		final int ids;
+		final int titles;
+		final int[] ints = new int[3];
+		final int created;
+		final int modified;
+		final int tagOffsets;
+		final int tags;
+
+		Block(ByteBuffer buffer, int rows) throws IOException {
+			this.buffer = buffer;
+			this.rows = rows;
+			if (buffer.getInt(0) != rows) {
+				throw new IOException("Corrupted block");
+			}
+			ids = 4;
+			titles = skipStrings(ids);
+			ints[COLUMN_TYPE] = skipStrings(titles);
+			ints[COLUMN_COMMUNITY] = ints[COLUMN_TYPE] + 4 * rows;
+			ints[COLUMN_OWNER] = ints[COLUMN_COMMUNITY] + 4 * rows;
+			created = ints[COLUMN_OWNER] + 4 * rows;
+			modified = created + 8 * rows;
+			tagOffsets = modified + 8 * rows;
+			tags = tagOffsets + 4 * (rows + 1);
+		}
+
+		/**
+		 * @return the offset of the column following the strings at the
+		 *         given offset
+		 */
+		private int skipStrings(int offset) {
+			return offset + 4 * rows + buffer.getInt(offset + 4 * (rows - 1));
+		}
+
+		String string(int column, int row) {
+			int start = row == 0 ? 0 : buffer.getInt(column + 4 * (row - 1));
+			int end = buffer.getInt(column + 4 * row);
+			byte[] utf = new byte[end - start];
+			ByteBuffer bytes = buffer.duplicate();
+			bytes.position(column + 4 * rows + start);
+			bytes.get(utf);
+			try {
+				return new String(utf, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
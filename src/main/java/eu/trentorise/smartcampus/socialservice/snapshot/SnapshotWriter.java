@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.paging.EntityScan;
+
+/**
+ * Writes entities to a columnar snapshot file, read back by
+ * {@link Snapshot}.
+ * 
+ * Entities are written in blocks of rows, each block storing its columns one
+ * after the other, so a writer holds a single block in memory however long
+ * the scans it drains. Type, tag concept, community and owner ids are
+ * replaced by numbers of dictionaries written once at the end of the file.
+ * Descriptions and visibility are not exported.
+ * 
+ * The file is written next to the target and renamed on {@link #close()},
+ * so readers never see a partial snapshot:
+ * 
+ * <pre>
+ * SnapshotWriter writer = new SnapshotWriter(file);
+ * try {
+ * 	for (String communityId : communityIds) {
+ * 		writer.addAll(communityId, pager.scanCommunityEntities(communityId, token, null));
+ * 	}
+ * 	writer.close();
+ * } finally {
+ * 	writer.abort();
+ * }
+ * </pre>
+ */
+public class SnapshotWriter {
+
+	public static final int DEFAULT_BLOCK_ROWS = 8192;
+
+	static final int MAGIC = 0x53534e50; // SSNP
+	static final int VERSION = 1;
+
+	static final int TYPES = 0;
+	static final int CONCEPTS = 1;
+	static final int COMMUNITIES = 2;
+	static final int OWNERS = 3;
+
+	private final File file;
+	private final File partial;
+	private final DataOutputStream out;
+	private final int blockRows;
+	private final Dictionary[] dictionaries = { new Dictionary(), new Dictionary(),
+			new Dictionary(), new Dictionary() };
+	private final List<long[]> blocks = new ArrayList<long[]>();
+	private long position;
+	private boolean closed;
+
+	// columns of the current block
+	private final String[] ids;
+	private final String[] titles;
+	private final int[] types;
+	private final int[] communities;
+	private final int[] owners;
+	private final long[] created;
+	private final long[] modified;
+	private final int[] tagOffsets;
+	private int[] tags = new int[64];
+	private int rows;
+
+	public SnapshotWriter(File file) throws IOException {
+		this(file, DEFAULT_BLOCK_ROWS);
+	}
+
+	/**
+	 * @param file
+	 *            snapshot file, replaced on close
+	 * @param blockRows
+	 *            max number of rows of a block
+	 * @throws IOException
+	 */
+	public SnapshotWriter(File file, int blockRows) throws IOException {
+		if (blockRows < 1) {
+			throw new IllegalArgumentException("Invalid block rows " + blockRows);
+		}
+		this.file = file;
+		this.partial = new File(file.getPath() + ".part");
+		this.blockRows = blockRows;
+		this.ids = new String[blockRows];
+		this.titles = new String[blockRows];
+		this.types = new int[blockRows];
+		this.communities = new int[blockRows];
+		this.owners = new int[blockRows];
+		this.created = new long[blockRows];
+		this.modified = new long[blockRows];
+		this.tagOffsets = new int[blockRows + 1];
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial),
+				64 * 1024));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		position = 8;
+	}
+
+	/**
+	 * adds an entity
+	 * 
+	 * @param communityId
+	 *            community the entity has been read from, null to use its
+	 *            community owner
+	 * @param entity
+	 *            the entity
+	 * @throws IOException
+	 */
+	public void add(String communityId, Entity entity) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Snapshot closed");
+		}
+		if (entity == null) {
+			return;
+		}
+		ids[rows] = entity.getEntityId();
+		titles[rows] = entity.getTitle();
+		types[rows] = dictionaries[TYPES].number(entity.getType());
+		communities[rows] = dictionaries[COMMUNITIES].number(communityId != null ? communityId
+				: entity.getCommunityOwner());
+		owners[rows] = dictionaries[OWNERS].number(entity.getOwner());
+		created[rows] = entity.getCreationDate();
+		modified[rows] = entity.getLastModifiedDate();
+		int count = tagOffsets[rows];
+		if (entity.getTags() != null) {
+			for (Concept tag : entity.getTags()) {
+				if (tag != null && tag.getId() != null) {
+					if (count == tags.length) {
+						tags = Arrays.copyOf(tags, count * 2);
+					}
+					tags[count++] = dictionaries[CONCEPTS].number(tag.getId());
+				}
+			}
+		}
+		tagOffsets[++rows] = count;
+		if (rows == blockRows) {
+			flush();
+		}
+	}
+
+	/**
+	 * adds some entities
+	 * 
+	 * @param communityId
+	 *            community the entities have been read from, null to use
+	 *            their community owner
+	 * @param entities
+	 *            the entities
+	 * @throws IOException
+	 */
+	public void addAll(String communityId, Collection<Entity> entities) throws IOException {
+		if (entities == null) {
+			return;
+		}
+		for (Entity entity : entities) {
+			add(communityId, entity);
+		}
+	}
+
+	/**
+	 * adds the entities of a scan, reading all its pages
+	 * 
+	 * @param communityId
+	 *            community scanned, null to use the community owner of the
+	 *            entities
+	 * @param scan
+	 *            the scan
+	 * @return number of entities added
+	 * @throws IOException
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public int addAll(String communityId, EntityScan scan) throws IOException, SecurityException,
+			SocialServiceException {
+		int start = scan.getPosition();
+		while (scan.hasNext()) {
+			addAll(communityId, scan.next().getContent());
+		}
+		return scan.getPosition() - start;
+	}
+
+	/**
+	 * writes the last block and the dictionaries, then replaces the snapshot
+	 * file
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		if (rows > 0) {
+			flush();
+		}
+		long footer = position;
+		for (Dictionary dictionary : dictionaries) {
+			out.writeInt(dictionary.ids.size());
+			for (String id : dictionary.ids) {
+				byte[] utf = id.getBytes("UTF-8");
+				out.writeInt(utf.length);
+				out.write(utf);
+			}
+		}
+		out.writeInt(blocks.size());
+		for (long[] block : blocks) {
+			out.writeLong(block[0]);
+			out.writeInt((int) block[1]);
+			out.writeInt((int) block[2]);
+		}
+		out.writeLong(footer);
+		out.writeInt(MAGIC);
+		out.close();
+		closed = true;
+		if (!partial.renameTo(file) && !(file.delete() && partial.renameTo(file))) {
+			throw new IOException("Cannot replace " + file);
+		}
+	}
+
+	/**
+	 * discards the snapshot being written, does nothing once closed
+	 */
+	public void abort() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			// the partial file is deleted anyway
+		}
+		partial.delete();
+	}
+
+	private void flush() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows * 64);
+		DataOutputStream block = new DataOutputStream(bytes);
+		block.writeInt(rows);
+		writeStrings(block, ids);
+		writeStrings(block, titles);
+		writeInts(block, types, rows);
+		writeInts(block, communities, rows);
+		writeInts(block, owners, rows);
+		for (int i = 0; i < rows; i++) {
+			block.writeLong(created[i]);
+		}
+		for (int i = 0; i < rows; i++) {
+			block.writeLong(modified[i]);
+		}
+		writeInts(block, tagOffsets, rows + 1);
+		writeInts(block, tags, tagOffsets[rows]);
+		block.flush();
+		bytes.writeTo(out);
+		blocks.add(new long[] { position, bytes.size(), rows });
+		position += bytes.size();
+		Arrays.fill(ids, 0, rows, null);
+		Arrays.fill(titles, 0, rows, null);
+		rows = 0;
+	}
+
+	/**
+	 * writes the end offsets of the strings, then their UTF-8 bytes. Null
+	 * strings are written as empty ones.
+	 */
+	private void writeStrings(DataOutputStream block, String[] strings) throws IOException {
+		byte[][] encoded = new byte[rows][];
+		int end = 0;
+		for (int i = 0; i < rows; i++) {
+			encoded[i] = strings[i] == null ? new byte[0] : strings[i].getBytes("UTF-8");
+			end += encoded[i].length;
+			block.writeInt(end);
+		}
+		for (byte[] string : encoded) {
+			block.write(string);
+		}
+	}
+
+	private static void writeInts(DataOutputStream block, int[] values, int count)
+			throws IOException {
+		for (int i = 0; i < count; i++) {
+			block.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * numbers ids in order of appearance, null is -1
+	 */
+	private static final class Dictionary {
+		final Map<String, Integer> numbers = new HashMap<String, Integer>();
+		final List<String> ids = new ArrayList<String>();
+
+		int number(String id) {
+			if (id == null) {
+				return -1;
+			}
+			Integer n = numbers.get(id);
+			if (n == null) {
+				n = ids.size();
+				ids.add(id);
+				numbers.put(id, n);
+			}
+			return n;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.suggest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+
+/**
+ * Autocompletion of the prefix typed in an input field, e.g. a tag picker:
+ * 
+ * <pre>
+ * AutocompleteSession&lt;Concept&gt; session = new AutocompleteSession&lt;Concept&gt;(
+ * 		socialService, token, SuggestionSource.CONCEPTS, listener);
+ * // on each keystroke
+ * session.update(field.getText());
+ * // when the field is closed
+ * session.close();
+ * </pre>
+ * 
+ * A prefix is searched only once it has not changed for the debounce delay.
+ * A newer prefix cancels the searches in flight through their
+ * {@link CallContext}, and the outcome of a superseded search is dropped, so
+ * the listener receives only the latest suggestions and never out of order.
+ * At most <code>maxConcurrent</code> searches of the session are in flight,
+ * cancelled ones included: a search over the cap waits for a free slot, and
+ * only the latest waiting one is kept.
+ * 
+ * @param <T>
+ *            type of the suggestions
+ */
+public class AutocompleteSession<T> {
+
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 150;
+	public static final int DEFAULT_MAX_RESULTS = 10;
+	public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+	private static final AtomicInteger threads = new AtomicInteger();
+
+	private final SocialService socialService;
+	private final String token;
+	private final SuggestionSource<T> source;
+	private final SuggestionListener<T> listener;
+	private final long debounceMillis;
+	private final Integer maxResults;
+	private final int maxConcurrent;
+
+	/** guarded by this */
+	private long generation;
+	private boolean closed;
+	private ScheduledFuture<?> scheduled;
+	private int running;
+	private Search pending;
+	private final Map<Long, CallContext> inFlight = new HashMap<Long, CallContext>();
+
+	/** guarded by delivery */
+	private long delivered;
+	private final Object delivery = new Object();
+
+	public AutocompleteSession(SocialService socialService, String token,
+			SuggestionSource<T> source, SuggestionListener<T> listener) {
+		this(socialService, token, source, listener, DEFAULT_DEBOUNCE_MILLIS,
+				DEFAULT_MAX_RESULTS, DEFAULT_MAX_CONCURRENT);
+	}
+
+	/**
+	 * @param socialService
+	 *            the client
+	 * @param token
+	 *            access token
+	 * @param source
+	 *            the searched suggestions
+	 * @param listener
+	 *            receives the suggestions
+	 * @param debounceMillis
+	 *            time a prefix must stay unchanged before it is searched
+	 * @param maxResults
+	 *            max number of suggestions, null for the service default
+	 * @param maxConcurrent
+	 *            max number of searches in flight
+	 */
+	public AutocompleteSession(SocialService socialService, String token,
+			SuggestionSource<T> source, SuggestionListener<T> listener,
+			long debounceMillis, Integer maxResults, int maxConcurrent) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("Invalid max concurrent searches "
+					+ maxConcurrent);
+		}
+		this.socialService = socialService;
+		this.token = token;
+		this.source = source;
+		this.listener = listener;
+		this.debounceMillis = debounceMillis;
+		this.maxResults = maxResults;
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * sets the prefix typed by the user, superseding the previous one. An
+	 * empty or null prefix is not searched: it delivers no suggestions at
+	 * once.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 */
+	public void update(String prefix) {
+		long g;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Session closed");
+			}
+			g = supersede();
+			if (prefix != null && prefix.length() > 0) {
+				final Search search = new Search(g, prefix);
+				scheduled = Timer.INSTANCE.schedule(new Runnable() {
+					@Override
+					public void run() {
+						start(search);
+					}
+				}, debounceMillis, TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+		deliver(g, prefix, Collections.<T> emptyList(), null);
+	}
+
+	/**
+	 * cancels the pending and in-flight searches, no suggestion is delivered
+	 * after the session is closed
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			supersede();
+			closed = true;
+		}
+	}
+
+	/**
+	 * @return number of searches in flight, cancelled ones included
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	/**
+	 * starts a new generation, cancelling the searches of the previous ones
+	 */
+	private long supersede() {
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+		pending = null;
+		for (CallContext context : inFlight.values()) {
+			context.cancel();
+		}
+		inFlight.clear();
+		return ++generation;
+	}
+
+	private void start(final Search search) {
+		final CallContext context;
+		synchronized (this) {
+			if (closed || search.generation != generation) {
+				return;
+			}
+			if (running >= maxConcurrent) {
+				pending = search;
+				return;
+			}
+			running++;
+			// started on the session threads, which have no context to inherit
+			context = CallContext.cancellable();
+			inFlight.put(search.generation, context);
+		}
+		try {
+			Executor.INSTANCE.execute(new Runnable() {
+				@Override
+				public void run() {
+					search(search, context);
+				}
+			});
+		} catch (RuntimeException e) {
+			finished(search);
+			throw e;
+		}
+	}
+
+	private void search(Search search, CallContext context) {
+		List<T> suggestions = null;
+		Exception failure = null;
+		CallContext previous = context.attach();
+		try {
+			suggestions = source.suggest(socialService, token, search.prefix,
+					maxResults);
+		} catch (Exception e) {
+			failure = e;
+		} finally {
+			CallContext.restore(previous);
+			context.close();
+			finished(search);
+		}
+		if (!context.isCancelled()) {
+			deliver(search.generation, search.prefix, suggestions, failure);
+		}
+	}
+
+	private void finished(Search search) {
+		Search next;
+		synchronized (this) {
+			running--;
+			inFlight.remove(search.generation);
+			next = pending;
+			pending = null;
+		}
+		if (next != null) {
+			start(next);
+		}
+	}
+
+	private void deliver(long g, String prefix, List<T> suggestions,
+			Exception failure) {
+		synchronized (delivery) {
+			synchronized (this) {
+				if (closed || g != generation || g <= delivered) {
+					return;
+				}
+			}
+			delivered = g;
+			if (failure != null) {
+				listener.onFailure(prefix, failure);
+			} else {
+				listener.onSuggestions(prefix, suggestions);
+			}
+		}
+	}
+
+	/**
+	 * prefix of a generation
+	 */
+	private static final class Search {
+		final long generation;
+		final String prefix;
+
+		Search(long generation, String prefix) {
+			this.generation = generation;
+			this.prefix = prefix;
+		}
+	}
+
+	private static Thread daemon(Runnable r) {
+		Thread t = new Thread(r, "socialservice-autocomplete-"
+				+ threads.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * daemon timer of the debounce delays, created on first use
+	 */
+	private static final class Timer {
+		static final ScheduledExecutorService INSTANCE = new ScheduledThreadPoolExecutor(
+				1, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						return daemon(r);
+					}
+				});
+	}
+
+	/**
+	 * daemon threads running the searches, created on first use
+	 */
+	private static final class Executor {
+		static final ExecutorService INSTANCE = Executors
+				.newCachedThreadPool(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						return daemon(r);
+					}
+				});
+	}
+}
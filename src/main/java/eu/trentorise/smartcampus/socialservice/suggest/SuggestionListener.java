@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.suggest;
+
+import java.util.List;
+
+/**
+ * Receives the suggestions of an {@link AutocompleteSession}. Only the
+ * outcome of the latest prefix is delivered, one call at a time, on a
+ * session thread or on the thread clearing the prefix.
+ * 
+ * @param <T>
+ *            type of the suggestions
+ */
+public interface SuggestionListener<T> {
+
+	/**
+	 * @param prefix
+	 *            the prefix searched
+	 * @param suggestions
+	 *            its suggestions
+	 */
+	void onSuggestions(String prefix, List<T> suggestions);
+
+	/**
+	 * @param prefix
+	 *            the prefix searched
+	 * @param failure
+	 *            failure of the search
+	 */
+	void onFailure(String prefix, Exception failure);
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.suggest;
+
+import java.util.Collections;
+import java.util.List;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Concepts;
+import eu.trentorise.smartcampus.social.model.EntityType;
+import eu.trentorise.smartcampus.social.model.EntityTypes;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+
+/**
+ * Prefix search run by an {@link AutocompleteSession}
+ * 
+ * @param <T>
+ *            type of the suggestions
+ */
+public abstract class SuggestionSource<T> {
+
+	public static final SuggestionSource<Concept> CONCEPTS = new SuggestionSource<Concept>() {
+		@Override
+		public List<Concept> suggest(SocialService socialService,
+				String token, String prefix, Integer maxResults)
+				throws SecurityException, SocialServiceException {
+			Concepts concepts = socialService.getConceptByPrefix(token, prefix,
+					maxResults);
+			return concepts == null || concepts.getContent() == null ? Collections
+					.<Concept> emptyList() : concepts.getContent();
+		}
+	};
+
+	public static final SuggestionSource<EntityType> ENTITY_TYPES = new SuggestionSource<EntityType>() {
+		@Override
+		public List<EntityType> suggest(SocialService socialService,
+				String token, String prefix, Integer maxResults)
+				throws SecurityException, SocialServiceException {
+			EntityTypes types = socialService.getEntityTypeByPrefix(token,
+					prefix, maxResults);
+			return types == null || types.getContent() == null ? Collections
+					.<EntityType> emptyList() : types.getContent();
+		}
+	};
+
+	/**
+	 * searches the suggestions of a prefix
+	 * 
+	 * @param socialService
+	 *            the client
+	 * @param token
+	 *            access token
+	 * @param prefix
+	 *            prefix typed by the user
+	 * @param maxResults
+	 *            max number of suggestions, may be null
+	 * @return the suggestions, never null
+	 * @throws SecurityException
+	 * @throws SocialServiceException
+	 */
+	public abstract List<T> suggest(SocialService socialService, String token,
+			String prefix, Integer maxResults) throws SecurityException,
+			SocialServiceException;
+}
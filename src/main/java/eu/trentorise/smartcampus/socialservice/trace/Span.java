@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.trace;
+
+import eu.trentorise.smartcampus.socialservice.transport.Response;
+
+/**
+ * Span of a remote call, started by a {@link Tracer}
+ */
+public interface Span {
+
+	Span NOOP = new Span() {
+		@Override
+		public void end(Response response, Throwable error) {
+		}
+	};
+
+	/**
+	 * ends the span
+	 * 
+	 * @param response
+	 *            the response, null if the call failed
+	 * @param error
+	 *            the failure of the call, null if it succeeded
+	 */
+	void end(Response response, Throwable error);
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.trace;
+
+/**
+ * Data of a finished span, reported by the {@link W3CTracer}
+ */
+public class SpanRecord {
+
+	private final TraceContext context;
+	private final String parentSpanId;
+	private final String operation;
+	private final String method;
+	private final String template;
+	private final String tokenFingerprint;
+	private final long requestBytes;
+	private final long startMillis;
+	private final long startNanos;
+	private long durationNanos;
+	private int status;
+	private long responseBytes;
+	private Throwable error;
+
+	SpanRecord(TraceContext context, String parentSpanId, String operation,
+			String method, String template, String tokenFingerprint,
+			long requestBytes) {
+		this.context = context;
+		this.parentSpanId = parentSpanId;
+		this.operation = operation;
+		this.method = method;
+		this.template = template;
+		this.tokenFingerprint = tokenFingerprint;
+		this.requestBytes = requestBytes;
+		this.startMillis = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+	}
+
+	void end(int status, long responseBytes, Throwable error) {
+		this.durationNanos = System.nanoTime() - startNanos;
+		this.status = status;
+		this.responseBytes = responseBytes;
+		this.error = error;
+	}
+
+	/**
+	 * @return the context propagated with the request
+	 */
+	public TraceContext getContext() {
+		return context;
+	}
+
+	/**
+	 * @return id of the parent span, null for a root span
+	 */
+	public String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	/**
+	 * @return name of the client method, e.g. getCommunity
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return path template of the call, e.g. community/{communityId}
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return short hash identifying the access token, the token itself is
+	 *         never recorded
+	 */
+	public String getTokenFingerprint() {
+		return tokenFingerprint;
+	}
+
+	public long getRequestBytes() {
+		return requestBytes;
+	}
+
+	public long getResponseBytes() {
+		return responseBytes;
+	}
+
+	/**
+	 * @return HTTP status of the response, 0 if the call failed
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return failure of the call, null if it succeeded
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	@Override
+	public String toString() {
+		return operation + " " + method + " " + template + " " + context
+				+ " " + (durationNanos / 1000) + "us req=" + requestBytes
+				+ " res=" + responseBytes + " status=" + status
+				+ (error == null ? "" : " error=" + error);
+	}
+}
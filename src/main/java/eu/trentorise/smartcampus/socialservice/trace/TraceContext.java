@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.trace;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * W3C trace context (https://www.w3.org/TR/trace-context/) of a span.
+ *
+ * The context of the current thread is the parent of the spans started by
+ * the {@link W3CTracer}, so the calls made while serving a request of the
+ * application can be attached to its span with {@link #attach()}.
+ */
+public final class TraceContext {
+
+	public static final String TRACEPARENT = "traceparent";
+	public static final String TRACESTATE = "tracestate";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final String VERSION = "00";
+	private static final int SAMPLED = 0x01;
+
+	private static final Random random = new SecureRandom();
+	private static final ThreadLocal<TraceContext> current = new ThreadLocal<TraceContext>();
+
+	private final String traceId;
+	private final String spanId;
+	private final int flags;
+	private final String traceState;
+
+	private TraceContext(String traceId, String spanId, int flags, String traceState) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.flags = flags;
+		this.traceState = traceState;
+	}
+
+	/**
+	 * @return a new sampled trace
+	 */
+	public static TraceContext newTrace() {
+		return new TraceContext(randomHex(16), randomHex(8), SAMPLED, null);
+	}
+
+	/**
+	 * @return a new span of the same trace, child of this one
+	 */
+	public TraceContext newChild() {
+		return new TraceContext(traceId, randomHex(8), flags, traceState);
+	}
+
+	/**
+	 * parses a <code>traceparent</code> header
+	 * 
+	 * @param traceparent
+	 *            the header value
+	 * @param tracestate
+	 *            the tracestate header value, may be null
+	 * @return the context, or null if the header is not valid
+	 */
+	public static TraceContext parse(String traceparent, String tracestate) {
+		if (traceparent == null || traceparent.length() < 55) {
+			return null;
+		}
+		String[] parts = traceparent.trim().split("-");
+		if (parts.length < 4 || parts[0].length() != 2 || parts[0].equals("ff")
+				|| !isHex(parts[1], 32) || !isHex(parts[2], 16)
+				|| !isHex(parts[3], 2) || isZero(parts[1]) || isZero(parts[2])) {
+			return null;
+		}
+		return new TraceContext(parts[1], parts[2], Integer.parseInt(parts[3], 16),
+				tracestate);
+	}
+
+	/**
+	 * @return the context of the current thread, or null
+	 */
+	public static TraceContext current() {
+		return current.get();
+	}
+
+	/**
+	 * makes this context the current one of the thread
+	 * 
+	 * @return the previous context, to be restored with
+	 *         {@link #restore(TraceContext)}
+	 */
+	public TraceContext attach() {
+		TraceContext previous = current.get();
+		current.set(this);
+		return previous;
+	}
+
+	/**
+	 * restores the context of the thread replaced by {@link #attach()}
+	 */
+	public static void restore(TraceContext previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	public boolean isSampled() {
+		return (flags & SAMPLED) != 0;
+	}
+
+	/**
+	 * @return the tracestate header value, may be null
+	 */
+	public String getTraceState() {
+		return traceState;
+	}
+
+	/**
+	 * @return the traceparent header value
+	 */
+	public String toTraceparent() {
+		StringBuilder sb = new StringBuilder(55);
+		sb.append(VERSION).append('-').append(traceId).append('-')
+				.append(spanId).append('-').append(HEX[(flags >> 4) & 0x0F])
+				.append(HEX[flags & 0x0F]);
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toTraceparent();
+	}
+
+	private static String randomHex(int bytes) {
+		byte[] b = new byte[bytes];
+		do {
+			random.nextBytes(b);
+		} while (allZero(b));
+		char[] c = new char[bytes * 2];
+		for (int i = 0; i < bytes; i++) {
+			c[i * 2] = HEX[(b[i] >> 4) & 0x0F];
+			c[i * 2 + 1] = HEX[b[i] & 0x0F];
+		}
+		return new String(c);
+	}
+
+	private static boolean allZero(byte[] b) {
+		for (byte x : b) {
+			if (x != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isHex(String s, int length) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isZero(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) != '0') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.trace;
+
+import eu.trentorise.smartcampus.socialservice.transport.Request;
+
+/**
+ * Tracing SPI of the client: a span is started before each remote call and
+ * ended when the call completes.
+ *
+ * The tracer may add headers to the request, e.g. the W3C
+ * <code>traceparent</code>, before it is executed.
+ */
+public interface Tracer {
+
+	/**
+	 * tracer used when tracing is disabled, the client skips every tracing
+	 * step when it is set
+	 */
+	Tracer NOOP = new Tracer() {
+		@Override
+		public Span start(Request request) {
+			return Span.NOOP;
+		}
+	};
+
+	/**
+	 * starts the span of a call
+	 * 
+	 * @param request
+	 *            the request about to be executed, with its operation name and
+	 *            path template
+	 * @return the span of the call, never null
+	 */
+	Span start(Request request);
+}
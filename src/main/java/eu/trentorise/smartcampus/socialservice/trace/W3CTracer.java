@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.trace;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import eu.trentorise.smartcampus.socialservice.transport.Request;
+import eu.trentorise.smartcampus.socialservice.transport.Response;
+
+/**
+ * {@link Tracer} propagating the W3C trace context. Each call is a child
+ * span of the context of the current thread, or the root of a new trace,
+ * and its <code>traceparent</code> and <code>tracestate</code> are sent with
+ * the request. Finished spans are handed to {@link #report(SpanRecord)},
+ * where they can be logged or exported to a tracing backend.
+ */
+public abstract class W3CTracer implements Tracer {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/** direct-mapped cache of the last token fingerprints */
+	private static final int CACHE_SIZE = 64;
+	private final Fingerprint[] fingerprints = new Fingerprint[CACHE_SIZE];
+
+	@Override
+	public Span start(Request request) {
+		TraceContext parent = TraceContext.current();
+		TraceContext context = parent == null ? TraceContext.newTrace()
+				: parent.newChild();
+		request.setHeader(TraceContext.TRACEPARENT, context.toTraceparent());
+		if (context.getTraceState() != null) {
+			request.setHeader(TraceContext.TRACESTATE, context.getTraceState());
+		}
+		final SpanRecord record = new SpanRecord(context,
+				parent == null ? null : parent.getSpanId(),
+				request.getOperation(), request.getMethod(),
+				request.getTemplate(), fingerprint(request.getToken()),
+				request.getBody() == null ? 0 : request.getBody().length);
+		return new Span() {
+			@Override
+			public void end(Response response, Throwable error) {
+				record.end(response == null ? 0 : response.getStatus(),
+						response == null ? 0 : response.getBody().length, error);
+				report(record);
+			}
+		};
+	}
+
+	/**
+	 * receives a finished span, called by the thread which made the call
+	 * 
+	 * @param span
+	 *            the span data
+	 */
+	protected abstract void report(SpanRecord span);
+
+	/**
+	 * @return the first 8 bytes of the SHA-256 of the token, in hex, or null
+	 */
+	protected String fingerprint(String token) {
+		if (token == null) {
+			return null;
+		}
+		int slot = token.hashCode() & (CACHE_SIZE - 1);
+		Fingerprint cached = fingerprints[slot];
+		if (cached != null && cached.token.equals(token)) {
+			return cached.hash;
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+					token.getBytes("UTF-8"));
+			char[] c = new char[16];
+			for (int i = 0; i < 8; i++) {
+				c[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+				c[i * 2 + 1] = HEX[digest[i] & 0x0F];
+			}
+			String hash = new String(c);
+			fingerprints[slot] = new Fingerprint(token, hash);
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * a token with its fingerprint, replaced as a whole in its slot so that
+	 * a racing reader never pairs a token with the hash of another one
+	 */
+	private static final class Fingerprint {
+		final String token;
+		final String hash;
+
+		Fingerprint(String token, String hash) {
+			this.token = token;
+			this.hash = hash;
+		}
+	}
+}
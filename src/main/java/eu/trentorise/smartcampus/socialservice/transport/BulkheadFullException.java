@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Call rejected by a {@link ShardedTransport} because the queue of its shard
+ * is full
+ */
+public class BulkheadFullException extends RemoteException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int shard;
+
+	public BulkheadFullException(String message, int shard) {
+		super(message);
+		this.shard = shard;
+	}
+
+	/**
+	 * @return index of the full shard
+	 */
+	public int getShard() {
+		return shard;
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Failure of a call not started or aborted by its {@link CallContext}
+ */
+public class CallAbortedException extends RemoteException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean deadlineExceeded;
+
+	public CallAbortedException(String message, boolean deadlineExceeded,
+			Throwable cause) {
+		super(message, cause);
+		this.deadlineExceeded = deadlineExceeded;
+	}
+
+	/**
+	 * @return true if the deadline passed, false if the call was cancelled
+	 */
+	public boolean isDeadlineExceeded() {
+		return deadlineExceeded;
+	}
+}
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation of the service calls made while the context is
+ * attached to the thread, e.g.
+ * 
+ * <pre>
+ * CallContext context = CallContext.withTimeout(500, TimeUnit.MILLISECONDS);
+ * CallContext previous = context.attach();
+ * try {
+ * 	socialService.getCommunity(communityId, token);
+ * 	socialService.getCommunityEntities(communityId, token, 0, 20, null);
+ * } finally {
+ * 	CallContext.restore(previous);
+ * 	context.close();
+ * }
+ * </pre>
+ * 
+ * All the calls share the budget of the context. A call is not started once
+ * the context is done, and the exchange in flight is aborted when the
+ * deadline passes or {@link #cancel()} is called, from any thread. The
+ * aborted call fails with a {@link CallAbortedException}.
+ * 
+ * A context created while another one is attached is its child: it is
+ * cancelled with its parent and never outlives its deadline.
+ * 
+ * A context holds the timer of its deadline and a listener of its parent
+ * until it is done, so {@link #close()} it once its calls are over.
+ */
+public final class CallContext {
+
+	private static final ThreadLocal<CallContext> current = new ThreadLocal<CallContext>();
+
+	private static final int ACTIVE = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+	private static final int CLOSED = 3;
+
+	private final long deadline;
+	private volatile int state = ACTIVE;
+	/** guarded by this, null once the context is done */
+	private List<Runnable> listeners = new ArrayList<Runnable>(2);
+	private ScheduledFuture<?> expiry;
+
+	private CallContext(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return a context expiring after the given time, or with the current
+	 *         context if it expires earlier
+	 */
+	public static CallContext withTimeout(long timeout, TimeUnit unit) {
+		return create(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/**
+	 * @return a context without deadline, done only when cancelled with its
+	 *         parent or with {@link #cancel()}
+	 */
+	public static CallContext cancellable() {
+		return create(Long.MAX_VALUE);
+	}
+
+	private static CallContext create(long deadline) {
+		final CallContext parent = current.get();
+		if (parent != null && parent.deadline - deadline < 0) {
+			deadline = parent.deadline;
+		}
+		final CallContext context = new CallContext(deadline);
+		if (deadline != Long.MAX_VALUE) {
+			context.scheduleExpiry();
+		}
+		if (parent != null) {
+			final Runnable propagate = new Runnable() {
+				@Override
+				public void run() {
+					context.done(parent.state);
+				}
+			};
+			parent.addListener(propagate);
+			context.addListener(new Runnable() {
+				@Override
+				public void run() {
+					parent.removeListener(propagate);
+				}
+			});
+		}
+		return context;
+	}
+
+	/**
+	 * @return the context attached to the current thread, or null
+	 */
+	public static CallContext current() {
+		return current.get();
+	}
+
+	/**
+	 * attaches the context to the current thread
+	 * 
+	 * @return the previous context, to be restored with
+	 *         {@link #restore(CallContext)}
+	 */
+	public CallContext attach() {
+		CallContext previous = current.get();
+		current.set(this);
+		return previous;
+	}
+
+	/**
+	 * restores the context replaced by {@link #attach()}
+	 */
+	public static void restore(CallContext previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * cancels the calls of the context, aborting the one in flight
+	 */
+	public void cancel() {
+		done(CANCELLED);
+	}
+
+	/**
+	 * releases the context once its calls are over, cancelling the timer of
+	 * its deadline and detaching it from its parent. Like {@link #cancel()}
+	 * it aborts the calls still in flight and its children, but the context
+	 * is not reported as cancelled.
+	 */
+	public void close() {
+		if (done(CLOSED) && hasDeadline()) {
+			// the cancelled timer task would stay queued until its deadline
+			Timer.INSTANCE.purge();
+		}
+	}
+
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	/**
+	 * @return true if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return state == EXPIRED || remainingNanos() <= 0;
+	}
+
+	/**
+	 * @return true if the context is cancelled, expired or closed
+	 */
+	public boolean isDone() {
+		return state != ACTIVE || remainingNanos() <= 0;
+	}
+
+	/**
+	 * @return true if the context has a deadline
+	 */
+	public boolean hasDeadline() {
+		return deadline != Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return nanoseconds left before the deadline, Long.MAX_VALUE without
+	 *         deadline
+	 */
+	public long remainingNanos() {
+		return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline
+				- System.nanoTime();
+	}
+
+	/**
+	 * @return milliseconds left before the deadline, at least 1 while it has
+	 *         not passed, Long.MAX_VALUE without deadline
+	 */
+	public long remainingMillis() {
+		long nanos = remainingNanos();
+		if (nanos == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return nanos <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+
+	/**
+	 * @throws CallAbortedException
+	 *             if the context is done
+	 */
+	public void check() throws CallAbortedException {
+		if (isDone()) {
+			throw aborted(null);
+		}
+	}
+
+	/**
+	 * @return the exception of a call aborted by this context
+	 */
+	public CallAbortedException aborted(Throwable cause) {
+		if (isCancelled()) {
+			return new CallAbortedException("Call cancelled", false, cause);
+		}
+		if (state == CLOSED && !isExpired()) {
+			return new CallAbortedException("Context closed", false, cause);
+		}
+		return new CallAbortedException("Deadline exceeded", true, cause);
+	}
+
+	/**
+	 * registers a listener run once when the context is done, immediately if
+	 * it already is. Listeners of a deadline run on a timer thread.
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (listeners != null) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	public synchronized void removeListener(Runnable listener) {
+		if (listeners != null) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * @return false if the context was already done
+	 */
+	private boolean done(int reason) {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (listeners == null) {
+				return false;
+			}
+			state = reason;
+			toRun = listeners;
+			listeners = null;
+			if (expiry != null) {
+				expiry.cancel(false);
+			}
+		}
+		for (Runnable listener : toRun) {
+			listener.run();
+		}
+		return true;
+	}
+
+	synchronized int getListenerCount() {
+		return listeners == null ? 0 : listeners.size();
+	}
+
+	static int getTimerQueueSize() {
+		return Timer.INSTANCE.getQueue().size();
+	}
+
+	private synchronized void scheduleExpiry() {
+		expiry = Timer.INSTANCE.schedule(new Runnable() {
+			@Override
+			public void run() {
+				done(EXPIRED);
+			}
+		}, Math.max(0, remainingNanos()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * daemon timer of the deadlines, created on first use
+	 */
+	private static final class Timer {
+		static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(
+				1, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "socialservice-deadlines");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+}
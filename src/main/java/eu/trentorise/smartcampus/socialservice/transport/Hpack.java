@@ -0,0 +1,470 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression of HTTP/2 (RFC 7541). Header lists are flat lists
+ * of lowercase names alternated with their values.
+ * 
+ * The encoder uses only the static table and raw strings, so it keeps no
+ * state and any header block can be sent in any order. The decoder supports
+ * the whole format, dynamic table and Huffman coding included.
+ */
+final class Hpack {
+
+	private static final String[] STATIC_TABLE = {
+			":authority", "",
+			":method", "GET",
+			":method", "POST",
+			":path", "/",
+			":path", "/index.html",
+			":scheme", "http",
+			":scheme", "https",
+			":status", "200",
+			":status", "204",
+			":status", "206",
+			":status", "304",
+			":status", "400",
+			":status", "404",
+			":status", "500",
+			"accept-charset", "",
+			"accept-encoding", "gzip, deflate",
+			"accept-language", "",
+			"accept-ranges", "",
+			"accept", "",
+			"access-control-allow-origin", "",
+			"age", "",
+			"allow", "",
+			"authorization", "",
+			"cache-control", "",
+			"content-disposition", "",
+			"content-encoding", "",
+			"content-language", "",
+			"content-length", "",
+			"content-location", "",
+			"content-range", "",
+			"content-type", "",
+			"cookie", "",
+			"date", "",
+			"etag", "",
+			"expect", "",
+			"expires", "",
+			"from", "",
+			"host", "",
+			"if-match", "",
+			"if-modified-since", "",
+			"if-none-match", "",
+			"if-range", "",
+			"if-unmodified-since", "",
+			"last-modified", "",
+			"link", "",
+			"location", "",
+			"max-forwards", "",
+			"proxy-authenticate", "",
+			"proxy-authorization", "",
+			"range", "",
+			"referer", "",
+			"refresh", "",
+			"retry-after", "",
+			"server", "",
+			"set-cookie", "",
+			"strict-transport-security", "",
+			"transfer-encoding", "",
+			"user-agent", "",
+			"vary", "",
+			"via", "",
+			"www-authenticate", "" };
+
+	private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+	private static final Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>();
+	static {
+		for (int i = STATIC_TABLE.length / 2; i > 0; i--) {
+			String name = STATIC_TABLE[2 * i - 2];
+			STATIC_NAMES.put(name, i);
+			STATIC_FIELDS.put(name + ':' + STATIC_TABLE[2 * i - 1], i);
+		}
+	}
+
+	/** headers never added to an intermediary table */
+	private static final String AUTHORIZATION = "authorization";
+	private static final String COOKIE = "cookie";
+
+	/** RFC 7541 Appendix B, the last code is EOS */
+	private static final int[] HUFFMAN_CODES = {
+			0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5,
+			0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9,
+			0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee,
+			0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+			0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9,
+			0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa,
+			0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb,
+			0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+			0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b,
+			0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb,
+			0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21,
+			0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+			0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+			0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e,
+			0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73,
+			0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+			0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5,
+			0x25, 0x26, 0x27, 0x6, 0x74, 0x75,
+			0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76,
+			0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+			0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd,
+			0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+			0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda,
+			0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+			0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1,
+			0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+			0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd,
+			0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+			0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf,
+			0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+			0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+			0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+			0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2,
+			0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+			0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3,
+			0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+			0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3,
+			0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6,
+			0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb,
+			0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+			0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+			0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed,
+			0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee, 0x3fffffff };
+
+	private static final byte[] HUFFMAN_LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+			28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+			6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+			24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+			19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30 };
+
+	private static final int EOS = 256;
+
+	/**
+	 * decoding tree of the Huffman code, children of node n are at 2n and
+	 * 2n+1: a positive value is a node, a negative one a symbol s stored as
+	 * -(s+1)
+	 */
+	private static final int[] HUFFMAN_TREE = new int[2 * 256];
+	static {
+		int nodes = 1;
+		for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+			int code = HUFFMAN_CODES[symbol];
+			int node = 0;
+			for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+				int slot = 2 * node + ((code >>> bit) & 1);
+				if (HUFFMAN_TREE[slot] == 0) {
+					HUFFMAN_TREE[slot] = nodes++;
+				}
+				node = HUFFMAN_TREE[slot];
+			}
+			HUFFMAN_TREE[2 * node + (code & 1)] = -(symbol + 1);
+		}
+	}
+
+	private Hpack() {
+	}
+
+	/**
+	 * failure decoding a header block, a connection error of HTTP/2
+	 */
+	static final class CompressionException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CompressionException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * stateless encoder
+	 */
+	static final class Encoder {
+
+		/**
+		 * encodes a header list. The block starts with a dynamic table size
+		 * update to 0, valid whatever table size the peer allows.
+		 * 
+		 * @param headers
+		 *            lowercase names alternated with their values
+		 * @return the header block
+		 */
+		byte[] encode(List<String> headers) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(64 * headers.size());
+			writeInt(out, 0x20, 5, 0);
+			for (int i = 0; i < headers.size(); i += 2) {
+				String name = headers.get(i);
+				String value = headers.get(i + 1);
+				Integer field = STATIC_FIELDS.get(name + ':' + value);
+				if (field != null) {
+					writeInt(out, 0x80, 7, field);
+					continue;
+				}
+				// literal without indexing, or never indexed for credentials
+				int flags = name.equals(AUTHORIZATION) || name.equals(COOKIE) ? 0x10 : 0x00;
+				Integer index = STATIC_NAMES.get(name);
+				if (index != null) {
+					writeInt(out, flags, 4, index);
+				} else {
+					out.write(flags);
+					writeString(out, name);
+				}
+				writeString(out, value);
+			}
+			return out.toByteArray();
+		}
+
+		private static void writeString(ByteArrayOutputStream out, String value) {
+			writeInt(out, 0x00, 7, value.length());
+			for (int i = 0; i < value.length(); i++) {
+				out.write(value.charAt(i));
+			}
+		}
+
+		private static void writeInt(ByteArrayOutputStream out, int flags, int prefix, int value) {
+			int max = (1 << prefix) - 1;
+			if (value < max) {
+				out.write(flags | value);
+				return;
+			}
+			out.write(flags | max);
+			value -= max;
+			while (value >= 0x80) {
+				out.write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+	}
+
+	/**
+	 * decoder of the header blocks of a connection, in the order they are
+	 * received
+	 */
+	static final class Decoder {
+
+		/** newest entry first, names alternated with values */
+		private final LinkedList<String> table = new LinkedList<String>();
+		private final int maxAllowedSize;
+		private int maxSize;
+		private int size;
+
+		private byte[] block;
+		private int pos;
+		private int end;
+
+		/**
+		 * @param maxAllowedSize
+		 *            dynamic table size advertised to the peer
+		 */
+		Decoder(int maxAllowedSize) {
+			this.maxAllowedSize = maxAllowedSize;
+			this.maxSize = maxAllowedSize;
+		}
+
+		/**
+		 * @return the header list, lowercase names alternated with values
+		 */
+		List<String> decode(byte[] block, int offset, int length) throws CompressionException {
+			this.block = block;
+			this.pos = offset;
+			this.end = offset + length;
+			List<String> headers = new ArrayList<String>();
+			boolean first = true;
+			while (pos < end) {
+				int b = block[pos] & 0xff;
+				if ((b & 0x80) != 0) {
+					int index = readInt(7);
+					if (index == 0) {
+						throw new CompressionException("Invalid index 0");
+					}
+					headers.add(name(index));
+					headers.add(value(index));
+				} else if ((b & 0xc0) == 0x40) {
+					int index = readInt(6);
+					String name = index == 0 ? readString() : name(index);
+					String value = readString();
+					headers.add(name);
+					headers.add(value);
+					add(name, value);
+				} else if ((b & 0xe0) == 0x20) {
+					if (!first) {
+						throw new CompressionException("Table size update after a header");
+					}
+					int newSize = readInt(5);
+					if (newSize > maxAllowedSize) {
+						throw new CompressionException("Table size " + newSize + " over " + maxAllowedSize);
+					}
+					maxSize = newSize;
+					evict(0);
+					continue;
+				} else {
+					// literal without indexing or never indexed
+					int index = readInt(4);
+					String name = index == 0 ? readString() : name(index);
+					headers.add(name);
+					headers.add(readString());
+				}
+				first = false;
+			}
+			this.block = null;
+			return headers;
+		}
+
+		private String name(int index) throws CompressionException {
+			return field(index, 0);
+		}
+
+		private String value(int index) throws CompressionException {
+			return field(index, 1);
+		}
+
+		private String field(int index, int part) throws CompressionException {
+			if (index <= STATIC_TABLE.length / 2) {
+				return STATIC_TABLE[2 * index - 2 + part];
+			}
+			int dynamic = index - STATIC_TABLE.length / 2 - 1;
+			if (dynamic >= table.size() / 2) {
+				throw new CompressionException("Invalid index " + index);
+			}
+			return table.get(2 * dynamic + part);
+		}
+
+		private void add(String name, String value) {
+			int entry = name.length() + value.length() + 32;
+			if (entry > maxSize) {
+				// an entry larger than the table empties it
+				table.clear();
+				size = 0;
+				return;
+			}
+			evict(maxSize - entry);
+			table.addFirst(value);
+			table.addFirst(name);
+			size += entry;
+		}
+
+		private void evict(int target) {
+			while (size > target) {
+				String value = table.removeLast();
+				String name = table.removeLast();
+				size -= name.length() + value.length() + 32;
+			}
+		}
+
+		private int readInt(int prefix) throws CompressionException {
+			int max = (1 << prefix) - 1;
+			int value = block[pos++] & max;
+			if (value < max) {
+				return value;
+			}
+			int shift = 0;
+			int b;
+			do {
+				if (pos >= end) {
+					throw new CompressionException("Truncated integer");
+				}
+				if (shift > 21) {
+					throw new CompressionException("Integer overflow");
+				}
+				b = block[pos++] & 0xff;
+				value += (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		private String readString() throws CompressionException {
+			if (pos >= end) {
+				throw new CompressionException("Truncated string");
+			}
+			boolean huffman = (block[pos] & 0x80) != 0;
+			int length = readInt(7);
+			if (length > end - pos) {
+				throw new CompressionException("Truncated string");
+			}
+			String value = huffman ? huffman(pos, length) : latin1(pos, length);
+			pos += length;
+			return value;
+		}
+
+		private String latin1(int offset, int length) {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) (block[offset + i] & 0xff);
+			}
+			return new String(chars);
+		}
+
+		private String huffman(int offset, int length) throws CompressionException {
+			StringBuilder sb = new StringBuilder(length * 8 / 5);
+			int node = 0;
+			int depth = 0;
+			boolean ones = true;
+			for (int i = offset; i < offset + length; i++) {
+				int b = block[i] & 0xff;
+				for (int bit = 7; bit >= 0; bit--) {
+					int one = (b >>> bit) & 1;
+					int child = HUFFMAN_TREE[2 * node + one];
+					if (child < 0) {
+						int symbol = -child - 1;
+						if (symbol == EOS) {
+							throw new CompressionException("EOS in Huffman string");
+						}
+						sb.append((char) symbol);
+						node = 0;
+						depth = 0;
+						ones = true;
+					} else {
+						node = child;
+						depth++;
+						ones &= one == 1;
+					}
+				}
+			}
+			// padding is the most significant bits of EOS, up to 7 bits
+			if (depth > 7 || !ones) {
+				throw new CompressionException("Invalid Huffman padding");
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,766 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import static eu.trentorise.smartcampus.socialservice.transport.Http2Frame.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Client side of an HTTP/2 connection. Streams are opened by the calling
+ * threads, while a reader thread dispatches the incoming frames to them,
+ * answers the settings and pings of the server and grants the flow control
+ * credit of the consumed data.
+ * 
+ * Frames are written under a lock shared by all the streams. The state of
+ * the connection, send windows included, is guarded by the connection
+ * itself and is never held while writing.
+ */
+final class Http2Connection {
+
+	/** receive window of each stream */
+	static final int STREAM_WINDOW = 1 << 20;
+	/** receive window of the connection */
+	static final int CONNECTION_WINDOW = 16 << 20;
+
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private final String authority;
+	private final Hpack.Encoder encoder = new Hpack.Encoder();
+	private final Hpack.Decoder decoder = new Hpack.Decoder(DEFAULT_HEADER_TABLE_SIZE);
+	private final Map<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+	private final CountDownLatch settingsReceived = new CountDownLatch(1);
+	private final Object writeLock = new Object();
+
+	// guarded by this
+	private int nextStreamId = 1;
+	private int maxConcurrentStreams = Integer.MAX_VALUE;
+	private int peerInitialWindow = DEFAULT_WINDOW;
+	private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private long sendWindow = DEFAULT_WINDOW;
+	private boolean goingAway;
+	private IOException failure;
+
+	// reader thread only
+	private int unacknowledged;
+
+	private Http2Connection(Socket socket, String authority) throws IOException {
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream(), 32 * 1024);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 32 * 1024);
+		this.authority = authority;
+	}
+
+	/**
+	 * connects to the host of a url: http urls use HTTP/2 with prior
+	 * knowledge, https urls negotiate it with ALPN
+	 * 
+	 * @param uri
+	 *            url of the host
+	 * @param timeout
+	 *            connect timeout in milliseconds, also the read timeout of
+	 *            the TLS handshake and the max wait for the settings of the
+	 *            server
+	 * @return the connection, the settings of the server are received
+	 */
+	static Http2Connection open(URI uri, int timeout) throws IOException {
+		boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		int port = uri.getPort() >= 0 ? uri.getPort() : secure ? 443 : 80;
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(uri.getHost(), port), timeout);
+			if (secure) {
+				// bounds the handshake, the reader then blocks without timeout
+				socket.setSoTimeout(timeout);
+				socket = negotiate(socket, uri.getHost(), port);
+				socket.setSoTimeout(0);
+			}
+			Http2Connection connection = new Http2Connection(socket, uri.getRawAuthority());
+			connection.start(timeout);
+			return connection;
+		} catch (IOException e) {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * TLS handshake selecting h2 with ALPN. ALPN and the endpoint
+	 * identification are set by reflection, they are missing in the older
+	 * runtimes this library supports. The methods are looked up on the public
+	 * JSSE classes: the implementation classes are not accessible from Java 9
+	 * on.
+	 */
+	private static Socket negotiate(Socket plain, String host, int port) throws IOException {
+		SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+				.createSocket(plain, host, port, true);
+		SSLParameters parameters = ssl.getSSLParameters();
+		invoke(SSLParameters.class, parameters, "setEndpointIdentificationAlgorithm", String.class, "HTTPS");
+		invoke(SSLParameters.class, parameters, "setApplicationProtocols", String[].class,
+				new String[] { "h2" });
+		ssl.setSSLParameters(parameters);
+		ssl.startHandshake();
+		if (!"h2".equals(invoke(SSLSocket.class, ssl, "getApplicationProtocol", null, null))) {
+			throw new IOException(host + " does not support HTTP/2");
+		}
+		return ssl;
+	}
+
+	private static Object invoke(Class<?> owner, Object target, String method, Class<?> type, Object value)
+			throws IOException {
+		try {
+			if (type == null) {
+				return owner.getMethod(method).invoke(target);
+			}
+			return owner.getMethod(method, type).invoke(target, value);
+		} catch (NoSuchMethodException e) {
+			throw new IOException("HTTP/2 over TLS needs a Java runtime supporting ALPN");
+		} catch (IllegalAccessException e) {
+			throw new IOException("Cannot call " + method, e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Cannot call " + method, e.getCause());
+		}
+	}
+
+	private void start(int timeout) throws IOException {
+		synchronized (writeLock) {
+			out.write(PREFACE);
+			Http2Frame.write(out, SETTINGS, 0, 0, settings(SETTINGS_ENABLE_PUSH, 0,
+					SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW));
+			Http2Frame.write(out, WINDOW_UPDATE, 0, 0, ints(CONNECTION_WINDOW - DEFAULT_WINDOW));
+			out.flush();
+		}
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		}, "socialservice-http2-" + authority);
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			if (!settingsReceived.await(timeout, TimeUnit.MILLISECONDS)) {
+				close(new SocketTimeoutException("No HTTP/2 settings from " + authority));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close(new InterruptedIOException("Interrupted opening " + authority));
+		}
+		synchronized (this) {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the connection is closed or the server is going away
+	 */
+	synchronized boolean isUsable() {
+		return failure == null && !goingAway;
+	}
+
+	/**
+	 * @return the max number of concurrent streams set by the server
+	 */
+	synchronized int getMaxConcurrentStreams() {
+		return maxConcurrentStreams;
+	}
+
+	/**
+	 * opens a stream sending its headers
+	 * 
+	 * @param headers
+	 *            lowercase names alternated with values, pseudo-headers first
+	 * @param endStream
+	 *            true if the request has no body
+	 * @param maxBytes
+	 *            max length of the response body, negative if unlimited
+	 * @return the stream
+	 * @throws RefusedStreamException
+	 *             if the connection does not accept new streams
+	 */
+	Stream open(List<String> headers, boolean endStream, long maxBytes) throws IOException {
+		byte[] block = encoder.encode(headers);
+		synchronized (writeLock) {
+			Stream stream;
+			int maxFrameSize;
+			synchronized (this) {
+				if (failure != null || goingAway || nextStreamId < 0) {
+					goingAway = true;
+					throw new RefusedStreamException("Connection to " + authority
+							+ " does not accept new streams");
+				}
+				stream = new Stream(nextStreamId, peerInitialWindow, maxBytes);
+				nextStreamId += 2;
+				maxFrameSize = peerMaxFrameSize;
+				streams.put(stream.id, stream);
+			}
+			try {
+				int length = Math.min(block.length, maxFrameSize);
+				int flags = (endStream ? FLAG_END_STREAM : 0)
+						| (length == block.length ? FLAG_END_HEADERS : 0);
+				Http2Frame.write(out, HEADERS, flags, stream.id, block, 0, length);
+				for (int offset = length; offset < block.length; offset += length) {
+					length = Math.min(block.length - offset, maxFrameSize);
+					Http2Frame.write(out, CONTINUATION, offset + length == block.length
+							? FLAG_END_HEADERS : 0, stream.id, block, offset, length);
+				}
+				out.flush();
+			} catch (IOException e) {
+				close(e);
+				throw e;
+			}
+			return stream;
+		}
+	}
+
+	/**
+	 * sends the request body as the flow control windows allow, ending the
+	 * stream
+	 * 
+	 * @param deadline
+	 *            time in milliseconds after which the wait for credit fails
+	 */
+	void send(Stream stream, byte[] body, long deadline) throws IOException {
+		int offset = 0;
+		while (offset < body.length) {
+			int length;
+			synchronized (this) {
+				while ((length = (int) Math.min(Math.min(sendWindow, stream.sendWindow),
+						Math.min(peerMaxFrameSize, body.length - offset))) <= 0) {
+					if (failure != null) {
+						throw failure;
+					}
+					if (stream.isDone()) {
+						// reset, or answered before the whole body
+						stream.check();
+						return;
+					}
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) {
+						throw new SocketTimeoutException("No flow control credit from "
+								+ authority);
+					}
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted sending to " + authority);
+					}
+				}
+				sendWindow -= length;
+				stream.sendWindow -= length;
+			}
+			if (stream.isDone()) {
+				stream.check();
+				return;
+			}
+			boolean last = offset + length == body.length;
+			write(DATA, last ? FLAG_END_STREAM : 0, stream.id, body, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * resets a stream not completed yet
+	 */
+	void reset(Stream stream, int errorCode) {
+		if (remove(stream)) {
+			try {
+				write(RST_STREAM, 0, stream.id, ints(errorCode));
+			} catch (IOException e) {
+				// the connection is closed
+			}
+		}
+	}
+
+	/**
+	 * resets a stream, failing the thread waiting for it
+	 */
+	void cancel(Stream stream) {
+		stream.fail(new InterruptedIOException("Stream " + stream.id + " cancelled"));
+		reset(stream, CANCEL);
+	}
+
+	/**
+	 * closes the connection telling the server
+	 */
+	void close() {
+		try {
+			write(GOAWAY, 0, 0, ints(0, NO_ERROR));
+		} catch (IOException e) {
+			// already closed
+		}
+		close(new IOException("Connection to " + authority + " closed"));
+	}
+
+	private void close(IOException cause) {
+		synchronized (this) {
+			if (failure != null) {
+				return;
+			}
+			failure = cause;
+			notifyAll();
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		for (Stream stream : streams.values()) {
+			stream.fail(cause);
+		}
+		streams.clear();
+		settingsReceived.countDown();
+	}
+
+	private boolean remove(Stream stream) {
+		if (streams.remove(stream.id) == null) {
+			return false;
+		}
+		boolean drained;
+		synchronized (this) {
+			// wakes a sender waiting for credit
+			notifyAll();
+			drained = goingAway && streams.isEmpty();
+		}
+		if (drained) {
+			close();
+		}
+		return true;
+	}
+
+	private void write(int type, int flags, int streamId, byte[] payload, int offset,
+			int length) throws IOException {
+		synchronized (writeLock) {
+			try {
+				Http2Frame.write(out, type, flags, streamId, payload, offset, length);
+				out.flush();
+			} catch (IOException e) {
+				close(e);
+				throw e;
+			}
+		}
+	}
+
+	private void write(int type, int flags, int streamId, byte[] payload) throws IOException {
+		write(type, flags, streamId, payload, 0, payload.length);
+	}
+
+	private void read() {
+		ByteArrayOutputStream block = null;
+		int blockStream = 0;
+		boolean blockEndsStream = false;
+		try {
+			while (true) {
+				Http2Frame frame = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+				if (block != null
+						&& (frame.type != CONTINUATION || frame.streamId != blockStream)) {
+					throw new Http2Exception(PROTOCOL_ERROR, "Header block interrupted by " + frame);
+				}
+				switch (frame.type) {
+				case DATA:
+					onData(frame);
+					break;
+				case HEADERS:
+					block = new ByteArrayOutputStream();
+					blockStream = frame.streamId;
+					blockEndsStream = frame.hasFlag(FLAG_END_STREAM);
+					// falls through
+				case CONTINUATION:
+					if (block == null) {
+						throw new Http2Exception(PROTOCOL_ERROR, "Unexpected " + frame);
+					}
+					block.write(frame.payload, frame.contentOffset(), frame.contentLength());
+					if (frame.hasFlag(FLAG_END_HEADERS)) {
+						onHeaders(blockStream, block.toByteArray(), blockEndsStream);
+						block = null;
+					}
+					break;
+				case SETTINGS:
+					onSettings(frame);
+					break;
+				case PING:
+					if (!frame.hasFlag(FLAG_ACK)) {
+						write(PING, FLAG_ACK, 0, frame.payload);
+					}
+					break;
+				case WINDOW_UPDATE:
+					onWindowUpdate(frame);
+					break;
+				case RST_STREAM:
+					onReset(frame);
+					break;
+				case GOAWAY:
+					onGoAway(frame);
+					break;
+				case PUSH_PROMISE:
+					throw new Http2Exception(PROTOCOL_ERROR, "Push is disabled");
+				default:
+					// PRIORITY and unknown frames are ignored
+				}
+			}
+		} catch (Http2Exception e) {
+			try {
+				write(GOAWAY, 0, 0, ints(0, e.errorCode));
+			} catch (IOException ignored) {
+			}
+			close(e);
+		} catch (IOException e) {
+			close(e instanceof EOFException ? new IOException("Connection to " + authority
+					+ " closed by the server") : e);
+		} catch (RuntimeException e) {
+			close(new IOException("Invalid frame from " + authority, e));
+		}
+	}
+
+	private void onData(Http2Frame frame) throws IOException {
+		unacknowledged += frame.payload.length;
+		if (unacknowledged >= CONNECTION_WINDOW / 2) {
+			write(WINDOW_UPDATE, 0, 0, ints(unacknowledged));
+			unacknowledged = 0;
+		}
+		Stream stream = streams.get(frame.streamId);
+		if (stream == null) {
+			// reset or cancelled
+			return;
+		}
+		if (!stream.data(frame.payload, frame.contentOffset(), frame.contentLength())) {
+			reset(stream, CANCEL);
+		} else if (frame.hasFlag(FLAG_END_STREAM)) {
+			remove(stream);
+			stream.complete();
+		} else {
+			stream.unacknowledged += frame.payload.length;
+			if (stream.unacknowledged >= STREAM_WINDOW / 2) {
+				write(WINDOW_UPDATE, 0, stream.id, ints(stream.unacknowledged));
+				stream.unacknowledged = 0;
+			}
+		}
+	}
+
+	private void onHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+		List<String> headers;
+		try {
+			// decoded even for the reset streams, to keep the table in sync
+			headers = decoder.decode(block, 0, block.length);
+		} catch (Hpack.CompressionException e) {
+			throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+		}
+		Stream stream = streams.get(streamId);
+		if (stream == null) {
+			return;
+		}
+		String status = value(headers, ":status");
+		// interim 1xx responses are skipped, as the trailers
+		if (status != null && !status.startsWith("1") && !stream.hasStatus()) {
+			try {
+				stream.status(Integer.parseInt(status), value(headers, "content-type"));
+			} catch (NumberFormatException e) {
+				throw new Http2Exception(PROTOCOL_ERROR, "Invalid status " + status);
+			}
+			String length = value(headers, "content-length");
+			if (length != null && !stream.accepts(Long.parseLong(length))) {
+				reset(stream, CANCEL);
+				return;
+			}
+		}
+		if (endStream) {
+			remove(stream);
+			stream.complete();
+		}
+	}
+
+	private void onSettings(Http2Frame frame) throws IOException {
+		if (frame.hasFlag(FLAG_ACK)) {
+			return;
+		}
+		if (frame.payload.length % 6 != 0) {
+			throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid settings " + frame);
+		}
+		synchronized (this) {
+			for (int i = 0; i < frame.payload.length; i += 6) {
+				int id = (frame.payload[i] & 0xff) << 8 | frame.payload[i + 1] & 0xff;
+				int value = frame.intAt(i + 2);
+				if (id == SETTINGS_MAX_CONCURRENT_STREAMS) {
+					maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+				} else if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+					if (value < 0) {
+						throw new Http2Exception(FLOW_CONTROL_ERROR, "Invalid window " + value);
+					}
+					for (Stream stream : streams.values()) {
+						stream.sendWindow += value - peerInitialWindow;
+					}
+					peerInitialWindow = value;
+				} else if (id == SETTINGS_MAX_FRAME_SIZE) {
+					if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+						throw new Http2Exception(PROTOCOL_ERROR, "Invalid frame size " + value);
+					}
+					peerMaxFrameSize = value;
+				}
+			}
+			notifyAll();
+		}
+		write(SETTINGS, FLAG_ACK, 0, new byte[0]);
+		settingsReceived.countDown();
+	}
+
+	private void onWindowUpdate(Http2Frame frame) {
+		int increment = frame.intAt(0) & 0x7fffffff;
+		synchronized (this) {
+			if (frame.streamId == 0) {
+				sendWindow += increment;
+			} else {
+				Stream stream = streams.get(frame.streamId);
+				if (stream != null) {
+					stream.sendWindow += increment;
+				}
+			}
+			notifyAll();
+		}
+	}
+
+	private void onReset(Http2Frame frame) {
+		Stream stream = streams.get(frame.streamId);
+		if (stream != null) {
+			int errorCode = frame.intAt(0);
+			stream.fail(errorCode == REFUSED_STREAM ? new RefusedStreamException("Stream "
+					+ stream.id + " refused by " + authority) : new IOException("Stream "
+					+ stream.id + " reset by " + authority + " with error " + errorCode));
+			remove(stream);
+		}
+	}
+
+	private void onGoAway(Http2Frame frame) {
+		int lastStreamId = frame.intAt(0) & 0x7fffffff;
+		synchronized (this) {
+			goingAway = true;
+		}
+		// the streams above the last one were not processed, they can be retried
+		List<Stream> refused = new ArrayList<Stream>();
+		for (Stream stream : streams.values()) {
+			if (stream.id > lastStreamId) {
+				refused.add(stream);
+			}
+		}
+		for (Stream stream : refused) {
+			stream.fail(new RefusedStreamException("Stream " + stream.id
+					+ " not processed by " + authority));
+			remove(stream);
+		}
+		if (streams.isEmpty()) {
+			close();
+		}
+	}
+
+	private static String value(List<String> headers, String name) {
+		for (int i = 0; i < headers.size(); i += 2) {
+			if (headers.get(i).equals(name)) {
+				return headers.get(i + 1);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "HTTP/2 connection to " + authority;
+	}
+
+	/**
+	 * a request of the connection and its response
+	 */
+	static final class Stream {
+
+		final int id;
+		private final long maxBytes;
+
+		// guarded by the connection
+		long sendWindow;
+
+		// reader thread only
+		int unacknowledged;
+
+		// guarded by this
+		private int status;
+		private String contentType;
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private boolean tooLarge;
+		private boolean done;
+		private IOException failure;
+
+		Stream(int id, long sendWindow, long maxBytes) {
+			this.id = id;
+			this.sendWindow = sendWindow;
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized boolean hasStatus() {
+			return status != 0;
+		}
+
+		synchronized void status(int status, String contentType) {
+			this.status = status;
+			this.contentType = contentType;
+		}
+
+		/**
+		 * @return false, completing the stream, if a body of that length
+		 *         exceeds the limit
+		 */
+		synchronized boolean accepts(long length) {
+			if (maxBytes >= 0 && length > maxBytes) {
+				tooLarge = true;
+				done = true;
+				notifyAll();
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return false, completing the stream, if the body exceeds the limit
+		 */
+		synchronized boolean data(byte[] payload, int offset, int length) {
+			if (!accepts(body.size() + (long) length)) {
+				return false;
+			}
+			body.write(payload, offset, length);
+			return true;
+		}
+
+		synchronized void complete() {
+			done = true;
+			notifyAll();
+		}
+
+		synchronized void fail(IOException cause) {
+			if (!done) {
+				failure = cause;
+				done = true;
+				notifyAll();
+			}
+		}
+
+		synchronized boolean isDone() {
+			return done;
+		}
+
+		synchronized void check() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		/**
+		 * waits for the response
+		 * 
+		 * @param deadline
+		 *            time in milliseconds after which the wait fails
+		 */
+		synchronized void await(long deadline) throws IOException {
+			while (!done) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new SocketTimeoutException("No response on stream " + id);
+				}
+				try {
+					wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for stream " + id);
+				}
+			}
+			check();
+		}
+
+		synchronized int getStatus() {
+			return status;
+		}
+
+		synchronized String getContentType() {
+			return contentType;
+		}
+
+		synchronized byte[] getBody() {
+			return body.toByteArray();
+		}
+
+		synchronized boolean isTooLarge() {
+			return tooLarge;
+		}
+
+		synchronized long getLength() {
+			return body.size();
+		}
+	}
+
+	/**
+	 * stream refused before being processed, it can be sent again on another
+	 * connection
+	 */
+	static final class RefusedStreamException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		RefusedStreamException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * connection error, reported to the server with its code
+	 */
+	private static final class Http2Exception extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		final int errorCode;
+
+		Http2Exception(int errorCode, String message) {
+			super(message);
+			this.errorCode = errorCode;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Frame of HTTP/2 (RFC 7540 section 4), with the constants of the protocol
+ * used by {@link Http2Transport}.
+ */
+final class Http2Frame {
+
+	static final byte[] PREFACE = { 'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2',
+			'.', '0', '\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n' };
+
+	static final int DATA = 0x0;
+	static final int HEADERS = 0x1;
+	static final int PRIORITY = 0x2;
+	static final int RST_STREAM = 0x3;
+	static final int SETTINGS = 0x4;
+	static final int PUSH_PROMISE = 0x5;
+	static final int PING = 0x6;
+	static final int GOAWAY = 0x7;
+	static final int WINDOW_UPDATE = 0x8;
+	static final int CONTINUATION = 0x9;
+
+	static final int FLAG_END_STREAM = 0x1;
+	static final int FLAG_ACK = 0x1;
+	static final int FLAG_END_HEADERS = 0x4;
+	static final int FLAG_PADDED = 0x8;
+	static final int FLAG_PRIORITY = 0x20;
+
+	static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final int SETTINGS_ENABLE_PUSH = 0x2;
+	static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int FLOW_CONTROL_ERROR = 0x3;
+	static final int FRAME_SIZE_ERROR = 0x6;
+	static final int REFUSED_STREAM = 0x7;
+	static final int CANCEL = 0x8;
+	static final int COMPRESSION_ERROR = 0x9;
+
+	/** initial values of the settings */
+	static final int DEFAULT_WINDOW = 65535;
+	static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	static final int DEFAULT_HEADER_TABLE_SIZE = 4096;
+
+	static final int HEADER_LENGTH = 9;
+
+	final int type;
+	final int flags;
+	final int streamId;
+	final byte[] payload;
+
+	Http2Frame(int type, int flags, int streamId, byte[] payload) {
+		this.type = type;
+		this.flags = flags;
+		this.streamId = streamId;
+		this.payload = payload;
+	}
+
+	boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	/**
+	 * @return offset of the content in the payload, after the padding length
+	 *         and the priority fields
+	 */
+	int contentOffset() {
+		int offset = hasFlag(FLAG_PADDED) ? 1 : 0;
+		if (type == HEADERS && hasFlag(FLAG_PRIORITY)) {
+			offset += 5;
+		}
+		return offset;
+	}
+
+	/**
+	 * @return length of the content in the payload, without padding
+	 * @throws IOException
+	 *             if the padding exceeds the payload
+	 */
+	int contentLength() throws IOException {
+		int padding = hasFlag(FLAG_PADDED) && payload.length > 0 ? payload[0] & 0xff : 0;
+		int length = payload.length - contentOffset() - padding;
+		if (length < 0) {
+			throw new IOException("Invalid padding in frame " + this);
+		}
+		return length;
+	}
+
+	/**
+	 * @return the 32 bit integer at an offset of the payload
+	 */
+	int intAt(int offset) {
+		return (payload[offset] & 0xff) << 24 | (payload[offset + 1] & 0xff) << 16
+				| (payload[offset + 2] & 0xff) << 8 | payload[offset + 3] & 0xff;
+	}
+
+	/**
+	 * reads a frame
+	 * 
+	 * @param in
+	 *            the connection input
+	 * @param maxFrameSize
+	 *            largest payload accepted
+	 * @return the frame
+	 * @throws EOFException
+	 *             if the connection is closed
+	 */
+	static Http2Frame read(InputStream in, int maxFrameSize) throws IOException {
+		byte[] header = new byte[HEADER_LENGTH];
+		readFully(in, header, HEADER_LENGTH);
+		int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+		if (length > maxFrameSize) {
+			throw new IOException("Frame of " + length + " bytes exceeds " + maxFrameSize);
+		}
+		int streamId = ((header[5] & 0x7f) << 24 | (header[6] & 0xff) << 16
+				| (header[7] & 0xff) << 8 | header[8] & 0xff);
+		byte[] payload = new byte[length];
+		readFully(in, payload, length);
+		return new Http2Frame(header[3] & 0xff, header[4] & 0xff, streamId, payload);
+	}
+
+	private static void readFully(InputStream in, byte[] buffer, int length)
+			throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(buffer, read, length - read);
+			if (n < 0) {
+				throw new EOFException("Connection closed");
+			}
+			read += n;
+		}
+	}
+
+	/**
+	 * writes a frame, the caller flushes the stream
+	 */
+	static void write(OutputStream out, int type, int flags, int streamId, byte[] payload,
+			int offset, int length) throws IOException {
+		byte[] header = new byte[HEADER_LENGTH];
+		header[0] = (byte) (length >>> 16);
+		header[1] = (byte) (length >>> 8);
+		header[2] = (byte) length;
+		header[3] = (byte) type;
+		header[4] = (byte) flags;
+		putInt(header, 5, streamId);
+		out.write(header);
+		out.write(payload, offset, length);
+	}
+
+	static void write(OutputStream out, int type, int flags, int streamId, byte[] payload)
+			throws IOException {
+		write(out, type, flags, streamId, payload, 0, payload.length);
+	}
+
+	/**
+	 * @return the payload of a SETTINGS frame
+	 */
+	static byte[] settings(int... identifiersAndValues) {
+		byte[] payload = new byte[identifiersAndValues.length * 3];
+		for (int i = 0; i < identifiersAndValues.length; i += 2) {
+			payload[i * 3] = (byte) (identifiersAndValues[i] >>> 8);
+			payload[i * 3 + 1] = (byte) identifiersAndValues[i];
+			putInt(payload, i * 3 + 2, identifiersAndValues[i + 1]);
+		}
+		return payload;
+	}
+
+	/**
+	 * @return a payload made of 32 bit integers
+	 */
+	static byte[] ints(int... values) {
+		byte[] payload = new byte[values.length * 4];
+		for (int i = 0; i < values.length; i++) {
+			putInt(payload, i * 4, values[i]);
+		}
+		return payload;
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	@Override
+	public String toString() {
+		return "type " + type + " flags " + flags + " stream " + streamId + " length "
+				+ payload.length;
+	}
+}
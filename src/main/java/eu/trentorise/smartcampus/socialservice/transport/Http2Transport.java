@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Transport multiplexing the concurrent calls as streams of a few HTTP/2
+ * connections per host, so a slow call does not hold a connection and a
+ * burst of calls does not open a connection each.
+ * 
+ * A call uses the least busy connection with a free stream, a new connection
+ * is opened only when all the open ones have as many streams as allowed by
+ * the server, or by this transport if lower. Calls beyond the streams of
+ * all the connections wait for one to end.
+ * 
+ * Http service urls are reached with HTTP/2 over cleartext, so the server
+ * must accept it without an upgrade from HTTP/1.1. Https urls negotiate
+ * HTTP/2 during the TLS handshake, which needs a Java runtime supporting
+ * ALPN.
+ * 
+ * Like {@link HttpClientTransport} it honours the {@link CallContext} of the
+ * requests, resetting the stream of a cancelled call, and their
+ * {@link Request#getMaxResponseBytes()}.
+ */
+public class Http2Transport implements Transport, Prewarmable {
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 2;
+	public static final int DEFAULT_MAX_STREAMS = 100;
+
+	/** connection specific headers, not allowed in HTTP/2 */
+	private static final String[] CONNECTION_HEADERS = { "connection", "host", "keep-alive",
+			"proxy-connection", "transfer-encoding", "upgrade" };
+
+	private final int maxConnections;
+	private final int maxStreams;
+	private final int timeout;
+
+	/** connections by origin, guarded by itself */
+	private final Map<String, List<Slot>> pool = new HashMap<String, List<Slot>>();
+	private boolean shutdown;
+
+	public Http2Transport() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_STREAMS, HttpClientTransport.DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            max number of connections per host
+	 * @param maxStreams
+	 *            max number of concurrent calls per connection, the server
+	 *            may allow fewer
+	 * @param timeout
+	 *            connect and response timeout in milliseconds
+	 */
+	public Http2Transport(int maxConnections, int maxStreams, int timeout) {
+		if (maxConnections < 1 || maxStreams < 1) {
+			throw new IllegalArgumentException("At least a connection and a stream are needed");
+		}
+		this.maxConnections = maxConnections;
+		this.maxStreams = maxStreams;
+		this.timeout = timeout;
+	}
+
+	@Override
+	public Response execute(Request request) throws SecurityException, RemoteException {
+		URI uri = URI.create(request.getServiceUrl() + request.getPath()
+				+ HttpClientTransport.query(request.getParameters()));
+		CallContext context = request.getContext();
+		long deadline = System.currentTimeMillis() + timeout;
+		// true if the timeouts are those of the deadline
+		boolean deadlineTimeouts = false;
+		if (context != null && context.hasDeadline()) {
+			long remaining = context.remainingMillis();
+			deadlineTimeouts = remaining <= timeout;
+			deadline = System.currentTimeMillis() + Math.min(remaining, timeout);
+		}
+		List<String> headers = headers(request, uri);
+		try {
+			Http2Connection.Stream stream;
+			for (int attempt = 0;; attempt++) {
+				Slot slot = acquire(uri, deadline);
+				try {
+					stream = exchange(slot.connection, request, headers, deadline);
+					break;
+				} catch (Http2Connection.RefusedStreamException e) {
+					// not processed by the server, sent again once
+					if (attempt > 0) {
+						throw e;
+					}
+				} finally {
+					release(slot);
+				}
+			}
+			int status = stream.getStatus();
+			if (stream.isTooLarge()) {
+				throw new ResponseTooLargeException("Response of " + stream.getLength()
+						+ " bytes or more exceeds the limit of " + request.getMaxResponseBytes()
+						+ " bytes", request.getMaxResponseBytes());
+			}
+			if (status == 401 || status == 403) {
+				throw new SecurityException("Access denied to " + request + ": " + status);
+			}
+			if (status >= 300) {
+				throw new StatusException(status, "Error " + status + " calling " + request);
+			}
+			byte[] body = stream.getBody();
+			return new Response(status, stream.getContentType(), body.length == 0 ? null : body);
+		} catch (IOException e) {
+			if (context != null
+					&& (context.isDone() || deadlineTimeouts && e instanceof InterruptedIOException)) {
+				throw context.aborted(e);
+			}
+			throw new RemoteException(e);
+		}
+	}
+
+	private Http2Connection.Stream exchange(final Http2Connection connection,
+			Request request, List<String> headers, long deadline) throws IOException {
+		byte[] body = request.getBody();
+		boolean hasBody = body != null && body.length > 0;
+		final Http2Connection.Stream stream = connection.open(headers, !hasBody,
+				request.getMaxResponseBytes());
+		CallContext context = request.getContext();
+		Runnable cancel = null;
+		try {
+			if (context != null) {
+				cancel = new Runnable() {
+					@Override
+					public void run() {
+						connection.cancel(stream);
+					}
+				};
+				context.addListener(cancel);
+			}
+			if (hasBody) {
+				connection.send(stream, body, deadline);
+			}
+			stream.await(deadline);
+			return stream;
+		} finally {
+			if (cancel != null) {
+				context.removeListener(cancel);
+			}
+			// no-op if the response is complete
+			connection.reset(stream, Http2Frame.CANCEL);
+		}
+	}
+
+	private static List<String> headers(Request request, URI uri) {
+		List<String> headers = new ArrayList<String>(16);
+		String path = uri.getRawPath() == null || uri.getRawPath().length() == 0 ? "/" : uri
+				.getRawPath();
+		add(headers, ":method", request.getMethod());
+		add(headers, ":scheme", uri.getScheme().toLowerCase(Locale.ENGLISH));
+		add(headers, ":authority", uri.getRawAuthority());
+		add(headers, ":path", uri.getRawQuery() == null ? path : path + '?' + uri.getRawQuery());
+		add(headers, "accept", request.getAccept());
+		if (request.getToken() != null) {
+			add(headers, "authorization", "Bearer " + request.getToken());
+		}
+		if (request.getBody() != null) {
+			add(headers, "content-type", request.getContentType());
+			add(headers, "content-length", String.valueOf(request.getBody().length));
+		}
+		for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+			String name = header.getKey().toLowerCase(Locale.ENGLISH);
+			if (!isConnectionHeader(name)) {
+				add(headers, name, header.getValue());
+			}
+		}
+		return headers;
+	}
+
+	private static void add(List<String> headers, String name, String value) {
+		if (value != null) {
+			headers.add(name);
+			headers.add(value);
+		}
+	}
+
+	private static boolean isConnectionHeader(String name) {
+		for (String header : CONNECTION_HEADERS) {
+			if (header.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * reserves a stream of the least busy connection to the host of a url,
+	 * opening a connection if all are busy. The connection is opened outside
+	 * the lock of the pool, so the other calls keep using the open ones.
+	 */
+	private Slot acquire(URI uri, long deadline) throws IOException {
+		List<Slot> slots;
+		Slot connecting;
+		long wait;
+		synchronized (pool) {
+			while (true) {
+				slots = slots(uri);
+				Slot best = null;
+				for (Iterator<Slot> i = slots.iterator(); i.hasNext();) {
+					Slot slot = i.next();
+					if (slot.connection == null) {
+						// still connecting
+						continue;
+					}
+					if (!slot.connection.isUsable()) {
+						// closed when its streams end
+						i.remove();
+					} else if (slot.hasCapacity(maxStreams)
+							&& (best == null || slot.active < best.active)) {
+						best = slot;
+					}
+				}
+				wait = deadline - System.currentTimeMillis();
+				if (best != null) {
+					best.active++;
+					return best;
+				}
+				if (slots.size() < maxConnections && wait > 0) {
+					connecting = new Slot();
+					connecting.active = 1;
+					slots.add(connecting);
+					break;
+				}
+				if (wait <= 0) {
+					throw new SocketTimeoutException("No HTTP/2 stream available to "
+							+ uri.getRawAuthority());
+				}
+				try {
+					pool.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for a stream");
+				}
+			}
+		}
+		connect(uri, slots, connecting, (int) Math.min(wait, timeout));
+		return connecting;
+	}
+
+	/**
+	 * opens the connection of a slot reserved in the connections of a host,
+	 * publishing it or removing the slot if the connection fails
+	 */
+	private void connect(URI uri, List<Slot> slots, Slot slot, int connectTimeout)
+			throws IOException {
+		Http2Connection connection = null;
+		boolean closed;
+		try {
+			connection = Http2Connection.open(uri, connectTimeout);
+		} finally {
+			synchronized (pool) {
+				closed = shutdown;
+				if (connection != null && !closed) {
+					slot.connection = connection;
+				} else {
+					slots.remove(slot);
+				}
+				pool.notifyAll();
+			}
+		}
+		if (closed) {
+			connection.close();
+			throw new IOException("Transport shut down");
+		}
+	}
+
+	private void release(Slot slot) {
+		synchronized (pool) {
+			slot.active--;
+			pool.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the connections of the host of a url, guarded by the pool
+	 */
+	private List<Slot> slots(URI uri) throws IOException {
+		if (shutdown) {
+			throw new IOException("Transport shut down");
+		}
+		String origin = uri.getScheme().toLowerCase(Locale.ENGLISH) + "://"
+				+ uri.getRawAuthority();
+		List<Slot> slots = pool.get(origin);
+		if (slots == null) {
+			slots = new ArrayList<Slot>(maxConnections);
+			pool.put(origin, slots);
+		}
+		return slots;
+	}
+
+	/**
+	 * opens connections until the host has the given number, unlike a pool of
+	 * HTTP/1.1 connections one connection serves many concurrent calls
+	 */
+	@Override
+	public int prewarm(String serviceUrl, int connections, long timeoutMillis)
+			throws IOException {
+		URI uri = URI.create(serviceUrl);
+		int target = Math.min(connections, maxConnections);
+		while (true) {
+			List<Slot> slots;
+			Slot connecting = new Slot();
+			synchronized (pool) {
+				slots = slots(uri);
+				if (slots.size() >= target) {
+					return Math.min(open(slots), target);
+				}
+				slots.add(connecting);
+			}
+			try {
+				connect(uri, slots, connecting, (int) Math.min(timeoutMillis, timeout));
+			} catch (IOException e) {
+				synchronized (pool) {
+					if (open(slots) == 0) {
+						throw e;
+					}
+					return Math.min(open(slots), target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of open connections of a host, guarded by the pool
+	 */
+	private static int open(List<Slot> slots) {
+		int count = 0;
+		for (Slot slot : slots) {
+			if (slot.connection != null && slot.connection.isUsable()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of open connections to all the hosts
+	 */
+	public int getConnectionCount() {
+		synchronized (pool) {
+			int count = 0;
+			for (List<Slot> slots : pool.values()) {
+				count += open(slots);
+			}
+			return count;
+		}
+	}
+
+	@Override
+	public boolean sendsHeaders() {
+		return true;
+	}
+
+	@Override
+	public void shutdown() {
+		synchronized (pool) {
+			shutdown = true;
+			for (List<Slot> slots : pool.values()) {
+				for (Slot slot : slots) {
+					if (slot.connection != null) {
+						slot.connection.close();
+					}
+				}
+			}
+			pool.clear();
+			pool.notifyAll();
+		}
+	}
+
+	/**
+	 * pooled connection with its number of calls, guarded by the pool. The
+	 * connection is null while it is being opened.
+	 */
+	private static final class Slot {
+		Http2Connection connection;
+		int active;
+
+		boolean hasCapacity(int maxStreams) {
+			return active < Math.min(maxStreams, connection.getMaxConcurrentStreams());
+		}
+	}
+}
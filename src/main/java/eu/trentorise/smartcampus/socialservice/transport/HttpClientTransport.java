@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Transport using a pooled Apache {@link HttpClient}. Unlike
+ * {@link RemoteConnectorTransport} it sends the Accept value and the
+ * additional headers of the requests, and returns the raw response bytes
+ * with their content type, so binary formats can be negotiated.
+ * 
+ * The timeouts of a call with a {@link CallContext} deadline are reduced to
+ * the time left, and the exchange is aborted when the context is done. A
+ * response larger than {@link Request#getMaxResponseBytes()} is aborted as
+ * soon as its declared length or the bytes read exceed the limit.
+ * 
+ * The pool can be filled before the first call with
+ * {@link #prewarm(String, int, long)}. Https connections use the default
+ * SSL context, whose session cache lets the connections opened later resume
+ * the TLS sessions of the pre-warmed ones.
+ */
+public class HttpClientTransport implements Transport, Prewarmable {
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	public static final int DEFAULT_TIMEOUT = 30000;
+
+	private final ThreadSafeClientConnManager connectionManager;
+	private final HttpClient client;
+	private final int maxConnections;
+
+	public HttpClientTransport() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            size of the connection pool
+	 * @param timeout
+	 *            connect and read timeout in milliseconds
+	 */
+	public HttpClientTransport(int maxConnections, int timeout) {
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, timeout);
+		HttpConnectionParams.setSoTimeout(params, timeout);
+		ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(
+				maxConnections));
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		connectionManager = new ThreadSafeClientConnManager(params, registry);
+		client = new DefaultHttpClient(connectionManager, params);
+		this.maxConnections = maxConnections;
+	}
+
+	@Override
+	public Response execute(Request request) throws SecurityException,
+			RemoteException {
+		final HttpRequestBase http = create(request);
+		CallContext context = request.getContext();
+		Runnable abort = null;
+		// true if the socket timeouts are those of the deadline
+		boolean deadlineTimeouts = false;
+		if (context != null) {
+			if (context.hasDeadline()) {
+				int remaining = (int) Math.min(context.remainingMillis(), Integer.MAX_VALUE);
+				HttpConnectionParams.setConnectionTimeout(http.getParams(), remaining);
+				HttpConnectionParams.setSoTimeout(http.getParams(), remaining);
+				deadlineTimeouts = remaining <= HttpConnectionParams.getSoTimeout(client.getParams());
+			}
+			abort = new Runnable() {
+				@Override
+				public void run() {
+					http.abort();
+				}
+			};
+			context.addListener(abort);
+		}
+		try {
+			HttpResponse response = client.execute(http);
+			int status = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+			byte[] body = entity == null ? null : read(entity, request.getMaxResponseBytes());
+			if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN) {
+				throw new SecurityException("Access denied to " + request + ": " + status);
+			}
+			if (status >= 300) {
+				throw new StatusException(status, "Error " + status + " calling " + request);
+			}
+			Header contentType = response.getFirstHeader("Content-Type");
+			return new Response(status, contentType == null ? null : contentType.getValue(), body);
+		} catch (IOException e) {
+			http.abort();
+			// a timeout may fire just before the timer of the deadline
+			if (context != null
+					&& (context.isDone() || deadlineTimeouts && e instanceof InterruptedIOException)) {
+				throw context.aborted(e);
+			}
+			throw new RemoteException(e);
+		} catch (ResponseTooLargeException e) {
+			// drops the connection instead of reading the rest of the body
+			http.abort();
+			throw e;
+		} catch (RuntimeException e) {
+			http.abort();
+			throw e;
+		} finally {
+			if (abort != null) {
+				context.removeListener(abort);
+			}
+		}
+	}
+
+	@Override
+	public int prewarm(String serviceUrl, int connections, long timeoutMillis)
+			throws IOException {
+		URI uri = URI.create(serviceUrl);
+		// the route the requests to the service will be planned on
+		HttpHost target = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+		boolean secure = connectionManager.getSchemeRegistry()
+				.getScheme(target.getSchemeName()).isLayered();
+		final HttpRoute route = new HttpRoute(target, null, secure);
+
+		List<ManagedClientConnection> held = new ArrayList<ManagedClientConnection>();
+		try {
+			// held together, so each request gets a distinct connection
+			for (int i = 0; i < Math.min(connections, maxConnections); i++) {
+				try {
+					held.add(connectionManager.requestConnection(route, null)
+							.getConnection(timeoutMillis, TimeUnit.MILLISECONDS));
+				} catch (ConnectionPoolTimeoutException e) {
+					// the other connections are in use
+					break;
+				}
+			}
+			return open(route, held);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Pre-warming interrupted");
+		} finally {
+			for (ManagedClientConnection connection : held) {
+				if (connection.isOpen()) {
+					connection.markReusable();
+				}
+				connectionManager.releaseConnection(connection, 0, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * opens the connections in parallel, each one within the connect and read
+	 * timeouts of the client
+	 */
+	private int open(final HttpRoute route, List<ManagedClientConnection> held)
+			throws IOException, InterruptedException {
+		final HttpParams params = client.getParams();
+		final AtomicInteger opened = new AtomicInteger();
+		final IOException[] failure = new IOException[1];
+		final CountDownLatch done = new CountDownLatch(held.size());
+		for (final ManagedClientConnection connection : held) {
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!connection.isOpen()) {
+							connection.open(route, new BasicHttpContext(), params);
+						}
+						opened.incrementAndGet();
+					} catch (IOException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "socialservice-prewarm");
+			t.setDaemon(true);
+			t.start();
+		}
+		done.await();
+		synchronized (failure) {
+			if (opened.get() == 0 && failure[0] != null) {
+				throw failure[0];
+			}
+		}
+		return opened.get();
+	}
+
+	@Override
+	public boolean sendsHeaders() {
+		return true;
+	}
+
+	@Override
+	public void shutdown() {
+		connectionManager.shutdown();
+	}
+
+	/**
+	 * @return the underlying client
+	 */
+	public HttpClient getHttpClient() {
+		return client;
+	}
+
+	protected HttpRequestBase create(Request request) {
+		String uri = request.getServiceUrl() + request.getPath()
+				+ query(request.getParameters());
+		HttpRequestBase http;
+		if (Request.GET.equals(request.getMethod())) {
+			http = new HttpGet(uri);
+		} else if (Request.POST.equals(request.getMethod())) {
+			http = new HttpPost(uri);
+		} else if (Request.PUT.equals(request.getMethod())) {
+			http = new HttpPut(uri);
+		} else if (Request.DELETE.equals(request.getMethod())) {
+			http = new HttpDelete(uri);
+		} else if (Request.PATCH.equals(request.getMethod())) {
+			http = new HttpPatch(uri);
+		} else {
+			throw new IllegalArgumentException("Unsupported method " + request.getMethod());
+		}
+		http.setHeader("Accept", request.getAccept());
+		if (request.getToken() != null) {
+			http.setHeader("Authorization", "Bearer " + request.getToken());
+		}
+		for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+			http.setHeader(header.getKey(), header.getValue());
+		}
+		if (request.getBody() != null && http instanceof HttpEntityEnclosingRequestBase) {
+			ByteArrayEntity entity = new ByteArrayEntity(request.getBody());
+			entity.setContentType(request.getContentType());
+			((HttpEntityEnclosingRequestBase) http).setEntity(entity);
+		}
+		return http;
+	}
+
+	private static byte[] read(HttpEntity entity, long limit) throws IOException,
+			ResponseTooLargeException {
+		if (limit < 0) {
+			return EntityUtils.toByteArray(entity);
+		}
+		if (entity.getContentLength() > limit) {
+			throw tooLarge(entity.getContentLength(), limit);
+		}
+		InputStream in = entity.getContent();
+		if (in == null) {
+			return null;
+		}
+		// closing the stream drains it, the failed reads are aborted instead
+		boolean complete = false;
+		try {
+			long length = entity.getContentLength();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 4096);
+			byte[] buffer = new byte[4096];
+			long total = 0;
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				total += n;
+				if (total > limit) {
+					throw tooLarge(total, limit);
+				}
+				out.write(buffer, 0, n);
+			}
+			complete = true;
+			return out.toByteArray();
+		} finally {
+			if (complete) {
+				in.close();
+			}
+		}
+	}
+
+	private static ResponseTooLargeException tooLarge(long length, long limit) {
+		return new ResponseTooLargeException("Response of " + length
+				+ " bytes or more exceeds the limit of " + limit + " bytes", limit);
+	}
+
+	/**
+	 * PATCH request, missing in httpclient 4.0
+	 */
+	private static final class HttpPatch extends HttpEntityEnclosingRequestBase {
+
+		HttpPatch(String uri) {
+			setURI(URI.create(uri));
+		}
+
+		@Override
+		public String getMethod() {
+			return Request.PATCH;
+		}
+	}
+
+	/**
+	 * encodes the parameters, collection values are sent as repeated
+	 * parameters and null values are skipped
+	 */
+	static String query(Map<String, Object> parameters) {
+		if (parameters == null || parameters.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		try {
+			for (Map.Entry<String, Object> e : parameters.entrySet()) {
+				if (e.getValue() == null) {
+					continue;
+				}
+				Collection<?> values = e.getValue() instanceof Collection ? (Collection<?>) e
+						.getValue() : Collections.singleton(e.getValue());
+				for (Object value : values) {
+					sb.append(sb.length() == 0 ? '?' : '&')
+							.append(URLEncoder.encode(e.getKey(), "UTF-8")).append('=')
+							.append(URLEncoder.encode(String.valueOf(value), "UTF-8"));
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.IOException;
+
+/**
+ * {@link Transport} able to open its connections before the first call
+ */
+public interface Prewarmable {
+
+	/**
+	 * opens pooled connections to the host of the service, completing the
+	 * TLS handshake of https connections
+	 * 
+	 * @param serviceUrl
+	 *            base url of the service
+	 * @param connections
+	 *            number of connections to open, capped to the pool size
+	 * @param timeoutMillis
+	 *            max time to wait for a free connection of the pool
+	 * @return number of connections opened
+	 * @throws IOException
+	 *             if no connection could be opened
+	 */
+	int prewarm(String serviceUrl, int connections, long timeoutMillis)
+			throws IOException;
+}
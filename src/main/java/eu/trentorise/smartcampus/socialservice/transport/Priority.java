@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+/**
+ * Scheduling class of the service calls made while it is attached to the
+ * thread, e.g.
+ * 
+ * <pre>
+ * Priority previous = Priority.BULK.attach();
+ * try {
+ * 	socialService.getCommunityEntities(communityId, token, 0, 1000, null);
+ * } finally {
+ * 	Priority.restore(previous);
+ * }
+ * </pre>
+ * 
+ * Calls are {@link #NORMAL} unless tagged otherwise. Classes only matter to
+ * a transport scheduling the calls, like {@link PriorityTransport}.
+ */
+public enum Priority {
+
+	/** calls a user is waiting for */
+	INTERACTIVE(8),
+	/** default class */
+	NORMAL(4),
+	/** exports, synchronizations and other batch jobs */
+	BULK(1);
+
+	private static final ThreadLocal<Priority> current = new ThreadLocal<Priority>();
+
+	private final int weight;
+
+	private Priority(int weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * @return share of the calls started for this class when all the classes
+	 *         have calls waiting
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return the class attached to the current thread, {@link #NORMAL} if
+	 *         none
+	 */
+	public static Priority current() {
+		Priority priority = current.get();
+		return priority == null ? NORMAL : priority;
+	}
+
+	/**
+	 * attaches the class to the current thread
+	 * 
+	 * @return the previous class, to be restored with
+	 *         {@link #restore(Priority)}
+	 */
+	public Priority attach() {
+		Priority previous = current.get();
+		current.set(this);
+		return previous;
+	}
+
+	/**
+	 * restores the class replaced by {@link #attach()}
+	 */
+	public static void restore(Priority previous) {
+		if (previous == null) {
+			current.remove();
+		} else {
+			current.set(previous);
+		}
+	}
+}
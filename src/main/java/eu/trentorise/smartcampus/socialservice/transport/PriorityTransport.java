@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * {@link Transport} starting the calls by {@link Priority} instead of in
+ * arrival order, so interactive calls do not queue behind batch jobs.
+ * 
+ * At most a given number of calls run at a time, keep it below the
+ * connection pool of the underlying transport. When a slot frees up, the
+ * next call is chosen by weighted fair queuing among the classes with calls
+ * waiting: over time each class gets starts in proportion to its
+ * {@link Priority#getWeight() weight}, and calls of the same class start in
+ * arrival order. Some slots can be reserved to interactive calls, so they
+ * start at once even while the batch jobs keep the other slots busy. A call
+ * waiting longer than the starvation limit is started before any other, so
+ * lower classes slow down but never stop.
+ * 
+ * Queued calls give up when their {@link CallContext} is done.
+ */
+public class PriorityTransport implements Transport, Prewarmable {
+
+	public static final long DEFAULT_MAX_STARVATION_MILLIS = 2000;
+
+	/** virtual time advanced by a start of a class of weight 1 */
+	private static final long STRIDE = 1 << 16;
+
+	private static final Priority[] PRIORITIES = Priority.values();
+
+	private final Transport transport;
+	private final int maxActive;
+	private final int reserved;
+	private final long maxStarvationNanos;
+
+	// guarded by this
+	private final List<Deque<Waiter>> queues;
+	private final long[] pass = new long[PRIORITIES.length];
+	private final long[] started = new long[PRIORITIES.length];
+	private final long[] waitNanos = new long[PRIORITIES.length];
+	private long virtualTime;
+	private int active;
+
+	/**
+	 * one slot out of four, at least one, is reserved to interactive calls
+	 * 
+	 * @param transport
+	 *            transport executing the calls
+	 * @param maxActive
+	 *            max number of calls run at the same time
+	 */
+	public PriorityTransport(Transport transport, int maxActive) {
+		this(transport, maxActive, maxActive > 1 ? Math.max(1, maxActive / 4) : 0,
+				DEFAULT_MAX_STARVATION_MILLIS);
+	}
+
+	/**
+	 * @param transport
+	 *            transport executing the calls
+	 * @param maxActive
+	 *            max number of calls run at the same time
+	 * @param reserved
+	 *            slots only interactive calls can take
+	 * @param maxStarvationMillis
+	 *            max time a call waits while calls of other classes start
+	 */
+	public PriorityTransport(Transport transport, int maxActive, int reserved,
+			long maxStarvationMillis) {
+		if (maxActive < 1 || reserved < 0 || reserved >= maxActive || maxStarvationMillis < 0) {
+			throw new IllegalArgumentException("Invalid max active " + maxActive + ", reserved "
+					+ reserved + ", max starvation " + maxStarvationMillis);
+		}
+		this.transport = transport;
+		this.maxActive = maxActive;
+		this.reserved = reserved;
+		this.maxStarvationNanos = TimeUnit.MILLISECONDS.toNanos(maxStarvationMillis);
+		this.queues = new ArrayList<Deque<Waiter>>(PRIORITIES.length);
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			queues.add(new ArrayDeque<Waiter>());
+		}
+	}
+
+	@Override
+	public Response execute(Request request) throws SecurityException, RemoteException {
+		Priority priority = request.getPriority();
+		acquire(request, priority);
+		try {
+			return transport.execute(request);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * @return number of calls of the class waiting to start
+	 */
+	public synchronized int getQueued(Priority priority) {
+		return queues.get(priority.ordinal()).size();
+	}
+
+	/**
+	 * @return number of calls of the class started
+	 */
+	public synchronized long getStarted(Priority priority) {
+		return started[priority.ordinal()];
+	}
+
+	/**
+	 * @return mean time in milliseconds the started calls of the class
+	 *         waited for a slot
+	 */
+	public synchronized double getMeanWaitMillis(Priority priority) {
+		int i = priority.ordinal();
+		return started[i] == 0 ? 0 : waitNanos[i] / 1e6 / started[i];
+	}
+
+	/**
+	 * @return the underlying transport
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public int prewarm(String serviceUrl, int connections, long timeoutMillis)
+			throws IOException {
+		if (transport instanceof Prewarmable) {
+			return ((Prewarmable) transport).prewarm(serviceUrl, connections, timeoutMillis);
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean sendsHeaders() {
+		return transport.sendsHeaders();
+	}
+
+	@Override
+	public void shutdown() {
+		transport.shutdown();
+	}
+
+	private void acquire(Request request, Priority priority) throws RemoteException {
+		final CallContext context = request.getContext();
+		Waiter waiter = new Waiter(priority);
+		Runnable wakeUp = null;
+		synchronized (this) {
+			if (queuesEmpty() && active < limit(priority)) {
+				start(waiter);
+				return;
+			}
+			Deque<Waiter> queue = queues.get(priority.ordinal());
+			if (queue.isEmpty()) {
+				// an idle class does not bank the time it has not used
+				pass[priority.ordinal()] = Math.max(pass[priority.ordinal()], virtualTime);
+			}
+			queue.addLast(waiter);
+			dispatch();
+		}
+		try {
+			if (context != null) {
+				wakeUp = new Runnable() {
+					@Override
+					public void run() {
+						synchronized (PriorityTransport.this) {
+							PriorityTransport.this.notifyAll();
+						}
+					}
+				};
+				context.addListener(wakeUp);
+			}
+			synchronized (this) {
+				while (!waiter.started) {
+					if (context != null && context.isDone()) {
+						queues.get(priority.ordinal()).remove(waiter);
+						throw context.aborted(null);
+					}
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						if (waiter.started) {
+							// started while interrupted, the slot goes to the next call
+							release();
+						} else {
+							queues.get(priority.ordinal()).remove(waiter);
+						}
+						Thread.currentThread().interrupt();
+						throw new RemoteException("Interrupted waiting to call " + request);
+					}
+				}
+			}
+		} finally {
+			if (wakeUp != null) {
+				context.removeListener(wakeUp);
+			}
+		}
+	}
+
+	private synchronized void release() {
+		active--;
+		dispatch();
+	}
+
+	/**
+	 * starts waiting calls while there are free slots
+	 */
+	private void dispatch() {
+		boolean notify = false;
+		Waiter next;
+		while ((next = next()) != null) {
+			queues.get(next.priority.ordinal()).removeFirst();
+			start(next);
+			notify = true;
+		}
+		if (notify) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return the call to start, null if none can start now
+	 */
+	private Waiter next() {
+		if (active >= maxActive) {
+			return null;
+		}
+		long now = System.nanoTime();
+		Waiter chosen = null;
+		Waiter starving = null;
+		for (Deque<Waiter> queue : queues) {
+			Waiter head = queue.peekFirst();
+			if (head == null || active >= limit(head.priority)) {
+				continue;
+			}
+			if (now - head.enqueued >= maxStarvationNanos
+					&& (starving == null || head.enqueued - starving.enqueued < 0)) {
+				starving = head;
+			}
+			if (chosen == null || pass[head.priority.ordinal()] < pass[chosen.priority.ordinal()]) {
+				chosen = head;
+			}
+		}
+		return starving != null ? starving : chosen;
+	}
+
+	private void start(Waiter waiter) {
+		int i = waiter.priority.ordinal();
+		waiter.started = true;
+		active++;
+		started[i]++;
+		waitNanos[i] += System.nanoTime() - waiter.enqueued;
+		virtualTime = Math.max(virtualTime, pass[i]);
+		pass[i] += STRIDE / waiter.priority.getWeight();
+	}
+
+	private int limit(Priority priority) {
+		return priority == Priority.INTERACTIVE ? maxActive : maxActive - reserved;
+	}
+
+	private boolean queuesEmpty() {
+		for (Deque<Waiter> queue : queues) {
+			if (!queue.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * call waiting for a slot
+	 */
+	private static final class Waiter {
+		final Priority priority;
+		final long enqueued = System.nanoTime();
+		// guarded by the transport
+		boolean started;
+
+		Waiter(Priority priority) {
+			this.priority = priority;
+		}
+	}
+}
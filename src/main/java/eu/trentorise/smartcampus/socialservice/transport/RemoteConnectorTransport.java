@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.trentorise.smartcampus.network.RemoteConnector;
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Default transport, sending the requests through {@link RemoteConnector}.
+ * The connector exchanges JSON text only: the Accept value and the
+ * additional headers of the requests are not sent, and PATCH requests fail
+ * with a 405 {@link StatusException}. The connector buffers the whole
+ * response, so {@link Request#getMaxResponseBytes()} is checked only once it
+ * has been read, preventing its decoding but not its buffering. The text of
+ * the response is handed to the JSON codec as is, without converting it to
+ * bytes.
+ * 
+ * The connector cannot be aborted, so a call with a {@link CallContext} runs
+ * on a pooled thread: when the context is done the caller returns at once
+ * with a {@link CallAbortedException}, while the pooled thread is
+ * interrupted and left to complete the exchange. Deadlines and cancellation
+ * therefore only abandon the call: the request may still reach the server
+ * and the connection is held until the exchange ends. Use
+ * {@link HttpClientTransport} to actually abort the exchange.
+ * 
+ * The pool holds at most {@value #MAX_THREADS} threads, shared by all the
+ * instances: a call with a context arriving while all of them are busy,
+ * including those still completing abandoned exchanges, is rejected with a
+ * {@link RemoteException}.
+ */
+public class RemoteConnectorTransport implements Transport {
+
+	/** maximum number of threads running calls with a context */
+	public static final int MAX_THREADS = 32;
+
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			0, MAX_THREADS, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "socialservice-connector-"
+							+ count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	@Override
+	public Response execute(final Request request) throws SecurityException,
+			RemoteException {
+		CallContext context = request.getContext();
+		if (context == null) {
+			return call(request);
+		}
+		context.check();
+		final FutureTask<Response> task = new FutureTask<Response>(
+				new Callable<Response>() {
+					@Override
+					public Response call() throws Exception {
+						return RemoteConnectorTransport.this.call(request);
+					}
+				});
+		Runnable cancel = new Runnable() {
+			@Override
+			public void run() {
+				task.cancel(true);
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			throw new RemoteException("All the " + MAX_THREADS
+					+ " connector threads are busy");
+		}
+		context.addListener(cancel);
+		try {
+			return task.get();
+		} catch (CancellationException e) {
+			throw context.aborted(e);
+		} catch (InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RemoteException) {
+				throw (RemoteException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RemoteException(cause);
+		} finally {
+			context.removeListener(cancel);
+		}
+	}
+
+	private Response call(Request request) throws SecurityException,
+			RemoteException {
+		String body = text(request.getBody());
+		String json;
+		if (Request.GET.equals(request.getMethod())) {
+			json = RemoteConnector.getJSON(request.getServiceUrl(), request.getPath(),
+					request.getToken(), request.getParameters());
+		} else if (Request.POST.equals(request.getMethod())) {
+			json = RemoteConnector.postJSON(request.getServiceUrl(), request.getPath(),
+					body, request.getToken(), request.getParameters());
+		} else if (Request.PUT.equals(request.getMethod())) {
+			json = RemoteConnector.putJSON(request.getServiceUrl(), request.getPath(),
+					body, request.getToken(), request.getParameters());
+		} else if (Request.DELETE.equals(request.getMethod())) {
+			json = RemoteConnector.deleteJSON(request.getServiceUrl(), request.getPath(),
+					request.getToken(), request.getParameters());
+		} else if (Request.PATCH.equals(request.getMethod())) {
+			throw new StatusException(405, "PATCH not supported by RemoteConnector");
+		} else {
+			throw new IllegalArgumentException("Unsupported method " + request.getMethod());
+		}
+		long limit = request.getMaxResponseBytes();
+		// UTF-8 takes at most three bytes per char
+		if (limit >= 0 && json != null && json.length() * 3L > limit) {
+			long length = utf8Length(json);
+			if (length > limit) {
+				throw new ResponseTooLargeException("Response of " + length
+						+ " bytes exceeds the limit of " + limit + " bytes", limit);
+			}
+		}
+		// the text is decoded as is by the JSON codec
+		return Response.text(200, Request.JSON, json);
+	}
+
+	@Override
+	public boolean sendsHeaders() {
+		return false;
+	}
+
+	@Override
+	public void shutdown() {
+	}
+
+	private static long utf8Length(String s) {
+		long length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static String text(byte[] body) {
+		try {
+			return body == null ? null : new String(body, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
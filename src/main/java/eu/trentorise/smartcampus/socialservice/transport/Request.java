@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP request of a service operation
+ */
+public class Request {
+
+	public static final String GET = "GET";
+	public static final String POST = "POST";
+	public static final String PUT = "PUT";
+	public static final String DELETE = "DELETE";
+	public static final String PATCH = "PATCH";
+
+	public static final String JSON = "application/json";
+	public static final String MERGE_PATCH = "application/merge-patch+json";
+
+	private final String method;
+	private final String serviceUrl;
+	private final String path;
+	private final String token;
+	private String operation;
+	private String template;
+	private String communityId;
+	private Map<String, Object> parameters;
+	private byte[] body;
+	private String contentType = JSON;
+	private String accept = JSON;
+	private Map<String, String> headers = Collections.emptyMap();
+	private CallContext context;
+	private Priority priority = Priority.NORMAL;
+	private long maxResponseBytes = -1;
+
+	/**
+	 * @param method
+	 *            HTTP method
+	 * @param serviceUrl
+	 *            base url of the service, ending with a slash
+	 * @param path
+	 *            encoded path relative to the service url
+	 * @param token
+	 *            access token
+	 */
+	public Request(String method, String serviceUrl, String path, String token) {
+		this.method = method;
+		this.serviceUrl = serviceUrl;
+		this.path = path;
+		this.token = token;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getServiceUrl() {
+		return serviceUrl;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * @return name of the client operation, e.g. getCommunity, may be null
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	/**
+	 * @return path template of the operation, e.g.
+	 *         <code>community/{communityId}</code>, may be null
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	public void setTemplate(String template) {
+		this.template = template;
+	}
+
+	/**
+	 * @return id of the community the operation works on, null if the
+	 *         operation is not about a community
+	 */
+	public String getCommunityId() {
+		return communityId;
+	}
+
+	public void setCommunityId(String communityId) {
+		this.communityId = communityId;
+	}
+
+	/**
+	 * @return query parameters, may be null
+	 */
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	public void setParameters(Map<String, Object> parameters) {
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return request body, null if the request has no body
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	public void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @return value of the Accept header
+	 */
+	public String getAccept() {
+		return accept;
+	}
+
+	public void setAccept(String accept) {
+		this.accept = accept;
+	}
+
+	/**
+	 * @return additional headers of the request
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public void setHeader(String name, String value) {
+		if (headers.isEmpty()) {
+			headers = new LinkedHashMap<String, String>(4);
+		}
+		headers.put(name, value);
+	}
+
+	/**
+	 * @return deadline and cancellation of the call, null if the call has
+	 *         none
+	 */
+	public CallContext getContext() {
+		return context;
+	}
+
+	public void setContext(CallContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * @return scheduling class of the call, {@link Priority#NORMAL} by
+	 *         default
+	 */
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(Priority priority) {
+		this.priority = priority == null ? Priority.NORMAL : priority;
+	}
+
+	/**
+	 * @return max size in bytes of the response body, -1 if unlimited
+	 */
+	public long getMaxResponseBytes() {
+		return maxResponseBytes;
+	}
+
+	/**
+	 * @param maxResponseBytes
+	 *            max size in bytes of the response body, -1 for no limit. A
+	 *            larger response fails with a
+	 *            {@link ResponseTooLargeException}
+	 */
+	public void setMaxResponseBytes(long maxResponseBytes) {
+		this.maxResponseBytes = maxResponseBytes;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + path;
+	}
+}
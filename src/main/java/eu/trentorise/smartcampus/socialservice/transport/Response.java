@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * HTTP response of a service operation
+ */
+public class Response {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final int status;
+	private final String contentType;
+	/** null until asked for a text response */
+	private byte[] body;
+	/** null unless the response was received as text */
+	private final String text;
+
+	public Response(int status, String contentType, byte[] body) {
+		this(status, contentType, body == null ? EMPTY : body, null);
+	}
+
+	private Response(int status, String contentType, byte[] body, String text) {
+		this.status = status;
+		this.contentType = contentType;
+		this.body = body;
+		this.text = text;
+	}
+
+	/**
+	 * @param text
+	 *            body already decoded by the transport, kept as is for the
+	 *            JSON codec
+	 * @return the response with a text body
+	 */
+	public static Response text(int status, String contentType, String text) {
+		return new Response(status, contentType, text == null ? EMPTY : null, text);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return value of the Content-Type header, may be null
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	public byte[] getBody() {
+		if (body == null) {
+			try {
+				body = text.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return body;
+	}
+
+	/**
+	 * @return the body decoded as UTF-8 text
+	 */
+	public String getText() {
+		if (text != null) {
+			return text;
+		}
+		try {
+			return new String(body, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+/**
+ * Snapshot of the counters of a shard of a {@link ShardedTransport}
+ */
+public class ShardStats {
+
+	private final int shard;
+	private final int active;
+	private final int queued;
+	private final int maxActive;
+	private final int maxQueued;
+	private final long completed;
+	private final long rejected;
+	private final long waitNanos;
+
+	public ShardStats(int shard, int active, int queued, int maxActive, int maxQueued,
+			long completed, long rejected, long waitNanos) {
+		this.shard = shard;
+		this.active = active;
+		this.queued = queued;
+		this.maxActive = maxActive;
+		this.maxQueued = maxQueued;
+		this.completed = completed;
+		this.rejected = rejected;
+		this.waitNanos = waitNanos;
+	}
+
+	public int getShard() {
+		return shard;
+	}
+
+	/**
+	 * @return calls running
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * @return calls waiting for a slot
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return max number of calls run at the same time
+	 */
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	/**
+	 * @return max number of calls waiting at the same time
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * @return calls ended, successful or not
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return calls rejected because the queue was full
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return mean time in milliseconds the ended calls waited for a slot
+	 */
+	public double getMeanWaitMillis() {
+		return completed == 0 ? 0 : waitNanos / 1e6 / completed;
+	}
+
+	@Override
+	public String toString() {
+		return "shard " + shard + " active=" + active + " queued=" + queued + " maxActive="
+				+ maxActive + " maxQueued=" + maxQueued + " completed=" + completed
+				+ " rejected=" + rejected + " meanWait=" + getMeanWaitMillis() + "ms";
+	}
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * {@link Transport} isolating the communities from each other: the calls
+ * about a community, see {@link Request#getCommunityId()}, are hashed into
+ * shards, each one running a limited number of calls at a time and queueing
+ * the others. A large community scanned or shared in bursts then fills only
+ * its shard, and the connections of the underlying transport stay available
+ * to the rest. The calls not about a community are not limited.
+ * 
+ * With a limit per shard lower than the connection pool of the underlying
+ * transport, a shard can never take all the connections. The queued calls
+ * are started in arrival order, and give up when their {@link CallContext}
+ * is done. A call finding the queue of its shard full fails at once with a
+ * {@link BulkheadFullException}.
+ */
+public class ShardedTransport implements Transport, Prewarmable {
+
+	public static final int DEFAULT_SHARDS = 8;
+	public static final int DEFAULT_MAX_QUEUED = 100;
+
+	private final Transport transport;
+	private final Shard[] shards;
+
+	/**
+	 * @param transport
+	 *            transport executing the calls
+	 * @param shards
+	 *            number of shards
+	 * @param maxActive
+	 *            max number of calls run at the same time by a shard
+	 * @param maxQueued
+	 *            max number of calls waiting in a shard
+	 */
+	public ShardedTransport(Transport transport, int shards, int maxActive, int maxQueued) {
+		if (shards < 1 || maxActive < 1 || maxQueued < 0) {
+			throw new IllegalArgumentException("Invalid shards " + shards + ", max active "
+					+ maxActive + ", max queued " + maxQueued);
+		}
+		this.transport = transport;
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new Shard(i, maxActive, maxQueued);
+		}
+	}
+
+	/**
+	 * @param transport
+	 *            transport executing the calls
+	 * @param maxActive
+	 *            max number of calls run at the same time by a shard
+	 */
+	public ShardedTransport(Transport transport, int maxActive) {
+		this(transport, DEFAULT_SHARDS, maxActive, DEFAULT_MAX_QUEUED);
+	}
+
+	@Override
+	public Response execute(Request request) throws SecurityException, RemoteException {
+		if (request.getCommunityId() == null) {
+			return transport.execute(request);
+		}
+		Shard shard = shards[shardOf(request.getCommunityId())];
+		long wait = shard.acquire(request);
+		try {
+			return transport.execute(request);
+		} finally {
+			shard.release(wait);
+		}
+	}
+
+	/**
+	 * @param communityId
+	 *            id of a community
+	 * @return index of the shard of the community
+	 */
+	public int shardOf(String communityId) {
+		int h = communityId.hashCode();
+		h ^= h >>> 16;
+		return (h & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * @return the counters of the shards, in index order
+	 */
+	public List<ShardStats> getShardStats() {
+		List<ShardStats> stats = new ArrayList<ShardStats>(shards.length);
+		for (Shard shard : shards) {
+			stats.add(shard.stats());
+		}
+		return stats;
+	}
+
+	/**
+	 * @return the underlying transport
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public int prewarm(String serviceUrl, int connections, long timeoutMillis)
+			throws IOException {
+		if (transport instanceof Prewarmable) {
+			return ((Prewarmable) transport).prewarm(serviceUrl, connections, timeoutMillis);
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean sendsHeaders() {
+		return transport.sendsHeaders();
+	}
+
+	@Override
+	public void shutdown() {
+		transport.shutdown();
+	}
+
+	/**
+	 * concurrency limit and FIFO queue of a shard
+	 */
+	private static final class Shard {
+
+		private final int index;
+		private final int limit;
+		private final int maxQueued;
+		private final Deque<Thread> queue = new ArrayDeque<Thread>();
+
+		// guarded by this
+		private int active;
+		private int maxActiveSeen;
+		private int maxQueuedSeen;
+		private long completed;
+		private long rejected;
+		private long waitNanos;
+
+		Shard(int index, int limit, int maxQueued) {
+			this.index = index;
+			this.limit = limit;
+			this.maxQueued = maxQueued;
+		}
+
+		/**
+		 * waits for a slot
+		 * 
+		 * @return the time waited in nanoseconds
+		 */
+		long acquire(Request request) throws RemoteException {
+			CallContext context = request.getContext();
+			Runnable wakeUp = null;
+			synchronized (this) {
+				if (active < limit && queue.isEmpty()) {
+					start();
+					return 0;
+				}
+				if (queue.size() >= maxQueued) {
+					rejected++;
+					throw new BulkheadFullException("Shard " + index + " full calling " + request,
+							index);
+				}
+				queue.addLast(Thread.currentThread());
+				maxQueuedSeen = Math.max(maxQueuedSeen, queue.size());
+			}
+			long start = System.nanoTime();
+			try {
+				if (context != null) {
+					wakeUp = new Runnable() {
+						@Override
+						public void run() {
+							synchronized (Shard.this) {
+								Shard.this.notifyAll();
+							}
+						}
+					};
+					context.addListener(wakeUp);
+				}
+				synchronized (this) {
+					while (queue.peekFirst() != Thread.currentThread() || active >= limit) {
+						if (context != null && context.isDone()) {
+							throw context.aborted(null);
+						}
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RemoteException("Interrupted waiting in shard " + index);
+						}
+					}
+					start();
+				}
+				return System.nanoTime() - start;
+			} finally {
+				synchronized (this) {
+					queue.remove(Thread.currentThread());
+					// the next call may start, or the head has changed
+					notifyAll();
+				}
+				if (wakeUp != null) {
+					context.removeListener(wakeUp);
+				}
+			}
+		}
+
+		private void start() {
+			active++;
+			maxActiveSeen = Math.max(maxActiveSeen, active);
+		}
+
+		synchronized void release(long wait) {
+			active--;
+			completed++;
+			waitNanos += wait;
+			notifyAll();
+		}
+
+		synchronized ShardStats stats() {
+			return new ShardStats(index, active, queue.size(), maxActiveSeen, maxQueuedSeen,
+					completed, rejected, waitNanos);
+		}
+	}
+}
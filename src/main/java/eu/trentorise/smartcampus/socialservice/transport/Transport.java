@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Executes the HTTP exchanges of a
+ * {@link eu.trentorise.smartcampus.socialservice.SocialService}
+ */
+public interface Transport {
+
+	/**
+	 * executes a request
+	 * 
+	 * @param request
+	 *            the request
+	 * @return the successful response
+	 * @throws SecurityException
+	 *             if the token is not authorized
+	 * @throws RemoteException
+	 *             if the exchange fails or the service returns an error
+	 */
+	Response execute(Request request) throws SecurityException, RemoteException;
+
+	/**
+	 * @return true if the additional headers of the requests, see
+	 *         {@link Request#getHeaders()}, are sent to the service
+	 */
+	boolean sendsHeaders();
+
+	/**
+	 * releases the resources of the transport
+	 */
+	void shutdown();
+}
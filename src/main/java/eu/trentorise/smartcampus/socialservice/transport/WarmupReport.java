@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a pre-warming of the client, see
+ * {@link eu.trentorise.smartcampus.socialservice.SocialService#prewarm(int)}
+ */
+public class WarmupReport {
+
+	private final String host;
+	private final List<InetAddress> addresses;
+	private final int connections;
+	private final Exception failure;
+	private final long elapsedMillis;
+
+	public WarmupReport(String host, InetAddress[] addresses,
+			int connections, Exception failure, long elapsedMillis) {
+		this.host = host;
+		this.addresses = addresses == null ? Collections
+				.<InetAddress> emptyList() : Collections.unmodifiableList(Arrays
+				.asList(addresses));
+		this.connections = connections;
+		this.failure = failure;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return host of the service
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return addresses the host resolved to
+	 */
+	public List<InetAddress> getAddresses() {
+		return addresses;
+	}
+
+	/**
+	 * @return number of pooled connections opened, 0 if the transport does
+	 *         not pool connections
+	 */
+	public int getConnections() {
+		return connections;
+	}
+
+	/**
+	 * @return failure of the host resolution or of the connections, null if
+	 *         none
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return true if the host was resolved and the connections opened
+	 */
+	public boolean isReady() {
+		return failure == null;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return host + " " + addresses + " connections=" + connections
+				+ (failure == null ? "" : " failed: " + failure) + " in "
+				+ elapsedMillis + "ms";
+	}
+}
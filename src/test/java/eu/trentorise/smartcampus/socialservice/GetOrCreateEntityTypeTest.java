@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.EntityType;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.CallAbortedException;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class GetOrCreateEntityTypeTest {
+
+	private static final String TOKEN = "types-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private ExecutorService executor;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(8);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+		executor = Executors.newFixedThreadPool(20);
+	}
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void concurrentCallers() throws Exception {
+		server.setLatency(100, 0);
+		List<Future<EntityType>> calls = new ArrayList<Future<EntityType>>();
+		for (int i = 0; i < 20; i++) {
+			calls.add(executor.submit(new Callable<EntityType>() {
+				@Override
+				public EntityType call() throws Exception {
+					return socialService.getOrCreateEntityType(TOKEN, "concept-3");
+				}
+			}));
+		}
+		for (Future<EntityType> call : calls) {
+			Assert.assertEquals("type-concept-3", call.get().getId());
+		}
+		// a lookup and a creation
+		Assert.assertEquals(2, server.getRequestCount());
+
+		Assert.assertEquals("type-concept-3", socialService.getOrCreateEntityType(TOKEN, "concept-3")
+				.getId());
+		Assert.assertEquals(2, server.getRequestCount());
+		// another token finds the created type
+		Assert.assertEquals("type-concept-3",
+				socialService.getOrCreateEntityType("other-token", "concept-3").getId());
+		Assert.assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	public void waitingCallersAborted() throws Exception {
+		server.setLatency(2000, 0);
+		Future<EntityType> leader = executor.submit(new Callable<EntityType>() {
+			@Override
+			public EntityType call() throws Exception {
+				return socialService.getOrCreateEntityType(TOKEN, "concept-2");
+			}
+		});
+		Thread.sleep(200);
+
+		// a waiting caller does not outlive its deadline
+		long start = System.currentTimeMillis();
+		CallContext context = CallContext.withTimeout(200, TimeUnit.MILLISECONDS);
+		CallContext previous = context.attach();
+		try {
+			socialService.getOrCreateEntityType(TOKEN, "concept-2");
+			Assert.fail("deadline not applied");
+		} catch (SocialServiceException e) {
+			Assert.assertTrue(((CallAbortedException) e.getCause()).isDeadlineExceeded());
+		} finally {
+			CallContext.restore(previous);
+			context.close();
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+
+		// nor survives an interruption
+		final Thread caller = Thread.currentThread();
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				caller.interrupt();
+			}
+		});
+		try {
+			socialService.getOrCreateEntityType(TOKEN, "concept-2");
+			Assert.fail("interruption ignored");
+		} catch (SocialServiceException e) {
+			Assert.assertTrue(Thread.interrupted());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+
+		Assert.assertEquals("type-concept-2", leader.get().getId());
+	}
+
+	@Test
+	public void missingConcept() throws Exception {
+		Assert.assertNull(socialService.getOrCreateEntityType(TOKEN, "no-such-concept"));
+		Assert.assertEquals(2, server.getRequestCount());
+		Assert.assertNull(socialService.getOrCreateEntityType(TOKEN, "no-such-concept"));
+		Assert.assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	public void failuresNotCached() throws Exception {
+		server.setErrorRate(1);
+		try {
+			socialService.getOrCreateEntityType(TOKEN, "concept-1");
+			Assert.fail("error not reported");
+		} catch (SocialServiceException e) {
+			// expected
+		}
+		server.setErrorRate(0);
+		Assert.assertEquals("type-concept-1", socialService.getOrCreateEntityType(TOKEN, "concept-1")
+				.getId());
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+import eu.trentorise.smartcampus.socialservice.transport.StatusException;
+
+public class IdempotentCreateTest {
+
+	private static final String TOKEN = "ingestion-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.recordHeader(SocialService.IDEMPOTENCY_KEY);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void retries() throws Exception {
+		// without retries the outcome is unknown to the caller
+		server.setLostResponses(1);
+		try {
+			socialService.createUserEntity(TOKEN, entity("lost"));
+			Assert.fail("response not lost");
+		} catch (SocialServiceException e) {
+			Assert.assertEquals(504, ((StatusException) e.getCause()).getStatus());
+		}
+		Assert.assertEquals(1, entities().size());
+
+		socialService.setCreateRetries(2);
+		server.setLostResponses(2);
+		Entity entity = socialService.createUserEntity(TOKEN, entity("retried"));
+		Assert.assertEquals("retried", entity.getTitle());
+		Assert.assertEquals(2, entities().size());
+		List<String> keys = server.getRecordedHeaders(SocialService.IDEMPOTENCY_KEY);
+		// the retries carry the key of the first attempt
+		String key = keys.get(keys.size() - 2);
+		Assert.assertEquals(key, keys.get(keys.size() - 3));
+		Assert.assertEquals(key, keys.get(keys.size() - 4));
+		Assert.assertFalse(key.equals(keys.get(0)));
+
+		server.setLostResponses(1);
+		Group group = socialService.createUserGroup(TOKEN, "retried group");
+		Assert.assertEquals(1, socialService.getUserGroups(TOKEN).getContent().size());
+		Assert.assertEquals(group.getSocialId(), socialService.getUserGroups(TOKEN).getContent()
+				.get(0).getSocialId());
+
+		// the retries are bounded
+		server.setLostResponses(3);
+		try {
+			socialService.createUserEntity(TOKEN, entity("exhausted"));
+			Assert.fail("retries not bounded");
+		} catch (SocialServiceException e) {
+			Assert.assertEquals(504, ((StatusException) e.getCause()).getStatus());
+		}
+		Assert.assertEquals(3, entities().size());
+
+		// client errors have a known outcome
+		server.setRejectedRequests(1);
+		long requests = server.getRequestCount();
+		try {
+			socialService.createUserEntity(TOKEN, entity("rejected"));
+			Assert.fail("create not rejected");
+		} catch (SocialServiceException e) {
+			Assert.assertEquals(400, ((StatusException) e.getCause()).getStatus());
+		}
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+		Assert.assertEquals(3, entities().size());
+	}
+
+	@Test
+	public void headerlessTransport() throws Exception {
+		SocialService remote = new SocialService(server.getServiceUrl());
+		try {
+			remote.setCreateRetries(1);
+			Assert.fail("retries without the idempotency key");
+		} catch (IllegalStateException e) {
+			// the retries would create duplicates
+		}
+		Assert.assertEquals(0, remote.getCreateRetries());
+	}
+
+	@Test
+	public void journal() throws Exception {
+		IdempotencyKey previous = IdempotencyKey.of("item-1").attach();
+		try {
+			server.setLostResponses(1);
+			try {
+				socialService.createUserEntity(TOKEN, entity("item 1"));
+				Assert.fail("response not lost");
+			} catch (SocialServiceException e) {
+				// outcome unknown, the caller retries with the same key
+			}
+			Entity created = socialService.createUserEntity(TOKEN, entity("item 1"));
+			Assert.assertEquals(1, entities().size());
+
+			// known outcome, the create is not sent again
+			long requests = server.getRequestCount();
+			Entity repeated = socialService.createUserEntity(TOKEN, entity("item 1"));
+			Assert.assertEquals(requests, server.getRequestCount());
+			Assert.assertEquals(created.getEntityId(), repeated.getEntityId());
+		} finally {
+			IdempotencyKey.restore(previous);
+		}
+		Assert.assertNull(IdempotencyKey.current());
+
+		previous = IdempotencyKey.of("item-2").attach();
+		try {
+			socialService.createUserEntity(TOKEN, entity("item 2"));
+		} finally {
+			IdempotencyKey.restore(previous);
+		}
+		Assert.assertEquals(2, entities().size());
+		// without a key every call creates
+		socialService.createUserEntity(TOKEN, entity("item 2"));
+		Assert.assertEquals(3, entities().size());
+
+		// the journal does not hold the tokens
+		String entry = OutcomeJournal.entry("createUserEntity", TOKEN, "/user/entity", "item-1");
+		Assert.assertFalse(entry.contains(TOKEN));
+		Assert.assertFalse(entry.equals(OutcomeJournal.entry("createUserEntity", TOKEN + "2",
+				"/user/entity", "item-1")));
+	}
+
+	private List<Entity> entities() throws Exception {
+		return socialService.getUserEntities(TOKEN, null, null, null).getContent();
+	}
+
+	private static EntityRequest entity(String name) {
+		EntityRequest entity = new EntityRequest();
+		entity.setName(name);
+		return entity;
+	}
+}
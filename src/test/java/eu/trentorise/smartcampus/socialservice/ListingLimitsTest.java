@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.ListingLimits.Mode;
+import eu.trentorise.smartcampus.socialservice.lazy.LazyEntities;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class ListingLimitsTest {
+
+	private static final String TOKEN = "listing-limits-token";
+	private static final String COMMUNITY = "large";
+	private static final int ENTITIES = 200;
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.setDescriptionSize(1000);
+		server.seedCommunityEntities(COMMUNITY, ENTITIES);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void pageOnBytes() throws Exception {
+		socialService.setListingLimits(ListingLimits.NONE.withMaxBytes(50000, Mode.PAGE));
+		long requests = server.getRequestCount();
+		List<Entity> entities = socialService.getCommunityEntities(COMMUNITY, TOKEN, null, null, null).getContent();
+		assertComplete(entities);
+		Assert.assertTrue(server.getRequestCount() - requests > 4);
+	}
+
+	@Test
+	public void failOnBytes() throws Exception {
+		socialService.setListingLimits(ListingLimits.NONE.withMaxBytes(50000, Mode.FAIL));
+		try {
+			socialService.getCommunityEntities(COMMUNITY, TOKEN, null, null, null);
+			Assert.fail();
+		} catch (ListingLimitException e) {
+			Assert.assertTrue(e.isBytes());
+			Assert.assertEquals(50000, e.getLimit());
+		}
+		Assert.assertEquals(10, socialService.getCommunityEntities(COMMUNITY, TOKEN, 0, 10, null).getContent().size());
+	}
+
+	@Test(timeout = 30000)
+	public void oversizedResponsesReleaseConnections() throws Exception {
+		SocialService pooled = new SocialService(server.getServiceUrl(), new HttpClientTransport(2, 10000));
+		try {
+			pooled.setListingLimits(ListingLimits.NONE.withMaxBytes(50000, Mode.FAIL));
+			for (int i = 0; i < 5; i++) {
+				try {
+					pooled.getCommunityEntities(COMMUNITY, TOKEN, null, null, null);
+					Assert.fail();
+				} catch (ListingLimitException e) {
+					Assert.assertTrue(e.isBytes());
+				}
+			}
+			pooled.setListingLimits(ListingLimits.NONE.withMaxBytes(50000, Mode.PAGE));
+			assertComplete(pooled.getCommunityEntities(COMMUNITY, TOKEN, null, null, null).getContent());
+		} finally {
+			pooled.getTransport().shutdown();
+		}
+	}
+
+	@Test
+	public void entities() throws Exception {
+		socialService.setListingLimits(ListingLimits.NONE.withMaxEntities(50, Mode.FAIL));
+		try {
+			socialService.getCommunityEntitiesLazy(COMMUNITY, TOKEN, null, null, null);
+			Assert.fail();
+		} catch (ListingLimitException e) {
+			Assert.assertFalse(e.isBytes());
+		}
+		Assert.assertEquals(50, socialService.getCommunityEntities(COMMUNITY, TOKEN, 150, null, null).getContent().size());
+
+		socialService.setListingLimits(ListingLimits.NONE.withMaxEntities(50, Mode.PAGE));
+		long requests = server.getRequestCount();
+		LazyEntities lazy = socialService.getCommunityEntitiesLazy(COMMUNITY, TOKEN, null, null, null);
+		assertComplete(lazy.toEntities());
+		Assert.assertEquals(5, server.getRequestCount() - requests);
+		Assert.assertEquals(120, socialService.getCommunityEntities(COMMUNITY, TOKEN, 10, 120, null).getContent().size());
+	}
+
+	@Test
+	public void total() throws Exception {
+		socialService.setListingLimits(ListingLimits.NONE.withMaxEntities(50, Mode.PAGE).withMaxTotal(120));
+		long requests = server.getRequestCount();
+		try {
+			socialService.getCommunityEntities(COMMUNITY, TOKEN, null, null, null);
+			Assert.fail();
+		} catch (ListingLimitException e) {
+			Assert.assertFalse(e.isBytes());
+			Assert.assertEquals(120, e.getLimit());
+		}
+		// pages of 50, 50 and 21 entities
+		Assert.assertEquals(3, server.getRequestCount() - requests);
+		Assert.assertEquals(120, socialService.getCommunityEntities(COMMUNITY, TOKEN, 10, 120, null).getContent().size());
+
+		socialService.setListingLimits(socialService.getListingLimits().withMaxTotal(-1));
+		assertComplete(socialService.getCommunityEntities(COMMUNITY, TOKEN, null, null, null).getContent());
+	}
+
+	@Test
+	public void remoteConnector() throws Exception {
+		SocialService remote = new SocialService(server.getServiceUrl());
+		remote.setListingLimits(ListingLimits.NONE.withMaxBytes(50000, Mode.FAIL));
+		try {
+			remote.getCommunityEntities(COMMUNITY, TOKEN, null, null, null);
+			Assert.fail();
+		} catch (ListingLimitException e) {
+			Assert.assertTrue(e.isBytes());
+		}
+		remote.setListingLimits(ListingLimits.NONE.withMaxBytes(50000, Mode.PAGE));
+		assertComplete(remote.getCommunityEntities(COMMUNITY, TOKEN, null, null, null).getContent());
+	}
+
+	private static void assertComplete(List<Entity> entities) {
+		Assert.assertEquals(ENTITIES, entities.size());
+		Set<String> ids = new HashSet<String>();
+		for (Entity e : entities) {
+			ids.add(e.getEntityId());
+		}
+		Assert.assertEquals(ENTITIES, ids.size());
+	}
+}
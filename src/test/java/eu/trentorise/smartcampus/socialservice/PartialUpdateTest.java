@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class PartialUpdateTest {
+
+	private static final String TOKEN = "partial-update-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void groupDelta() throws Exception {
+		Group previous = bigGroup(socialService);
+		Group group = copy(previous);
+		group.setName("renamed");
+
+		long bytes = server.getReceivedBytes();
+		Assert.assertTrue(socialService.updateUserGroup(TOKEN, previous, group));
+		long sent = server.getReceivedBytes() - bytes;
+		Assert.assertTrue("patch of " + sent + " bytes", sent < 100);
+		Assert.assertEquals("renamed", socialService.getUserGroup(group.getSocialId(), TOKEN).getName());
+
+		previous = socialService.getUserGroup(group.getSocialId(), TOKEN);
+		group = copy(previous);
+		group.getUsers().remove("user-0");
+		group.getUsers().remove("user-1");
+		group.getUsers().add("new-user");
+		long requests = server.getRequestCount();
+		Assert.assertTrue(socialService.updateUserGroup(TOKEN, previous, group));
+		// the name is unchanged, only the two membership calls
+		Assert.assertEquals(requests + 2, server.getRequestCount());
+		List<String> users = socialService.getUserGroup(group.getSocialId(), TOKEN).getUsers();
+		Assert.assertEquals(999, users.size());
+		Assert.assertTrue(users.contains("new-user"));
+		Assert.assertFalse(users.contains("user-0"));
+	}
+
+	@Test
+	public void entityDelta() throws Exception {
+		EntityRequest previous = new EntityRequest();
+		previous.setName("entity");
+		previous.setDescription("description");
+		Entity created = socialService.createUserEntity(TOKEN, previous);
+		previous.setId(created.getEntityId());
+
+		EntityRequest entity = new EntityRequest();
+		entity.setId(created.getEntityId());
+		entity.setName("entity");
+		entity.setDescription("description");
+		Concept tag = new Concept();
+		tag.setId("concept-1");
+		tag.setName("tag");
+		entity.setTags(Collections.singletonList(tag));
+
+		long requests = server.getRequestCount();
+		Assert.assertTrue(socialService.updateUserEntity(TOKEN, entity, entity));
+		Assert.assertEquals(requests, server.getRequestCount());
+		Assert.assertTrue(socialService.updateUserEntity(TOKEN, previous, entity));
+		Entity updated = socialService.getUserEntity(TOKEN, created.getEntityId());
+		Assert.assertEquals("concept-1", updated.getTags().get(0).getId());
+		Assert.assertEquals("description", updated.getDescription());
+
+		// a member set to null is removed, the omitted ones are kept
+		EntityRequest cleared = new EntityRequest();
+		cleared.setId(created.getEntityId());
+		cleared.setName("entity");
+		cleared.setTags(entity.getTags());
+		long bytes = server.getReceivedBytes();
+		Assert.assertTrue(socialService.updateUserEntity(TOKEN, entity, cleared));
+		Assert.assertEquals("{\"description\":null}".length(), server.getReceivedBytes() - bytes);
+		updated = socialService.getUserEntity(TOKEN, created.getEntityId());
+		Assert.assertNull(updated.getDescription());
+		Assert.assertEquals("entity", updated.getTitle());
+		Assert.assertEquals("concept-1", updated.getTags().get(0).getId());
+	}
+
+	@Test
+	public void fallback() throws Exception {
+		server.setPatchEnabled(false);
+		Group previous = bigGroup(socialService);
+		Group group = copy(previous);
+		group.setName("first");
+
+		long requests = server.getRequestCount();
+		Assert.assertTrue(socialService.updateUserGroup(TOKEN, previous, group));
+		Assert.assertEquals(requests + 2, server.getRequestCount());
+		Assert.assertEquals("first", socialService.getUserGroup(group.getSocialId(), TOKEN).getName());
+
+		// the route is remembered, the next update is sent in full at once
+		previous = copy(group);
+		group.setName("second");
+		requests = server.getRequestCount();
+		Assert.assertTrue(socialService.updateUserGroup(TOKEN, previous, group));
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+		Assert.assertEquals("second", socialService.getUserGroup(group.getSocialId(), TOKEN).getName());
+	}
+
+	@Test
+	public void remoteConnectorFallback() throws Exception {
+		SocialService remote = new SocialService(server.getServiceUrl());
+		Group previous = bigGroup(remote);
+		Group group = copy(previous);
+		group.setName("renamed");
+		group.getUsers().add("new-user");
+		Assert.assertTrue(remote.updateUserGroup(TOKEN, previous, group));
+		Group updated = remote.getUserGroup(group.getSocialId(), TOKEN);
+		Assert.assertEquals("renamed", updated.getName());
+		Assert.assertEquals(1001, updated.getUsers().size());
+	}
+
+	private static Group bigGroup(SocialService service) throws Exception {
+		Group group = service.createUserGroup(TOKEN, "group");
+		List<String> users = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			users.add("user-" + i);
+		}
+		service.addUsersToGroup(group.getSocialId(), users, TOKEN);
+		return service.getUserGroup(group.getSocialId(), TOKEN);
+	}
+
+	private static Group copy(Group group) {
+		Group copy = new Group();
+		copy.setSocialId(group.getSocialId());
+		copy.setName(group.getName());
+		copy.setUsers(new ArrayList<String>(group.getUsers()));
+		copy.setCreationDate(group.getCreationDate());
+		copy.setLastModifiedDate(group.getLastModifiedDate());
+		return copy;
+	}
+}
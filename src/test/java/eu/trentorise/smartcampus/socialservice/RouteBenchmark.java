@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the string concatenation and {@link HashMap} parameters used
+ * before the route templates with {@link Route} and {@link QueryParameters}.
+ * Run with <code>-prof gc</code> to compare the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteBenchmark {
+
+	private static final Route COMMUNITY_SHARED_CONTENT = Route
+			.compile("community/{communityId}/shared/{entityId}");
+
+	private String communityId = "52b1d0f4e4b0a5d2f6a3c111";
+	private String entityId = "52b1d0f4e4b0a5d2f6a3c222";
+	private Integer position = 20;
+	private Integer size = 20;
+
+	@Benchmark
+	public String concatenatedPath() {
+		return "community/" + communityId + "/shared/" + entityId;
+	}
+
+	@Benchmark
+	public String routePath() {
+		return COMMUNITY_SHARED_CONTENT.expand(communityId, entityId);
+	}
+
+	@Benchmark
+	public int hashMapParameters() {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("position", position);
+		parameters.put("size", size);
+		parameters.put("type", null);
+		return iterate(parameters);
+	}
+
+	@Benchmark
+	public int queryParameters() {
+		return iterate(QueryParameters.paging(position, size, null));
+	}
+
+	/** what the connector does with the parameters */
+	private static int iterate(Map<String, Object> parameters) {
+		int h = 0;
+		for (Map.Entry<String, Object> e : parameters.entrySet()) {
+			h += e.getKey().length();
+			if (e.getValue() != null) {
+				h += e.getValue().hashCode();
+			}
+		}
+		return h;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(
+				RouteBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class RouteTest {
+
+	@Test
+	public void expand() {
+		Route route = Route.compile("community/{communityId}/entities/{entityId}");
+		Assert.assertEquals(2, route.variables());
+		Assert.assertEquals("community/c1/entities/e1", route.expand("c1", "e1"));
+		// served by the expansion cache
+		Assert.assertSame(route.expand("c1", "e1"), route.expand("c1", "e1"));
+		Assert.assertEquals("community/c1/entities/e2", route.expand("c1", "e2"));
+		Assert.assertEquals("community/null/entities/e1", route.expand(null, "e1"));
+		Assert.assertEquals("user/entities/", Route.compile("user/entities/").path());
+		Assert.assertEquals("user/group/g1/members/",
+				Route.compile("user/group/{groupId}/members/").expand("g1"));
+	}
+
+	@Test
+	public void value() {
+		Route route = Route.compile("community/{communityId}/entities/{entityId}");
+		Assert.assertEquals("c1", route.value(route.expand("c1", "e1"), "communityId"));
+		Assert.assertEquals("e1", route.value(route.expand("c1", "e1"), "entityId"));
+		Assert.assertEquals("a/b c", route.value(route.expand("a/b c", "e1"), "communityId"));
+		Assert.assertNull(route.value(route.expand("c1", "e1"), "groupId"));
+		route = Route.compile("community/{communityId}");
+		Assert.assertEquals("c1", route.value(route.expand("c1"), "communityId"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongArity() {
+		Route.compile("user/group/{groupId}").expand("a", "b");
+	}
+
+	@Test
+	public void encoding() {
+		Assert.assertEquals("abc-_.~123", Route.encodeSegment("abc-_.~123"));
+		Assert.assertEquals("a%2Fb", Route.encodeSegment("a/b"));
+		Assert.assertEquals("a%20b%3Fc%23d%25", Route.encodeSegment("a b?c#d%"));
+		Assert.assertEquals("caf%C3%A9", Route.encodeSegment("caf\u00e9"));
+		Assert.assertEquals("%2E%2E", Route.encodeSegment(".."));
+		Assert.assertEquals("null", Route.encodeSegment(null));
+		// served by the encoded id cache
+		Assert.assertSame(Route.encodeSegment("x y"), Route.encodeSegment("x y"));
+		Assert.assertEquals("community/a%2Fb/shared/",
+				Route.compile("community/{communityId}/shared/").expand("a/b"));
+	}
+
+	@Test
+	public void parameters() {
+		Map<String, Object> params = QueryParameters.paging(null, 20, null);
+		Assert.assertEquals(3, params.size());
+		Assert.assertEquals(-1, params.get("position"));
+		Assert.assertEquals(20, params.get("size"));
+		Assert.assertTrue(params.containsKey("type"));
+		Assert.assertNull(params.get("type"));
+
+		params = QueryParameters.prefix("con", null);
+		Assert.assertEquals(1, params.size());
+		Assert.assertFalse(params.containsKey("maxResults"));
+		params = QueryParameters.prefix("con", 5);
+		Assert.assertEquals(5, params.get("maxResults"));
+		Assert.assertEquals("con", params.get("prefix"));
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice;
+
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.load.LoadDriver;
+import eu.trentorise.smartcampus.socialservice.load.LoadReport;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+/**
+ * Runs the client against the in-process {@link StubSocialServer}
+ */
+public class StubServerTest {
+
+	private static final String TOKEN = "stub-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(16);
+		server.seedCommunityEntities("stub community", 50);
+		socialService = new SocialService(server.getServiceUrl());
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+	}
+
+	@Test
+	public void groups() throws Exception {
+		Group g = socialService.createUserGroup(TOKEN, "stub group");
+		Assert.assertNotNull(g);
+		Assert.assertEquals(1, socialService.getUserGroups(TOKEN).getContent().size());
+		Assert.assertTrue(socialService.addUsersToGroup(g.getSocialId(),
+				Collections.singletonList("1306"), TOKEN));
+		Assert.assertEquals(1, socialService.getUserGroup(g.getSocialId(), TOKEN).getUsers().size());
+		Assert.assertTrue(socialService.deleteUserGroup(TOKEN, g.getSocialId()));
+		Assert.assertEquals(0, socialService.getUserGroups(TOKEN).getContent().size());
+	}
+
+	@Test
+	public void paging() throws Exception {
+		// the community id contains a space, sent as an encoded segment
+		Entities page = socialService.getCommunityEntities("stub community", TOKEN, 10, 20, null);
+		Assert.assertEquals(20, page.getContent().size());
+		Assert.assertEquals(50, socialService.getCommunityEntities("stub community", TOKEN, null, null, null).getContent().size());
+	}
+
+	@Test
+	public void load() throws Exception {
+		server.setLatency(1, 2);
+		LoadDriver driver = new LoadDriver(socialService, new LoadDriver.Operation() {
+			@Override
+			public void call(SocialService service, long iteration) throws Exception {
+				service.getCommunityEntities("stub community", TOKEN, 0, 10, null);
+			}
+		});
+		LoadReport closed = driver.closedLoop(4, 1000);
+		Assert.assertTrue(closed.getCalls() > 0);
+		Assert.assertEquals(0, closed.getErrors());
+		Assert.assertTrue(closed.getLatency(99) >= closed.getLatency(50));
+
+		server.setErrorRate(0.5);
+		LoadReport open = driver.openLoop(100, 8, 1000);
+		Assert.assertTrue(open.getCalls() >= 90);
+		Assert.assertTrue(open.getErrors() > 0);
+		Assert.assertTrue(open.getErrors() < open.getCalls());
+	}
+}
@@ -126,11 +126,7 @@ public class TestClient {
 	public void userData() throws SecurityException, SocialServiceException {
 		Concepts concepts = socialService.getConceptByPrefix(Constants.USER_AUTH_TOKEN, "concert", 1);
 		Concept test = concepts.getContent().get(0);
-		EntityType entityType = socialService.getEntityTypeByConceptId(Constants.USER_AUTH_TOKEN, test.getId());
-
-		if (entityType == null) {
-			entityType = socialService.createEntityType(Constants.USER_AUTH_TOKEN,test.getId());
-		}
+		EntityType entityType = socialService.getOrCreateEntityType(Constants.USER_AUTH_TOKEN, test.getId());
 
 		Entities entities = socialService.getUserEntities(Constants.USER_AUTH_TOKEN, null, null, entityType.getId());
 		Assert.assertNotNull(entities);		
@@ -176,11 +172,7 @@ public class TestClient {
 
 		Concepts concepts = socialService.getConceptByPrefix(Constants.USER_AUTH_TOKEN, "concert", 1);
 		Concept test = concepts.getContent().get(0);
-		EntityType entityType = socialService.getEntityTypeByConceptId(Constants.USER_AUTH_TOKEN, test.getId());
-
-		if (entityType == null) {
-			entityType = socialService.createEntityType(Constants.USER_AUTH_TOKEN,test.getId());
-		}
+		EntityType entityType = socialService.getOrCreateEntityType(Constants.USER_AUTH_TOKEN, test.getId());
 
 //		Entities entities = socialService.getUserEntities(Constants.USER_AUTH_TOKEN, null, null, entityType.getId());
 //		Assert.assertNotNull(entities);		
@@ -224,11 +216,7 @@ public class TestClient {
 
 		Concepts concepts = socialService.getConceptByPrefix(Constants.USER_AUTH_TOKEN, "concert", 1);
 		Concept test = concepts.getContent().get(0);
-		EntityType entityType = socialService.getEntityTypeByConceptId(Constants.USER_AUTH_TOKEN, test.getId());
-
-		if (entityType == null) {
-			entityType = socialService.createEntityType(Constants.USER_AUTH_TOKEN,test.getId());
-		}
+		EntityType entityType = socialService.getOrCreateEntityType(Constants.USER_AUTH_TOKEN, test.getId());
 		EntityRequest req = new EntityRequest();
 		req.setDescription("descr");
 		req.setName("name");
@@ -280,11 +268,7 @@ public class TestClient {
 
 		Concepts concepts = socialService.getConceptByPrefix(Constants.CLIENT_AUTH_TOKEN, "concert", 1);
 		Concept test = concepts.getContent().get(0);
-		EntityType entityType = socialService.getEntityTypeByConceptId(Constants.CLIENT_AUTH_TOKEN, test.getId());
-
-		if (entityType == null) {
-			entityType = socialService.createEntityType(Constants.CLIENT_AUTH_TOKEN,test.getId());
-		}
+		EntityType entityType = socialService.getOrCreateEntityType(Constants.CLIENT_AUTH_TOKEN, test.getId());
 		EntityRequest req = new EntityRequest();
 		req.setDescription("descr");
 		req.setName("name");
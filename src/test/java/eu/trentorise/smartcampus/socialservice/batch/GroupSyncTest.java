@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class GroupSyncTest {
+
+	private static final String TOKEN = "group-sync-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private GroupSync sync;
+	private String groupId;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(8);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+		sync = new GroupSync(socialService, 4, 200);
+		groupId = socialService.createUserGroup(TOKEN, "directory").getSocialId();
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void minimalChanges() throws Exception {
+		List<String> desired = users(0, 3000);
+		long requests = server.getRequestCount();
+		GroupSyncReport report = sync.syncGroupMembers(groupId, desired, TOKEN);
+		Assert.assertTrue(report.isComplete());
+		Assert.assertEquals(3000, report.getAdded().size());
+		// one read and 15 chunks of additions
+		Assert.assertEquals(requests + 16, server.getRequestCount());
+		assertMembers(desired);
+
+		desired = users(100, 3050);
+		desired.add("user-200");
+		requests = server.getRequestCount();
+		report = sync.syncGroupMembers(groupId, desired, TOKEN);
+		Assert.assertTrue(report.isComplete());
+		Assert.assertEquals(50, report.getAdded().size());
+		Assert.assertEquals(100, report.getRemoved().size());
+		Assert.assertEquals(2900, report.getUnchanged());
+		Assert.assertEquals(requests + 3, server.getRequestCount());
+		assertMembers(desired);
+
+		requests = server.getRequestCount();
+		report = sync.syncGroupMembers(groupId, desired, TOKEN);
+		Assert.assertTrue(report.isUnchanged());
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+	}
+
+	@Test
+	public void emptyGroup() throws Exception {
+		sync.syncGroupMembers(groupId, users(0, 10), TOKEN);
+		GroupSyncReport report = sync.syncGroupMembers(groupId, new ArrayList<String>(), TOKEN);
+		Assert.assertEquals(10, report.getRemoved().size());
+		Assert.assertTrue(socialService.getUserGroup(groupId, TOKEN).getUsers().isEmpty());
+	}
+
+	@Test(expected = SocialServiceException.class)
+	public void missingGroup() throws Exception {
+		sync.syncGroupMembers("missing", users(0, 10), TOKEN);
+	}
+
+	private void assertMembers(List<String> desired) throws Exception {
+		Group group = socialService.getUserGroup(groupId, TOKEN);
+		Assert.assertEquals(new HashSet<String>(desired), new HashSet<String>(group.getUsers()));
+		Assert.assertEquals(new HashSet<String>(desired).size(), group.getUsers().size());
+	}
+
+	private static List<String> users(int from, int to) {
+		List<String> users = new ArrayList<String>();
+		for (int i = from; i < to; i++) {
+			users.add("user-" + i);
+		}
+		return users;
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Communities;
+import eu.trentorise.smartcampus.social.model.Groups;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class TokenFanOutTest {
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private List<String> tokens;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(32);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport(20, 5000));
+		tokens = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			tokens.add("batch-" + i);
+		}
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void boundedParallelism() throws Exception {
+		server.setLatency(20, 0);
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		TokenOperation<Groups> tracked = new TokenOperation<Groups>() {
+			@Override
+			public Groups call(SocialService socialService, String token)
+					throws SecurityException, SocialServiceException {
+				int n = inFlight.incrementAndGet();
+				while (maxInFlight.get() < n && !maxInFlight.compareAndSet(maxInFlight.get(), n)) {
+				}
+				try {
+					return TokenOperation.USER_GROUPS.call(socialService, token);
+				} finally {
+					inFlight.decrementAndGet();
+				}
+			}
+		};
+		final Set<String> streamed = new CopyOnWriteArraySet<String>();
+		BatchReport report = new TokenFanOut(socialService, 20).run(tokens, tracked,
+				new BatchHandler<Groups>() {
+					@Override
+					public void onResult(String token, Groups result) {
+						streamed.add(token);
+					}
+
+					@Override
+					public void onFailure(String token, Exception failure) {
+					}
+				});
+		Assert.assertEquals(200, report.getSucceeded());
+		Assert.assertEquals(200, streamed.size());
+		Assert.assertTrue(maxInFlight.get() <= 20);
+		// 200 calls of 20 ms, 20 at a time: far less than the 4 s of a serial run
+		Assert.assertTrue(report.toString(), report.getElapsedMillis() < 2000);
+	}
+
+	@Test
+	public void failures() throws Exception {
+		server.setErrorRate(0.3);
+		final AtomicInteger failed = new AtomicInteger();
+		BatchReport report = new TokenFanOut(socialService, 8).run(tokens, TokenOperation.USER_COMMUNITIES,
+				new BatchHandler<Communities>() {
+					@Override
+					public void onResult(String token, Communities result) {
+					}
+
+					@Override
+					public void onFailure(String token, Exception failure) {
+						failed.incrementAndGet();
+					}
+				});
+		Assert.assertFalse(report.isAborted());
+		Assert.assertTrue(report.getFailures().size() > 0);
+		Assert.assertEquals(failed.get(), report.getFailures().size());
+		Assert.assertEquals(200, report.getSucceeded() + report.getFailures().size());
+		Assert.assertTrue(report.getFailures().values().iterator().next() instanceof SocialServiceException);
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		server.setLatency(50, 0);
+		CallContext context = CallContext.withTimeout(300, TimeUnit.MILLISECONDS);
+		CallContext previous = context.attach();
+		BatchReport report;
+		try {
+			report = new TokenFanOut(socialService, 4).run(tokens,
+					TokenOperation.entitiesSharedWithUser(null, 0, 10, null), null);
+		} finally {
+			CallContext.restore(previous);
+		}
+		Assert.assertTrue(report.isAborted());
+		Assert.assertTrue(report.getSucceeded() + report.getFailures().size() < 200);
+	}
+}
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.cache;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.index.IndexedSocialService;
+import eu.trentorise.smartcampus.socialservice.index.MembershipIndex;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.CallAbortedException;
+import eu.trentorise.smartcampus.socialservice.transport.CallContext;
+
+public class CachingSocialServiceTest {
+
+	private static final String TOKEN = "cache-token";
+
+	private StubSocialServer server;
+	private CachingSocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.seedCommunityEntities("cached", 10);
+		socialService = new CachingSocialService(server.getServiceUrl());
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+	}
+
+	@Test
+	public void readYourWrites() throws Exception {
+		Group g = socialService.createUserGroup(TOKEN, "group");
+		long requests = server.getRequestCount();
+		Assert.assertEquals("group", socialService.getUserGroup(g.getSocialId(), TOKEN).getName());
+		Assert.assertEquals(1, socialService.getUserGroups(TOKEN).getContent().size());
+		Assert.assertEquals(1, socialService.getUserGroups(TOKEN).getContent().size());
+		// the created group is cached in place, the listing is read once
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+
+		Group update = new Group();
+		update.setSocialId(g.getSocialId());
+		update.setName("renamed");
+		Assert.assertTrue(socialService.updateUserGroup(TOKEN, update));
+		Assert.assertEquals("renamed", socialService.getUserGroup(g.getSocialId(), TOKEN).getName());
+		Assert.assertEquals("renamed", socialService.getUserGroups(TOKEN).getContent().get(0).getName());
+
+		socialService.addUsersToGroup(g.getSocialId(), Collections.singletonList("1306"), TOKEN);
+		Assert.assertEquals(1, socialService.getUserGroup(g.getSocialId(), TOKEN).getUsers().size());
+		Assert.assertEquals(1, socialService.getUserGroups(TOKEN).getContent().get(0).getUsers().size());
+	}
+
+	@Test
+	public void indexedOrigin() throws Exception {
+		IndexedSocialService indexed = new IndexedSocialService(server.getServiceUrl(),
+				socialService.getTransport(), new MembershipIndex());
+		CachingSocialService socialService = new CachingSocialService(indexed,
+				new ClientCache(100, 60000));
+		Group g = socialService.createUserGroup(TOKEN, "indexed");
+		socialService.addUsersToGroup(g.getSocialId(), Arrays.asList("u1", "u2"), TOKEN);
+		Assert.assertEquals(2, socialService.getUserGroups(TOKEN).getContent().get(0).getUsers()
+				.size());
+		long requests = server.getRequestCount();
+		// the listing loaded into the cache is indexed, both answer in memory
+		Assert.assertEquals(1, socialService.getUserGroups(TOKEN).getContent().size());
+		Assert.assertTrue(indexed.isInAnyGroup(TOKEN, "u1"));
+		Assert.assertTrue(indexed.isGroupMember(g.getSocialId(), "u2", TOKEN));
+		Assert.assertEquals(requests, server.getRequestCount());
+
+		// the writes reach both
+		socialService.removeUsersFromGroup(g.getSocialId(), Collections.singletonList("u1"), TOKEN);
+		Assert.assertFalse(indexed.isInAnyGroup(TOKEN, "u1"));
+		Assert.assertEquals(1, socialService.getUserGroup(g.getSocialId(), TOKEN).getUsers().size());
+	}
+
+	@Test
+	public void communityEntities() throws Exception {
+		String entityId = socialService.getCommunityEntities("cached", TOKEN, 0, 5, null)
+				.getContent().get(0).getEntityId();
+		socialService.getCommunityEntity("cached", TOKEN, entityId);
+		long requests = server.getRequestCount();
+		socialService.getCommunityEntities("cached", TOKEN, 0, 5, null);
+		socialService.getCommunityEntity("cached", TOKEN, entityId);
+		Assert.assertEquals(requests, server.getRequestCount());
+
+		EntityRequest req = new EntityRequest();
+		req.setId(entityId);
+		req.setName("new name");
+		Assert.assertTrue(socialService.updateCommunityEntity("cached", TOKEN, req));
+		Assert.assertEquals("new name", socialService.getCommunityEntity("cached", TOKEN, entityId).getTitle());
+		Assert.assertEquals("new name", socialService.getCommunityEntities("cached", TOKEN, 0, 5, null)
+				.getContent().get(0).getTitle());
+
+		Assert.assertTrue(socialService.deleteCommunityEntity("cached", TOKEN, entityId));
+		Assert.assertNull(socialService.getCommunityEntity("cached", TOKEN, entityId));
+		Assert.assertEquals(9, socialService.getCommunityEntities("cached", TOKEN, null, null, null).getContent().size());
+	}
+
+	@Test
+	public void staleWhileRevalidate() throws Exception {
+		server.addCommunity("landing");
+		CachingSocialService socialService = new CachingSocialService(server.getServiceUrl(),
+				new ClientCache(100, 200));
+		socialService.setMaxStaleness(60000);
+		int communities = socialService.getCommunities(TOKEN).getContent().size();
+		Thread.sleep(250);
+
+		// expired values are returned without waiting for the slow service
+		server.setLatency(500, 0);
+		server.addCommunity("new");
+		long requests = server.getRequestCount();
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(communities, socialService.getCommunities(TOKEN).getContent().size());
+		}
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+		Assert.assertEquals(10, socialService.getCache().getStaleHits());
+		Thread.sleep(700);
+		// refreshed once in background
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+		server.setLatency(0, 0);
+		Assert.assertEquals(communities + 1, socialService.getCommunities(TOKEN).getContent().size());
+		Thread.sleep(100);
+
+		// a failed refresh keeps the expired value
+		server.setErrorRate(1);
+		Thread.sleep(250);
+		Assert.assertEquals(communities + 1, socialService.getCommunities(TOKEN).getContent().size());
+		Thread.sleep(100);
+		Assert.assertEquals(1, socialService.getCache().getRefreshFailures());
+		Assert.assertEquals(communities + 1, socialService.getCommunities(TOKEN).getContent().size());
+
+		// not beyond the max staleness
+		socialService.setMaxStaleness(100);
+		Thread.sleep(350);
+		try {
+			socialService.getCommunities(TOKEN);
+			Assert.fail("value older than the max staleness");
+		} catch (SocialServiceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void concurrentMisses() throws Exception {
+		final ClientCache cache = new ClientCache(10, 60000);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final ClientCache.Loader<String> loader = new ClientCache.Loader<String>() {
+			@Override
+			public String load() throws SocialServiceException {
+				loads.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new SocialServiceException(e);
+				}
+				return "value";
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		try {
+			List<Future<String>> calls = new ArrayList<Future<String>>();
+			for (int i = 0; i < 10; i++) {
+				calls.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return cache.get("key", loader, "scope");
+					}
+				}));
+			}
+			Thread.sleep(200);
+
+			// a caller waiting for the load does not outlive its deadline
+			CallContext context = CallContext.withTimeout(100, TimeUnit.MILLISECONDS);
+			CallContext previous = context.attach();
+			try {
+				cache.get("key", loader, "scope");
+				Assert.fail("deadline not applied");
+			} catch (SocialServiceException e) {
+				Assert.assertTrue(((CallAbortedException) e.getCause()).isDeadlineExceeded());
+			} finally {
+				CallContext.restore(previous);
+				context.close();
+			}
+
+			release.countDown();
+			for (Future<String> call : calls) {
+				Assert.assertEquals("value", call.get());
+			}
+			Assert.assertEquals(1, loads.get());
+			Assert.assertEquals(1, cache.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void invalidationDuringLoad() throws Exception {
+		final ClientCache cache = new ClientCache(10, 60000);
+		String value = cache.get("key", new ClientCache.Loader<String>() {
+			@Override
+			public String load() throws SocialServiceException {
+				// a write completes while the value is being read
+				cache.invalidate("scope");
+				return "stale";
+			}
+		}, "scope");
+		Assert.assertEquals("stale", value);
+		Assert.assertEquals(0, cache.size());
+
+		cache.get("key", new ClientCache.Loader<String>() {
+			@Override
+			public String load() throws SocialServiceException {
+				return "fresh";
+			}
+		}, "scope");
+		Assert.assertEquals(1, cache.size());
+		cache.invalidate("scope");
+		Assert.assertEquals(0, cache.size());
+	}
+}
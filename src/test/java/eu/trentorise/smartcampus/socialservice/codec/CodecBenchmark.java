@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.lazy.LazyEntities;
+
+/**
+ * Decoding cost of an {@link Entities} page: the current {@link JsonUtils}
+ * path, the Smile codec and the lazy listing reading the ids only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ "20", "500" })
+	private int entities;
+
+	private final SmileCodec smileCodec = new SmileCodec();
+	private final JsonCodec jsonCodec = new JsonCodec();
+	private String json;
+	private byte[] jsonBytes;
+	private byte[] smile;
+
+	@Setup
+	public void setup() throws UnsupportedEncodingException {
+		Entities page = new Entities();
+		page.setContent(new ArrayList<Entity>());
+		for (int i = 0; i < entities; i++) {
+			Concept tag = new Concept();
+			tag.setId("concept-" + (i % 50));
+			tag.setName("concept name " + (i % 50));
+			Entity e = new Entity();
+			e.setEntityId("entity-" + i);
+			e.setTitle("title of entity " + i);
+			e.setDescription("a description long enough to matter in the payload of entity " + i);
+			e.setType("type-" + (i % 10));
+			e.setTags(Collections.singletonList(tag));
+			page.getContent().add(e);
+		}
+		json = JsonUtils.toJSON(page);
+		jsonBytes = json.getBytes("UTF-8");
+		smile = smileCodec.encode(page);
+	}
+
+	@Benchmark
+	public Entities jsonUtils() {
+		return JsonUtils.toObject(json, Entities.class);
+	}
+
+	@Benchmark
+	public Entities jsonCodec() {
+		return jsonCodec.decode(jsonBytes, Entities.class);
+	}
+
+	@Benchmark
+	public Entities smileCodec() {
+		return smileCodec.decode(smile, Entities.class);
+	}
+
+	@Benchmark
+	public int lazyIds() {
+		LazyEntities lazy = LazyEntities.parse(jsonBytes);
+		int h = 0;
+		for (int i = 0; i < lazy.size(); i++) {
+			h += lazy.get(i).getEntityId().length();
+		}
+		return h;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(
+				CodecBenchmark.class.getSimpleName()).build()).run();
+	}
+}
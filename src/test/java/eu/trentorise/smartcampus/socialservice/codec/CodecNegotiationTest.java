@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class CodecNegotiationTest {
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.seedCommunityEntities("codec", 20);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+		socialService.setCodecs(new Codecs(new SmileCodec()));
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void accept() {
+		Assert.assertEquals("application/x-jackson-smile, application/json;q=0.9",
+				new Codecs(new SmileCodec()).getAccept());
+		Assert.assertEquals("application/json", Codecs.json().getAccept());
+		Assert.assertSame(Codecs.json().getJson(),
+				Codecs.json().forContentType("application/octet-stream"));
+	}
+
+	@Test
+	public void smile() throws Exception {
+		server.setSmileEnabled(true);
+		Entities entities = socialService.getCommunityEntities("codec", "token", 0, 10, null);
+		Assert.assertEquals(10, entities.getContent().size());
+		Assert.assertEquals(1, entities.getContent().get(0).getTags().size());
+		// the stub transcodes the JSON of the model, the two paths decode alike
+		server.setSmileEnabled(false);
+		Entities json = socialService.getCommunityEntities("codec", "token", 0, 10, null);
+		Assert.assertEquals(JsonUtils.toJSON(json), JsonUtils.toJSON(entities));
+		server.setSmileEnabled(true);
+		Group g = socialService.createUserGroup("token", "smile group");
+		Assert.assertEquals("smile group", g.getName());
+		Assert.assertTrue(socialService.deleteUserGroup("token", g.getSocialId()));
+		Assert.assertEquals(2, server.getSmileResponseCount());
+		// lazy listings always ask for JSON
+		Assert.assertEquals(20, socialService.getCommunityEntitiesLazy("codec", "token", null, null, null).size());
+		Assert.assertEquals(2, server.getSmileResponseCount());
+	}
+
+	@Test
+	public void fallback() throws Exception {
+		server.setSmileEnabled(false);
+		Entities entities = socialService.getCommunityEntities("codec", "token", 0, 10, null);
+		Assert.assertEquals(10, entities.getContent().size());
+		Assert.assertEquals(0, server.getSmileResponseCount());
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.codec;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class InternerTest {
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.seedCommunityEntities("interned", 200);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void values() {
+		Interner interner = new Interner(16);
+		String id = interner.intern(new String("concept-1"));
+		Assert.assertSame(id, interner.intern(new String("concept-1")));
+		Assert.assertNull(interner.intern((String) null));
+
+		Concept concept = concept("concept-1", "first");
+		Assert.assertSame(concept, interner.intern(concept));
+		Assert.assertSame(id, concept.getId());
+		Assert.assertSame(concept, interner.intern(concept("concept-1", "first")));
+		Concept renamed = concept("concept-1", "renamed");
+		Assert.assertSame(renamed, interner.intern(renamed));
+
+		// more values than slots are accepted, the table does not grow
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals("value " + i, interner.intern("value " + i));
+		}
+	}
+
+	@Test
+	public void decoded() throws Exception {
+		List<Entity> plain = socialService.getCommunityEntities("interned", "token", 0, 200, null)
+				.getContent();
+		Assert.assertEquals(200, distinctTags(plain));
+
+		socialService.setInterner(new Interner());
+		List<Entity> entities = new ArrayList<Entity>();
+		entities.addAll(socialService.getCommunityEntities("interned", "token", 0, 100, null)
+				.getContent());
+		entities.addAll(socialService.getCommunityEntities("interned", "token", 100, 100, null)
+				.getContent());
+		Assert.assertEquals(200, entities.size());
+		// the entities of both pages share the concepts of the server
+		Assert.assertEquals(distinctConcepts(plain), distinctTags(entities));
+		String type = entities.get(0).getType();
+		Assert.assertNotNull(type);
+		Assert.assertSame(type, findType(entities, type));
+		Assert.assertSame(entities.get(0).getCommunityOwner(), entities.get(150)
+				.getCommunityOwner());
+
+		// the tags keep their values
+		for (int i = 0; i < entities.size(); i++) {
+			Concept tag = entities.get(i).getTags().get(0);
+			Assert.assertEquals(plain.get(i).getTags().get(0).getId(), tag.getId());
+			Assert.assertEquals(plain.get(i).getTags().get(0).getName(), tag.getName());
+		}
+	}
+
+	private static int distinctTags(List<Entity> entities) {
+		Map<Concept, Boolean> tags = new IdentityHashMap<Concept, Boolean>();
+		for (Entity entity : entities) {
+			for (Concept tag : entity.getTags()) {
+				tags.put(tag, Boolean.TRUE);
+			}
+		}
+		return tags.size();
+	}
+
+	private static int distinctConcepts(List<Entity> entities) {
+		List<String> ids = new ArrayList<String>();
+		for (Entity entity : entities) {
+			for (Concept tag : entity.getTags()) {
+				if (!ids.contains(tag.getId())) {
+					ids.add(tag.getId());
+				}
+			}
+		}
+		return ids.size();
+	}
+
+	private static String findType(List<Entity> entities, String type) {
+		for (int i = entities.size() - 1; i > 0; i--) {
+			if (type.equals(entities.get(i).getType())) {
+				return entities.get(i).getType();
+			}
+		}
+		return null;
+	}
+
+	private static Concept concept(String id, String name) {
+		Concept concept = new Concept();
+		concept.setId(new String(id));
+		concept.setName(new String(name));
+		return concept;
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.feed;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class ChangeFeedTest {
+
+	private static final String OWNER = "owner";
+	private static final String VIEWER = "viewer";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private ChangeFeed feed;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		socialService = new SocialService(server.getServiceUrl());
+		feed = new ChangeFeed(socialService, 50, 400);
+	}
+
+	@After
+	public void shutdown() {
+		feed.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void deltas() throws Exception {
+		Entity first = create("first");
+		Entity second = create("second");
+		Assert.assertTrue(socialService.shareUserEntity(OWNER, first.getEntityId(), allUsers()));
+
+		Recorder a = new Recorder();
+		Recorder b = new Recorder();
+		ChangeFeed.Subscription subscriptionA = feed.subscribeUserShares(VIEWER, null, null, a);
+		ChangeFeed.Subscription subscriptionB = feed.subscribeUserShares(VIEWER, null, null, b);
+		ChangeFeed.Subscription other = feed.subscribeUserShares(VIEWER, null, "type-x",
+				new Recorder());
+		Assert.assertEquals(2, feed.getPollerCount());
+		// baseline
+		Thread.sleep(200);
+		Assert.assertTrue(a.changes.isEmpty());
+
+		Assert.assertTrue(socialService.shareUserEntity(OWNER, second.getEntityId(), allUsers()));
+		EntityChanges changes = a.next();
+		Assert.assertEquals(1, changes.getAdded().size());
+		Assert.assertEquals(second.getEntityId(), changes.getAdded().get(0).getEntityId());
+		Assert.assertTrue(changes.getRemoved().isEmpty());
+		Assert.assertTrue(changes.getChanged().isEmpty());
+		// one poll for both subscriptions
+		Assert.assertSame(changes, b.next());
+
+		EntityRequest update = new EntityRequest();
+		update.setId(first.getEntityId());
+		update.setName("renamed");
+		Assert.assertTrue(socialService.updateUserEntity(OWNER, update));
+		changes = a.next();
+		Assert.assertEquals(1, changes.getChanged().size());
+		Assert.assertEquals("renamed", changes.getChanged().get(0).getTitle());
+		Assert.assertTrue(changes.getAdded().isEmpty());
+
+		Assert.assertTrue(socialService.unshareUserEntity(OWNER, second.getEntityId()));
+		changes = a.next();
+		Assert.assertEquals(1, changes.getRemoved().size());
+		Assert.assertEquals(second.getEntityId(), changes.getRemoved().get(0).getEntityId());
+		Assert.assertEquals(0, a.failures);
+
+		subscriptionA.cancel();
+		Assert.assertEquals(2, feed.getPollerCount());
+		subscriptionB.cancel();
+		other.cancel();
+		Assert.assertEquals(0, feed.getPollerCount());
+		Thread.sleep(500);
+		long requests = server.getRequestCount();
+		Thread.sleep(500);
+		Assert.assertEquals(requests, server.getRequestCount());
+	}
+
+	@Test
+	public void adaptiveInterval() throws Exception {
+		Entity entity = create("entity");
+		Recorder recorder = new Recorder();
+		ChangeFeed.Subscription subscription = feed.subscribeUserShares(VIEWER, null, null,
+				recorder);
+		// idle, the interval grows to the max
+		Thread.sleep(1200);
+		Assert.assertEquals(400, subscription.getIntervalMillis());
+		long requests = server.getRequestCount();
+		Thread.sleep(800);
+		Assert.assertTrue(server.getRequestCount() - requests <= 3);
+
+		// a change brings it back to the min
+		Assert.assertTrue(socialService.shareUserEntity(OWNER, entity.getEntityId(), allUsers()));
+		Assert.assertEquals(1, recorder.next().getAdded().size());
+		Assert.assertEquals(50, subscription.getIntervalMillis());
+
+		// failures back off and are reported
+		server.setErrorRate(1);
+		Thread.sleep(1200);
+		Assert.assertTrue(recorder.failures > 0);
+		Assert.assertEquals(400, subscription.getIntervalMillis());
+		server.setErrorRate(0);
+		subscription.cancel();
+	}
+
+	private Entity create(String name) throws Exception {
+		EntityRequest request = new EntityRequest();
+		request.setName(name);
+		return socialService.createUserEntity(OWNER, request);
+	}
+
+	private static ShareVisibility allUsers() {
+		ShareVisibility visibility = new ShareVisibility();
+		visibility.setAllUsers(true);
+		return visibility;
+	}
+
+	private static class Recorder implements ChangeListener {
+		final BlockingQueue<EntityChanges> changes = new LinkedBlockingQueue<EntityChanges>();
+		volatile int failures;
+
+		@Override
+		public void onChanges(EntityChanges changes) {
+			this.changes.add(changes);
+		}
+
+		@Override
+		public void onFailure(Exception failure) {
+			failures++;
+		}
+
+		EntityChanges next() throws InterruptedException {
+			EntityChanges next = changes.poll(2, TimeUnit.SECONDS);
+			Assert.assertNotNull("no changes", next);
+			return next;
+		}
+	}
+}
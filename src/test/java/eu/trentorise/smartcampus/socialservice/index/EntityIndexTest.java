@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class EntityIndexTest {
+
+	private static final String TOKEN = "entity-index-token";
+
+	private StubSocialServer server;
+	private IndexedSocialService socialService;
+	private EntityIndex entityIndex;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.seedCommunityEntities("first", 30);
+		server.seedCommunityEntities("second", 10);
+		socialService = new IndexedSocialService(server.getServiceUrl());
+		entityIndex = new EntityIndex();
+		socialService.setEntityIndex(entityIndex);
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+	}
+
+	@Test
+	public void localQueries() throws Exception {
+		socialService.getCommunityEntities("first", TOKEN, null, null, null);
+		socialService.getCommunityEntities("second", TOKEN, null, null, null);
+		Assert.assertEquals(40, entityIndex.size());
+		Assert.assertEquals(30, entityIndex.byCommunity("first").cardinality());
+
+		long requests = server.getRequestCount();
+		Entity sample = entityIndex.query().community("second").list().get(0);
+		String conceptId = sample.getTags().get(0).getId();
+		List<Entity> tagged = entityIndex.query().community("first").concept(conceptId).list();
+		Assert.assertFalse(tagged.isEmpty());
+		for (Entity e : tagged) {
+			Assert.assertEquals(conceptId, e.getTags().get(0).getId());
+			Assert.assertEquals("first", e.getCommunityOwner());
+		}
+		Assert.assertEquals(tagged.size(), entityIndex.query().community("first").type(tagged.get(0).getType()).count());
+		Assert.assertEquals(30 - tagged.size(),
+				entityIndex.query().community("first").excludeConcept(conceptId).count());
+		Assert.assertEquals(0, entityIndex.query().type("unknown").count());
+		Assert.assertEquals(requests, server.getRequestCount());
+	}
+
+	@Test
+	public void updates() throws Exception {
+		socialService.getCommunityEntities("first", TOKEN, null, null, null);
+		Entity e = entityIndex.query().community("first").list().get(0);
+		String conceptId = e.getTags().get(0).getId();
+		int tagged = entityIndex.byConcept(conceptId).cardinality();
+
+		Concept other = new Concept();
+		other.setId("other");
+		Entity changed = new Entity();
+		changed.setEntityId(e.getEntityId());
+		changed.setType(e.getType());
+		changed.setTags(Collections.singletonList(other));
+		entityIndex.put("first", changed);
+		Assert.assertEquals(tagged - 1, entityIndex.byConcept(conceptId).cardinality());
+		Assert.assertTrue(entityIndex.byConcept("other").cardinality() == 1);
+		Assert.assertEquals(30, entityIndex.size());
+
+		socialService.deleteCommunityEntity("first", TOKEN, e.getEntityId());
+		Assert.assertNull(entityIndex.get(e.getEntityId()));
+		Assert.assertTrue(entityIndex.byConcept("other").isEmpty());
+		Assert.assertEquals(29, entityIndex.byCommunity("first").cardinality());
+	}
+}
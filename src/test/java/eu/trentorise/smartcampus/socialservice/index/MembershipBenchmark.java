@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.social.model.Groups;
+
+/**
+ * "is the user in any group of the token" answered scanning the
+ * {@link Group#getUsers()} lists and through the {@link MembershipIndex}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MembershipBenchmark {
+
+	private static final String TOKEN = "token";
+
+	@Param({ "10", "100" })
+	private int groups;
+
+	@Param({ "50", "1000" })
+	private int members;
+
+	private Groups listing;
+	private MembershipIndex index;
+	private String last;
+
+	@Setup
+	public void setup() {
+		listing = new Groups();
+		listing.setContent(new ArrayList<Group>());
+		for (int g = 0; g < groups; g++) {
+			Group group = new Group();
+			group.setSocialId("group-" + g);
+			List<String> users = new ArrayList<String>();
+			for (int u = 0; u < members; u++) {
+				users.add("user-" + (g * members / 2 + u));
+			}
+			group.setUsers(users);
+			listing.getContent().add(group);
+		}
+		index = new MembershipIndex();
+		index.refreshGroups(TOKEN, listing);
+		last = "user-" + ((groups - 1) * members / 2 + members - 1);
+	}
+
+	@Benchmark
+	public boolean scan() {
+		for (Group group : listing.getContent()) {
+			if (group.getUsers().contains(last)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Benchmark
+	public boolean index() {
+		return index.isInAnyGroup(TOKEN, last);
+	}
+
+	@Benchmark
+	public boolean intersection() {
+		return index.getGroupMembers("group-0").intersects(
+				index.getGroupMembers("group-1"));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(
+				MembershipBenchmark.class.getSimpleName()).build()).run();
+	}
+}
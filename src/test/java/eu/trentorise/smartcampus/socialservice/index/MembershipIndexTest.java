@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.index;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class MembershipIndexTest {
+
+	private static final String TOKEN = "index-token";
+
+	private StubSocialServer server;
+	private IndexedSocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		socialService = new IndexedSocialService(server.getServiceUrl());
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+	}
+
+	@Test
+	public void bitmap() {
+		MembershipBitmap sparse = MembershipBitmap.of(8, 4, 70000, 4, 1 << 20);
+		Assert.assertEquals(4, sparse.cardinality());
+		Assert.assertTrue(sparse.contains(70000));
+		Assert.assertFalse(sparse.contains(70001));
+		Assert.assertFalse(sparse.contains(-1));
+
+		int[] values = new int[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 2;
+		}
+		MembershipBitmap dense = MembershipBitmap.of(values);
+		Assert.assertEquals(10000, dense.cardinality());
+		Assert.assertTrue(dense.byteSize() < values.length * 4);
+		Assert.assertTrue(dense.contains(19998));
+		Assert.assertFalse(dense.contains(19999));
+		Assert.assertTrue(dense.intersects(sparse));
+		Assert.assertEquals(MembershipBitmap.of(70000, 1 << 20), sparse.andNot(dense));
+		Assert.assertEquals(2, dense.and(sparse).cardinality());
+		Assert.assertEquals(10002, dense.or(sparse).cardinality());
+		MembershipBitmap half = dense.without(Arrays.copyOfRange(values, 0, 5000));
+		Assert.assertEquals(5000, half.cardinality());
+		Assert.assertFalse(half.contains(9998));
+		Assert.assertTrue(half.with(1).contains(1));
+		Assert.assertTrue(dense.and(MembershipBitmap.of(1, 3, 5)).isEmpty());
+		Assert.assertFalse(MembershipBitmap.EMPTY.intersects(dense));
+	}
+
+	@Test
+	public void groups() throws Exception {
+		Group g = socialService.createUserGroup(TOKEN, "indexed");
+		Assert.assertTrue(socialService.addUsersToGroup(g.getSocialId(), Arrays.asList("u1", "u2"), TOKEN));
+		long requests = server.getRequestCount();
+		Assert.assertTrue(socialService.isInAnyGroup(TOKEN, "u1"));
+		Assert.assertFalse(socialService.isInAnyGroup(TOKEN, "u3"));
+		Assert.assertTrue(socialService.isGroupMember(g.getSocialId(), "u2", TOKEN));
+		Assert.assertFalse(socialService.isGroupMember(g.getSocialId(), "unknown", TOKEN));
+		// the groups of the token are read once
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+
+		socialService.removeUsersFromGroup(g.getSocialId(), Collections.singletonList("u1"), TOKEN);
+		Assert.assertFalse(socialService.isInAnyGroup(TOKEN, "u1"));
+		Group other = socialService.createUserGroup(TOKEN, "other");
+		socialService.addUsersToGroup(other.getSocialId(), Collections.singletonList("u3"), TOKEN);
+		Assert.assertTrue(socialService.isInAnyGroup(TOKEN, "u3"));
+		MembershipIndex index = socialService.getIndex();
+		Assert.assertEquals(Arrays.asList("u2", "u3"),
+				index.toUserIds(index.getTokenMembers(TOKEN)));
+
+		socialService.deleteUserGroup(TOKEN, other.getSocialId());
+		Assert.assertFalse(socialService.isInAnyGroup(TOKEN, "u3"));
+		Assert.assertEquals(requests + 1, server.getRequestCount() - 4);
+	}
+
+	@Test
+	public void communities() throws Exception {
+		server.addCommunity("indexed");
+		socialService.getIndex().bindToken(TOKEN, "user-" + TOKEN);
+		Assert.assertTrue(socialService.addUserToCommunity(TOKEN, "indexed"));
+		Assert.assertTrue(socialService.getIndex().isCommunityMember("indexed", "user-" + TOKEN));
+		socialService.removeUserFromCommunity(TOKEN, "indexed");
+		Assert.assertFalse(socialService.getIndex().isCommunityMember("indexed", "user-" + TOKEN));
+		socialService.addUserToCommunity(TOKEN, "indexed");
+		socialService.getIndex().clear();
+		Assert.assertEquals(1, socialService.getUserCommunities(TOKEN).getContent().size());
+		Assert.assertTrue(socialService.getIndex().isCommunityMember("indexed", "user-" + TOKEN));
+	}
+}
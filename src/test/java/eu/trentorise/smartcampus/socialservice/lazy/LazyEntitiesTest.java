@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.lazy;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class LazyEntitiesTest {
+
+	private static final String JSON = "{\"content\" : [ "
+			+ "{\"entityId\":\"e1\",\"title\":\"say \\\"hi\\\" \\u00e8\",\"description\":null,"
+			+ "\"tags\":[{\"id\":\"c1\",\"name\":\"concert\"},{\"name\":\"x\",\"id\":\"c2\"}],\"type\":\"t1\"},"
+			+ " {\"entityId\":\"e2\",\"visibility\":{\"allUsers\":true,\"userIds\":[\"a]\"]},\"title\":\"caf\u00e9\"}"
+			+ "], \"other\":1}";
+
+	@Test
+	public void fields() {
+		LazyEntities entities = LazyEntities.parse(JSON);
+		Assert.assertEquals(2, entities.size());
+		LazyEntity first = entities.get(0);
+		Assert.assertEquals("e1", first.getEntityId());
+		Assert.assertEquals("say \"hi\" \u00e8", first.getTitle());
+		Assert.assertNull(first.getDescription());
+		Assert.assertFalse(first.has("description"));
+		Assert.assertEquals("t1", first.getType());
+		Assert.assertEquals(Arrays.asList("c1", "c2"), first.getTagIds());
+
+		LazyEntity second = entities.get(1);
+		Assert.assertEquals("e2", second.getEntityId());
+		Assert.assertEquals("caf\u00e9", second.getTitle());
+		Assert.assertTrue(second.getTagIds().isEmpty());
+		Assert.assertEquals("{\"allUsers\":true,\"userIds\":[\"a]\"]}", second.getString("visibility"));
+	}
+
+	@Test
+	public void projection() {
+		List<Entity> projected = LazyEntities.parse(JSON).project(LazyEntity.ENTITY_ID, LazyEntity.TITLE);
+		Assert.assertEquals("e1", projected.get(0).getEntityId());
+		Assert.assertNull(projected.get(0).getTags());
+		Assert.assertEquals("caf\u00e9", projected.get(1).getTitle());
+		Entity full = LazyEntities.parse(JSON).get(0).toEntity();
+		Assert.assertEquals(2, full.getTags().size());
+	}
+
+	@Test
+	public void empty() {
+		Assert.assertTrue(LazyEntities.parse((String) null).isEmpty());
+		Assert.assertTrue(LazyEntities.parse("{\"content\":[]}").isEmpty());
+		Assert.assertTrue(LazyEntities.parse("{\"content\":null}").isEmpty());
+		Assert.assertEquals(1, LazyEntities.parse("[{\"entityId\":\"e\"}]").size());
+	}
+
+	@Test
+	public void listing() throws Exception {
+		StubSocialServer server = new StubSocialServer();
+		server.start(2);
+		try {
+			server.seedCommunityEntities("lazy", 30);
+			LazyEntities entities = new SocialService(server.getServiceUrl())
+					.getCommunityEntitiesLazy("lazy", "token", 0, 25, null);
+			Assert.assertEquals(25, entities.size());
+			for (LazyEntity e : entities) {
+				Assert.assertNotNull(e.getEntityId());
+				Assert.assertEquals(1, e.getTagIds().size());
+			}
+		} finally {
+			server.stop();
+		}
+	}
+}
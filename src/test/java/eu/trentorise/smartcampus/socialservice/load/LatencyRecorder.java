@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in microseconds. Values are exact below 64us,
+ * above they fall in 32 linear steps per power of two, so percentiles keep a
+ * relative precision of about 3% from microseconds up to hours.
+ */
+public class LatencyRecorder {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS
+			* SUB_BUCKETS);
+
+	/**
+	 * records a latency
+	 *
+	 * @param nanos
+	 *            latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(index(Math.max(0, nanos / 1000)));
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long count() {
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return the latency of the percentile in microseconds
+	 */
+	public long percentile(double percentile) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(1, rank)) {
+				return value(i);
+			}
+		}
+		return value(counts.length() - 1);
+	}
+
+	/**
+	 * @param unit
+	 *            unit of the result
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return the latency of the percentile in the given unit
+	 */
+	public double percentile(double percentile, TimeUnit unit) {
+		return percentile(percentile) / (double) unit.toMicros(1);
+	}
+
+	private static int index(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int bucket = 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+		int sub = (int) (micros >>> bucket) - SUB_BUCKETS / 2;
+		int index = SUB_BUCKETS + (bucket - 1) * (SUB_BUCKETS / 2) + sub;
+		return Math.min(index, BUCKETS * SUB_BUCKETS - 1);
+	}
+
+	/**
+	 * @return the highest value of the bucket
+	 */
+	private static long value(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int bucket = (index - SUB_BUCKETS) / (SUB_BUCKETS / 2) + 1;
+		int sub = (index - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+		return ((long) (sub + 1) << bucket) - 1;
+	}
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.load;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+/**
+ * Drives a {@link SocialService} with a given operation and measures
+ * throughput and latency percentiles.
+ *
+ * The closed-loop mode keeps a fixed number of callers busy, each starting a
+ * call as soon as the previous one ends. The open-loop mode starts calls at a
+ * fixed rate whatever the response time is, and measures every latency from
+ * the time the call was scheduled, so a slow client shows up in the
+ * percentiles instead of silently lowering the offered load.
+ */
+public class LoadDriver {
+
+	/**
+	 * a call issued by the driver
+	 */
+	public interface Operation {
+		/**
+		 * @param service
+		 *            client under test
+		 * @param iteration
+		 *            sequence number of the call
+		 * @throws Exception
+		 *             counted as an error
+		 */
+		void call(SocialService service, long iteration) throws Exception;
+	}
+
+	private final SocialService service;
+	private final Operation operation;
+	private long warmupMillis = 0;
+
+	public LoadDriver(SocialService service, Operation operation) {
+		this.service = service;
+		this.operation = operation;
+	}
+
+	/**
+	 * @param warmupMillis
+	 *            time spent calling the operation before measuring
+	 */
+	public void setWarmup(long warmupMillis) {
+		this.warmupMillis = warmupMillis;
+	}
+
+	/**
+	 * runs the operation from a fixed number of callers
+	 *
+	 * @param concurrency
+	 *            number of callers
+	 * @param durationMillis
+	 *            measured duration
+	 * @return the report of the measured interval
+	 * @throws InterruptedException
+	 */
+	public LoadReport closedLoop(final int concurrency, long durationMillis)
+			throws InterruptedException {
+		if (warmupMillis > 0) {
+			runClosed(concurrency, warmupMillis, new LatencyRecorder());
+		}
+		LatencyRecorder latencies = new LatencyRecorder();
+		long start = System.nanoTime();
+		long[] outcome = runClosed(concurrency, durationMillis, latencies);
+		return new LoadReport("closed-loop x" + concurrency, outcome[0],
+				outcome[1], System.nanoTime() - start, latencies);
+	}
+
+	/**
+	 * starts the operation at a fixed rate
+	 *
+	 * @param ratePerSecond
+	 *            calls started per second
+	 * @param maxConcurrency
+	 *            callers available to run the calls
+	 * @param durationMillis
+	 *            measured duration
+	 * @return the report of the measured interval
+	 * @throws InterruptedException
+	 */
+	public LoadReport openLoop(double ratePerSecond, int maxConcurrency,
+			long durationMillis) throws InterruptedException {
+		if (warmupMillis > 0) {
+			runOpen(ratePerSecond, maxConcurrency, warmupMillis,
+					new LatencyRecorder());
+		}
+		LatencyRecorder latencies = new LatencyRecorder();
+		long start = System.nanoTime();
+		long[] outcome = runOpen(ratePerSecond, maxConcurrency, durationMillis,
+				latencies);
+		return new LoadReport("open-loop " + ratePerSecond + "/s", outcome[0],
+				outcome[1], System.nanoTime() - start, latencies);
+	}
+
+	private long[] runClosed(int concurrency, long durationMillis,
+			final LatencyRecorder latencies) throws InterruptedException {
+		final long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(concurrency);
+		ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			callers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.nanoTime() < deadline) {
+							long begin = System.nanoTime();
+							invoke(calls.getAndIncrement(), errors);
+							latencies.record(System.nanoTime() - begin);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		callers.shutdown();
+		return new long[] { calls.get(), errors.get() };
+	}
+
+	private long[] runOpen(double ratePerSecond, int maxConcurrency,
+			long durationMillis, final LatencyRecorder latencies)
+			throws InterruptedException {
+		final AtomicLong errors = new AtomicLong();
+		final Semaphore inFlight = new Semaphore(maxConcurrency);
+		ExecutorService callers = Executors.newFixedThreadPool(maxConcurrency);
+		long intervalNanos = (long) (1e9 / ratePerSecond);
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		long iteration = 0;
+		for (long scheduled = start; scheduled < end; scheduled += intervalNanos) {
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			// when all callers are busy the call waits, its latency still
+			// counts from the scheduled time
+			inFlight.acquire();
+			final long intended = scheduled;
+			final long current = iteration++;
+			callers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						invoke(current, errors);
+						latencies.record(System.nanoTime() - intended);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		}
+		inFlight.acquire(maxConcurrency);
+		callers.shutdown();
+		return new long[] { iteration, errors.get() };
+	}
+
+	private void invoke(long iteration, AtomicLong errors) {
+		try {
+			operation.call(service, iteration);
+		} catch (Exception e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * runs the default scenarios against a local {@link StubSocialServer}:
+	 * <code>LoadDriver [latencyMillis] [errorRate] [entities] [seconds]</code>
+	 */
+	public static void main(String[] args) throws Exception {
+		long latency = args.length > 0 ? Long.parseLong(args[0]) : 5;
+		double errorRate = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+		int entities = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		long millis = (args.length > 3 ? Long.parseLong(args[3]) : 10) * 1000;
+
+		StubSocialServer server = new StubSocialServer();
+		server.start(64);
+		try {
+			server.seedCommunityEntities("load", entities);
+			server.setLatency(latency, latency);
+			server.setErrorRate(errorRate);
+			LoadDriver driver = new LoadDriver(new SocialService(
+					server.getServiceUrl()), new Operation() {
+				@Override
+				public void call(SocialService service, long iteration)
+						throws Exception {
+					service.getCommunityEntities("load", "token", 0, 20, null);
+				}
+			});
+			driver.setWarmup(2000);
+			System.out.println(driver.closedLoop(16, millis));
+			System.out.println(driver.openLoop(500, 64, millis));
+		} finally {
+			server.stop();
+		}
+	}
+}
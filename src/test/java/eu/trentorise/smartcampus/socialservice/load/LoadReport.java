@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.load;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a load test run
+ */
+public class LoadReport {
+
+	private final String name;
+	private final long calls;
+	private final long errors;
+	private final long elapsedNanos;
+	private final LatencyRecorder latencies;
+
+	LoadReport(String name, long calls, long errors, long elapsedNanos,
+			LatencyRecorder latencies) {
+		this.name = name;
+		this.calls = calls;
+		this.errors = errors;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return completed calls per second
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : calls * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return latency of the percentile in milliseconds
+	 */
+	public double getLatency(double percentile) {
+		return latencies.percentile(percentile, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d calls, %d errors, %.1f calls/s, "
+				+ "p50 %.2fms p90 %.2fms p99 %.2fms p99.9 %.2fms max %.2fms",
+				name, calls, errors, getThroughput(), getLatency(50),
+				getLatency(90), getLatency(99), getLatency(99.9),
+				getLatency(100));
+	}
+}
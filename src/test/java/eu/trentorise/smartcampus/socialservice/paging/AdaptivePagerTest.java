@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.paging;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class AdaptivePagerTest {
+
+	private StubSocialServer server;
+	private SocialService socialService;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		socialService = new SocialService(server.getServiceUrl());
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+	}
+
+	/**
+	 * simulated latency of 20 ms plus the given cost of each item
+	 */
+	private static int converge(PageSizeTuner tuner, double millisPerItem, int bytesPerItem) {
+		int size = 0;
+		for (int i = 0; i < 30; i++) {
+			size = tuner.nextSize();
+			tuner.record(size, (long) ((20 + size * millisPerItem) * 1000000), (long) size * bytesPerItem);
+		}
+		return size;
+	}
+
+	@Test
+	public void latencyTarget() {
+		int size = converge(new PageSizeTuner(200, Long.MAX_VALUE, 10, 5000, 50), 0.5, 100);
+		// (200 - 20) / 0.5
+		Assert.assertTrue("size " + size, size >= 340 && size <= 360);
+		Assert.assertEquals(5000, converge(new PageSizeTuner(200, Long.MAX_VALUE, 10, 5000, 50), 0.01, 100));
+	}
+
+	@Test
+	public void byteBudget() {
+		int size = converge(new PageSizeTuner(200, 64 * 1024, 10, 5000, 50), 0.01, 1024);
+		Assert.assertEquals(64, size);
+	}
+
+	@Test
+	public void spikes() {
+		PageSizeTuner tuner = new PageSizeTuner(200, Long.MAX_VALUE, 10, 5000, 50);
+		int size = converge(tuner, 0.5, 100);
+		tuner.record(size, 2000L * 1000000, 100L * size);
+		Assert.assertTrue(tuner.nextSize() <= size / 2);
+		// growth is bounded after a slow start
+		tuner = new PageSizeTuner(200, Long.MAX_VALUE, 10, 5000, 10);
+		tuner.nextSize();
+		tuner.record(10, 1000000, 1000);
+		Assert.assertEquals(20, tuner.nextSize());
+	}
+
+	@Test
+	public void scan() throws Exception {
+		server.setDescriptionSize(1000);
+		server.seedCommunityEntities("paged", 500);
+		AdaptivePager pager = new AdaptivePager(socialService, 200, 64 * 1024, 5, 1000, 20);
+		EntityScan scan = pager.scanCommunityEntities("paged", "token", null);
+		Set<String> ids = new HashSet<String>();
+		int pages = 0;
+		while (scan.hasNext()) {
+			for (Entity e : scan.next().getContent()) {
+				Assert.assertTrue(ids.add(e.getEntityId()));
+			}
+			pages++;
+		}
+		Assert.assertEquals(500, ids.size());
+		Assert.assertEquals(500, scan.getPosition());
+		PageSizeTuner tuner = pager.tuner("community-entities:paged");
+		Assert.assertEquals(pages, tuner.getPages());
+		// pages of about 1 KB entities are kept within the 64 KB budget
+		Assert.assertTrue(tuner.getBytesPerItem() > 1000);
+		Assert.assertTrue(tuner.nextSize() <= 64);
+		Assert.assertNotSame(tuner, pager.tuner("community-entities:other"));
+	}
+}
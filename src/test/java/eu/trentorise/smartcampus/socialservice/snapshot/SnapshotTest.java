@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.paging.AdaptivePager;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class SnapshotTest {
+
+	private static final String TOKEN = "snapshot-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private File file;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		socialService = new SocialService(server.getServiceUrl());
+		file = File.createTempFile("entities", ".snapshot");
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+		file.delete();
+	}
+
+	@Test
+	public void export() throws Exception {
+		server.seedCommunityEntities("alpha", 120);
+		server.seedCommunityEntities("beta", 50);
+		List<Entity> alpha = socialService.getCommunityEntities("alpha", TOKEN, 0, 120, null)
+				.getContent();
+
+		AdaptivePager pager = new AdaptivePager(socialService);
+		SnapshotWriter writer = new SnapshotWriter(file, 32);
+		try {
+			Assert.assertEquals(120,
+					writer.addAll("alpha", pager.scanCommunityEntities("alpha", TOKEN, null)));
+			Assert.assertEquals(50,
+					writer.addAll("beta", pager.scanCommunityEntities("beta", TOKEN, null)));
+			writer.close();
+		} finally {
+			writer.abort();
+		}
+		Assert.assertFalse(new File(file.getPath() + ".part").exists());
+
+		long requests = server.getRequestCount();
+		Snapshot snapshot = Snapshot.open(file);
+		try {
+			Assert.assertEquals(170, snapshot.size());
+			Map<String, Integer> communities = new HashMap<String, Integer>();
+			communities.put("alpha", 120);
+			communities.put("beta", 50);
+			Assert.assertEquals(communities, snapshot.query().countByCommunity());
+
+			Map<String, Integer> types = new HashMap<String, Integer>();
+			for (Entity entity : alpha) {
+				Integer count = types.get(entity.getType());
+				types.put(entity.getType(), count == null ? 1 : count + 1);
+			}
+			Assert.assertEquals(types, snapshot.query().community("alpha").countByType());
+			Assert.assertEquals(types.size(), snapshot.getTypeIds().size());
+			Assert.assertEquals(120 / 8, snapshot.query().community("alpha").concept("concept-3")
+					.count());
+			Assert.assertEquals(types.get("type-concept-3"),
+					snapshot.query().community("alpha").countByConcept().get("concept-3"));
+			Assert.assertEquals(0, snapshot.query().community("alpha").community("beta").count());
+			Assert.assertEquals(0, snapshot.query().type("unknown").count());
+
+			// rows keep the export order, across blocks
+			for (int row = 0; row < alpha.size(); row++) {
+				Entity entity = alpha.get(row);
+				Assert.assertEquals(entity.getEntityId(), snapshot.getEntityId(row));
+				Assert.assertEquals(entity.getTitle(), snapshot.getTitle(row));
+				Assert.assertEquals(entity.getType(), snapshot.getType(row));
+				Assert.assertEquals("alpha", snapshot.getCommunity(row));
+				Assert.assertEquals(Arrays.asList(entity.getTags().get(0).getId()),
+						snapshot.getTags(row));
+			}
+			Assert.assertEquals("beta", snapshot.getCommunity(169));
+			Assert.assertEquals(requests, server.getRequestCount());
+		} finally {
+			snapshot.close();
+		}
+	}
+
+	@Test
+	public void columns() throws Exception {
+		SnapshotWriter writer = new SnapshotWriter(file, 2);
+		try {
+			writer.add("c1", entity("e1", "caf\u00e9 \ud83c\udfb5", "t1", "u1", 100, "k1", "k2"));
+			writer.add("c1", entity("e2", null, null, null, 200));
+			writer.add(null, entity("e3", "third", "t1", "u2", 300, "k2"));
+			writer.addAll("c2", Arrays.asList(entity("e4", "fourth", "t2", "u1", 400, "k1")));
+			writer.close();
+		} finally {
+			writer.abort();
+		}
+		Snapshot snapshot = Snapshot.open(file);
+		try {
+			Assert.assertEquals(4, snapshot.size());
+			Assert.assertEquals("caf\u00e9 \ud83c\udfb5", snapshot.getTitle(0));
+			Assert.assertEquals("", snapshot.getTitle(1));
+			Assert.assertNull(snapshot.getType(1));
+			Assert.assertNull(snapshot.getOwner(1));
+			Assert.assertEquals(new ArrayList<String>(), snapshot.getTags(1));
+			// without a community the community owner is used
+			Assert.assertEquals("owner-e3", snapshot.getCommunity(2));
+			Assert.assertEquals(Arrays.asList("k1", "k2"), snapshot.getTags(0));
+			Assert.assertEquals(300, snapshot.getCreationDate(2));
+			Assert.assertEquals(301, snapshot.getLastModifiedDate(2));
+			Assert.assertEquals(Arrays.asList("t1", "t2"), snapshot.getTypeIds());
+
+			Assert.assertTrue(Arrays.equals(new int[] { 0, 2 }, snapshot.query().type("t1")
+					.rows()));
+			Assert.assertTrue(Arrays.equals(new int[] { 0, 3 }, snapshot.query().owner("u1")
+					.rows()));
+			Assert.assertTrue(Arrays.equals(new int[] { 1, 2 }, snapshot.query()
+					.createdBetween(200, 400).rows()));
+			Assert.assertEquals(1, snapshot.query().concept("k2").createdBetween(0, 200).count());
+			Assert.assertEquals(0, snapshot.query().concept("k1").concept("k2").count());
+			try {
+				snapshot.getEntityId(4);
+				Assert.fail("row out of range");
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+		} finally {
+			snapshot.close();
+		}
+
+		// truncated files are rejected
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 4);
+		raf.close();
+		try {
+			Snapshot.open(file).close();
+			Assert.fail("truncated snapshot");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// an aborted export leaves the previous snapshot
+		long length = file.length();
+		writer = new SnapshotWriter(file);
+		writer.add("c1", entity("e5", "fifth", "t1", "u1", 500));
+		writer.abort();
+		Assert.assertEquals(length, file.length());
+		Assert.assertFalse(new File(file.getPath() + ".part").exists());
+	}
+
+	private static Entity entity(String id, String title, String type, String owner,
+			long created, String... tags) {
+		Entity entity = new Entity();
+		entity.setEntityId(id);
+		entity.setTitle(title);
+		entity.setType(type);
+		entity.setOwner(owner);
+		entity.setCommunityOwner("owner-" + id);
+		entity.setCreationDate(created);
+		entity.setLastModifiedDate(created + 1);
+		List<Concept> concepts = new ArrayList<Concept>();
+		for (String tag : tags) {
+			Concept concept = new Concept();
+			concept.setId(tag);
+			concepts.add(concept);
+		}
+		entity.setTags(concepts);
+		return entity;
+	}
+}
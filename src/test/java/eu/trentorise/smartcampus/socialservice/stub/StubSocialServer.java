@@ -0,0 +1,926 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.social.model.Communities;
+import eu.trentorise.smartcampus.social.model.Community;
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.social.model.Concepts;
+import eu.trentorise.smartcampus.social.model.Entities;
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.social.model.EntityType;
+import eu.trentorise.smartcampus.social.model.EntityTypes;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.social.model.Groups;
+import eu.trentorise.smartcampus.social.model.ShareVisibility;
+import eu.trentorise.smartcampus.socialservice.codec.SmileCodec;
+
+/**
+ * In-process stand-in of the social service, serving the endpoints used by
+ * {@link eu.trentorise.smartcampus.socialservice.SocialService} from memory.
+ *
+ * Every access token is a distinct user. Latency, error injection and the
+ * size of the entity payloads are configurable, so the client can be
+ * measured without network access.
+ */
+public class StubSocialServer {
+
+	public static final String CONTEXT = "/core.social/";
+
+	private static final String[] CONCEPTS = { "concert", "conference",
+			"test", "theatre", "sport", "music", "museum", "market" };
+
+	private final Object lock = new Object();
+	private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+	private final Map<String, String> groupOwners = new HashMap<String, String>();
+	private final Map<String, Community> communities = new LinkedHashMap<String, Community>();
+	private final Map<String, List<String>> communityMembers = new HashMap<String, List<String>>();
+	private final Map<String, Entity> entities = new LinkedHashMap<String, Entity>();
+	private final Map<String, String> entityOwners = new HashMap<String, String>();
+	private final Map<String, EntityType> types = new LinkedHashMap<String, EntityType>();
+	private final List<Concept> concepts = new ArrayList<Concept>();
+	/** results of the POST and PUT requests by user and idempotency key */
+	private final Map<String, Object> idempotentResults = new HashMap<String, Object>();
+	private int lostResponses;
+	private int rejectedRequests;
+
+	private final AtomicLong ids = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final Random random = new Random();
+
+	private volatile long latency;
+	private volatile long latencyJitter;
+	private volatile double errorRate;
+	private volatile int descriptionSize = 64;
+	private volatile boolean smileEnabled;
+	private final AtomicLong smileResponses = new AtomicLong();
+	private volatile boolean patchEnabled = true;
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final Set<String> clientAddresses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentHashMap<String, List<String>> recordedHeaders = new ConcurrentHashMap<String, List<String>>();
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final SmileFactory smileFactory = new SmileFactory();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public StubSocialServer() {
+		for (int i = 0; i < CONCEPTS.length; i++) {
+			Concept c = new Concept();
+			c.setId("concept-" + i);
+			c.setName(CONCEPTS[i]);
+			concepts.add(c);
+		}
+	}
+
+	/**
+	 * starts the server on a free local port
+	 *
+	 * @param threads
+	 *            number of threads serving the requests
+	 * @throws IOException
+	 */
+	public void start(int threads) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * @return the url to pass to the client
+	 */
+	public String getServiceUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT;
+	}
+
+	/**
+	 * sets the delay added to every response
+	 *
+	 * @param latency
+	 *            fixed delay in milliseconds
+	 * @param jitter
+	 *            maximum random delay in milliseconds added to the fixed one
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.latencyJitter = jitter;
+	}
+
+	/**
+	 * @param errorRate
+	 *            fraction of the requests answered with a server error
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @param descriptionSize
+	 *            length of the description of the seeded entities
+	 */
+	public void setDescriptionSize(int descriptionSize) {
+		this.descriptionSize = descriptionSize;
+	}
+
+	/**
+	 * @param patchEnabled
+	 *            false to answer 405 to the PATCH requests
+	 */
+	public void setPatchEnabled(boolean patchEnabled) {
+		this.patchEnabled = patchEnabled;
+	}
+
+	/**
+	 * @return total size in bytes of the request bodies received
+	 */
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	/**
+	 * @return number of distinct client sockets the requests came from
+	 */
+	public int getClientConnectionCount() {
+		return clientAddresses.size();
+	}
+
+	/**
+	 * @param smileEnabled
+	 *            true to answer in Smile the requests accepting it
+	 */
+	public void setSmileEnabled(boolean smileEnabled) {
+		this.smileEnabled = smileEnabled;
+	}
+
+	/**
+	 * @return number of responses sent in Smile
+	 */
+	public long getSmileResponseCount() {
+		return smileResponses.get();
+	}
+
+	/**
+	 * records the values of a request header, to be checked with
+	 * {@link #getRecordedHeaders(String)}
+	 *
+	 * @param name
+	 *            header name
+	 */
+	public void recordHeader(String name) {
+		recordedHeaders.putIfAbsent(name.toLowerCase(),
+				new CopyOnWriteArrayList<String>());
+	}
+
+	/**
+	 * @return values of a recorded header in order of arrival, null for
+	 *         requests without the header
+	 */
+	public List<String> getRecordedHeaders(String name) {
+		List<String> values = recordedHeaders.get(name.toLowerCase());
+		return values == null ? Collections.<String> emptyList()
+				: new ArrayList<String>(values);
+	}
+
+	/**
+	 * makes the next POST and PUT requests fail after they are executed, as if
+	 * their responses were lost
+	 *
+	 * @param count
+	 *            number of requests answered with 504
+	 */
+	public void setLostResponses(int count) {
+		synchronized (lock) {
+			lostResponses = count;
+		}
+	}
+
+	/**
+	 * makes the next POST and PUT requests fail without executing them
+	 *
+	 * @param count
+	 *            number of requests answered with 400
+	 */
+	public void setRejectedRequests(int count) {
+		synchronized (lock) {
+			rejectedRequests = count;
+		}
+	}
+
+	/**
+	 * @return number of requests served since start
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * creates a community
+	 *
+	 * @param id
+	 *            community id
+	 * @return the community
+	 */
+	public Community addCommunity(String id) {
+		Community c = new Community();
+		c.setId(id);
+		c.setSocialId("social-" + id);
+		c.setName(id);
+		synchronized (lock) {
+			communities.put(id, c);
+			communityMembers.put(id, new ArrayList<String>());
+		}
+		return c;
+	}
+
+	/**
+	 * creates some entities owned by a community, with tags and types taken
+	 * from the concept catalog
+	 *
+	 * @param communityId
+	 *            owner community, created if missing
+	 * @param count
+	 *            number of entities
+	 */
+	public void seedCommunityEntities(String communityId, int count) {
+		synchronized (lock) {
+			if (!communities.containsKey(communityId)) {
+				addCommunity(communityId);
+			}
+			for (int i = 0; i < count; i++) {
+				Concept tag = concepts.get(i % concepts.size());
+				EntityRequest req = new EntityRequest();
+				req.setName("entity " + i);
+				req.setDescription(padding(descriptionSize));
+				req.setTypeId(typeOf(tag).getId());
+				req.setTags(Collections.singletonList(tag));
+				createEntity(communityId, req);
+			}
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		clientAddresses.add(String.valueOf(exchange.getRemoteAddress()));
+		for (Map.Entry<String, List<String>> e : recordedHeaders.entrySet()) {
+			e.getValue().add(String.valueOf(exchange.getRequestHeaders().getFirst(e.getKey())));
+		}
+		try {
+			delay();
+			if (errorRate > 0 && random.nextDouble() < errorRate) {
+				respond(exchange, 503, "injected error");
+				return;
+			}
+			String token = token(exchange);
+			if (token == null) {
+				respond(exchange, 401, "");
+				return;
+			}
+			String path = exchange.getRequestURI().getRawPath()
+					.substring(CONTEXT.length());
+			List<String> segments = segments(path);
+			Map<String, List<String>> query = query(exchange.getRequestURI()
+					.getRawQuery());
+			String body = read(exchange.getRequestBody());
+			receivedBytes.addAndGet(body.getBytes("UTF-8").length);
+			String method = exchange.getRequestMethod();
+			if (method.equals("PATCH")) {
+				if (!patchEnabled) {
+					respond(exchange, 405, "");
+					return;
+				}
+			}
+			Object result;
+			boolean lost = false;
+			synchronized (lock) {
+				String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+				boolean mutation = method.equals("POST") || method.equals("PUT")
+						|| method.equals("PATCH");
+				if (mutation && rejectedRequests > 0) {
+					rejectedRequests--;
+					result = REJECTED;
+				} else if (mutation && key != null && idempotentResults.containsKey(token + '\n' + key)) {
+					result = idempotentResults.get(token + '\n' + key);
+				} else {
+					result = dispatch(method, segments, query, body, "user-" + token);
+					if (mutation && key != null) {
+						idempotentResults.put(token + '\n' + key, result);
+					}
+				}
+				if (mutation && lostResponses > 0) {
+					lostResponses--;
+					lost = true;
+				}
+			}
+			if (lost) {
+				respond(exchange, 504, "response lost");
+				return;
+			}
+			String accept = exchange.getRequestHeaders().getFirst("Accept");
+			if (result == NOT_FOUND) {
+				respond(exchange, 404, "");
+			} else if (result == REJECTED) {
+				respond(exchange, 400, "request rejected");
+			} else if (smileEnabled && result != null && !(result instanceof Boolean)
+					&& accept != null && accept.contains(SmileCodec.MEDIA_TYPE)) {
+				smileResponses.incrementAndGet();
+				respond(exchange, 200, SmileCodec.MEDIA_TYPE, smile(result));
+			} else {
+				respond(exchange, 200, result == null ? "" : result instanceof Boolean ? result.toString()
+						: JsonUtils.toJSON(result));
+			}
+		} catch (Exception e) {
+			respond(exchange, 500, String.valueOf(e));
+		}
+	}
+
+	/**
+	 * encodes a result in Smile by transcoding its {@link JsonUtils} JSON, as
+	 * a service serializing the model with Jackson 1 would, independently
+	 * from the mapper of {@link SmileCodec}
+	 */
+	private byte[] smile(Object result) throws IOException {
+		JsonParser parser = jsonFactory.createParser(JsonUtils.toJSON(result));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonGenerator generator = smileFactory.createGenerator(out);
+		parser.nextToken();
+		generator.copyCurrentStructure(parser);
+		generator.close();
+		parser.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return the request updating an entity to its current state
+	 */
+	private static EntityRequest request(Entity e) {
+		EntityRequest request = new EntityRequest();
+		request.setId(e.getEntityId());
+		request.setName(e.getTitle());
+		request.setDescription(e.getDescription());
+		request.setTags(e.getTags());
+		request.setTypeId(e.getType());
+		return request;
+	}
+
+	/**
+	 * applies a JSON merge patch (RFC 7386) to a JSON document
+	 */
+	private static String mergePatch(String target, String patch) {
+		return JsonUtils.toJSON(merge(JsonUtils.toObject(target, Object.class),
+				JsonUtils.toObject(patch, Object.class)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object merge(Object target, Object patch) {
+		if (!(patch instanceof Map)) {
+			return patch;
+		}
+		Map<String, Object> result = target instanceof Map ? new LinkedHashMap<String, Object>(
+				(Map<String, Object>) target) : new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Object> e : ((Map<String, Object>) patch).entrySet()) {
+			if (e.getValue() == null) {
+				result.remove(e.getKey());
+			} else {
+				result.put(e.getKey(), merge(result.get(e.getKey()), e.getValue()));
+			}
+		}
+		return result;
+	}
+
+	private static final Object NOT_FOUND = new Object();
+	private static final Object REJECTED = new Object();
+
+	private Object dispatch(String method, List<String> s,
+			Map<String, List<String>> query, String body, String user) {
+		int n = s.size();
+		String root = n > 0 ? s.get(0) : "";
+		if (root.equals("user") && n >= 2) {
+			String kind = s.get(1);
+			String id = n > 2 ? s.get(2) : null;
+			if (kind.equals("group")) {
+				if (id == null) {
+					return method.equals("POST") ? createGroup(user, body)
+							: listGroups(user);
+				}
+				if (n > 3) {
+					return members(method, id, query.get("userIds"));
+				}
+				return group(method, id, body);
+			}
+			if (kind.equals("community")) {
+				if (id == null) {
+					return listCommunities(user);
+				}
+				return membership(method, id, user);
+			}
+			if (kind.equals("entities")) {
+				return entities(method, user, id, body, query);
+			}
+			if (kind.equals("shared")) {
+				return shared(method, user, id, body, query);
+			}
+		}
+		if (root.equals("community")) {
+			if (n == 1) {
+				return listCommunities(null);
+			}
+			if (s.get(1).equals("social") && n == 3) {
+				for (Community c : communities.values()) {
+					if (s.get(2).equals(c.getSocialId())) {
+						return c;
+					}
+				}
+				return null;
+			}
+			String cid = s.get(1);
+			if (n == 2) {
+				return community(method, cid, body);
+			}
+			String id = n > 3 ? s.get(3) : null;
+			if (s.get(2).equals("entities")) {
+				return entities(method, cid, id, body, query);
+			}
+			if (s.get(2).equals("shared")) {
+				return shared(method, cid, id, body, query);
+			}
+		}
+		if (root.equals("type")) {
+			if (n == 1) {
+				if (method.equals("POST")) {
+					return typeOf(concept(first(query.get("conceptId"))));
+				}
+				EntityTypes result = new EntityTypes();
+				result.setContent(new ArrayList<EntityType>());
+				for (Concept c : prefix(first(query.get("prefix")),
+						first(query.get("maxResults")))) {
+					result.getContent().add(typeOf(c));
+				}
+				return result;
+			}
+			if (s.get(1).equals("concept") && n == 3) {
+				for (EntityType t : types.values()) {
+					if (t.getConcept().getId().equals(s.get(2))) {
+						return t;
+					}
+				}
+				return null;
+			}
+			return types.get(s.get(1));
+		}
+		if (root.equals("concept")) {
+			Concepts result = new Concepts();
+			result.setContent(prefix(first(query.get("prefix")),
+					first(query.get("maxResults"))));
+			return result;
+		}
+		return NOT_FOUND;
+	}
+
+	private Groups listGroups(String user) {
+		Groups result = new Groups();
+		result.setContent(new ArrayList<Group>());
+		for (Map.Entry<String, String> e : groupOwners.entrySet()) {
+			if (e.getValue().equals(user)) {
+				result.getContent().add(groups.get(e.getKey()));
+			}
+		}
+		return result;
+	}
+
+	private Group createGroup(String user, String body) {
+		Group g = JsonUtils.toObject(body, Group.class);
+		g.setSocialId("group-" + ids.incrementAndGet());
+		g.setUsers(new ArrayList<String>());
+		groups.put(g.getSocialId(), g);
+		groupOwners.put(g.getSocialId(), user);
+		return g;
+	}
+
+	private Object group(String method, String id, String body) {
+		Group g = groups.get(id);
+		if (method.equals("GET")) {
+			return g;
+		}
+		if (g == null) {
+			return false;
+		}
+		if (method.equals("PUT")) {
+			Group update = JsonUtils.toObject(body, Group.class);
+			g.setName(update.getName());
+			if (update.getUsers() != null) {
+				g.setUsers(new ArrayList<String>(update.getUsers()));
+			}
+			return true;
+		}
+		if (method.equals("PATCH")) {
+			Group patched = JsonUtils.toObject(mergePatch(JsonUtils.toJSON(g), body), Group.class);
+			g.setName(patched.getName());
+			g.setUsers(patched.getUsers() == null ? new ArrayList<String>()
+					: new ArrayList<String>(patched.getUsers()));
+			return true;
+		}
+		groups.remove(id);
+		groupOwners.remove(id);
+		return true;
+	}
+
+	private Object members(String method, String id, List<String> userIds) {
+		Group g = groups.get(id);
+		if (g == null) {
+			return false;
+		}
+		List<String> users = g.getUsers() == null ? new ArrayList<String>()
+				: new ArrayList<String>(g.getUsers());
+		for (String userId : userIds(userIds)) {
+			users.remove(userId);
+			if (method.equals("PUT")) {
+				users.add(userId);
+			}
+		}
+		g.setUsers(users);
+		return true;
+	}
+
+	private Communities listCommunities(String member) {
+		Communities result = new Communities();
+		result.setContent(new ArrayList<Community>());
+		for (Community c : communities.values()) {
+			if (member == null || communityMembers.get(c.getId()).contains(member)) {
+				result.getContent().add(c);
+			}
+		}
+		return result;
+	}
+
+	private Object membership(String method, String id, String user) {
+		List<String> members = communityMembers.get(id);
+		if (members == null) {
+			return false;
+		}
+		members.remove(user);
+		if (method.equals("PUT")) {
+			members.add(user);
+		}
+		return true;
+	}
+
+	private Object community(String method, String id, String body) {
+		if (method.equals("GET")) {
+			return communities.get(id);
+		}
+		if (method.equals("PUT")) {
+			Community c = addCommunity(id);
+			Community data = JsonUtils.toObject(body, Community.class);
+			if (data != null && data.getName() != null) {
+				c.setName(data.getName());
+			}
+			return c;
+		}
+		communityMembers.remove(id);
+		return communities.remove(id) != null;
+	}
+
+	private Object entities(String method, String owner, String id,
+			String body, Map<String, List<String>> query) {
+		if (id == null) {
+			if (method.equals("POST")) {
+				return createEntity(owner,
+						JsonUtils.toObject(body, EntityRequest.class));
+			}
+			List<Entity> owned = new ArrayList<Entity>();
+			for (Entity e : entities.values()) {
+				if (owner.equals(entityOwners.get(e.getEntityId()))) {
+					owned.add(e);
+				}
+			}
+			return page(owned, query);
+		}
+		Entity e = entities.get(id);
+		if (e != null && !owner.equals(entityOwners.get(id))) {
+			e = null;
+		}
+		if (method.equals("GET")) {
+			return e;
+		}
+		if (e == null) {
+			return false;
+		}
+		if (method.equals("PUT")) {
+			EntityRequest req = JsonUtils.toObject(body, EntityRequest.class);
+			if (req.getName() != null) {
+				e.setTitle(req.getName());
+			}
+			if (req.getDescription() != null) {
+				e.setDescription(req.getDescription());
+			}
+			if (req.getTags() != null) {
+				e.setTags(req.getTags());
+			}
+			if (req.getTypeId() != null) {
+				e.setType(req.getTypeId());
+			}
+			return true;
+		}
+		if (method.equals("PATCH")) {
+			EntityRequest patched = JsonUtils.toObject(
+					mergePatch(JsonUtils.toJSON(request(e)), body), EntityRequest.class);
+			e.setTitle(patched.getName());
+			e.setDescription(patched.getDescription());
+			e.setTags(patched.getTags());
+			e.setType(patched.getTypeId());
+			return true;
+		}
+		entities.remove(id);
+		entityOwners.remove(id);
+		return true;
+	}
+
+	private Object shared(String method, String viewer, String id,
+			String body, Map<String, List<String>> query) {
+		if (id == null) {
+			List<Entity> visible = new ArrayList<Entity>();
+			for (Entity e : entities.values()) {
+				ShareVisibility v = e.getVisibility();
+				if (!viewer.equals(entityOwners.get(e.getEntityId()))
+						&& v != null
+						&& (v.isAllUsers() || contains(v.getUserIds(), viewer) || contains(
+								v.getCommunityIds(), viewer))) {
+					visible.add(e);
+				}
+			}
+			return page(visible, query);
+		}
+		Entity e = entities.get(id);
+		if (method.equals("GET")) {
+			return e;
+		}
+		if (e == null) {
+			return false;
+		}
+		if (method.equals("PUT")) {
+			e.setVisibility(JsonUtils.toObject(body, ShareVisibility.class));
+		} else {
+			e.setVisibility(emptyVisibility());
+		}
+		return true;
+	}
+
+	private Entity createEntity(String owner, EntityRequest req) {
+		Entity e = new Entity();
+		e.setEntityId("entity-" + ids.incrementAndGet());
+		e.setTitle(req.getName());
+		e.setDescription(req.getDescription());
+		e.setTags(req.getTags());
+		e.setType(req.getTypeId());
+		e.setVisibility(emptyVisibility());
+		if (communities.containsKey(owner)) {
+			e.setCommunityOwner(owner);
+		} else {
+			e.setOwner(owner);
+		}
+		entities.put(e.getEntityId(), e);
+		entityOwners.put(e.getEntityId(), owner);
+		return e;
+	}
+
+	private static Entities page(List<Entity> list, Map<String, List<String>> query) {
+		String type = first(query.get("type"));
+		List<Entity> filtered = list;
+		if (type != null && type.length() > 0) {
+			filtered = new ArrayList<Entity>();
+			for (Entity e : list) {
+				if (type.equals(e.getType())) {
+					filtered.add(e);
+				}
+			}
+		}
+		int position = Math.max(0, intValue(first(query.get("position")), 0));
+		int size = intValue(first(query.get("size")), -1);
+		int from = Math.min(position, filtered.size());
+		int to = size < 0 ? filtered.size() : Math.min(filtered.size(), from
+				+ size);
+		Entities result = new Entities();
+		result.setContent(new ArrayList<Entity>(filtered.subList(from, to)));
+		return result;
+	}
+
+	private EntityType typeOf(Concept concept) {
+		if (concept == null) {
+			return null;
+		}
+		for (EntityType t : types.values()) {
+			if (t.getConcept().getId().equals(concept.getId())) {
+				return t;
+			}
+		}
+		EntityType t = new EntityType();
+		t.setId("type-" + concept.getId());
+		t.setName(concept.getName());
+		t.setConcept(concept);
+		types.put(t.getId(), t);
+		return t;
+	}
+
+	private Concept concept(String id) {
+		for (Concept c : concepts) {
+			if (c.getId().equals(id)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	private List<Concept> prefix(String prefix, String maxResults) {
+		int max = intValue(maxResults, 20);
+		List<Concept> result = new ArrayList<Concept>();
+		for (Concept c : concepts) {
+			if (result.size() < max && prefix != null
+					&& c.getName().startsWith(prefix)) {
+				result.add(c);
+			}
+		}
+		return result;
+	}
+
+	private void delay() throws InterruptedException {
+		long millis = latency;
+		if (latencyJitter > 0) {
+			millis += (long) (random.nextDouble() * latencyJitter);
+		}
+		if (millis > 0) {
+			Thread.sleep(millis);
+		}
+	}
+
+	private static ShareVisibility emptyVisibility() {
+		ShareVisibility v = new ShareVisibility();
+		v.setUserIds(new ArrayList<String>());
+		v.setGroupIds(new ArrayList<String>());
+		v.setCommunityIds(new ArrayList<String>());
+		return v;
+	}
+
+	private static boolean contains(List<String> list, String value) {
+		return list != null && list.contains(value);
+	}
+
+	/**
+	 * accepts both repeated parameters and a single "[a, b]" value
+	 */
+	private static List<String> userIds(List<String> values) {
+		List<String> result = new ArrayList<String>();
+		if (values != null) {
+			for (String value : values) {
+				for (String id : value.replace("[", "").replace("]", "")
+						.split(",")) {
+					if (id.trim().length() > 0) {
+						result.add(id.trim());
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static String token(HttpExchange exchange) {
+		String auth = exchange.getRequestHeaders().getFirst("Authorization");
+		if (auth == null) {
+			return null;
+		}
+		return auth.startsWith("Bearer ") ? auth.substring(7) : auth;
+	}
+
+	private static List<String> segments(String path)
+			throws UnsupportedEncodingException {
+		List<String> result = new ArrayList<String>();
+		for (String s : path.split("/")) {
+			if (s.length() > 0) {
+				result.add(URLDecoder.decode(s.replace("+", "%2B"), "UTF-8"));
+			}
+		}
+		return result;
+	}
+
+	private static Map<String, List<String>> query(String raw)
+			throws UnsupportedEncodingException {
+		Map<String, List<String>> result = new HashMap<String, List<String>>();
+		if (raw == null) {
+			return result;
+		}
+		for (String pair : raw.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+			String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			List<String> values = result.get(key);
+			if (values == null) {
+				values = new ArrayList<String>();
+				result.put(key, values);
+			}
+			values.add(value);
+		}
+		return result;
+	}
+
+	private static String first(List<String> values) {
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	private static int intValue(String value, int defaultValue) {
+		if (value == null || value.length() == 0 || value.equals("null")) {
+			return defaultValue;
+		}
+		return Integer.parseInt(value);
+	}
+
+	private static String padding(int size) {
+		char[] chars = new char[size];
+		Arrays.fill(chars, 'x');
+		return new String(chars);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body)
+			throws IOException {
+		respond(exchange, status, "application/json; charset=UTF-8",
+				body.getBytes("UTF-8"));
+	}
+
+	private static void respond(HttpExchange exchange, int status,
+			String contentType, byte[] bytes) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+}
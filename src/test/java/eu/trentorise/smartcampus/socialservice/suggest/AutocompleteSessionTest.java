@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.suggest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Concept;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class AutocompleteSessionTest {
+
+	private static final String TOKEN = "autocomplete-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private BlockingQueue<String> delivered;
+	private SuggestionListener<Concept> listener;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+		delivered = new LinkedBlockingQueue<String>();
+		listener = new SuggestionListener<Concept>() {
+			@Override
+			public void onSuggestions(String prefix, List<Concept> suggestions) {
+				StringBuilder sb = new StringBuilder(prefix).append(':');
+				for (Concept c : suggestions) {
+					sb.append(c.getName()).append(',');
+				}
+				delivered.add(sb.toString());
+			}
+
+			@Override
+			public void onFailure(String prefix, Exception failure) {
+				delivered.add(prefix + ":failed");
+			}
+		};
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void debounce() throws Exception {
+		AutocompleteSession<Concept> session = new AutocompleteSession<Concept>(socialService, TOKEN,
+				SuggestionSource.CONCEPTS, listener, 100, 10, 2);
+		long requests = server.getRequestCount();
+		session.update("c");
+		session.update("co");
+		session.update("con");
+		session.update("conc");
+		Assert.assertEquals("conc:concert,", delivered.poll(2, TimeUnit.SECONDS));
+		Assert.assertEquals(requests + 1, server.getRequestCount());
+
+		session.update("");
+		Assert.assertEquals(":", delivered.poll(2, TimeUnit.SECONDS));
+		session.close();
+	}
+
+	@Test
+	public void supersede() throws Exception {
+		server.setLatency(300, 0);
+		AutocompleteSession<Concept> session = new AutocompleteSession<Concept>(socialService, TOKEN,
+				SuggestionSource.CONCEPTS, listener, 10, 10, 2);
+		session.update("m");
+		Thread.sleep(100);
+		Assert.assertEquals(1, session.getRunning());
+		session.update("mu");
+		Assert.assertEquals("mu:music,museum,", delivered.poll(2, TimeUnit.SECONDS));
+		Thread.sleep(400);
+		Assert.assertTrue(delivered.isEmpty());
+		Assert.assertEquals(0, session.getRunning());
+		session.close();
+	}
+
+	@Test
+	public void concurrencyCap() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger maxConcurrent = new AtomicInteger();
+		final AtomicInteger calls = new AtomicInteger();
+		// ignores the cancellation, as a transport unable to abort would
+		SuggestionSource<Concept> blocking = new SuggestionSource<Concept>() {
+			@Override
+			public List<Concept> suggest(SocialService socialService, String token, String prefix,
+					Integer maxResults) throws SecurityException, SocialServiceException {
+				calls.incrementAndGet();
+				int n = concurrent.incrementAndGet();
+				maxConcurrent.set(Math.max(maxConcurrent.get(), n));
+				try {
+					if (prefix.equals("a")) {
+						release.await();
+					}
+					Concept c = new Concept();
+					c.setName(prefix);
+					return Collections.singletonList(c);
+				} catch (InterruptedException e) {
+					throw new SocialServiceException(e);
+				} finally {
+					concurrent.decrementAndGet();
+				}
+			}
+		};
+		AutocompleteSession<Concept> session = new AutocompleteSession<Concept>(socialService, TOKEN, blocking,
+				listener, 10, 10, 1);
+		session.update("a");
+		Thread.sleep(100);
+		session.update("ab");
+		Thread.sleep(100);
+		session.update("abc");
+		Thread.sleep(100);
+		Assert.assertEquals(1, calls.get());
+		Assert.assertTrue(delivered.isEmpty());
+
+		release.countDown();
+		Assert.assertEquals("abc:abc,", delivered.poll(2, TimeUnit.SECONDS));
+		Assert.assertEquals(2, calls.get());
+		Assert.assertEquals(1, maxConcurrent.get());
+		session.close();
+	}
+
+	@Test
+	public void close() throws Exception {
+		server.setLatency(200, 0);
+		AutocompleteSession<Concept> session = new AutocompleteSession<Concept>(socialService, TOKEN,
+				SuggestionSource.CONCEPTS, listener, 10, 10, 2);
+		session.update("t");
+		Thread.sleep(50);
+		session.close();
+		Assert.assertNull(delivered.poll(500, TimeUnit.MILLISECONDS));
+	}
+}
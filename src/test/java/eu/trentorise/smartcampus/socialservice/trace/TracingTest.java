@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.trace;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+import eu.trentorise.smartcampus.socialservice.transport.HttpClientTransport;
+
+public class TracingTest {
+
+	private static final String TOKEN = "trace-token";
+
+	private StubSocialServer server;
+	private SocialService socialService;
+	private final List<SpanRecord> spans = new CopyOnWriteArrayList<SpanRecord>();
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+		server.seedCommunityEntities("traced", 10);
+		server.recordHeader(TraceContext.TRACEPARENT);
+		socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+		socialService.setTracer(new W3CTracer() {
+			@Override
+			protected void report(SpanRecord span) {
+				spans.add(span);
+			}
+		});
+	}
+
+	@After
+	public void shutdown() {
+		socialService.getTransport().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void fanOut() throws Exception {
+		TraceContext parent = TraceContext.newTrace();
+		TraceContext previous = parent.attach();
+		try {
+			socialService.getCommunity("traced", TOKEN);
+			socialService.getCommunityEntities("traced", TOKEN, 0, 5, null);
+		} finally {
+			TraceContext.restore(previous);
+		}
+		Assert.assertNull(TraceContext.current());
+		Assert.assertEquals(2, spans.size());
+
+		SpanRecord entities = spans.get(1);
+		Assert.assertEquals("getCommunityEntities", entities.getOperation());
+		Assert.assertEquals("community/{communityId}/entities/", entities.getTemplate());
+		Assert.assertEquals(200, entities.getStatus());
+		Assert.assertTrue(entities.getResponseBytes() > 0);
+		Assert.assertEquals(16, entities.getTokenFingerprint().length());
+		Assert.assertFalse(entities.getTokenFingerprint().contains(TOKEN));
+		for (SpanRecord span : spans) {
+			Assert.assertEquals(parent.getTraceId(), span.getContext().getTraceId());
+			Assert.assertEquals(parent.getSpanId(), span.getParentSpanId());
+		}
+
+		List<String> headers = server.getRecordedHeaders(TraceContext.TRACEPARENT);
+		Assert.assertEquals(spans.get(0).getContext().toTraceparent(), headers.get(0));
+		TraceContext sent = TraceContext.parse(headers.get(1), null);
+		Assert.assertEquals(entities.getContext().getSpanId(), sent.getSpanId());
+		Assert.assertTrue(sent.isSampled());
+	}
+
+	@Test
+	public void errors() throws Exception {
+		server.setErrorRate(1);
+		try {
+			socialService.getCommunity("traced", TOKEN);
+			Assert.fail();
+		} catch (SocialServiceException e) {
+			// expected
+		}
+		Assert.assertEquals(1, spans.size());
+		Assert.assertNotNull(spans.get(0).getError());
+		Assert.assertNull(spans.get(0).getParentSpanId());
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		socialService.setTracer(null);
+		Assert.assertSame(Tracer.NOOP, socialService.getTracer());
+		socialService.getCommunity("traced", TOKEN);
+		Assert.assertTrue(spans.isEmpty());
+		Assert.assertEquals("null", server.getRecordedHeaders(TraceContext.TRACEPARENT).get(0));
+	}
+
+	@Test
+	public void parse() {
+		TraceContext c = TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01", "k=v");
+		Assert.assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", c.getTraceId());
+		Assert.assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01", c.toTraceparent());
+		Assert.assertEquals("k=v", c.newChild().getTraceState());
+		Assert.assertNull(TraceContext.parse("00-00000000000000000000000000000000-00f067aa0ba902b7-01", null));
+		Assert.assertNull(TraceContext.parse("garbage", null));
+	}
+}
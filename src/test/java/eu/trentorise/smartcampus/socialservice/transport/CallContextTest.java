@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.paging.AdaptivePager;
+import eu.trentorise.smartcampus.socialservice.paging.EntityScan;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class CallContextTest {
+
+	private static final String TOKEN = "deadline-token";
+
+	private StubSocialServer server;
+	private ScheduledExecutorService scheduler;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(8);
+		server.addCommunity("slow");
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void shutdown() {
+		scheduler.shutdownNow();
+		server.stop();
+	}
+
+	private CallAbortedException call(SocialService socialService, CallContext context) {
+		CallContext previous = context.attach();
+		try {
+			socialService.getCommunity("slow", TOKEN);
+			Assert.fail("call not aborted");
+			return null;
+		} catch (SocialServiceException e) {
+			Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof CallAbortedException);
+			return (CallAbortedException) e.getCause();
+		} finally {
+			CallContext.restore(previous);
+		}
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		server.setLatency(3000, 0);
+		SocialService[] clients = { new SocialService(server.getServiceUrl()),
+				new SocialService(server.getServiceUrl(), new HttpClientTransport()) };
+		for (SocialService socialService : clients) {
+			long start = System.nanoTime();
+			CallAbortedException e = call(socialService, CallContext.withTimeout(200, TimeUnit.MILLISECONDS));
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Assert.assertTrue(e.isDeadlineExceeded());
+			Assert.assertTrue("elapsed " + elapsed, elapsed >= 190 && elapsed < 1500);
+			socialService.getTransport().shutdown();
+		}
+	}
+
+	@Test
+	public void cancel() throws Exception {
+		server.setLatency(3000, 0);
+		final CallContext context = CallContext.cancellable();
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				context.cancel();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+		SocialService socialService = new SocialService(server.getServiceUrl(), new HttpClientTransport());
+		long start = System.nanoTime();
+		Assert.assertFalse(call(socialService, context).isDeadlineExceeded());
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+		Assert.assertTrue(context.isCancelled());
+
+		// a done context does not start new calls
+		long requests = server.getRequestCount();
+		call(socialService, context);
+		Assert.assertEquals(requests, server.getRequestCount());
+		socialService.getTransport().shutdown();
+	}
+
+	@Test
+	public void children() throws Exception {
+		CallContext parent = CallContext.withTimeout(100, TimeUnit.MILLISECONDS);
+		CallContext previous = parent.attach();
+		CallContext child;
+		try {
+			child = CallContext.withTimeout(10, TimeUnit.SECONDS);
+		} finally {
+			CallContext.restore(previous);
+		}
+		Assert.assertTrue(child.remainingMillis() <= 100);
+		parent.cancel();
+		Assert.assertTrue(child.isCancelled());
+		Assert.assertNull(CallContext.current());
+	}
+
+	@Test
+	public void close() throws Exception {
+		CallContext parent = CallContext.cancellable();
+		CallContext previous = parent.attach();
+		int timers = CallContext.getTimerQueueSize();
+		try {
+			for (int i = 0; i < 1000; i++) {
+				CallContext child = CallContext.withTimeout(1, TimeUnit.HOURS);
+				child.close();
+				Assert.assertTrue(child.isDone());
+				Assert.assertFalse(child.isCancelled());
+				Assert.assertFalse(child.aborted(null).isDeadlineExceeded());
+			}
+		} finally {
+			CallContext.restore(previous);
+		}
+		// the closed children release their timers and parent listeners
+		Assert.assertEquals(0, parent.getListenerCount());
+		Assert.assertTrue(CallContext.getTimerQueueSize() <= timers);
+		parent.close();
+		Assert.assertFalse(parent.isCancelled());
+	}
+
+	@Test
+	public void scan() throws Exception {
+		server.seedCommunityEntities("slow", 100);
+		server.setLatency(150, 0);
+		SocialService socialService = new SocialService(server.getServiceUrl());
+		AdaptivePager pager = new AdaptivePager(socialService, 200, Long.MAX_VALUE, 10, 10, 10);
+		CallContext context = CallContext.withTimeout(400, TimeUnit.MILLISECONDS);
+		CallContext previous = context.attach();
+		EntityScan scan;
+		try {
+			scan = pager.scanCommunityEntities("slow", TOKEN, null);
+		} finally {
+			CallContext.restore(previous);
+		}
+		// pages are read outside the context, which still applies to them
+		try {
+			while (scan.hasNext()) {
+				scan.next();
+			}
+			Assert.fail("scan not aborted");
+		} catch (SocialServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof CallAbortedException);
+		}
+		Assert.assertTrue(scan.getPosition() > 0 && scan.getPosition() < 100);
+	}
+}
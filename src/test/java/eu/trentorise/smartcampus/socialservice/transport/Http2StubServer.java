@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import static eu.trentorise.smartcampus.socialservice.transport.Http2Frame.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/2 over cleartext front of a
+ * {@link eu.trentorise.smartcampus.socialservice.stub.StubSocialServer}: each
+ * stream is forwarded on its own thread as an HTTP/1.1 request. A request
+ * with an <code>x-stub-delay</code> header is delayed by its value in
+ * milliseconds.
+ */
+public class Http2StubServer {
+
+	private final URI backend;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger activeStreams = new AtomicInteger();
+	private final AtomicInteger maxActiveStreams = new AtomicInteger();
+	private final AtomicInteger resets = new AtomicInteger();
+	private volatile int maxConcurrentStreams = 100;
+	private ServerSocket serverSocket;
+	private ExecutorService executor;
+
+	/**
+	 * @param backendUrl
+	 *            service url of the HTTP/1.1 stub
+	 */
+	public Http2StubServer(String backendUrl) {
+		this.backend = URI.create(backendUrl);
+	}
+
+	public void start() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress("127.0.0.1", 0));
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "http2-stub");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket socket = serverSocket.accept();
+						connections.incrementAndGet();
+						executor.execute(new Connection(socket));
+					}
+				} catch (IOException e) {
+					// stopped
+				}
+			}
+		});
+	}
+
+	public void stop() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// stopping
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the url to pass to the client
+	 */
+	public String getServiceUrl() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + backend.getRawPath();
+	}
+
+	/**
+	 * sets the max number of concurrent streams per connection
+	 */
+	public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+	/**
+	 * @return number of connections accepted
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * @return max number of streams served at the same time
+	 */
+	public int getMaxActiveStreams() {
+		return maxActiveStreams.get();
+	}
+
+	/**
+	 * @return number of streams reset by the clients
+	 */
+	public int getResetCount() {
+		return resets.get();
+	}
+
+	private class Connection implements Runnable {
+
+		private final Socket socket;
+		private final OutputStream out;
+		private final Map<Integer, Stream> streams = new HashMap<Integer, Stream>();
+		private final Hpack.Decoder decoder = new Hpack.Decoder(DEFAULT_HEADER_TABLE_SIZE);
+		private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+		// guarded by this
+		private long sendWindow = DEFAULT_WINDOW;
+		private int initialWindow = DEFAULT_WINDOW;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		@Override
+		public void run() {
+			try {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				byte[] preface = new byte[PREFACE.length];
+				for (int i = 0; i < preface.length; i++) {
+					preface[i] = (byte) in.read();
+				}
+				if (!Arrays.equals(preface, PREFACE)) {
+					throw new IOException("Not an HTTP/2 client");
+				}
+				write(SETTINGS, 0, 0, settings(SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams));
+				ByteArrayOutputStream block = null;
+				while (true) {
+					Http2Frame frame = Http2Frame.read(in, DEFAULT_MAX_FRAME_SIZE);
+					Stream stream;
+					synchronized (this) {
+						stream = streams.get(frame.streamId);
+					}
+					switch (frame.type) {
+					case SETTINGS:
+						if (!frame.hasFlag(FLAG_ACK)) {
+							onSettings(frame);
+							write(SETTINGS, FLAG_ACK, 0, new byte[0]);
+						}
+						break;
+					case HEADERS:
+						block = new ByteArrayOutputStream();
+						stream = new Stream(frame.streamId);
+						synchronized (this) {
+							stream.sendWindow = initialWindow;
+							streams.put(stream.id, stream);
+						}
+						stream.ended = frame.hasFlag(FLAG_END_STREAM);
+						// falls through
+					case CONTINUATION:
+						block.write(frame.payload, frame.contentOffset(), frame.contentLength());
+						if (frame.hasFlag(FLAG_END_HEADERS)) {
+							byte[] bytes = block.toByteArray();
+							stream.headers = decoder.decode(bytes, 0, bytes.length);
+							block = null;
+							if (stream.ended) {
+								dispatch(stream);
+							}
+						}
+						break;
+					case DATA:
+						if (frame.payload.length > 0) {
+							write(WINDOW_UPDATE, 0, 0, ints(frame.payload.length));
+						}
+						if (stream != null) {
+							stream.body.write(frame.payload, frame.contentOffset(),
+									frame.contentLength());
+							if (frame.hasFlag(FLAG_END_STREAM)) {
+								dispatch(stream);
+							} else if (frame.payload.length > 0) {
+								write(WINDOW_UPDATE, 0, stream.id, ints(frame.payload.length));
+							}
+						}
+						break;
+					case WINDOW_UPDATE:
+						synchronized (this) {
+							if (frame.streamId == 0) {
+								sendWindow += frame.intAt(0);
+							} else if (stream != null) {
+								stream.sendWindow += frame.intAt(0);
+							}
+							notifyAll();
+						}
+						break;
+					case RST_STREAM:
+						resets.incrementAndGet();
+						synchronized (this) {
+							if (stream != null) {
+								stream.cancelled = true;
+								streams.remove(stream.id);
+								notifyAll();
+							}
+						}
+						break;
+					case PING:
+						if (!frame.hasFlag(FLAG_ACK)) {
+							write(PING, FLAG_ACK, 0, frame.payload);
+						}
+						break;
+					case GOAWAY:
+						return;
+					default:
+					}
+				}
+			} catch (IOException e) {
+				// client gone
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// closing
+				}
+				synchronized (this) {
+					for (Stream stream : streams.values()) {
+						stream.cancelled = true;
+					}
+					notifyAll();
+				}
+			}
+		}
+
+		private synchronized void onSettings(Http2Frame frame) {
+			for (int i = 0; i < frame.payload.length; i += 6) {
+				int id = (frame.payload[i] & 0xff) << 8 | frame.payload[i + 1] & 0xff;
+				if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+					int value = frame.intAt(i + 2);
+					for (Stream stream : streams.values()) {
+						stream.sendWindow += value - initialWindow;
+					}
+					initialWindow = value;
+				}
+			}
+		}
+
+		private void dispatch(final Stream stream) {
+			int active = activeStreams.incrementAndGet();
+			int max;
+			while (active > (max = maxActiveStreams.get())
+					&& !maxActiveStreams.compareAndSet(max, active)) {
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						String delay = stream.header("x-stub-delay");
+						if (delay != null) {
+							Thread.sleep(Long.parseLong(delay));
+						}
+						if (!stream.cancelled) {
+							respond(stream, forward(stream));
+						}
+					} catch (Exception e) {
+						// reset or connection closed
+					} finally {
+						activeStreams.decrementAndGet();
+						synchronized (Connection.this) {
+							streams.remove(stream.id);
+						}
+					}
+				}
+			});
+		}
+
+		/**
+		 * @return status, content type and body of the HTTP/1.1 response
+		 */
+		private Object[] forward(Stream stream) throws IOException {
+			Socket backendSocket = new Socket(backend.getHost(), backend.getPort());
+			try {
+				OutputStream request = backendSocket.getOutputStream();
+				StringBuilder head = new StringBuilder();
+				head.append(stream.header(":method")).append(' ').append(stream.header(":path"))
+						.append(" HTTP/1.1\r\nHost: ").append(stream.header(":authority"))
+						.append("\r\nConnection: close\r\n");
+				for (int i = 0; i < stream.headers.size(); i += 2) {
+					if (!stream.headers.get(i).startsWith(":")
+							&& !stream.headers.get(i).equals("content-length")) {
+						head.append(stream.headers.get(i)).append(": ")
+								.append(stream.headers.get(i + 1)).append("\r\n");
+					}
+				}
+				head.append("Content-Length: ").append(stream.body.size()).append("\r\n\r\n");
+				request.write(head.toString().getBytes("ISO-8859-1"));
+				stream.body.writeTo(request);
+				request.flush();
+
+				InputStream response = new BufferedInputStream(backendSocket.getInputStream());
+				String statusLine = line(response);
+				int status = Integer.parseInt(statusLine.split(" ")[1]);
+				String contentType = null;
+				String line;
+				while ((line = line(response)).length() > 0) {
+					int colon = line.indexOf(':');
+					if (line.substring(0, colon).equalsIgnoreCase("content-type")) {
+						contentType = line.substring(colon + 1).trim();
+					}
+				}
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = response.read(buffer)) != -1) {
+					body.write(buffer, 0, n);
+				}
+				return new Object[] { status, contentType, body.toByteArray() };
+			} finally {
+				backendSocket.close();
+			}
+		}
+
+		private String line(InputStream in) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1 && c != '\n') {
+				if (c != '\r') {
+					sb.append((char) c);
+				}
+			}
+			return sb.toString();
+		}
+
+		private void respond(Stream stream, Object[] response) throws IOException,
+				InterruptedException {
+			byte[] body = (byte[]) response[2];
+			List<String> headers = new ArrayList<String>();
+			headers.add(":status");
+			headers.add(String.valueOf(response[0]));
+			if (response[1] != null) {
+				headers.add("content-type");
+				headers.add((String) response[1]);
+			}
+			headers.add("content-length");
+			headers.add(String.valueOf(body.length));
+			write(HEADERS, FLAG_END_HEADERS | (body.length == 0 ? FLAG_END_STREAM : 0),
+					stream.id, encoder.encode(headers));
+			int offset = 0;
+			while (offset < body.length) {
+				int length;
+				synchronized (this) {
+					while ((length = (int) Math.min(Math.min(sendWindow, stream.sendWindow),
+							Math.min(DEFAULT_MAX_FRAME_SIZE, body.length - offset))) <= 0) {
+						if (stream.cancelled) {
+							return;
+						}
+						wait();
+					}
+					if (stream.cancelled) {
+						return;
+					}
+					sendWindow -= length;
+					stream.sendWindow -= length;
+				}
+				write(DATA, offset + length == body.length ? FLAG_END_STREAM : 0, stream.id,
+						Arrays.copyOfRange(body, offset, offset + length));
+				offset += length;
+			}
+		}
+
+		private void write(int type, int flags, int streamId, byte[] payload)
+				throws IOException {
+			synchronized (out) {
+				Http2Frame.write(out, type, flags, streamId, payload);
+				out.flush();
+			}
+		}
+	}
+
+	private static class Stream {
+		final int id;
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		List<String> headers;
+		boolean ended;
+		// guarded by the connection
+		long sendWindow;
+		volatile boolean cancelled;
+
+		Stream(int id) {
+			this.id = id;
+		}
+
+		String header(String name) {
+			for (int i = 0; i < headers.size(); i += 2) {
+				if (headers.get(i).equals(name)) {
+					return headers.get(i + 1);
+				}
+			}
+			return null;
+		}
+	}
+}
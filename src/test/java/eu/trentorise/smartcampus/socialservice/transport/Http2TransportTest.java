@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+import eu.trentorise.smartcampus.social.model.Group;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class Http2TransportTest {
+
+	private static final String TOKEN = "http2-token";
+
+	private StubSocialServer server;
+	private Http2StubServer http2;
+	private ExecutorService executor;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(64);
+		http2 = new Http2StubServer(server.getServiceUrl());
+		http2.start();
+		executor = Executors.newFixedThreadPool(64);
+	}
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+		http2.stop();
+		server.stop();
+	}
+
+	@Test
+	public void calls() throws Exception {
+		Http2Transport transport = new Http2Transport();
+		SocialService socialService = new SocialService(http2.getServiceUrl(), transport);
+		try {
+			Group group = socialService.createUserGroup(TOKEN, "multiplexed");
+			group.setName("renamed");
+			Assert.assertTrue(socialService.updateUserGroup(TOKEN, group));
+			Assert.assertTrue(socialService.addUsersToGroup(group.getSocialId(),
+					Arrays.asList("u1", "u2"), TOKEN));
+			group = socialService.getUserGroup(group.getSocialId(), TOKEN);
+			Assert.assertEquals("renamed", group.getName());
+			Assert.assertEquals(2, group.getUsers().size());
+			Assert.assertTrue(socialService.deleteUserGroup(TOKEN, group.getSocialId()));
+
+			// larger than the receive windows, read with flow control
+			server.setDescriptionSize(30000);
+			server.seedCommunityEntities("big", 80);
+			Assert.assertEquals(80, socialService.getCommunityEntities("big", TOKEN, 0, 80, null)
+					.getContent().size());
+
+			Request request = new Request(Request.GET, http2.getServiceUrl(),
+					"community/big/entities", TOKEN);
+			request.setMaxResponseBytes(10000);
+			try {
+				transport.execute(request);
+				Assert.fail("limit not enforced");
+			} catch (ResponseTooLargeException e) {
+				Assert.assertEquals(10000, e.getLimit());
+			}
+			try {
+				transport.execute(new Request(Request.GET, http2.getServiceUrl(), "user/group/",
+						null));
+				Assert.fail("call without token");
+			} catch (SecurityException e) {
+				// expected
+			}
+			try {
+				transport.execute(new Request(Request.GET, http2.getServiceUrl(), "unknown",
+						TOKEN));
+				Assert.fail("unknown path");
+			} catch (StatusException e) {
+				Assert.assertEquals(404, e.getStatus());
+			}
+			Assert.assertEquals(1, http2.getConnectionCount());
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void multiplexing() throws Exception {
+		server.setLatency(200, 0);
+		http2.setMaxConcurrentStreams(16);
+		Http2Transport transport = new Http2Transport(2, 100, 10000);
+		final SocialService socialService = new SocialService(http2.getServiceUrl(), transport);
+		try {
+			List<Future<Object>> calls = new ArrayList<Future<Object>>();
+			long start = System.nanoTime();
+			for (int i = 0; i < 64; i++) {
+				calls.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return socialService.getUserGroups(TOKEN);
+					}
+				}));
+			}
+			for (Future<Object> call : calls) {
+				Assert.assertNotNull(call.get(10, TimeUnit.SECONDS));
+			}
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			// two connections of 16 streams each
+			Assert.assertEquals(2, http2.getConnectionCount());
+			Assert.assertEquals(2, transport.getConnectionCount());
+			Assert.assertTrue(http2.getMaxActiveStreams() > 16);
+			Assert.assertTrue(http2.getMaxActiveStreams() <= 32);
+			Assert.assertTrue("elapsed " + elapsed, elapsed < 64 * 200 / 8);
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void slowCall() throws Exception {
+		final Http2Transport transport = new Http2Transport(1, 100, 10000);
+		try {
+			Future<Response> slow = executor.submit(new Callable<Response>() {
+				@Override
+				public Response call() throws Exception {
+					Request request = new Request(Request.GET, http2.getServiceUrl(),
+							"user/group/", TOKEN);
+					request.setHeader("X-Stub-Delay", "1500");
+					return transport.execute(request);
+				}
+			});
+			Thread.sleep(100);
+			long start = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				Assert.assertEquals(200, transport.execute(new Request(Request.GET, http2
+						.getServiceUrl(), "user/group/", TOKEN)).getStatus());
+			}
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			// the fast calls share the connection of the slow one
+			Assert.assertFalse(slow.isDone());
+			Assert.assertTrue("elapsed " + elapsed, elapsed < 1000);
+			Assert.assertEquals(200, slow.get(5, TimeUnit.SECONDS).getStatus());
+			Assert.assertEquals(1, http2.getConnectionCount());
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void stalledConnect() throws Exception {
+		// accepts the connections at the TCP level and never answers
+		ServerSocket silent = new ServerSocket(0);
+		final Http2Transport transport = new Http2Transport(1, 100, 2000);
+		try {
+			transport.execute(new Request(Request.GET, http2.getServiceUrl(), "user/group/",
+					TOKEN));
+			final String stalledUrl = "http://localhost:" + silent.getLocalPort() + "/";
+			Future<Response> stalled = executor.submit(new Callable<Response>() {
+				@Override
+				public Response call() throws Exception {
+					return transport.execute(new Request(Request.GET, stalledUrl,
+							"user/group/", TOKEN));
+				}
+			});
+			Thread.sleep(100);
+			long start = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				Assert.assertEquals(200, transport.execute(new Request(Request.GET, http2
+						.getServiceUrl(), "user/group/", TOKEN)).getStatus());
+			}
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			// the open connection is not blocked by the one being opened
+			Assert.assertFalse(stalled.isDone());
+			Assert.assertTrue("elapsed " + elapsed, elapsed < 1000);
+			try {
+				stalled.get(5, TimeUnit.SECONDS);
+				Assert.fail("stalled connection opened");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof RemoteException);
+			}
+			Assert.assertEquals(1, transport.getConnectionCount());
+		} finally {
+			transport.shutdown();
+			silent.close();
+		}
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		server.addCommunity("slow");
+		Http2Transport transport = new Http2Transport(1, 100, 10000);
+		SocialService socialService = new SocialService(http2.getServiceUrl(), transport);
+		try {
+			server.setLatency(3000, 0);
+			CallContext context = CallContext.withTimeout(200, TimeUnit.MILLISECONDS);
+			CallContext previous = context.attach();
+			long start = System.nanoTime();
+			try {
+				socialService.getCommunity("slow", TOKEN);
+				Assert.fail("call not aborted");
+			} catch (SocialServiceException e) {
+				Assert.assertTrue(String.valueOf(e.getCause()),
+						e.getCause() instanceof CallAbortedException);
+				Assert.assertTrue(((CallAbortedException) e.getCause()).isDeadlineExceeded());
+			} finally {
+				CallContext.restore(previous);
+			}
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Assert.assertTrue("elapsed " + elapsed, elapsed >= 190 && elapsed < 1500);
+
+			// only the stream is reset, the connection is still used
+			server.setLatency(0, 0);
+			Assert.assertNotNull(socialService.getCommunity("slow", TOKEN));
+			Assert.assertEquals(1, http2.getResetCount());
+			Assert.assertEquals(1, http2.getConnectionCount());
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test(expected = RemoteException.class)
+	public void http1Server() throws Exception {
+		Http2Transport transport = new Http2Transport(1, 100, 2000);
+		try {
+			transport.execute(new Request(Request.GET, server.getServiceUrl(), "user/group/",
+					TOKEN));
+		} finally {
+			transport.shutdown();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class PrewarmTest {
+
+	private static final String TOKEN = "prewarm-token";
+
+	private StubSocialServer server;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(4);
+	}
+
+	@After
+	public void shutdown() {
+		server.stop();
+	}
+
+	@Test
+	public void pooledConnections() throws Exception {
+		HttpClientTransport transport = new HttpClientTransport(8, 5000);
+		SocialService socialService = new SocialService(server.getServiceUrl(), transport);
+		try {
+			WarmupReport report = socialService.prewarmInBackground(4).get(5, TimeUnit.SECONDS);
+			Assert.assertTrue(String.valueOf(report.getFailure()), report.isReady());
+			Assert.assertEquals("127.0.0.1", report.getHost());
+			Assert.assertFalse(report.getAddresses().isEmpty());
+			Assert.assertEquals(4, report.getConnections());
+			ThreadSafeClientConnManager manager = (ThreadSafeClientConnManager) transport.getHttpClient()
+					.getConnectionManager();
+			Assert.assertEquals(4, manager.getConnectionsInPool());
+			Assert.assertEquals(0, server.getRequestCount());
+
+			for (int i = 0; i < 20; i++) {
+				socialService.getUserGroups(TOKEN);
+			}
+			// the calls use the pre-warmed connections
+			Assert.assertEquals(4, manager.getConnectionsInPool());
+			Assert.assertEquals(1, server.getClientConnectionCount());
+
+			// capped to the pool size
+			Assert.assertEquals(8, socialService.prewarm(20).getConnections());
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void remoteConnector() throws Exception {
+		WarmupReport report = new SocialService(server.getServiceUrl()).prewarm(4);
+		Assert.assertTrue(report.isReady());
+		Assert.assertEquals(0, report.getConnections());
+		Assert.assertFalse(report.getAddresses().isEmpty());
+	}
+
+	@Test
+	public void unknownHost() throws Exception {
+		WarmupReport report = new SocialService("http://unknown-host.invalid/service", new HttpClientTransport())
+				.prewarm(4);
+		Assert.assertFalse(report.isReady());
+		Assert.assertEquals(0, report.getConnections());
+	}
+}
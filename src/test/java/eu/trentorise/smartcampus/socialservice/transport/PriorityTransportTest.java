@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.batch.TokenFanOut;
+import eu.trentorise.smartcampus.socialservice.batch.TokenOperation;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class PriorityTransportTest {
+
+	private static final String TOKEN = "priority-token";
+
+	private ExecutorService executor;
+
+	@Before
+	public void init() {
+		executor = Executors.newFixedThreadPool(64);
+	}
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void interactiveLatency() throws Exception {
+		StubSocialServer server = new StubSocialServer();
+		server.start(16);
+		server.addCommunity("export");
+		server.setLatency(100, 0);
+		PriorityTransport transport = new PriorityTransport(new HttpClientTransport(8, 10000), 4);
+		final SocialService socialService = new SocialService(server.getServiceUrl(), transport);
+		try {
+			List<Future<Object>> bulk = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 40; i++) {
+				bulk.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						Priority previous = Priority.BULK.attach();
+						try {
+							return socialService.getCommunityEntities("export", TOKEN, 0, 10, null);
+						} finally {
+							Priority.restore(previous);
+						}
+					}
+				}));
+			}
+			Thread.sleep(150);
+			Assert.assertTrue(transport.getQueued(Priority.BULK) > 20);
+
+			Priority previous = Priority.INTERACTIVE.attach();
+			try {
+				for (int i = 0; i < 5; i++) {
+					long start = System.nanoTime();
+					Assert.assertNotNull(socialService.getUserGroups(TOKEN));
+					long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+					// the reserved slot is always free
+					Assert.assertTrue("elapsed " + elapsed, elapsed < 250);
+				}
+			} finally {
+				Priority.restore(previous);
+			}
+			Assert.assertTrue(transport.getQueued(Priority.BULK) > 0);
+			for (Future<Object> call : bulk) {
+				Assert.assertNotNull(call.get(10, TimeUnit.SECONDS));
+			}
+			Assert.assertEquals(40, transport.getStarted(Priority.BULK));
+			Assert.assertEquals(5, transport.getStarted(Priority.INTERACTIVE));
+			Assert.assertTrue(transport.getMeanWaitMillis(Priority.INTERACTIVE) < 50);
+		} finally {
+			transport.shutdown();
+			server.stop();
+		}
+	}
+
+	@Test
+	public void weights() throws Exception {
+		RecordingTransport recording = new RecordingTransport();
+		PriorityTransport transport = new PriorityTransport(recording, 1, 0, 60000);
+		List<Future<Response>> calls = submit(transport, Priority.INTERACTIVE, 1);
+		Thread.sleep(50);
+		calls.addAll(submit(transport, Priority.BULK, 10));
+		calls.addAll(submit(transport, Priority.NORMAL, 10));
+		calls.addAll(submit(transport, Priority.INTERACTIVE, 10));
+		awaitQueued(transport, 30);
+		recording.blocked.countDown();
+		for (Future<Response> call : calls) {
+			Assert.assertEquals(200, call.get(10, TimeUnit.SECONDS).getStatus());
+		}
+		// starts in proportion to the weights, 8:4:1
+		List<Priority> order = recording.order.subList(1, 14);
+		Assert.assertEquals(order.toString(), 8, Collections.frequency(order, Priority.INTERACTIVE));
+		Assert.assertEquals(order.toString(), 4, Collections.frequency(order, Priority.NORMAL));
+		Assert.assertEquals(order.toString(), 1, Collections.frequency(order, Priority.BULK));
+		Assert.assertEquals(Priority.BULK, recording.order.get(30));
+	}
+
+	@Test
+	public void starvation() throws Exception {
+		RecordingTransport recording = new RecordingTransport();
+		PriorityTransport transport = new PriorityTransport(recording, 1, 0, 100);
+		// the bulk class has used its share, interactive calls go first
+		List<Future<Response>> calls = submit(transport, Priority.BULK, 1);
+		Thread.sleep(50);
+		calls.addAll(submit(transport, Priority.BULK, 1));
+		awaitQueued(transport, 1);
+		calls.addAll(submit(transport, Priority.INTERACTIVE, 10));
+		awaitQueued(transport, 11);
+		Thread.sleep(150);
+		recording.blocked.countDown();
+		for (Future<Response> call : calls) {
+			Assert.assertEquals(200, call.get(10, TimeUnit.SECONDS).getStatus());
+		}
+		// waiting longer than the limit, the bulk call is started first
+		Assert.assertEquals(recording.order.toString(), Priority.BULK, recording.order.get(1));
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		RecordingTransport recording = new RecordingTransport();
+		PriorityTransport transport = new PriorityTransport(recording, 1, 0, 60000);
+		List<Future<Response>> calls = submit(transport, Priority.NORMAL, 1);
+		Thread.sleep(50);
+		CallContext context = CallContext.withTimeout(100, TimeUnit.MILLISECONDS);
+		Request request = request(Priority.BULK);
+		request.setContext(context);
+		try {
+			transport.execute(request);
+			Assert.fail("call not aborted");
+		} catch (CallAbortedException e) {
+			Assert.assertTrue(e.isDeadlineExceeded());
+		}
+		Assert.assertEquals(0, transport.getQueued(Priority.BULK));
+		recording.blocked.countDown();
+		Assert.assertEquals(200, calls.get(0).get(10, TimeUnit.SECONDS).getStatus());
+		Assert.assertEquals(1, recording.order.size());
+	}
+
+	@Test
+	public void fanOut() throws Exception {
+		RecordingTransport recording = new RecordingTransport();
+		recording.blocked.countDown();
+		SocialService socialService = new SocialService("http://localhost/",
+				new PriorityTransport(recording, 2));
+		Priority previous = Priority.BULK.attach();
+		try {
+			new TokenFanOut(socialService, 4).run(Arrays.asList("t1", "t2", "t3", "t4", "t5"),
+					TokenOperation.USER_GROUPS, null);
+		} finally {
+			Priority.restore(previous);
+		}
+		// the workers send the calls with the class of the caller
+		Assert.assertEquals(Collections.nCopies(5, Priority.BULK), recording.order);
+	}
+
+	private List<Future<Response>> submit(final PriorityTransport transport,
+			final Priority priority, int count) {
+		List<Future<Response>> calls = new ArrayList<Future<Response>>();
+		for (int i = 0; i < count; i++) {
+			calls.add(executor.submit(new Callable<Response>() {
+				@Override
+				public Response call() throws Exception {
+					return transport.execute(request(priority));
+				}
+			}));
+		}
+		return calls;
+	}
+
+	private static void awaitQueued(PriorityTransport transport, int count)
+			throws InterruptedException {
+		for (int i = 0; i < 200; i++) {
+			int queued = 0;
+			for (Priority priority : Priority.values()) {
+				queued += transport.getQueued(priority);
+			}
+			if (queued == count) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+		Assert.fail("calls not queued");
+	}
+
+	private static Request request(Priority priority) {
+		Request request = new Request(Request.GET, "http://localhost/", "user/group/", TOKEN);
+		request.setPriority(priority);
+		return request;
+	}
+
+	/**
+	 * records the order of the calls, the first one waits to be unblocked
+	 */
+	private static class RecordingTransport implements Transport {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+
+		@Override
+		public Response execute(Request request) throws RemoteException {
+			order.add(request.getPriority());
+			try {
+				blocked.await();
+			} catch (InterruptedException e) {
+				throw new RemoteException(e.getMessage());
+			}
+			return new Response(200, Request.JSON, null);
+		}
+
+		@Override
+		public boolean sendsHeaders() {
+			return false;
+		}
+
+		@Override
+		public void shutdown() {
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2012-2013 Trento RISE
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.socialservice.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.trentorise.smartcampus.social.model.Entity;
+import eu.trentorise.smartcampus.social.model.EntityRequest;
+import eu.trentorise.smartcampus.socialservice.SocialService;
+import eu.trentorise.smartcampus.socialservice.SocialServiceException;
+import eu.trentorise.smartcampus.socialservice.stub.StubSocialServer;
+
+public class ShardedTransportTest {
+
+	private static final String TOKEN = "sharded-token";
+
+	private StubSocialServer server;
+	private ExecutorService executor;
+
+	@Before
+	public void init() throws Exception {
+		server = new StubSocialServer();
+		server.start(64);
+		executor = Executors.newFixedThreadPool(64);
+	}
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+		server.stop();
+	}
+
+	@Test
+	public void isolation() throws Exception {
+		ShardedTransport transport = new ShardedTransport(new HttpClientTransport(8, 10000), 4,
+				2, 100);
+		final SocialService socialService = new SocialService(server.getServiceUrl(), transport);
+		try {
+			final String hot = "hot";
+			String cold = otherShard(transport, hot);
+			server.addCommunity(hot);
+			server.addCommunity(cold);
+			server.setLatency(200, 0);
+
+			List<Future<Object>> calls = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 30; i++) {
+				calls.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return socialService.getCommunity(hot, TOKEN);
+					}
+				}));
+			}
+			Thread.sleep(300);
+			ShardStats stats = transport.getShardStats().get(transport.shardOf(hot));
+			Assert.assertEquals(2, stats.getActive());
+			Assert.assertTrue(stats.toString(), stats.getQueued() > 20);
+
+			// the hot community takes two of the eight connections
+			long start = System.nanoTime();
+			Assert.assertNotNull(socialService.getCommunity(cold, TOKEN));
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			Assert.assertTrue("elapsed " + elapsed, elapsed < 600);
+
+			for (Future<Object> call : calls) {
+				Assert.assertNotNull(call.get(10, TimeUnit.SECONDS));
+			}
+			stats = transport.getShardStats().get(transport.shardOf(hot));
+			Assert.assertEquals(30, stats.getCompleted());
+			Assert.assertEquals(2, stats.getMaxActive());
+			Assert.assertEquals(0, stats.getQueued());
+			Assert.assertTrue(stats.toString(), stats.getMeanWaitMillis() > 200);
+			Assert.assertEquals(1,
+					transport.getShardStats().get(transport.shardOf(cold)).getCompleted());
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void rejection() throws Exception {
+		ShardedTransport transport = new ShardedTransport(new HttpClientTransport(8, 10000), 4,
+				1, 1);
+		final SocialService socialService = new SocialService(server.getServiceUrl(), transport);
+		try {
+			server.addCommunity("busy");
+			server.setLatency(300, 0);
+			List<Future<Object>> calls = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 3; i++) {
+				calls.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return socialService.getCommunity("busy", TOKEN);
+					}
+				}));
+				Thread.sleep(50);
+			}
+			int rejected = 0;
+			for (Future<Object> call : calls) {
+				try {
+					Assert.assertNotNull(call.get(10, TimeUnit.SECONDS));
+				} catch (ExecutionException e) {
+					Assert.assertTrue(e.getCause() instanceof SocialServiceException);
+					Assert.assertTrue(String.valueOf(e.getCause().getCause()), e.getCause()
+							.getCause() instanceof BulkheadFullException);
+					rejected++;
+				}
+			}
+			Assert.assertEquals(1, rejected);
+			ShardStats stats = transport.getShardStats().get(transport.shardOf("busy"));
+			Assert.assertEquals(1, stats.getRejected());
+			Assert.assertEquals(2, stats.getCompleted());
+
+			// calls not about a community are not limited
+			server.setLatency(0, 0);
+			Assert.assertNotNull(socialService.getUserGroups(TOKEN));
+			long completed = 0;
+			for (ShardStats shard : transport.getShardStats()) {
+				completed += shard.getCompleted();
+			}
+			Assert.assertEquals(2, completed);
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void communityEntityUpdate() throws Exception {
+		ShardedTransport transport = new ShardedTransport(new HttpClientTransport(8, 10000), 4,
+				2, 100);
+		SocialService socialService = new SocialService(server.getServiceUrl(), transport);
+		try {
+			server.addCommunity("edited");
+			EntityRequest previous = new EntityRequest();
+			previous.setName("entity");
+			Entity created = socialService.createCommunityEntity("edited", TOKEN, previous);
+			previous.setId(created.getEntityId());
+			EntityRequest entity = new EntityRequest();
+			entity.setId(created.getEntityId());
+			entity.setName("renamed");
+
+			// the merge patch goes through the shard of the community
+			long requests = server.getRequestCount();
+			Assert.assertTrue(socialService.updateCommunityEntity("edited", TOKEN, previous, entity));
+			Assert.assertEquals(requests + 1, server.getRequestCount());
+			Assert.assertTrue(socialService.updateCommunityEntity("edited", TOKEN, entity));
+			long completed = 0;
+			for (ShardStats shard : transport.getShardStats()) {
+				completed += shard.getCompleted();
+			}
+			Assert.assertEquals(3, completed);
+			Assert.assertEquals(3, transport.getShardStats().get(transport.shardOf("edited"))
+					.getCompleted());
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	private static String otherShard(ShardedTransport transport, String communityId) {
+		for (int i = 0;; i++) {
+			String other = "community-" + i;
+			if (transport.shardOf(other) != transport.shardOf(communityId)) {
+				return other;
+			}
+		}
+	}
+}